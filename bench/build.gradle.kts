@@ -55,12 +55,44 @@ registerBenchTasks(BenchInput(
     stores = listOf("in_memory", "in_memory_naive"),
     additionalArgs = listOf("-p", "useDiskTemporaryDirectory=false")
 ))
+registerBenchTasks(BenchInput(
+    "benchBottomUpSchedulingParallel",
+    benchmarkRegex = "BottomUpSchedulingBench.bottomUp",
+    layers = listOf("noop"),
+    additionalArgs = listOf("-p", "useDiskTemporaryDirectory=false", "-p", "bottomUpThreads=0,1,2,4,8,16,32")
+))
+registerBenchTasks(BenchInput(
+    "benchTopDownParallel",
+    benchmarkRegex = "BottomUpSchedulingBench.topDown",
+    layers = listOf("noop"),
+    additionalArgs = listOf("-p", "useDiskTemporaryDirectory=false", "-p", "topDownThreads=0,1,2,4,8,16,32")
+))
 registerBenchTasks(BenchInput(
     "benchSpoofax3Compiler",
     benchmarkRegex = "Spoofax3CompilerBench.*",
     layers = listOf("validation", "noop"),
     additionalArgs = listOf("-p", "language=${listOf("chars", "calc").joinToString(",")}")
 ))
+registerBenchTasks(BenchInput(
+    "benchHashing",
+    benchmarkRegex = "HashingBench.*",
+    description = "Runs resource hashing benchmarks, measuring throughput and allocation rate",
+    pie = false,
+    profilers = listOf("gc")
+))
+registerBenchTasks(BenchInput(
+    "benchStoreMemory",
+    benchmarkRegex = "StoreMemoryBench.*",
+    description = "Runs store memory benchmarks, measuring retained memory and database size per task of stores",
+    pie = false
+))
+registerBenchTasks(BenchInput(
+    "benchLMDBStore",
+    benchmarkRegex = "LMDBStoreBench.*",
+    description = "Runs LMDB store benchmarks, measuring time and allocation per getData call",
+    pie = false,
+    profilers = listOf("gc")
+))
 
 
 // Helper function to register a benchmark task
@@ -76,7 +108,9 @@ data class BenchInput(
     val serdes: List<String> = listOf("java"),
     val stores: List<String> = listOf("in_memory"),
     val layers: List<String> = listOf("validation"),
-    val tracer: String = "metrics"
+    val tracer: String = "metrics",
+    val pie: Boolean = true, // Whether benchmarks run PIE and thus take PIE parameters and support the PIE metrics profiler.
+    val profilers: List<String> = listOf()
 )
 
 fun runtimeClasspath(project: Project): FileCollection? {
@@ -113,15 +147,18 @@ fun registerBenchTask(input: BenchInput): TaskProvider<JavaExec> {
             // Arguments
             args("-f", if(forking) "1" else "0")
             args("-wi", warmupIterations, "-i", measurementIterations)
-            args("-p", "loggerFactory=$loggerFactory")
-            args("-p", "serde=${serdes.joinToString(",")}")
-            args("-p", "store=${stores.joinToString(",")}")
-            args("-p", "layer=${layers.joinToString(",")}")
-            args("-p", "tracer=$tracer")
+            if(pie) {
+                args("-p", "loggerFactory=$loggerFactory")
+                args("-p", "serde=${serdes.joinToString(",")}")
+                args("-p", "store=${stores.joinToString(",")}")
+                args("-p", "layer=${layers.joinToString(",")}")
+                args("-p", "tracer=$tracer")
+                args("-prof", "mb.pie.bench.util.PieMetricsProfiler") // Enable PIE metrics profiler; required.
+            }
+            profilers.forEach { args("-prof", it) }
             args(
                 "-foe", "true", // Fail early.
                 "-gc", "true", // Run GC between iterations, lowering noise.
-                "-prof", "mb.pie.bench.util.PieMetricsProfiler", // Enable PIE metrics profiler; required.
                 "-rf", "json", "-rff", resultFile // Write results to JSON file.
             )
             args(additionalArgs)
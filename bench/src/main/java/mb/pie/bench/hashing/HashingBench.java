@@ -0,0 +1,71 @@
+package mb.pie.bench.hashing;
+
+import mb.pie.api.stamp.ResourceStamp;
+import mb.pie.api.stamp.resource.HashAlgorithm;
+import mb.pie.api.stamp.resource.HashResourceStamper;
+import mb.pie.api.stamp.resource.ResourceStampers;
+import mb.pie.bench.state.TemporaryDirectoryState;
+import mb.resource.hierarchical.HierarchicalResource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of hashing a file with {@link ResourceStampers#hashFile(HashAlgorithm, mb.pie.api.stamp.resource.HashCache)},
+ * which streams the contents of the file through a reusable buffer, against reading all bytes of the file and hashing
+ * them at once. Run with the GC profiler ({@code -prof gc}) to compare allocation rates.
+ */
+@SuppressWarnings("NotNullFieldNotInitialized")
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class HashingBench {
+    // Parameters
+
+    @Param({"SHA1", "SHA256", "MURMUR3_128"}) public HashAlgorithm algorithm;
+    @Param({"1024", "1048576", "16777216"}) public int fileSize;
+
+
+    // Trial
+
+    protected TemporaryDirectoryState temporaryDirectoryState;
+    protected HierarchicalResource file;
+    protected HashResourceStamper<HierarchicalResource> stamper;
+
+    @Setup(Level.Trial)
+    public void setupTrial(TemporaryDirectoryState temporaryDirectoryState) throws IOException {
+        this.temporaryDirectoryState = temporaryDirectoryState;
+        final HierarchicalResource temporaryDirectory = temporaryDirectoryState.setupTrial();
+        final byte[] contents = new byte[fileSize];
+        new Random(0).nextBytes(contents);
+        this.file = temporaryDirectory.appendSegment("file");
+        file.writeBytes(contents);
+        this.stamper = ResourceStampers.hashFile(algorithm, null);
+    }
+
+    @Benchmark public ResourceStamp<HierarchicalResource> streaming() throws IOException {
+        return stamper.stamp(file);
+    }
+
+    @Benchmark public byte[] readBytes() throws IOException {
+        final MessageDigest digest = algorithm.createDigest();
+        digest.update(file.readBytes());
+        return digest.digest();
+    }
+
+    @TearDown(Level.Trial) public void tearDownTrial() throws IOException {
+        temporaryDirectoryState.tearDownTrial();
+    }
+}
@@ -23,6 +23,8 @@ import mb.pie.runtime.PieBuilderImpl;
 import mb.pie.runtime.layer.NoopLayer;
 import mb.pie.runtime.layer.ValidationLayer;
 import mb.pie.runtime.share.NonSharingShare;
+import mb.pie.runtime.store.CompactInMemoryStore;
+import mb.pie.runtime.store.ConcurrentInMemoryStore;
 import mb.pie.runtime.store.InMemoryStore;
 import mb.pie.runtime.store.NaiveInMemoryStore;
 import mb.pie.runtime.taskdefs.NullTaskDefs;
@@ -43,6 +45,8 @@ import org.openjdk.jmh.annotations.State;
 import java.io.Serializable;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Function;
 
 @State(Scope.Thread)
@@ -57,6 +61,9 @@ public class PieState {
     @Param({"modified"}) private ResourceStamperKind provideResourceStamper;
     @Param({"validation"}) public LayerKind layer;
     @Param({"metrics"}) public TracerKind tracer;
+    @Param({"0"}) public int bottomUpThreads; // 0: execute scheduled tasks sequentially in bottom-up builds.
+    @Param({"0"}) public int topDownThreads; // 0: check task require dependencies sequentially in top-down builds.
+    @Param({"false"}) public boolean parallelResourceStamping;
 
 
     // Trial
@@ -66,6 +73,9 @@ public class PieState {
     private @Nullable HierarchicalResource temporaryDirectory;
     private @Nullable Pie pie;
     private @Nullable MetricsTracer metricsTracer;
+    private @Nullable ExecutorService bottomUpExecutor;
+    private @Nullable ExecutorService topDownExecutor;
+    private @Nullable ExecutorService resourceStampingExecutor;
 
     public PieState setupTrial(
         LoggerComponent loggerComponent,
@@ -95,6 +105,18 @@ public class PieState {
         pieBuilder.withLayerFactory(layer.get());
         pieBuilder.withLoggerFactory(loggerComponent.getLoggerFactory());
         pieBuilder.withTracerFactory(tracer.get());
+        if(bottomUpThreads > 0) {
+            bottomUpExecutor = Executors.newFixedThreadPool(bottomUpThreads);
+            pieBuilder.withBottomUpExecutor(bottomUpExecutor, bottomUpThreads);
+        }
+        if(topDownThreads > 0) {
+            topDownExecutor = Executors.newFixedThreadPool(topDownThreads);
+            pieBuilder.withTopDownExecutor(topDownExecutor, topDownThreads);
+        }
+        if(parallelResourceStamping) {
+            resourceStampingExecutor = Executors.newCachedThreadPool();
+            pieBuilder.withResourceStampingExecutor(resourceStampingExecutor);
+        }
         metricsTracer = tracer.getMetricsTracer();
         pie = pieBuilder.build().createChildBuilder(ancestors).build();
         return this;
@@ -116,6 +138,18 @@ public class PieState {
         metricsTracer = null;
         pie.close();
         pie = null;
+        if(bottomUpExecutor != null) {
+            bottomUpExecutor.shutdownNow();
+            bottomUpExecutor = null;
+        }
+        if(topDownExecutor != null) {
+            topDownExecutor.shutdownNow();
+            topDownExecutor = null;
+        }
+        if(resourceStampingExecutor != null) {
+            resourceStampingExecutor.shutdownNow();
+            resourceStampingExecutor = null;
+        }
         temporaryDirectory = null;
         logger.trace("PieState.tearDownTrial");
         logger = null;
@@ -195,6 +229,16 @@ public class PieState {
                 return (serde, resourceService, loggerFactory) -> new NaiveInMemoryStore();
             }
         },
+        in_memory_concurrent {
+            @Override public PieBuilder.StoreFactory get(HierarchicalResource temporaryDirectory) {
+                return (serde, resourceService, loggerFactory) -> new ConcurrentInMemoryStore();
+            }
+        },
+        in_memory_compact {
+            @Override public PieBuilder.StoreFactory get(HierarchicalResource temporaryDirectory) {
+                return (serde, resourceService, loggerFactory) -> new CompactInMemoryStore();
+            }
+        },
         lmdb {
             @Override public PieBuilder.StoreFactory get(HierarchicalResource temporaryDirectory) {
                 return (serde, resourceService, loggerFactory) -> new LMDBStore(serde, Objects.requireNonNull(resourceService.toLocalFile(temporaryDirectory.appendRelativePath("lmdb"))), loggerFactory);
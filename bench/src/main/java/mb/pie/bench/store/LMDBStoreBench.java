@@ -0,0 +1,149 @@
+package mb.pie.bench.store;
+
+import mb.log.noop.NoopLoggerFactory;
+import mb.pie.api.Observability;
+import mb.pie.api.ResourceProvideDep;
+import mb.pie.api.ResourceRequireDep;
+import mb.pie.api.StoreReadTxn;
+import mb.pie.api.StoreWriteTxn;
+import mb.pie.api.TaskData;
+import mb.pie.api.TaskKey;
+import mb.pie.api.TaskRequireDep;
+import mb.pie.api.serde.JavaSerde;
+import mb.pie.api.serde.Serde;
+import mb.pie.api.stamp.OutputStamp;
+import mb.pie.api.stamp.ResourceStamp;
+import mb.pie.api.stamp.ResourceStamper;
+import mb.pie.api.stamp.output.OutputStampers;
+import mb.pie.api.stamp.output.ValueOutputStamp;
+import mb.pie.api.stamp.resource.ResourceStampers;
+import mb.pie.api.stamp.resource.ValueResourceStamp;
+import mb.pie.bench.state.TemporaryDirectoryState;
+import mb.pie.serde.kryo.KryoSerde;
+import mb.pie.store.lmdb.LMDBStore;
+import mb.resource.Resource;
+import mb.resource.fs.FSPath;
+import mb.resource.fs.FSResource;
+import mb.resource.hierarchical.HierarchicalResource;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time and allocation of getting the data of a task from an {@link LMDBStore} filled with a synthetic
+ * dependency graph, where each task requires a few other tasks and resources, and provides a resource. The
+ * {@code getData} benchmark gets the data of a task in a read transaction that is kept open during an iteration, and
+ * {@code getDataInTxn} opens a read transaction for each task. Run with the GC profiler ({@code -prof gc}) to report
+ * the allocation per {@code getData} call as {@code gc.alloc.rate.norm}.
+ */
+@SuppressWarnings("NotNullFieldNotInitialized")
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class LMDBStoreBench {
+    // Parameters
+
+    @Param({"java", "kryo"}) public SerdeKind serde;
+    @Param({"10000"}) public int numTasks;
+    @Param({"4"}) public int numTaskRequires;
+    @Param({"4"}) public int numResourceRequires;
+
+
+    // Trial
+
+    protected TemporaryDirectoryState temporaryDirectoryState;
+    protected LMDBStore store;
+    protected TaskKey[] keys;
+
+    @SuppressWarnings("unchecked") @Setup(Level.Trial)
+    public void setupTrial(TemporaryDirectoryState temporaryDirectoryState) throws IOException {
+        this.temporaryDirectoryState = temporaryDirectoryState;
+        final HierarchicalResource temporaryDirectory = temporaryDirectoryState.setupTrial();
+        this.store = new LMDBStore(serde.create(), ((FSResource)temporaryDirectory.appendRelativePath("lmdb")).getJavaPath().toFile(), NoopLoggerFactory.instance);
+        this.keys = new TaskKey[numTasks];
+        final StoreMemoryBench.StoreMemoryTaskDef taskDef = new StoreMemoryBench.StoreMemoryTaskDef();
+        final OutputStamp outputStamp = new ValueOutputStamp<>(0, OutputStampers.equals());
+        final ResourceStamp<Resource> resourceStamp = new ValueResourceStamp<>(0L, (ResourceStamper<Resource>)(ResourceStamper<?>)ResourceStampers.modifiedFile());
+        try(final StoreWriteTxn txn = store.writeTxn()) {
+            for(int i = 0; i < numTasks; ++i) {
+                final TaskKey key = new TaskKey(taskDef.getId(), "input" + i);
+                keys[i] = key;
+                txn.resetTask(taskDef.createTask("input" + i));
+                txn.setOutput(key, "output" + i);
+                txn.setTaskObservability(key, Observability.ExplicitObserved);
+                for(int j = 1; j <= numTaskRequires && i - j >= 0; ++j) {
+                    txn.addTaskRequire(key, keys[i - j]);
+                    txn.addTaskRequireDep(key, new TaskRequireDep(keys[i - j], outputStamp));
+                }
+                for(int j = 0; j < numResourceRequires; ++j) {
+                    txn.addResourceRequireDep(key, new ResourceRequireDep(new FSPath("/src/" + i + "_" + j + ".txt"), resourceStamp));
+                }
+                txn.addResourceProvideDep(key, new ResourceProvideDep(new FSPath("/target/" + i + ".txt"), resourceStamp));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial) public void tearDownTrial() throws IOException {
+        store.close();
+        temporaryDirectoryState.tearDownTrial();
+    }
+
+
+    // Iteration
+
+    protected StoreReadTxn txn;
+    protected int next;
+
+    @Setup(Level.Iteration) public void setupIteration() {
+        this.txn = store.readTxn();
+    }
+
+    @TearDown(Level.Iteration) public void tearDownIteration() {
+        txn.close();
+    }
+
+
+    @Benchmark public @Nullable TaskData getData() {
+        return txn.getData(nextKey());
+    }
+
+    @Benchmark public @Nullable TaskData getDataInTxn() {
+        try(final StoreReadTxn txn = store.readTxn()) {
+            return txn.getData(nextKey());
+        }
+    }
+
+
+    private TaskKey nextKey() {
+        final TaskKey key = keys[next];
+        next = (next + 1) % keys.length;
+        return key;
+    }
+
+    public enum SerdeKind {
+        java {
+            @Override public Serde create() {
+                return new JavaSerde();
+            }
+        },
+        kryo {
+            @Override public Serde create() {
+                return new KryoSerde(LMDBStoreBench.class.getClassLoader());
+            }
+        },
+        ;
+
+        public abstract Serde create();
+    }
+}
@@ -0,0 +1,210 @@
+package mb.pie.bench.store;
+
+import mb.pie.api.ExecContext;
+import mb.pie.api.Observability;
+import mb.pie.api.ResourceProvideDep;
+import mb.log.noop.NoopLoggerFactory;
+import mb.pie.api.ResourceRequireDep;
+import mb.pie.api.Store;
+import mb.pie.api.StoreWriteTxn;
+import mb.pie.api.TaskDef;
+import mb.pie.api.TaskKey;
+import mb.pie.api.TaskRequireDep;
+import mb.pie.api.serde.JavaSerde;
+import mb.pie.api.stamp.OutputStamp;
+import mb.pie.api.stamp.ResourceStamp;
+import mb.pie.api.stamp.ResourceStamper;
+import mb.pie.api.stamp.output.OutputStampers;
+import mb.pie.api.stamp.output.ValueOutputStamp;
+import mb.pie.api.stamp.resource.ResourceStampers;
+import mb.pie.api.stamp.resource.ValueResourceStamp;
+import mb.pie.bench.state.TemporaryDirectoryState;
+import mb.pie.bench.util.GarbageCollection;
+import mb.pie.runtime.store.CompactInMemoryStore;
+import mb.pie.runtime.store.ConcurrentInMemoryStore;
+import mb.pie.runtime.store.InMemoryStore;
+import mb.pie.runtime.store.NaiveInMemoryStore;
+import mb.pie.store.lmdb.LMDBStore;
+import mb.resource.Resource;
+import mb.resource.fs.FSPath;
+import mb.resource.fs.FSResource;
+import mb.resource.hierarchical.HierarchicalResource;
+import mb.resource.hierarchical.ResourcePath;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how much memory stores retain per task, by filling a store with a synthetic dependency graph where each task
+ * requires a few other tasks and resources, and provides a resource. The time taken to fill the store is measured as
+ * well. Retained memory per task is reported as the {@code retainedBytesPerTask} secondary result, and for persistent
+ * stores, the size of the database per task is reported as the {@code storedBytesPerTask} secondary result.
+ */
+@SuppressWarnings("NotNullFieldNotInitialized")
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class StoreMemoryBench {
+    // Parameters
+
+    @Param({"in_memory", "in_memory_naive", "in_memory_concurrent", "in_memory_compact", "lmdb"}) public StoreKind store;
+    @Param({"100000"}) public int numTasks;
+    @Param({"4"}) public int numTaskRequires;
+    @Param({"4"}) public int numResourceRequires;
+
+
+    // Trial
+
+    protected TemporaryDirectoryState temporaryDirectoryState;
+    protected StoreMemoryTaskDef taskDef;
+    protected OutputStamp outputStamp;
+    protected ResourceStamp<Resource> resourceStamp;
+
+    @SuppressWarnings("unchecked") @Setup(Level.Trial)
+    public void setupTrial(TemporaryDirectoryState temporaryDirectoryState) throws IOException {
+        this.temporaryDirectoryState = temporaryDirectoryState;
+        temporaryDirectoryState.setupTrial();
+        this.taskDef = new StoreMemoryTaskDef();
+        this.outputStamp = new ValueOutputStamp<>(0, OutputStampers.equals());
+        this.resourceStamp = new ValueResourceStamp<>(0L, (ResourceStamper<Resource>)(ResourceStamper<?>)ResourceStampers.modifiedFile());
+    }
+
+    @TearDown(Level.Trial) public void tearDownTrial() throws IOException {
+        temporaryDirectoryState.tearDownTrial();
+    }
+
+
+    // Invocation
+
+    protected HierarchicalResource temporaryDirectory;
+    protected Store filledStore;
+
+    @Setup(Level.Invocation) public void setupInvocation() throws IOException {
+        this.temporaryDirectory = temporaryDirectoryState.setupInvocation();
+    }
+
+    @Benchmark public Store fill(RetainedMemory retainedMemory) {
+        GarbageCollection.run();
+        final long usedBefore = usedMemory();
+        filledStore = store.create(temporaryDirectory);
+        try(final StoreWriteTxn txn = filledStore.writeTxn()) {
+            fill(txn);
+        }
+        GarbageCollection.run();
+        retainedMemory.retainedBytesPerTask = (usedMemory() - usedBefore) / numTasks;
+        retainedMemory.storedBytesPerTask = store.storedBytes(filledStore) / numTasks;
+        return filledStore;
+    }
+
+    @TearDown(Level.Invocation) public void tearDownInvocation() throws IOException {
+        filledStore.close();
+        temporaryDirectoryState.tearDownInvocation();
+    }
+
+
+    private void fill(StoreWriteTxn txn) {
+        for(int i = 0; i < numTasks; ++i) {
+            final TaskKey key = taskKey(i);
+            txn.resetTask(taskDef.createTask("input" + i));
+            txn.setOutput(key, "output" + i);
+            txn.setTaskObservability(key, Observability.ExplicitObserved);
+            for(int j = 1; j <= numTaskRequires && i - j >= 0; ++j) {
+                final TaskKey callee = taskKey(i - j);
+                txn.addTaskRequire(key, callee);
+                txn.addTaskRequireDep(key, new TaskRequireDep(callee, outputStamp));
+            }
+            for(int j = 0; j < numResourceRequires; ++j) {
+                txn.addResourceRequireDep(key, new ResourceRequireDep(sourceFile(i, j), resourceStamp));
+            }
+            txn.addResourceProvideDep(key, new ResourceProvideDep(targetFile(i), resourceStamp));
+        }
+    }
+
+
+    private static TaskKey taskKey(int i) {
+        return new TaskKey(StoreMemoryTaskDef.id, "input" + i);
+    }
+
+    private static ResourcePath sourceFile(int i, int j) {
+        return new FSPath("/src/" + (i % 1000) + "/" + i + "_" + j + ".txt");
+    }
+
+    private static ResourcePath targetFile(int i) {
+        return new FSPath("/target/" + (i % 1000) + "/" + i + ".txt");
+    }
+
+    private static long usedMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+
+    public static class StoreMemoryTaskDef implements TaskDef<String, String> {
+        static final String id = "StoreMemoryTaskDef";
+
+        @Override public String getId() {
+            return id;
+        }
+
+        @Override public String exec(ExecContext context, String input) {
+            return input;
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class RetainedMemory {
+        public long retainedBytesPerTask;
+        public long storedBytesPerTask;
+    }
+
+    public enum StoreKind {
+        in_memory {
+            @Override public Store create(HierarchicalResource temporaryDirectory) {
+                return new InMemoryStore();
+            }
+        },
+        in_memory_naive {
+            @Override public Store create(HierarchicalResource temporaryDirectory) {
+                return new NaiveInMemoryStore();
+            }
+        },
+        in_memory_concurrent {
+            @Override public Store create(HierarchicalResource temporaryDirectory) {
+                return new ConcurrentInMemoryStore();
+            }
+        },
+        in_memory_compact {
+            @Override public Store create(HierarchicalResource temporaryDirectory) {
+                return new CompactInMemoryStore();
+            }
+        },
+        lmdb {
+            @Override public Store create(HierarchicalResource temporaryDirectory) {
+                return new LMDBStore(new JavaSerde(), ((FSResource)temporaryDirectory.appendRelativePath("lmdb")).getJavaPath().toFile(), NoopLoggerFactory.instance);
+            }
+
+            @Override public long storedBytes(Store store) {
+                return ((LMDBStore)store).getUsedBytes();
+            }
+        },
+        ;
+
+        public abstract Store create(HierarchicalResource temporaryDirectory);
+
+        public long storedBytes(Store store) {
+            return 0;
+        }
+    }
+}
@@ -19,7 +19,7 @@ import java.nio.file.FileSystem
 import java.util.stream.Stream
 
 abstract class ApiTestBuilder<Ctx : ApiTestCtx>(
-  val pieBuilderFactory: () -> PieBuilder,
+  var pieBuilderFactory: () -> PieBuilder,
   val loggerFactory: () -> LoggerFactory,
   val tracerFactory: (LoggerFactory) -> Tracer,
   defaultResourceStampers: MutableList<ResourceStamper<ReadableResource>>,
@@ -1,5 +1,6 @@
 package mb.pie.api.test
 
+import mb.pie.api.LambdaTaskDef
 import mb.pie.api.None
 import mb.pie.api.Supplier
 import mb.pie.api.TaskDef
@@ -13,6 +14,9 @@ val ApiTestCtx.toLowerCase
     it.toLowerCase()
   }
 
+// Same task definition as `toLowerCase`, for tests that create tasks outside of a test context, such as store tests.
+val toLowerCaseDef: TaskDef<String, String> = LambdaTaskDef<String, String>("toLowerCase", { _, input -> input.toLowerCase() })
+
 val ApiTestCtx.readResource
   get() = taskDef<FSResource, String>("read", { input, _ -> "read($input)" }) {
     require(it, ResourceStampers.modifiedFile())
@@ -0,0 +1,86 @@
+package mb.pie.api
+
+import mb.pie.api.stamp.resource.ByteArrayResourceStamp
+import mb.pie.api.stamp.resource.HashAlgorithm
+import mb.pie.api.stamp.resource.ResourceStampers
+import mb.pie.api.test.TestBuilder
+import mb.resource.fs.FSResource
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestFactory
+import java.util.*
+
+class HashAlgorithmTests {
+  private val builder = TestBuilder()
+
+
+  @Test
+  fun testMurmur3Vectors() {
+    fun hash(input: String): String {
+      val digest = HashAlgorithm.MURMUR3_128.createDigest()
+      digest.update(input.toByteArray())
+      return digest.digest().joinToString("") { "%02x".format(it) }
+    }
+    Assertions.assertEquals("00000000000000000000000000000000", hash(""))
+    Assertions.assertEquals("029bbd41b3a7d8cb191dae486a901e5b", hash("hello"))
+    Assertions.assertEquals("6c1b07bc7bbc4be347939ac4a93c437a", hash("The quick brown fox jumps over the lazy dog"))
+  }
+
+  @Test
+  fun testMurmur3SplitUpdates() {
+    val bytes = ByteArray(1000).also { Random(0).nextBytes(it) }
+    val whole = HashAlgorithm.MURMUR3_128.createDigest().also { it.update(bytes) }.digest()
+    val split = HashAlgorithm.MURMUR3_128.createDigest().also {
+      it.update(bytes, 0, 7)
+      it.update(bytes[7])
+      it.update(bytes, 8, bytes.size - 8)
+    }.digest()
+    Assertions.assertArrayEquals(whole, split)
+  }
+
+  @TestFactory
+  fun testStreamingLargeFile() = builder.build("testStreamingLargeFile") {
+    val file = resource("/file")
+    // Larger than the streaming buffer, and not a multiple of its size.
+    val bytes = ByteArray(200 * 1024 + 13).also { Random(0).nextBytes(it) }
+    file.writeBytes(bytes)
+
+    for(algorithm in HashAlgorithm.values()) {
+      val stamper = ResourceStampers.hashFile<FSResource>(algorithm, null)
+      val stamp = stamper.stamp(file)
+      // Streamed hash equals the hash of all bytes at once.
+      val digest = algorithm.createDigest()
+      digest.update(1.toByte())
+      digest.update(bytes)
+      Assertions.assertEquals(ByteArrayResourceStamp(digest.digest(), stamper), stamp)
+      Assertions.assertEquals(stamp, stamper.stamp(file))
+    }
+
+    // Stamps of different algorithms are not equal.
+    Assertions.assertNotEquals(
+      ResourceStampers.hashFile<FSResource>(HashAlgorithm.SHA1, null).stamp(file),
+      ResourceStampers.hashFile<FSResource>(HashAlgorithm.MURMUR3_128, null).stamp(file)
+    )
+    // Changing the last byte changes the stamp.
+    val stamper = ResourceStampers.hashFile<FSResource>(HashAlgorithm.MURMUR3_128, null)
+    val stamp1 = stamper.stamp(file)
+    bytes[bytes.size - 1] = (bytes[bytes.size - 1] + 1).toByte()
+    file.writeBytes(bytes)
+    Assertions.assertNotEquals(stamp1, stamper.stamp(file))
+  }
+
+  @TestFactory
+  fun testDirStampsWithAlgorithm() = builder.build("testDirStampsWithAlgorithm") {
+    val dir = resource("/dir")
+    dir.createDirectory()
+    val file = dir.appendSegment("file")
+    write("AAAA", file)
+
+    val stamper = ResourceStampers.hashDirRec(null, null, HashAlgorithm.MURMUR3_128, null)
+    val stamp1 = stamper.stamp(dir)
+    Assertions.assertEquals(stamp1, stamper.stamp(dir))
+    write("BBBB", file)
+    Assertions.assertNotEquals(stamp1, stamper.stamp(dir))
+    Assertions.assertNotEquals(ResourceStampers.hashDirRec().stamp(dir), stamper.stamp(dir))
+  }
+}
@@ -0,0 +1,89 @@
+package mb.pie.api
+
+import mb.pie.api.stamp.resource.HashCache
+import mb.pie.api.stamp.resource.HashResourceStamper
+import mb.pie.api.stamp.resource.ResourceStampers
+import mb.pie.api.test.TestBuilder
+import mb.resource.fs.FSResource
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.TestFactory
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+import java.time.Duration
+
+class HashCacheTests {
+  private val builder = TestBuilder()
+
+
+  @TestFactory
+  fun testUnchangedMetadataUsesCachedHash() = builder.build("testUnchangedMetadataUsesCachedHash") {
+    val cache = HashCache.open(resource("/hashcache").javaPath, false, Duration.ofSeconds(2))
+    val file = resource("/file")
+    write("AAAA", file)
+
+    val stamper = ResourceStampers.hashFile<FSResource>(cache)
+    val stamp1 = stamper.stamp(file)
+    // Change contents without changing size and last modification date: cached hash is used.
+    val lastModified = file.lastModifiedTime
+    write("BBBB", file)
+    file.lastModifiedTime = lastModified
+    Assertions.assertEquals(stamp1, stamper.stamp(file))
+    // Change size: file is hashed again.
+    write("BBBBB", file)
+    Assertions.assertNotEquals(stamp1, stamper.stamp(file))
+  }
+
+  @TestFactory
+  fun testStrictModeHashesRacyFiles() = builder.build("testStrictModeHashesRacyFiles") {
+    // Every file is modified within the timestamp granularity of a day before it was hashed.
+    val cache = HashCache.open(resource("/hashcache").javaPath, true, Duration.ofDays(1))
+    val file = resource("/file")
+    write("AAAA", file)
+
+    val stamper = ResourceStampers.hashFile<FSResource>(cache)
+    val stamp1 = stamper.stamp(file)
+    val lastModified = file.lastModifiedTime
+    write("BBBB", file)
+    file.lastModifiedTime = lastModified
+    Assertions.assertNotEquals(stamp1, stamper.stamp(file))
+  }
+
+  @TestFactory
+  fun testDirStampsUseCache() = builder.build("testDirStampsUseCache") {
+    val cache = HashCache.open(resource("/hashcache").javaPath, false, Duration.ofSeconds(2))
+    val dir = resource("/dir")
+    dir.createDirectory()
+    val file = dir.appendSegment("file")
+    write("AAAA", file)
+
+    val stamper = ResourceStampers.hashDirRec(cache)
+    val stamp1 = stamper.stamp(dir)
+    Assertions.assertEquals(stamp1, stamper.stamp(dir))
+    write("BBBBB", file)
+    Assertions.assertNotEquals(stamp1, stamper.stamp(dir))
+    // Stamps of stampers with and without cache are not equal.
+    Assertions.assertNotEquals(ResourceStampers.hashDirRec().stamp(dir), stamper.stamp(dir))
+  }
+
+  @TestFactory
+  fun testSerializeStamper() = builder.build("testSerializeStamper") {
+    val cacheFile = resource("/hashcache")
+    val cache = HashCache.open(cacheFile.javaPath)
+    Assertions.assertSame(cache, HashCache.open(cacheFile.javaPath))
+    val file = resource("/file")
+    write("AAAA", file)
+    val stamper = ResourceStampers.hashFile<FSResource>(cache)
+    val stamp = stamper.stamp(file)
+    cache.save()
+    Assertions.assertTrue(cacheFile.exists())
+
+    // Deserialized stampers resolve to the open cache.
+    val bytes = ByteArrayOutputStream().also { ObjectOutputStream(it).use { out -> out.writeObject(stamper) } }.toByteArray()
+    @Suppress("UNCHECKED_CAST")
+    val deserialized = ObjectInputStream(ByteArrayInputStream(bytes)).use { it.readObject() } as HashResourceStamper<FSResource>
+    Assertions.assertEquals(stamper, deserialized)
+    Assertions.assertEquals(stamp, deserialized.stamp(file))
+  }
+}
@@ -0,0 +1,82 @@
+package mb.pie.api
+
+import mb.pie.api.stamp.resource.HashAlgorithm
+import mb.pie.api.stamp.resource.HashCache
+import mb.pie.api.stamp.resource.ResourceStampers
+import mb.pie.api.test.TestBuilder
+import mb.resource.hierarchical.match.ResourceMatcher
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.TestFactory
+import java.time.Duration
+
+class MerkleResourceStamperTests {
+  private val builder = TestBuilder()
+
+
+  @TestFactory
+  fun testHashStampChanges() = builder.build("testHashStampChanges") {
+    val dir = resource("/dir")
+    dir.createDirectory()
+    val subDir = dir.appendSegment("sub")
+    subDir.createDirectory()
+    val files = (0 until 16).map { (if(it % 2 == 0) dir else subDir).appendSegment("file$it") }
+    files.forEachIndexed { i, file -> write("$i", file) }
+
+    val stamper = ResourceStampers.merkleHashDirRec()
+    val stamp1 = stamper.stamp(dir)
+    // Stamps do not depend on the order in which subtrees are hashed.
+    repeat(8) { Assertions.assertEquals(stamp1, stamper.stamp(dir)) }
+
+    // Changing contents changes the stamp, and restoring them restores the stamp.
+    write("changed", files[5])
+    val stamp2 = stamper.stamp(dir)
+    Assertions.assertNotEquals(stamp1, stamp2)
+    write("5", files[5])
+    Assertions.assertEquals(stamp1, stamper.stamp(dir))
+
+    // Renaming a file changes the stamp, even though the combined contents are unchanged.
+    files[3].delete()
+    write("3", subDir.appendSegment("renamed"))
+    Assertions.assertNotEquals(stamp1, stamper.stamp(dir))
+
+    // Adding an empty directory changes the stamp.
+    val stamp3 = stamper.stamp(dir)
+    dir.appendSegment("empty").createDirectory()
+    Assertions.assertNotEquals(stamp3, stamper.stamp(dir))
+  }
+
+  @TestFactory
+  fun testModifiedStampWithMatcher() = builder.build("testModifiedStampWithMatcher") {
+    val dir = resource("/dir")
+    dir.createDirectory()
+    val javaFile = dir.appendSegment("A.java")
+    write("class A {}", javaFile)
+
+    val stamper = ResourceStampers.merkleModifiedDirRec(null, ResourceMatcher.ofFileExtension("java"))
+    val stamp1 = stamper.stamp(dir)
+    // Files that are not matched do not influence the stamp.
+    write("text", dir.appendSegment("readme.txt"))
+    Assertions.assertEquals(stamp1, stamper.stamp(dir))
+    // Adding a matched file changes the stamp.
+    write("class B {}", dir.appendSegment("B.java"))
+    Assertions.assertNotEquals(stamp1, stamper.stamp(dir))
+  }
+
+  @TestFactory
+  fun testHashStampWithCache() = builder.build("testHashStampWithCache") {
+    val cache = HashCache.open(resource("/hashcache").javaPath, false, Duration.ofSeconds(2))
+    val dir = resource("/dir")
+    dir.createDirectory()
+    val file = dir.appendSegment("file")
+    write("AAAA", file)
+
+    val stamper = ResourceStampers.merkleHashDirRec(null, null, HashAlgorithm.MURMUR3_128, cache)
+    val uncachedStamper = ResourceStampers.merkleHashDirRec(null, null, HashAlgorithm.MURMUR3_128, null)
+    val stamp1 = stamper.stamp(dir)
+    Assertions.assertEquals(stamp1, stamper.stamp(dir))
+    write("BBBBB", file)
+    Assertions.assertNotEquals(stamp1, stamper.stamp(dir))
+    // Stamps of stampers with and without cache are not equal.
+    Assertions.assertNotEquals(uncachedStamper.stamp(dir), stamper.stamp(dir))
+  }
+}
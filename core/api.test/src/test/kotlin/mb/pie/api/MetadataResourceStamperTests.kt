@@ -0,0 +1,78 @@
+package mb.pie.api
+
+import mb.pie.api.stamp.resource.ResourceStampers
+import mb.pie.api.test.TestBuilder
+import mb.resource.fs.FSResource
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.TestFactory
+import java.time.Instant
+
+class MetadataResourceStamperTests {
+  private val builder = TestBuilder()
+
+
+  @TestFactory
+  fun testFileStamp() = builder.build("testFileStamp") {
+    val file = resource("/file")
+    val stamper = ResourceStampers.metadataFile<FSResource>()
+    val nonExistentStamp = stamper.stamp(file)
+    write("AAAA", file)
+    val lastModified = Instant.ofEpochSecond(1000, 1_000_000)
+    file.lastModifiedTime = lastModified
+    val stamp1 = stamper.stamp(file)
+    Assertions.assertNotEquals(nonExistentStamp, stamp1)
+    Assertions.assertEquals(stamp1, stamper.stamp(file))
+
+    // Same size and last modification date: metadata is unchanged.
+    write("BBBB", file)
+    file.lastModifiedTime = lastModified
+    Assertions.assertEquals(stamp1, stamper.stamp(file))
+    // Size changed.
+    write("BBBBB", file)
+    file.lastModifiedTime = lastModified
+    Assertions.assertNotEquals(stamp1, stamper.stamp(file))
+    // Last modification date changed.
+    write("BBBB", file)
+    file.lastModifiedTime = lastModified.plusMillis(1)
+    Assertions.assertNotEquals(stamp1, stamper.stamp(file))
+  }
+
+  @TestFactory
+  fun testDirRecStamp() = builder.build("testDirRecStamp") {
+    val dir = resource("/dir")
+    dir.createDirectory()
+    val subDir = dir.appendSegment("sub")
+    subDir.createDirectory()
+    val file = dir.appendSegment("file")
+    write("AAAA", file)
+    val nestedFile = subDir.appendSegment("nested")
+    write("BBBB", nestedFile)
+
+    val stamper = ResourceStampers.metadataDirRec()
+    val dirStamper = ResourceStampers.metadataDir()
+    val stamp1 = stamper.stamp(dir)
+    val dirStamp1 = dirStamper.stamp(dir)
+    Assertions.assertEquals(stamp1, stamper.stamp(dir))
+
+    // Adding a file changes the stamp, and removing it again restores the stamp.
+    val addedFile = subDir.appendSegment("added")
+    write("CCCC", addedFile)
+    Assertions.assertNotEquals(stamp1, stamper.stamp(dir))
+    addedFile.delete()
+    Assertions.assertEquals(stamp1, stamper.stamp(dir))
+
+    // Changing a nested file only changes the recursive stamp.
+    write("BBBBB", nestedFile)
+    Assertions.assertNotEquals(stamp1, stamper.stamp(dir))
+    Assertions.assertEquals(dirStamp1, dirStamper.stamp(dir))
+
+    // Renaming a file changes the stamp, even when its metadata is unchanged.
+    val stamp2 = stamper.stamp(dir)
+    val lastModified = file.lastModifiedTime
+    file.delete()
+    val renamedFile = dir.appendSegment("renamed")
+    write("AAAA", renamedFile)
+    renamedFile.lastModifiedTime = lastModified
+    Assertions.assertNotEquals(stamp2, stamper.stamp(dir))
+  }
+}
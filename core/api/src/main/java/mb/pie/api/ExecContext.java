@@ -25,6 +25,8 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.io.UncheckedIOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Execution context for requiring (creating a dependency to, and getting the up-to-date output object of) tasks, and
@@ -135,6 +137,47 @@ public interface ExecContext {
         return mapping.apply(require(task, OutputStampers.funcEquals(erased)));
     }
 
+    /**
+     * Requires given {@code tasks}, using the {@link #getDefaultOutputStamper() default output stamper}, returning the
+     * up-to-date output objects of the tasks in the same order. See {@link #requireAll(List, OutputStamper)}.
+     *
+     * @param <O>   Type of the output objects.
+     * @param tasks Tasks to require.
+     * @return Up-to-date output objects of {@code tasks}, in the same order. May contain {@code null} when a task
+     * returns {@code null}.
+     * @throws UncheckedExecException When an executing task throws an exception.
+     * @throws CanceledException      When execution is cancelled.
+     */
+    default <O extends Serializable> List<O> requireAll(List<? extends Task<? extends O>> tasks) {
+        return requireAll(tasks, getDefaultOutputStamper());
+    }
+
+    /**
+     * Requires given {@code tasks}, using given {@code stamper}, returning the up-to-date output objects of the tasks
+     * in the same order.
+     *
+     * Requiring tasks with this method declares that they are independent of each other: which tasks are required, and
+     * their inputs, do not depend on the outputs of the other tasks. The runtime may therefore require (and execute) the
+     * tasks concurrently, for example in top-down builds with an executor. Dependencies are recorded in the order of
+     * {@code tasks}, as if the tasks were required one by one. When requiring multiple tasks fails, the exception of the
+     * first failing task is thrown, but tasks after it may still have been required.
+     *
+     * @param <O>     Type of the output objects.
+     * @param tasks   Tasks to require.
+     * @param stamper {@link OutputStamper Output stamper} to use for all tasks.
+     * @return Up-to-date output objects of {@code tasks}, in the same order. May contain {@code null} when a task
+     * returns {@code null}.
+     * @throws UncheckedExecException When an executing task throws an exception.
+     * @throws CanceledException      When execution is cancelled.
+     */
+    default <O extends Serializable> List<O> requireAll(List<? extends Task<? extends O>> tasks, OutputStamper stamper) {
+        final ArrayList<O> outputs = new ArrayList<>(tasks.size());
+        for(Task<? extends O> task : tasks) {
+            outputs.add(require(task, stamper));
+        }
+        return outputs;
+    }
+
     /**
      * Requires task given by the {@link STaskDef serializable task definition} and {@code input} of the task, using the
      * {@link #getDefaultOutputStamper() default output stamper}, returning the up-to-date output object of the task.
@@ -38,6 +38,19 @@ public interface Pie extends AutoCloseable {
      */
     Optional<MixedSession> tryNewSession();
 
+    /**
+     * Creates a new read-only session for querying outputs and observability of tasks.
+     *
+     * When the {@link Store store} supports {@link Store#snapshotReadTxn() snapshot read transactions}, the read session
+     * reads the last committed state of the store, and this method does not wait for a running session. Otherwise, this
+     * method waits until the running session is {@link MixedSession#close() closed} through locking, and the read
+     * session holds a (shared) read lock until it is closed.
+     *
+     * @return A new read session.
+     * @see ReadSession
+     */
+    ReadSession newReadSession();
+
 
     /**
      * Checks whether {@code task} has been executed at least once.
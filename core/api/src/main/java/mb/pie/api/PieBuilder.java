@@ -8,6 +8,7 @@ import mb.resource.ReadableResource;
 import mb.resource.ResourceService;
 import mb.resource.hierarchical.HierarchicalResource;
 
+import java.util.concurrent.Executor;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
@@ -51,6 +52,98 @@ public interface PieBuilder {
 
     PieBuilder withTracerFactory(Function<LoggerFactory, Tracer> tracerFactory);
 
+    /**
+     * Sets the executor on which bottom-up builds execute scheduled tasks that have no dependency order between them
+     * concurrently, executing at most {@code parallelism} scheduled tasks at the same time. Bottom-up builds execute
+     * scheduled tasks sequentially on the thread of the session when no executor is set, which is the default.
+     *
+     * When an executor is set, tasks, tracers, and layers may be called from multiple threads, and must therefore be
+     * thread-safe. Tracers and store transactions are synchronized by the runtime.
+     *
+     * @param executor    Executor to execute scheduled tasks on. The executor is not shut down by PIE.
+     * @param parallelism Maximum number of scheduled tasks to execute at the same time. Must be at least 1.
+     */
+    PieBuilder withBottomUpExecutor(Executor executor, int parallelism);
+
+    /**
+     * Sets the executor on which top-down builds require tasks concurrently, requiring at most {@code parallelism}
+     * tasks at the same time on the executor. Top-down builds require tasks sequentially on the thread of the session
+     * when no executor is set, which is the default.
+     *
+     * Tasks that a task requires with {@link ExecContext#requireAll}, which declares that they are independent, are
+     * required and executed concurrently, both in new and in incremental builds. Tasks that a task requires one by one
+     * with {@link ExecContext#require} are still executed in order, because later tasks may depend on the outputs of
+     * earlier ones. A task is never executed by two threads at the same time.
+     *
+     * When checking whether a task is consistent, the callees of its task require dependencies are checked
+     * speculatively: callees after the one being checked are checked concurrently, but results of a speculative check
+     * are only used when all dependencies that precede it are consistent. Speculative checks never execute tasks: when a
+     * callee must be executed, it is required in order instead. Therefore, the callees of dependencies of a task that
+     * were not required with {@link ExecContext#requireAll} are executed sequentially, and so is the first inconsistent
+     * callee of a task. Tracer and layer calls of a speculative check are deferred until its results are used, and
+     * dropped when they are discarded.
+     *
+     * When an executor is set, tasks, stampers, and store transactions may be called from multiple threads, and must
+     * therefore be thread-safe. Store transactions are synchronized by the runtime.
+     *
+     * @param executor    Executor to require tasks on. The executor is not shut down by PIE.
+     * @param parallelism Maximum number of tasks to require concurrently on the executor. Must be at least 1.
+     */
+    PieBuilder withTopDownExecutor(Executor executor, int parallelism);
+
+    /**
+     * Sets the executor on which the resources of resource dependencies are stamped concurrently during consistency
+     * checks: the resource dependencies of a task in top-down and bottom-up builds, and the resource dependencies
+     * affected by the changed resources of a bottom-up build. Resources are stamped sequentially on the thread that
+     * checks consistency when no executor is set, which is the default.
+     *
+     * Stamping resources mostly waits on I/O, so an executor that does not bound the number of threads (e.g.,
+     * {@link java.util.concurrent.Executors#newCachedThreadPool()}) works best. Results are still checked in the order
+     * of the dependencies, such that reasons and tracer events are the same as when stamping sequentially.
+     *
+     * When an executor is set, resource stampers and resources may be called from multiple threads, and must therefore
+     * be thread-safe.
+     *
+     * @param executor Executor to stamp resources on. The executor is not shut down by PIE.
+     */
+    PieBuilder withResourceStampingExecutor(Executor executor);
+
+    /**
+     * Sets whether all changed resources are reported to {@link MixedSession#updateAffectedBy}, in which case their
+     * reports are trusted to skip checking resource dependencies. Defaults to {@code false}.
+     *
+     * When changed resources are trusted, the store records the epoch in which each task was last verified to be
+     * consistent with its resource dependencies. The epoch is advanced when changed resources are reported, when a task
+     * that provides resources is executed, and when a PIE instance is created. Top-down builds do not check the
+     * resource dependencies of tasks verified in the current epoch, such that consecutive top-down builds without
+     * changes do not stamp resources again. Inputs, outputs, and task require dependencies are still checked.
+     *
+     * Only trust changed resources when every change to a required resource, other than changes made by tasks, is
+     * reported to {@link MixedSession#updateAffectedBy} before the next build, for example with a filesystem watcher. All
+     * PIE instances that share a store must use the same setting. Stores that do not
+     * {@link StoreReadTxn#hasVerificationEpochs() record verification epochs} always check resource dependencies.
+     *
+     * @param trustChangedResources Whether changed resources are reported and trusted.
+     */
+    PieBuilder withTrustChangedResources(boolean trustChangedResources);
+
+    /**
+     * Sets whether filesystem resources of many resource dependencies are stamped in bulk before checking them, reading
+     * the attributes of resources in the same directory with one directory scan, instead of one filesystem call per
+     * resource. Applies to the resource dependencies of a task, and to the resource dependencies affected by the changed
+     * resources of a bottom-up build, and is done on the {@link #withResourceStampingExecutor resource stamping
+     * executor} when it is set. Only resources stamped with a
+     * {@link mb.pie.api.stamp.resource.FileAttributesResourceStamper file attribute stamper} are stamped in bulk.
+     *
+     * Stamping in bulk is beneficial when listing a directory returns the attributes of its entries, which makes a
+     * directory scan cheaper than reading the attributes of each resource separately. Otherwise, a scan may read the
+     * attributes of more entries than there are resources to stamp. Defaults to {@code true} on Windows, which is the
+     * only platform known to return attributes when listing a directory, and to {@code false} on other platforms.
+     *
+     * @param bulkResourceStamping Whether resources are stamped in bulk.
+     */
+    PieBuilder withBulkResourceStamping(boolean bulkResourceStamping);
+
 
     Pie build();
 }
@@ -0,0 +1,91 @@
+package mb.pie.api;
+
+import java.io.Serializable;
+
+/**
+ * Read-only session for querying the state of PIE, created with {@link Pie#newReadSession()}. A read session cannot
+ * execute tasks, and therefore does not require exclusive access to PIE.
+ *
+ * When the {@link Store store} supports {@link Store#snapshotReadTxn() snapshot read transactions}, a read session
+ * reads the last committed state of the store (i.e., the state after the last completed build), and can be used while
+ * a {@link MixedSession session} is running. Otherwise, creating a read session waits until the running session is
+ * closed, and prevents new sessions from being created until the read session is closed.
+ *
+ * A read session must be {@link #close() closed} after usage, and may only be used by the thread that created it.
+ */
+public interface ReadSession extends AutoCloseable {
+    /**
+     * Gets the up-to-date output of {@code task}, as stored by the last completed build.
+     *
+     * @param task Task to get the output for.
+     * @return Up-to-date output of {@code task}.
+     * @throws IllegalStateException When {@code task} has not been executed before, or was executed with a different
+     *                               input.
+     */
+    <O extends Serializable> O getOutput(Task<O> task);
+
+
+    /**
+     * Checks whether {@code task} has been executed at least once.
+     *
+     * @param task Task to check. The {@link Task#key() key} of this task will be used to check.
+     * @return True if task was executed at least once, false otherwise.
+     */
+    default boolean hasBeenExecuted(Task<?> task) {
+        return hasBeenExecuted(task.key());
+    }
+
+    /**
+     * Checks whether task with given {@code key} has been executed at least once.
+     *
+     * @param key Key of task to check.
+     * @return True if task was executed at least once, false otherwise.
+     */
+    boolean hasBeenExecuted(TaskKey key);
+
+
+    /**
+     * Checks whether {@code task} is explicitly observed (by requiring it with a top-down build) or implicitly observed
+     * (when another observed task requires it).
+     *
+     * @param task Task to check. The {@link Task#key() key} of this task will be used to check.
+     * @return True if task is observed, false otherwise.
+     */
+    default boolean isObserved(Task<?> task) {
+        return isObserved(task.key());
+    }
+
+    /**
+     * Checks whether task with given {@code key} is explicitly observed (by requiring it with a top-down build) or
+     * implicitly observed (when another observed task requires it).
+     *
+     * @param key Key of task to check.
+     * @return True if task is observed, false otherwise.
+     */
+    boolean isObserved(TaskKey key);
+
+
+    /**
+     * Checks whether {@code task} is explicitly observed (by requiring it with a top-down build).
+     *
+     * @param task Task to check. The {@link Task#key() key} of this task will be used to check.
+     * @return True if task is explicitly observed, false otherwise.
+     */
+    default boolean isExplicitlyObserved(Task<?> task) {
+        return isExplicitlyObserved(task.key());
+    }
+
+    /**
+     * Checks whether task with given {@code key} is explicitly observed (by requiring it with a top-down build).
+     *
+     * @param key Key of task to check.
+     * @return True if task is explicitly observed, false otherwise.
+     */
+    boolean isExplicitlyObserved(TaskKey key);
+
+
+    /**
+     * Closes the read session, releasing the read transaction, and the lock if it was taken.
+     */
+    @Override void close();
+}
@@ -15,6 +15,27 @@ public interface Store extends AutoCloseable {
      */
     StoreWriteTxn writeTxn();
 
+    /**
+     * Opens a snapshot read transaction, which reads the last committed state of the store: data written by write
+     * transactions that are still open is not observed, and the transaction keeps reading the same state when write
+     * transactions are committed while it is open. Snapshot read transactions may be opened and used while a write
+     * transaction is open on another thread, without waiting for it. Transaction must be [closed][close] after usage to
+     * free up internal resources.
+     *
+     * @throws UnsupportedOperationException when this store does not {@link #supportsSnapshotReadTxn() support} snapshot
+     *                                       read transactions.
+     */
+    default StoreReadTxn snapshotReadTxn() {
+        throw new UnsupportedOperationException("Store '" + this + "' does not support snapshot read transactions");
+    }
+
+    /**
+     * Returns whether this store supports {@link #snapshotReadTxn() snapshot read transactions}.
+     */
+    default boolean supportsSnapshotReadTxn() {
+        return false;
+    }
+
     /**
      * Force synchronization of in-memory data to persistent storage.
      *
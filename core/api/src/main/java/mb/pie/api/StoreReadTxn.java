@@ -60,6 +60,60 @@ public interface StoreReadTxn extends StoreTxn {
      */
     boolean hasDependencyOrderBefore(TaskKey caller, TaskKey callee);
 
+    /**
+     * @return {@code true} if this store keeps a topological order of tasks, which can be queried with
+     * {@link #getTopologicalIndex(TaskKey)}. {@code false} otherwise.
+     */
+    default boolean hasTopologicalOrder() {
+        return false;
+    }
+
+    /**
+     * Gets the topological index of task with key {@code key}. For two tasks, {@link #hasDependencyOrderBefore} holds
+     * if and only if the topological index of the first task is lower than that of the second. Topological indices may
+     * change when task require dependencies are added.
+     *
+     * @return topological index of task with key {@code key}.
+     * @throws UnsupportedOperationException when this store does not {@link #hasTopologicalOrder() keep a topological
+     *                                       order}.
+     */
+    default int getTopologicalIndex(TaskKey key) {
+        throw new UnsupportedOperationException("Store transaction '" + this + "' does not keep a topological order of tasks");
+    }
+
+
+    /**
+     * @return {@code true} if this store records verification epochs, which can be queried with {@link #getEpoch()} and
+     * {@link #getVerifiedEpoch(TaskKey)}. {@code false} otherwise.
+     */
+    default boolean hasVerificationEpochs() {
+        return false;
+    }
+
+    /**
+     * Gets the current epoch. The epoch is advanced with {@link StoreWriteTxn#advanceEpoch()} whenever resources may
+     * have changed, for example when changed resources are reported, or when a task provides resources.
+     *
+     * @return current epoch, starting at {@code 0}.
+     * @throws UnsupportedOperationException when this store does not {@link #hasVerificationEpochs() record
+     *                                       verification epochs}.
+     */
+    default long getEpoch() {
+        throw new UnsupportedOperationException("Store transaction '" + this + "' does not record verification epochs");
+    }
+
+    /**
+     * Gets the epoch in which task with key {@code key} was last verified to be consistent with its resource
+     * dependencies. Verification epochs are removed when the data of the task is reset, restored, or deleted.
+     *
+     * @return verification epoch of task with key {@code key}, or {@code -1} if it has not been verified.
+     * @throws UnsupportedOperationException when this store does not {@link #hasVerificationEpochs() record
+     *                                       verification epochs}.
+     */
+    default long getVerifiedEpoch(TaskKey key) {
+        throw new UnsupportedOperationException("Store transaction '" + this + "' does not record verification epochs");
+    }
+
 
     /**
      * @return resource require dependencies of task with key {@code requirer}.
@@ -76,6 +76,28 @@ public interface StoreWriteTxn extends StoreReadTxn {
     @Nullable TaskData deleteData(TaskKey key);
 
 
+    /**
+     * Advances the current epoch, such that no task is verified in the current epoch.
+     *
+     * @return new current epoch.
+     * @throws UnsupportedOperationException when this store does not {@link #hasVerificationEpochs() record
+     *                                       verification epochs}.
+     */
+    default long advanceEpoch() {
+        throw new UnsupportedOperationException("Store transaction '" + this + "' does not record verification epochs");
+    }
+
+    /**
+     * Sets the verification epoch of task with {@code key} to {@code epoch}.
+     *
+     * @throws UnsupportedOperationException when this store does not {@link #hasVerificationEpochs() record
+     *                                       verification epochs}.
+     */
+    default void setVerifiedEpoch(TaskKey key, long epoch) {
+        throw new UnsupportedOperationException("Store transaction '" + this + "' does not record verification epochs");
+    }
+
+
     /**
      * Adds task with {@code} key to the deferred tasks.
      */
@@ -5,33 +5,87 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 import java.io.Serializable;
 
 public final class TaskData {
+    /**
+     * Decodes the output of a task when it is first requested.
+     */
+    @FunctionalInterface
+    public interface OutputDecoder {
+        /**
+         * Decodes the output. Throws a {@link RuntimeException} when the output cannot be decoded.
+         */
+        Output decode();
+    }
+
+
     public final Serializable input;
     public final @Nullable Serializable internalObject;
-    private final @Nullable Output output;
+    private volatile @Nullable Output output;
+    private volatile @Nullable OutputDecoder outputDecoder;
+    private final boolean mayHaveTransientOutput;
     public final Observability taskObservability;
     public final TaskDeps deps;
 
 
-    public TaskData(
+    private TaskData(
         Serializable input,
         @Nullable Serializable internalObject,
         @Nullable Output output,
+        @Nullable OutputDecoder outputDecoder,
+        boolean mayHaveTransientOutput,
         Observability taskObservability,
         TaskDeps deps
     ) {
         this.input = input;
         this.internalObject = internalObject;
         this.output = output;
+        this.outputDecoder = outputDecoder;
+        this.mayHaveTransientOutput = mayHaveTransientOutput;
         this.taskObservability = taskObservability;
         this.deps = deps;
     }
 
+    public TaskData(
+        Serializable input,
+        @Nullable Serializable internalObject,
+        @Nullable Output output,
+        Observability taskObservability,
+        TaskDeps deps
+    ) {
+        this(input, internalObject, output, null, output != null && output.output instanceof OutTransient<?>, taskObservability, deps);
+    }
 
     /**
-     * Checks whether this task data has an output.
+     * Creates task data with an output that is decoded by {@code outputDecoder} when it is first requested, such that
+     * stores can skip decoding outputs that are not used, for example when only the dependencies of a task are checked.
+     *
+     * @param mayHaveTransientOutput whether the output may be an {@link OutTransient}, in which case checking the
+     *                               consistency of the output decodes it.
+     */
+    public TaskData(
+        Serializable input,
+        @Nullable Serializable internalObject,
+        OutputDecoder outputDecoder,
+        boolean mayHaveTransientOutput,
+        Observability taskObservability,
+        TaskDeps deps
+    ) {
+        this(input, internalObject, null, outputDecoder, mayHaveTransientOutput, taskObservability, deps);
+    }
+
+
+    /**
+     * Checks whether this task data has an output, without decoding the output.
      */
     public boolean hasOutput() {
-        return output != null;
+        return outputDecoder != null || output != null;
+    }
+
+    /**
+     * Checks whether the output of this task data may be an {@link OutTransient}, without decoding the output. When
+     * this returns {@code false}, the output is not transient, and its consistency does not have to be checked.
+     */
+    public boolean mayHaveTransientOutput() {
+        return mayHaveTransientOutput;
     }
 
     /**
@@ -39,7 +93,8 @@ public final class TaskData {
      * {@code false}).
      */
     public @Nullable Serializable getOutput() {
-        if(!hasOutput()) throw new IllegalStateException("Cannot get output as " + this + " has no output");
+        final @Nullable Output output = getWrappedOutput();
+        if(output == null) throw new IllegalStateException("Cannot get output as " + this + " has no output");
         return output.output;
     }
 
@@ -53,15 +108,28 @@ public final class TaskData {
     }
 
     /**
-     * Gets the wrapped {@link Output} object, or {@code null} if this has no output.
+     * Gets the wrapped {@link Output} object, or {@code null} if this has no output. Decodes the output if it has not
+     * been decoded yet.
      */
     public @Nullable Output getWrappedOutput() {
+        final @Nullable OutputDecoder outputDecoder = this.outputDecoder;
+        if(outputDecoder != null) {
+            // Concurrent calls may decode the output more than once, which is harmless as decoding has no side effects.
+            final Output output = outputDecoder.decode();
+            this.output = output;
+            this.outputDecoder = null;
+            return output;
+        }
         return output;
     }
 
 
     public TaskData withTaskObservability(Observability taskObservability) {
-        return new TaskData(input, internalObject, output, taskObservability, deps);
+        return new TaskData(input, internalObject, output, outputDecoder, mayHaveTransientOutput, taskObservability, deps);
+    }
+
+    public TaskData withDeps(TaskDeps deps) {
+        return new TaskData(input, internalObject, output, outputDecoder, mayHaveTransientOutput, taskObservability, deps);
     }
 
 
@@ -72,7 +140,9 @@ public final class TaskData {
         if(!input.equals(taskData.input)) return false;
         if(internalObject != null ? !internalObject.equals(taskData.internalObject) : taskData.internalObject != null)
             return false;
-        if(output != null ? !output.equals(taskData.output) : taskData.output != null) return false;
+        final @Nullable Output output = getWrappedOutput();
+        final @Nullable Output otherOutput = taskData.getWrappedOutput();
+        if(output != null ? !output.equals(otherOutput) : otherOutput != null) return false;
         if(taskObservability != taskData.taskObservability) return false;
         return deps.equals(taskData.deps);
     }
@@ -80,6 +150,7 @@ public final class TaskData {
     @Override public int hashCode() {
         int result = input.hashCode();
         result = 31 * result + (internalObject != null ? internalObject.hashCode() : 0);
+        final @Nullable Output output = getWrappedOutput();
         result = 31 * result + (output != null ? output.hashCode() : 0);
         result = 31 * result + taskObservability.hashCode();
         result = 31 * result + deps.hashCode();
@@ -90,7 +161,7 @@ public final class TaskData {
         return "TaskData{" +
             "input=" + input +
             ", internalObject=" + internalObject +
-            ", output=" + output +
+            ", output=" + (outputDecoder != null ? "(not decoded)" : output) +
             ", taskObservability=" + taskObservability +
             ", deps=" + deps +
             '}';
@@ -89,11 +89,11 @@ public interface Tracer {
 
     void checkVisitedStart(TaskKey key);
 
-    void checkVisitedEnd(TaskKey key, @Nullable Serializable output);
+    void checkVisitedEnd(TaskKey key, @Nullable TaskData data);
 
     void checkStoredStart(TaskKey key);
 
-    void checkStoredEnd(TaskKey key, @Nullable Serializable output);
+    void checkStoredEnd(TaskKey key, @Nullable TaskData data);
 
     void invokeCallbackStart(Consumer<@Nullable Serializable> observer, TaskKey key, @Nullable Serializable output);
 
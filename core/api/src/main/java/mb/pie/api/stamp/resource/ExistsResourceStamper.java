@@ -1,16 +1,20 @@
 package mb.pie.api.stamp.resource;
 
-import mb.pie.api.stamp.ResourceStamper;
 import mb.resource.ReadableResource;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
 
-public class ExistsResourceStamper<R extends ReadableResource> implements ResourceStamper<R> {
+public class ExistsResourceStamper<R extends ReadableResource> implements FileAttributesResourceStamper<R> {
     @Override public ValueResourceStamp<R> stamp(R resource) throws IOException {
         return new ValueResourceStamp<>(resource.exists(), this);
     }
 
+    @Override public ValueResourceStamp<R> stamp(R resource, @Nullable BasicFileAttributes attributes) {
+        return new ValueResourceStamp<>(attributes != null, this);
+    }
+
     @Override public boolean equals(@Nullable Object o) {
         return this == o || o != null && this.getClass() == o.getClass();
     }
@@ -0,0 +1,28 @@
+package mb.pie.api.stamp.resource;
+
+import mb.pie.api.stamp.ResourceStamp;
+import mb.pie.api.stamp.ResourceStamper;
+import mb.resource.ReadableResource;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Resource stamper that only depends on the {@link BasicFileAttributes basic file attributes} of filesystem resources.
+ * Allows the runtime to read the attributes of many resources in bulk, for example with one scan per directory, and to
+ * stamp resources from those attributes.
+ *
+ * @param <R> Type of {@link ReadableResource readable resource}.
+ */
+public interface FileAttributesResourceStamper<R extends ReadableResource> extends ResourceStamper<R> {
+    /**
+     * Stamps {@code resource} from its already read {@code attributes}, which must be equal to the stamp created by
+     * {@code stamp(resource)} for the same state of the filesystem.
+     *
+     * @param resource   Filesystem resource to stamp.
+     * @param attributes Attributes of the resource, following symbolic links, or {@code null} if the resource does not
+     *                   exist.
+     */
+    ResourceStamp<R> stamp(R resource, @Nullable BasicFileAttributes attributes) throws IOException;
+}
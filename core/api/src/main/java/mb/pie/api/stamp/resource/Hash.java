@@ -7,20 +7,47 @@ import mb.resource.hierarchical.walk.ResourceWalker;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.stream.Stream;
 
 public class Hash {
+    // Buffer per thread for streaming the contents of resources into a digest, reused for all hashed resources.
+    private static final int bufferSize = 64 * 1024;
+    private static final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[bufferSize]);
+
+    private final HashAlgorithm algorithm;
     private final MessageDigest digest;
+    private final @Nullable HashCache cache;
+
 
+    Hash(HashAlgorithm algorithm, @Nullable HashCache cache) {
+        this.algorithm = algorithm;
+        this.digest = algorithm.createDigest();
+        this.cache = cache;
+    }
+
+    Hash(@Nullable HashCache cache) {
+        this(HashAlgorithm.SHA1, cache);
+    }
 
     Hash() {
-        try {
-            digest = MessageDigest.getInstance("SHA-1");
-        } catch(NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
+        this(HashAlgorithm.SHA1, null);
+    }
+
+
+    /**
+     * Streams the contents of {@code file} into {@code digest} through a reusable buffer, without reading the whole
+     * file into memory.
+     */
+    static void updateContents(MessageDigest digest, ReadableResource file) throws IOException {
+        final byte[] buffer = buffers.get();
+        try(final InputStream inputStream = file.openRead()) {
+            int read;
+            while((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
         }
     }
 
@@ -60,7 +87,12 @@ public class Hash {
 
     private void updateResource(ReadableResource file) throws IOException {
         digest.update((byte)1);
-        digest.update(file.readBytes());
+        if(cache != null) {
+            // Update with the (cached) hash of the file instead of its contents.
+            digest.update(cache.getHash(file, algorithm));
+        } else {
+            updateContents(digest, file);
+        }
     }
 
     private void updateDir(HierarchicalResource dir, @Nullable ResourceMatcher matcher) throws IOException {
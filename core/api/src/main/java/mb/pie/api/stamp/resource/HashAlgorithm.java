@@ -0,0 +1,50 @@
+package mb.pie.api.stamp.resource;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hash algorithms for hashing the contents of resources in hash stampers.
+ */
+public enum HashAlgorithm {
+    /**
+     * SHA-1, a 160-bit cryptographic hash. The default algorithm.
+     */
+    SHA1 {
+        @Override public MessageDigest createDigest() {
+            return createMessageDigest("SHA-1");
+        }
+    },
+    /**
+     * SHA-256, a 256-bit cryptographic hash.
+     */
+    SHA256 {
+        @Override public MessageDigest createDigest() {
+            return createMessageDigest("SHA-256");
+        }
+    },
+    /**
+     * MurmurHash3 (x64, 128-bit variant), a fast non-cryptographic hash. Suitable for change detection of resources,
+     * but not for resources that are constructed to collide.
+     */
+    MURMUR3_128 {
+        @Override public MessageDigest createDigest() {
+            return new Murmur3Digest();
+        }
+    };
+
+
+    /**
+     * Creates a new digest for this algorithm.
+     */
+    public abstract MessageDigest createDigest();
+
+
+    private static MessageDigest createMessageDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch(NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
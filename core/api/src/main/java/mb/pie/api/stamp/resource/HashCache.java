@@ -0,0 +1,241 @@
+package mb.pie.api.stamp.resource;
+
+import mb.resource.ReadableResource;
+import mb.resource.ResourceKey;
+import mb.resource.fs.FSResource;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent cache of content hashes of files, similar to the index of Git. Maps resource keys to the size, last
+ * modification date, and file key (e.g., inode) of the file when it was last hashed, and the hash of its contents. The
+ * contents of a file are only hashed again when its metadata has changed.
+ *
+ * A file that is modified within the timestamp granularity of the filesystem after it was hashed may keep the same
+ * metadata, in which case the cached hash would be used even though the contents have changed. In strict mode, cached
+ * hashes are not used for files that were modified within {@link #getTimestampGranularity() timestamp granularity}
+ * before they were hashed, such that these files are hashed again until the cached hash is known to be clean.
+ *
+ * Caches are identified by the file they are persisted to: {@link #open(Path, boolean, Duration)} returns the same
+ * instance for the same file. Hash stampers that use a cache can therefore be serialized: a deserialized cache
+ * resolves to the open cache for its file, or opens it. Call {@link #save()} to persist the cache, for example after a
+ * build.
+ */
+public class HashCache implements Serializable {
+    private static final Duration defaultTimestampGranularity = Duration.ofSeconds(2);
+    private static final ConcurrentHashMap<URI, HashCache> openCaches = new ConcurrentHashMap<>();
+
+    private final URI file;
+    private final boolean strict;
+    private final Duration timestampGranularity;
+    private transient final ConcurrentHashMap<ResourceKey, Entry> entries;
+
+
+    private HashCache(URI file, boolean strict, Duration timestampGranularity, ConcurrentHashMap<ResourceKey, Entry> entries) {
+        this.file = file;
+        this.strict = strict;
+        this.timestampGranularity = timestampGranularity;
+        this.entries = entries;
+    }
+
+    /**
+     * Opens the cache persisted to {@code file}, loading entries from the file if it exists, or returns the already open
+     * cache for that file.
+     *
+     * @param file                 File to persist the cache to.
+     * @param strict               Whether to hash files that were modified within {@code timestampGranularity} before
+     *                             they were hashed again.
+     * @param timestampGranularity Timestamp granularity of the filesystem of hashed files.
+     * @throws IllegalStateException when the cache for {@code file} is already open with different settings.
+     */
+    public static HashCache open(Path file, boolean strict, Duration timestampGranularity) {
+        final HashCache cache = openCaches.computeIfAbsent(file.toUri(), (uri) -> new HashCache(uri, strict, timestampGranularity, load(file)));
+        if(cache.strict != strict || !cache.timestampGranularity.equals(timestampGranularity)) {
+            throw new IllegalStateException("Hash cache '" + file + "' is already open with strict = " + cache.strict + " and timestamp granularity = " + cache.timestampGranularity);
+        }
+        return cache;
+    }
+
+    /**
+     * Opens the cache persisted to {@code file} in strict mode, assuming a timestamp granularity of 2 seconds.
+     */
+    public static HashCache open(Path file) {
+        return open(file, true, defaultTimestampGranularity);
+    }
+
+
+    public boolean isStrict() {
+        return strict;
+    }
+
+    public Duration getTimestampGranularity() {
+        return timestampGranularity;
+    }
+
+    /**
+     * Gets the cached hash of the contents of {@code file} for {@code algorithm} if its metadata has not changed, or
+     * hashes its contents and caches the hash otherwise. One hash is cached per file: hashing a file with a different
+     * algorithm replaces its cached hash.
+     */
+    public byte[] getHash(ReadableResource file, HashAlgorithm algorithm) throws IOException {
+        final ResourceKey key = file.getKey();
+        final Metadata metadata = Metadata.of(file);
+        final @Nullable Entry entry = entries.get(key);
+        if(entry != null && entry.algorithm == algorithm && entry.metadata.equals(metadata) && !isRacy(entry)) {
+            return entry.hash;
+        }
+        // Get the time before hashing, such that modifications during hashing make the entry racy in strict mode.
+        final Instant hashedAt = Instant.now();
+        final MessageDigest digest = algorithm.createDigest();
+        Hash.updateContents(digest, file);
+        final byte[] hash = digest.digest();
+        entries.put(key, new Entry(metadata, hashedAt, algorithm, hash));
+        return hash;
+    }
+
+    /**
+     * Gets the cached SHA-1 hash of the contents of {@code file} if its metadata has not changed, or hashes its contents
+     * and caches the hash otherwise.
+     */
+    public byte[] getHash(ReadableResource file) throws IOException {
+        return getHash(file, HashAlgorithm.SHA1);
+    }
+
+    /**
+     * Removes all entries from this cache.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Persists this cache to its file. The file is replaced atomically when the filesystem supports it.
+     */
+    public void save() throws IOException {
+        final Path path = Paths.get(file);
+        final Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        final HashMap<ResourceKey, Entry> copy = new HashMap<>(entries);
+        try(
+            final OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(tempPath));
+            final ObjectOutputStream objectOutputStream = new ObjectOutputStream(outputStream)
+        ) {
+            objectOutputStream.writeObject(copy);
+        }
+        try {
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException e) {
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+
+    private boolean isRacy(Entry entry) {
+        if(!strict) return false;
+        return Duration.between(entry.metadata.lastModified, entry.hashedAt).compareTo(timestampGranularity) <= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ConcurrentHashMap<ResourceKey, Entry> load(Path file) {
+        try(
+            final InputStream inputStream = new BufferedInputStream(Files.newInputStream(file));
+            final ObjectInputStream objectInputStream = new ObjectInputStream(inputStream)
+        ) {
+            return new ConcurrentHashMap<>((HashMap<ResourceKey, Entry>)objectInputStream.readObject());
+        } catch(NoSuchFileException e) {
+            return new ConcurrentHashMap<>();
+        } catch(IOException | ClassNotFoundException | ClassCastException e) {
+            // Cache is corrupt or from an incompatible version: start with an empty cache.
+            return new ConcurrentHashMap<>();
+        }
+    }
+
+    private Object readResolve() throws ObjectStreamException {
+        return open(Paths.get(file), strict, timestampGranularity);
+    }
+
+
+    @Override public boolean equals(@Nullable Object o) {
+        if(this == o) return true;
+        if(o == null || getClass() != o.getClass()) return false;
+        final HashCache that = (HashCache)o;
+        return strict == that.strict && file.equals(that.file) && timestampGranularity.equals(that.timestampGranularity);
+    }
+
+    @Override public int hashCode() {
+        return Objects.hash(file, strict, timestampGranularity);
+    }
+
+    @Override public String toString() {
+        return "HashCache(" + file + ", strict = " + strict + ")";
+    }
+
+
+    private static class Metadata implements Serializable {
+        final long size;
+        final Instant lastModified;
+        final @Nullable String fileKey;
+
+        Metadata(long size, Instant lastModified, @Nullable String fileKey) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+        }
+
+        static Metadata of(ReadableResource file) throws IOException {
+            if(file instanceof FSResource) {
+                // Read all attributes at once, including the file key which detects files that were replaced.
+                final BasicFileAttributes attributes = Files.readAttributes(((FSResource)file).getJavaPath(), BasicFileAttributes.class);
+                final @Nullable Object fileKey = attributes.fileKey();
+                return new Metadata(attributes.size(), attributes.lastModifiedTime().toInstant(), fileKey != null ? fileKey.toString() : null);
+            }
+            return new Metadata(file.getSize(), file.getLastModifiedTime(), null);
+        }
+
+        @Override public boolean equals(@Nullable Object o) {
+            if(this == o) return true;
+            if(o == null || getClass() != o.getClass()) return false;
+            final Metadata that = (Metadata)o;
+            return size == that.size && lastModified.equals(that.lastModified) && Objects.equals(fileKey, that.fileKey);
+        }
+
+        @Override public int hashCode() {
+            return Objects.hash(size, lastModified, fileKey);
+        }
+    }
+
+    private static class Entry implements Serializable {
+        final Metadata metadata;
+        final Instant hashedAt;
+        final HashAlgorithm algorithm;
+        final byte[] hash;
+
+        Entry(Metadata metadata, Instant hashedAt, HashAlgorithm algorithm, byte[] hash) {
+            this.metadata = metadata;
+            this.hashedAt = hashedAt;
+            this.algorithm = algorithm;
+            this.hash = hash;
+        }
+    }
+}
@@ -10,18 +10,30 @@ import java.util.Objects;
 
 public class HashMatchResourceStamper implements ResourceStamper<HierarchicalResource> {
     private final @Nullable ResourceMatcher matcher;
+    private final HashAlgorithm algorithm;
+    private final @Nullable HashCache cache;
 
-    public HashMatchResourceStamper(ResourceMatcher matcher) {
+    public HashMatchResourceStamper(@Nullable ResourceMatcher matcher, HashAlgorithm algorithm, @Nullable HashCache cache) {
         this.matcher = matcher;
+        this.algorithm = algorithm;
+        this.cache = cache;
+    }
+
+    public HashMatchResourceStamper(@Nullable ResourceMatcher matcher, @Nullable HashCache cache) {
+        this(matcher, HashAlgorithm.SHA1, cache);
+    }
+
+    public HashMatchResourceStamper(ResourceMatcher matcher) {
+        this(matcher, HashAlgorithm.SHA1, null);
     }
 
     public HashMatchResourceStamper() {
-        this.matcher = null;
+        this(null, HashAlgorithm.SHA1, null);
     }
 
     @Override
     public ByteArrayResourceStamp<HierarchicalResource> stamp(HierarchicalResource resource) throws IOException {
-        final Hash hasher = new Hash();
+        final Hash hasher = new Hash(algorithm, cache);
         hasher.update(resource, matcher);
         final byte[] bytes = hasher.getHashBytesAndReset();
         return new ByteArrayResourceStamp<>(bytes, this);
@@ -31,14 +43,19 @@ public class HashMatchResourceStamper implements ResourceStamper<HierarchicalRes
         if(this == o) return true;
         if(o == null || getClass() != o.getClass()) return false;
         final HashMatchResourceStamper that = (HashMatchResourceStamper)o;
-        return Objects.equals(matcher, that.matcher);
+        if(!Objects.equals(matcher, that.matcher)) return false;
+        if(algorithm != that.algorithm) return false;
+        return Objects.equals(cache, that.cache);
     }
 
     @Override public int hashCode() {
-        return matcher != null ? matcher.hashCode() : 0;
+        int result = matcher != null ? matcher.hashCode() : 0;
+        result = 31 * result + algorithm.hashCode();
+        result = 31 * result + (cache != null ? cache.hashCode() : 0);
+        return result;
     }
 
     @Override public String toString() {
-        return "HashMatchResourceStamper(" + matcher + ")";
+        return "HashMatchResourceStamper(" + matcher + ", " + algorithm + (cache != null ? ", " + cache : "") + ")";
     }
 }
@@ -5,24 +5,47 @@ import mb.resource.ReadableResource;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.io.IOException;
+import java.util.Objects;
 
 public class HashResourceStamper<R extends ReadableResource> implements ResourceStamper<R> {
+    private final HashAlgorithm algorithm;
+    private final @Nullable HashCache cache;
+
+    public HashResourceStamper(HashAlgorithm algorithm, @Nullable HashCache cache) {
+        this.algorithm = algorithm;
+        this.cache = cache;
+    }
+
+    public HashResourceStamper(HashCache cache) {
+        this(HashAlgorithm.SHA1, cache);
+    }
+
+    public HashResourceStamper() {
+        this(HashAlgorithm.SHA1, null);
+    }
+
     @Override public ByteArrayResourceStamp<R> stamp(R resource) throws IOException {
-        final Hash hasher = new Hash();
+        final Hash hasher = new Hash(algorithm, cache);
         hasher.update(resource);
         final byte[] bytes = hasher.getHashBytesAndReset();
         return new ByteArrayResourceStamp<>(bytes, this);
     }
 
     @Override public boolean equals(@Nullable Object o) {
-        return this == o || o != null && this.getClass() == o.getClass();
+        if(this == o) return true;
+        if(o == null || getClass() != o.getClass()) return false;
+        final HashResourceStamper<?> that = (HashResourceStamper<?>)o;
+        if(algorithm != that.algorithm) return false;
+        return Objects.equals(cache, that.cache);
     }
 
     @Override public int hashCode() {
-        return 0;
+        int result = algorithm.hashCode();
+        result = 31 * result + (cache != null ? cache.hashCode() : 0);
+        return result;
     }
 
     @Override public String toString() {
-        return "HashResourceStamper()";
+        return "HashResourceStamper(" + algorithm + (cache != null ? ", " + cache : "") + ")";
     }
 }
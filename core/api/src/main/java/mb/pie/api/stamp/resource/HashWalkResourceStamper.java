@@ -12,20 +12,31 @@ import java.util.Objects;
 public class HashWalkResourceStamper implements ResourceStamper<HierarchicalResource> {
     private final @Nullable ResourceWalker walker;
     private final @Nullable ResourceMatcher matcher;
+    private final HashAlgorithm algorithm;
+    private final @Nullable HashCache cache;
 
-    public HashWalkResourceStamper(ResourceWalker walker, ResourceMatcher matcher) {
+    public HashWalkResourceStamper(@Nullable ResourceWalker walker, @Nullable ResourceMatcher matcher, HashAlgorithm algorithm, @Nullable HashCache cache) {
         this.walker = walker;
         this.matcher = matcher;
+        this.algorithm = algorithm;
+        this.cache = cache;
+    }
+
+    public HashWalkResourceStamper(@Nullable ResourceWalker walker, @Nullable ResourceMatcher matcher, @Nullable HashCache cache) {
+        this(walker, matcher, HashAlgorithm.SHA1, cache);
+    }
+
+    public HashWalkResourceStamper(ResourceWalker walker, ResourceMatcher matcher) {
+        this(walker, matcher, HashAlgorithm.SHA1, null);
     }
 
     public HashWalkResourceStamper() {
-        this.walker = null;
-        this.matcher = null;
+        this(null, null, HashAlgorithm.SHA1, null);
     }
 
     @Override
     public ByteArrayResourceStamp<HierarchicalResource> stamp(HierarchicalResource resource) throws IOException {
-        final Hash hasher = new Hash();
+        final Hash hasher = new Hash(algorithm, cache);
         hasher.updateRec(resource, walker, matcher);
         final byte[] bytes = hasher.getHashBytesAndReset();
         return new ByteArrayResourceStamp<>(bytes, this);
@@ -36,16 +47,20 @@ public class HashWalkResourceStamper implements ResourceStamper<HierarchicalReso
         if(o == null || getClass() != o.getClass()) return false;
         final HashWalkResourceStamper that = (HashWalkResourceStamper)o;
         if(!Objects.equals(walker, that.walker)) return false;
-        return Objects.equals(matcher, that.matcher);
+        if(!Objects.equals(matcher, that.matcher)) return false;
+        if(algorithm != that.algorithm) return false;
+        return Objects.equals(cache, that.cache);
     }
 
     @Override public int hashCode() {
         int result = walker != null ? walker.hashCode() : 0;
         result = 31 * result + (matcher != null ? matcher.hashCode() : 0);
+        result = 31 * result + algorithm.hashCode();
+        result = 31 * result + (cache != null ? cache.hashCode() : 0);
         return result;
     }
 
     @Override public String toString() {
-        return "HashWalkResourceStamper(" + walker + ", " + matcher + ")";
+        return "HashWalkResourceStamper(" + walker + ", " + matcher + ", " + algorithm + (cache != null ? ", " + cache : "") + ")";
     }
 }
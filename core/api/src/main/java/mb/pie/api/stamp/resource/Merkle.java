@@ -0,0 +1,180 @@
+package mb.pie.api.stamp.resource;
+
+import mb.resource.ReadableResource;
+import mb.resource.hierarchical.HierarchicalResource;
+import mb.resource.hierarchical.match.ResourceMatcher;
+import mb.resource.hierarchical.walk.ResourceWalker;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Computes Merkle tree hashes of directories: the hash of a directory is the hash of the names and hashes of its
+ * children, ordered by name. Subdirectories and files are hashed in parallel with fork/join, on a dedicated pool that is
+ * shared by all Merkle stampers, such that hashing, which blocks on I/O, does not occupy the
+ * {@link ForkJoinPool#commonPool() common pool}. Stampers are serialized into stores and therefore cannot refer to a
+ * session-specific executor. The resulting hash does not depend on the order in which children are hashed.
+ *
+ * Files are hashed by their contents, using a {@link HashCache hash cache} if one is given, or by their size and last
+ * modification date when {@code hashContents} is {@code false}.
+ */
+class Merkle {
+    private static final byte nonExistentTag = 0;
+    private static final byte fileTag = 1;
+    private static final byte directoryTag = 2;
+
+    private final @Nullable ResourceWalker walker;
+    private final @Nullable ResourceMatcher matcher;
+    private final HashAlgorithm algorithm;
+    private final @Nullable HashCache cache;
+    private final boolean hashContents;
+
+
+    Merkle(@Nullable ResourceWalker walker, @Nullable ResourceMatcher matcher, HashAlgorithm algorithm, @Nullable HashCache cache, boolean hashContents) {
+        this.walker = walker;
+        this.matcher = matcher;
+        this.algorithm = algorithm;
+        this.cache = cache;
+        this.hashContents = hashContents;
+    }
+
+
+    byte[] hash(HierarchicalResource resource) throws IOException {
+        if(!resource.exists()) {
+            final MessageDigest digest = algorithm.createDigest();
+            digest.update(nonExistentTag);
+            return digest.digest();
+        } else if(resource.isDirectory()) {
+            try {
+                return Pool.instance.invoke(new DirectoryTask(resource, resource));
+            } catch(UncheckedIOException e) {
+                throw e.getCause();
+            }
+        } else {
+            return hashFile(resource);
+        }
+    }
+
+
+    private byte[] hashFile(ReadableResource file) throws IOException {
+        final MessageDigest digest = algorithm.createDigest();
+        digest.update(fileTag);
+        if(!hashContents) {
+            updateLong(digest, file.getSize());
+            updateLong(digest, file.getLastModifiedTime().toEpochMilli());
+        } else if(cache != null) {
+            digest.update(cache.getHash(file, algorithm));
+        } else {
+            Hash.updateContents(digest, file);
+        }
+        return digest.digest();
+    }
+
+    private static void updateLong(MessageDigest digest, long value) {
+        for(int i = 56; i >= 0; i -= 8) {
+            digest.update((byte)(value >>> i));
+        }
+    }
+
+    private static void updateName(MessageDigest digest, String name) {
+        // Prefix names with their length, such that the concatenation of names and hashes is unambiguous.
+        final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        updateLong(digest, bytes.length);
+        digest.update(bytes);
+    }
+
+
+    /**
+     * Holder of the dedicated pool, which is only created when a directory is hashed. Worker threads are daemon
+     * threads, and are stopped by the pool when they are idle.
+     */
+    private static class Pool {
+        static final ForkJoinPool instance = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), (pool) -> {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("pie-merkle-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+
+    private class DirectoryTask extends RecursiveTask<byte[]> {
+        private final HierarchicalResource directory;
+        private final HierarchicalResource rootDirectory;
+
+        DirectoryTask(HierarchicalResource directory, HierarchicalResource rootDirectory) {
+            this.directory = directory;
+            this.rootDirectory = rootDirectory;
+        }
+
+        @Override protected byte[] compute() {
+            try {
+                final ArrayList<String> names = new ArrayList<>();
+                final ArrayList<ForkJoinTask<byte[]>> tasks = new ArrayList<>();
+                for(HierarchicalResource child : listSorted()) {
+                    final @Nullable ForkJoinTask<byte[]> task = createTask(child);
+                    if(task != null) {
+                        names.add(Objects.requireNonNull(child.getLeaf()));
+                        tasks.add(task);
+                    }
+                }
+                ForkJoinTask.invokeAll(tasks);
+                final MessageDigest digest = algorithm.createDigest();
+                digest.update(directoryTag);
+                for(int i = 0; i < tasks.size(); ++i) {
+                    updateName(digest, names.get(i));
+                    digest.update(tasks.get(i).join());
+                }
+                return digest.digest();
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private ArrayList<HierarchicalResource> listSorted() throws IOException {
+            try(final Stream<? extends HierarchicalResource> stream = directory.list()) {
+                return stream
+                    .sorted(Comparator.comparing((HierarchicalResource child) -> Objects.requireNonNull(child.getLeaf())))
+                    .collect(Collectors.toCollection(ArrayList::new));
+            }
+        }
+
+        private @Nullable ForkJoinTask<byte[]> createTask(HierarchicalResource child) throws IOException {
+            if(child.isDirectory()) {
+                if(walker == null || walker.traverse(child, rootDirectory)) {
+                    return new DirectoryTask(child, rootDirectory);
+                }
+            } else if(matcher == null || matcher.matches(child, rootDirectory)) {
+                return new FileTask(child);
+            }
+            return null;
+        }
+    }
+
+    private class FileTask extends RecursiveTask<byte[]> {
+        private final ReadableResource file;
+
+        FileTask(ReadableResource file) {
+            this.file = file;
+        }
+
+        @Override protected byte[] compute() {
+            try {
+                return hashFile(file);
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package mb.pie.api.stamp.resource;
+
+import mb.pie.api.stamp.ResourceStamper;
+import mb.resource.hierarchical.HierarchicalResource;
+import mb.resource.hierarchical.match.ResourceMatcher;
+import mb.resource.hierarchical.walk.ResourceWalker;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Stamps directories with the root hash of a Merkle tree over the directories it traverses and the files it matches,
+ * hashing subtrees in parallel on a dedicated fork/join pool. Unlike {@link HashWalkResourceStamper} and {@link ModifiedWalkResourceStamper}, the
+ * stamp changes when files or directories are added, removed, or renamed, even when their contents are unchanged.
+ */
+public class MerkleResourceStamper implements ResourceStamper<HierarchicalResource> {
+    private final @Nullable ResourceWalker walker;
+    private final @Nullable ResourceMatcher matcher;
+    private final HashAlgorithm algorithm;
+    private final @Nullable HashCache cache;
+    private final boolean hashContents;
+
+    public MerkleResourceStamper(@Nullable ResourceWalker walker, @Nullable ResourceMatcher matcher, HashAlgorithm algorithm, @Nullable HashCache cache, boolean hashContents) {
+        this.walker = walker;
+        this.matcher = matcher;
+        this.algorithm = algorithm;
+        this.cache = cache;
+        this.hashContents = hashContents;
+    }
+
+    public MerkleResourceStamper(@Nullable ResourceWalker walker, @Nullable ResourceMatcher matcher, boolean hashContents) {
+        this(walker, matcher, HashAlgorithm.SHA1, null, hashContents);
+    }
+
+    public MerkleResourceStamper() {
+        this(null, null, HashAlgorithm.SHA1, null, true);
+    }
+
+    @Override
+    public ByteArrayResourceStamp<HierarchicalResource> stamp(HierarchicalResource resource) throws IOException {
+        final Merkle merkle = new Merkle(walker, matcher, algorithm, cache, hashContents);
+        final byte[] bytes = merkle.hash(resource);
+        return new ByteArrayResourceStamp<>(bytes, this);
+    }
+
+    @Override public boolean equals(@Nullable Object o) {
+        if(this == o) return true;
+        if(o == null || getClass() != o.getClass()) return false;
+        final MerkleResourceStamper that = (MerkleResourceStamper)o;
+        if(hashContents != that.hashContents) return false;
+        if(!Objects.equals(walker, that.walker)) return false;
+        if(!Objects.equals(matcher, that.matcher)) return false;
+        if(algorithm != that.algorithm) return false;
+        return Objects.equals(cache, that.cache);
+    }
+
+    @Override public int hashCode() {
+        int result = walker != null ? walker.hashCode() : 0;
+        result = 31 * result + (matcher != null ? matcher.hashCode() : 0);
+        result = 31 * result + algorithm.hashCode();
+        result = 31 * result + (cache != null ? cache.hashCode() : 0);
+        result = 31 * result + (hashContents ? 1 : 0);
+        return result;
+    }
+
+    @Override public String toString() {
+        return "MerkleResourceStamper(" + walker + ", " + matcher + ", " + algorithm + (cache != null ? ", " + cache : "") + (hashContents ? "" : ", modified") + ")";
+    }
+}
@@ -0,0 +1,218 @@
+package mb.pie.api.stamp.resource;
+
+import mb.resource.ReadableResource;
+import mb.resource.fs.FSResource;
+import mb.resource.hierarchical.HierarchicalResource;
+import mb.resource.hierarchical.match.ResourceMatcher;
+import mb.resource.hierarchical.walk.ResourceWalker;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.stream.Stream;
+
+/**
+ * Computes compact stamps from the metadata of resources: the last modification date with nanosecond precision (as far
+ * as the filesystem supports it), the size, and the file key (e.g., inode) which detects files that were replaced.
+ * Metadata of {@link FSResource filesystem resources} is read with one {@link Files#readAttributes} call per file.
+ * Stamps of directories combine the metadata of the resources in the directory with their path relative to the
+ * directory, independent of the order in which they are listed.
+ */
+class Metadata {
+    private static final long nonExistent = 0;
+    private static final long directoryTag = 1;
+
+
+    static long metadata(ReadableResource resource) throws IOException {
+        if(resource instanceof FSResource) {
+            return metadata(readAttributes(((FSResource)resource).getJavaPath()));
+        }
+        if(!resource.exists()) {
+            return nonExistent;
+        }
+        return file(resource.getLastModifiedTime(), resource.getSize(), null);
+    }
+
+    static long metadata(@Nullable BasicFileAttributes attributes) {
+        if(attributes == null) {
+            return nonExistent;
+        }
+        return file(attributes.lastModifiedTime().toInstant(), attributes.size(), attributes.fileKey());
+    }
+
+    static long metadata(HierarchicalResource resource, @Nullable ResourceMatcher matcher) throws IOException {
+        if(resource instanceof FSResource) {
+            return metadataFS((FSResource)resource, null, matcher, 1);
+        } else if(!resource.isDirectory()) {
+            return metadata(resource);
+        } else {
+            final boolean useMatcher = matcher != null;
+            try(final Stream<? extends HierarchicalResource> stream = useMatcher ? resource.list(matcher) : resource.list()) {
+                return metadataDir(resource, stream);
+            }
+        }
+    }
+
+    static long metadataRec(HierarchicalResource resource, @Nullable ResourceWalker walker, @Nullable ResourceMatcher matcher) throws IOException {
+        final boolean useWalker = walker != null && matcher != null;
+        if(resource instanceof FSResource) {
+            return metadataFS((FSResource)resource, useWalker ? walker : null, useWalker ? matcher : null, Integer.MAX_VALUE);
+        } else if(!resource.isDirectory()) {
+            return metadata(resource);
+        } else {
+            try(final Stream<? extends HierarchicalResource> stream = useWalker ? resource.walk(walker, matcher) : resource.walk()) {
+                return metadataDir(resource, stream);
+            }
+        }
+    }
+
+
+    private static long metadataFS(FSResource resource, @Nullable ResourceWalker walker, @Nullable ResourceMatcher matcher, int maxDepth) throws IOException {
+        final @Nullable BasicFileAttributes attributes = readAttributes(resource.getJavaPath());
+        if(attributes == null) {
+            return nonExistent;
+        } else if(!attributes.isDirectory()) {
+            return file(attributes.lastModifiedTime().toInstant(), attributes.size(), attributes.fileKey());
+        }
+        return metadataDir(resource, walker, matcher, maxDepth);
+    }
+
+    private static long metadataDir(FSResource dir, @Nullable ResourceWalker walker, @Nullable ResourceMatcher matcher, int maxDepth) throws IOException {
+        final Path root = dir.getJavaPath();
+        final Aggregate aggregate = new Aggregate();
+        // Walk the file tree instead of streaming resources, since the walk provides the attributes of each file.
+        final FileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attributes) throws IOException {
+                if(path.equals(root)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                add(path, attributes);
+                if(walker != null && !walker.traverse(new FSResource(path), dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) throws IOException {
+                add(path, attributes);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override public FileVisitResult visitFileFailed(Path path, IOException e) throws IOException {
+                if(e instanceof NoSuchFileException) {
+                    // File was deleted while walking: ignore it, as if it was deleted before walking.
+                    return FileVisitResult.CONTINUE;
+                }
+                throw e;
+            }
+
+            private void add(Path path, BasicFileAttributes attributes) throws IOException {
+                if(matcher != null && !matcher.matches(new FSResource(path), dir)) {
+                    return;
+                }
+                final String relativePath = root.relativize(path).toString();
+                if(attributes.isDirectory()) {
+                    aggregate.add(directory(relativePath));
+                } else {
+                    aggregate.add(entry(relativePath, file(attributes.lastModifiedTime().toInstant(), attributes.size(), attributes.fileKey())));
+                }
+            }
+        };
+        Files.walkFileTree(root, Collections.emptySet(), maxDepth, visitor);
+        return aggregate.get();
+    }
+
+    private static long metadataDir(HierarchicalResource dir, Stream<? extends HierarchicalResource> stream) throws IOException {
+        final Aggregate aggregate = new Aggregate();
+        try {
+            stream.forEach((resource) -> {
+                try {
+                    final String relativePath = dir.getPath().relativize(resource.getPath());
+                    if(relativePath.isEmpty()) {
+                        return; // Skip the directory itself.
+                    }
+                    if(resource.isDirectory()) {
+                        aggregate.add(directory(relativePath));
+                    } else {
+                        aggregate.add(entry(relativePath, file(resource.getLastModifiedTime(), resource.getSize(), null)));
+                    }
+                } catch(IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch(UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return aggregate.get();
+    }
+
+    private static @Nullable BasicFileAttributes readAttributes(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch(NoSuchFileException e) {
+            return null;
+        }
+    }
+
+
+    private static long file(Instant lastModified, long size, @Nullable Object fileKey) {
+        long hash = mix(lastModified.getEpochSecond());
+        hash = combine(hash, lastModified.getNano());
+        hash = combine(hash, size);
+        // Use the hash code of the string representation, which is stable between runs, unlike some file keys.
+        hash = combine(hash, fileKey != null ? fileKey.toString().hashCode() : 0);
+        return hash;
+    }
+
+    private static long directory(String relativePath) {
+        return combine(mix(relativePath.hashCode()), directoryTag);
+    }
+
+    private static long entry(String relativePath, long metadata) {
+        return combine(mix(relativePath.hashCode()), metadata);
+    }
+
+    private static long combine(long hash, long value) {
+        return mix(hash * 31 + mix(value));
+    }
+
+    /**
+     * Finalization mix of MurmurHash3, spreading each bit of {@code value} over all bits of the result.
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+
+    /**
+     * Order-independent aggregate of metadata of resources in a directory.
+     */
+    private static class Aggregate {
+        private long sum = 0;
+        private long count = 0;
+
+        void add(long metadata) {
+            sum += metadata;
+            ++count;
+        }
+
+        long get() {
+            return combine(mix(sum), count);
+        }
+    }
+}
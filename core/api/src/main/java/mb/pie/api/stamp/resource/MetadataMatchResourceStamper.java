@@ -0,0 +1,41 @@
+package mb.pie.api.stamp.resource;
+
+import mb.pie.api.stamp.ResourceStamper;
+import mb.resource.hierarchical.HierarchicalResource;
+import mb.resource.hierarchical.match.ResourceMatcher;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.util.Objects;
+
+public class MetadataMatchResourceStamper implements ResourceStamper<HierarchicalResource> {
+    private final @Nullable ResourceMatcher matcher;
+
+    public MetadataMatchResourceStamper(ResourceMatcher matcher) {
+        this.matcher = matcher;
+    }
+
+    public MetadataMatchResourceStamper() {
+        this.matcher = null;
+    }
+
+    @Override public ValueResourceStamp<HierarchicalResource> stamp(HierarchicalResource resource) throws IOException {
+        final long metadata = Metadata.metadata(resource, matcher);
+        return new ValueResourceStamp<>(metadata, this);
+    }
+
+    @Override public boolean equals(@Nullable Object o) {
+        if(this == o) return true;
+        if(o == null || getClass() != o.getClass()) return false;
+        final MetadataMatchResourceStamper that = (MetadataMatchResourceStamper)o;
+        return Objects.equals(matcher, that.matcher);
+    }
+
+    @Override public int hashCode() {
+        return matcher != null ? matcher.hashCode() : 0;
+    }
+
+    @Override public String toString() {
+        return "MetadataMatchResourceStamper(" + matcher + ")";
+    }
+}
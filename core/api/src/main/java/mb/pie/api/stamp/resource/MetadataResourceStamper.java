@@ -0,0 +1,31 @@
+package mb.pie.api.stamp.resource;
+
+import mb.resource.ReadableResource;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+
+public class MetadataResourceStamper<R extends ReadableResource> implements FileAttributesResourceStamper<R> {
+    @Override public ValueResourceStamp<R> stamp(R file) throws IOException {
+        final long metadata = Metadata.metadata(file);
+        return new ValueResourceStamp<>(metadata, this);
+    }
+
+    @Override public ValueResourceStamp<R> stamp(R file, @Nullable BasicFileAttributes attributes) {
+        final long metadata = Metadata.metadata(attributes);
+        return new ValueResourceStamp<>(metadata, this);
+    }
+
+    @Override public boolean equals(@Nullable Object o) {
+        return this == o || o != null && this.getClass() == o.getClass();
+    }
+
+    @Override public int hashCode() {
+        return 0;
+    }
+
+    @Override public String toString() {
+        return "MetadataResourceStamper()";
+    }
+}
@@ -8,6 +8,7 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.stream.Stream;
 
 class Modified {
@@ -19,6 +20,14 @@ class Modified {
         }
     }
 
+    static long modified(@Nullable BasicFileAttributes attributes) {
+        if(attributes == null) {
+            return getMaximum();
+        } else {
+            return attributes.lastModifiedTime().toInstant().toEpochMilli();
+        }
+    }
+
     static long modified(HierarchicalResource resource, @Nullable ResourceMatcher matcher) throws IOException {
         if(!resource.exists()) {
             return getMaximum();
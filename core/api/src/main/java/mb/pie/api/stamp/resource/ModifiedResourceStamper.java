@@ -1,17 +1,22 @@
 package mb.pie.api.stamp.resource;
 
-import mb.pie.api.stamp.ResourceStamper;
 import mb.resource.ReadableResource;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
 
-public class ModifiedResourceStamper<R extends ReadableResource> implements ResourceStamper<R> {
+public class ModifiedResourceStamper<R extends ReadableResource> implements FileAttributesResourceStamper<R> {
     @Override public ValueResourceStamp<R> stamp(R file) throws IOException {
         final long modified = Modified.modified(file);
         return new ValueResourceStamp<>(modified, this);
     }
 
+    @Override public ValueResourceStamp<R> stamp(R file, @Nullable BasicFileAttributes attributes) {
+        final long modified = Modified.modified(attributes);
+        return new ValueResourceStamp<>(modified, this);
+    }
+
     @Override public boolean equals(@Nullable Object o) {
         return this == o || o != null && this.getClass() == o.getClass();
     }
@@ -0,0 +1,156 @@
+package mb.pie.api.stamp.resource;
+
+import java.security.MessageDigest;
+
+/**
+ * Pure Java implementation of the x64 128-bit variant of MurmurHash3, with seed 0, as a {@link MessageDigest}. Produces
+ * the same hash as {@code Hashing.murmur3_128()} in Guava: {@code h1} followed by {@code h2}, both in little-endian
+ * order.
+ */
+class Murmur3Digest extends MessageDigest {
+    private static final int blockSize = 16;
+    private static final long c1 = 0x87c37b91114253d5L;
+    private static final long c2 = 0x4cf5ad432745937fL;
+
+    private final byte[] block = new byte[blockSize];
+    private int blockLength = 0;
+    private long length = 0;
+    private long h1 = 0;
+    private long h2 = 0;
+
+
+    Murmur3Digest() {
+        super("MurmurHash3-128");
+    }
+
+
+    @Override protected int engineGetDigestLength() {
+        return 16;
+    }
+
+    @Override protected void engineUpdate(byte input) {
+        block[blockLength++] = input;
+        if(blockLength == blockSize) {
+            mixBlock(block, 0);
+            blockLength = 0;
+        }
+        ++length;
+    }
+
+    @Override protected void engineUpdate(byte[] input, int offset, int len) {
+        length += len;
+        // Fill up a partially filled block first.
+        if(blockLength > 0) {
+            final int n = Math.min(blockSize - blockLength, len);
+            System.arraycopy(input, offset, block, blockLength, n);
+            blockLength += n;
+            offset += n;
+            len -= n;
+            if(blockLength < blockSize) return;
+            mixBlock(block, 0);
+            blockLength = 0;
+        }
+        // Mix whole blocks directly from the input.
+        while(len >= blockSize) {
+            mixBlock(input, offset);
+            offset += blockSize;
+            len -= blockSize;
+        }
+        // Keep the remainder.
+        System.arraycopy(input, offset, block, 0, len);
+        blockLength = len;
+    }
+
+    @Override protected byte[] engineDigest() {
+        long k1 = 0;
+        long k2 = 0;
+        for(int i = blockLength - 1; i >= 8; --i) {
+            k2 ^= (long)(block[i] & 0xff) << ((i - 8) * 8);
+        }
+        if(blockLength > 8) {
+            h2 ^= mixK2(k2);
+        }
+        for(int i = Math.min(blockLength, 8) - 1; i >= 0; --i) {
+            k1 ^= (long)(block[i] & 0xff) << (i * 8);
+        }
+        if(blockLength > 0) {
+            h1 ^= mixK1(k1);
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+
+        final byte[] digest = new byte[16];
+        putLongLittleEndian(digest, 0, h1);
+        putLongLittleEndian(digest, 8, h2);
+        engineReset();
+        return digest;
+    }
+
+    @Override protected void engineReset() {
+        blockLength = 0;
+        length = 0;
+        h1 = 0;
+        h2 = 0;
+    }
+
+
+    private void mixBlock(byte[] bytes, int offset) {
+        final long k1 = getLongLittleEndian(bytes, offset);
+        final long k2 = getLongLittleEndian(bytes, offset + 8);
+        h1 ^= mixK1(k1);
+        h1 = Long.rotateLeft(h1, 27);
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+        h2 ^= mixK2(k2);
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= c1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= c2;
+        return k1;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= c2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= c1;
+        return k2;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static long getLongLittleEndian(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xffL)
+            | (bytes[offset + 1] & 0xffL) << 8
+            | (bytes[offset + 2] & 0xffL) << 16
+            | (bytes[offset + 3] & 0xffL) << 24
+            | (bytes[offset + 4] & 0xffL) << 32
+            | (bytes[offset + 5] & 0xffL) << 40
+            | (bytes[offset + 6] & 0xffL) << 48
+            | (bytes[offset + 7] & 0xffL) << 56;
+    }
+
+    private static void putLongLittleEndian(byte[] bytes, int offset, long value) {
+        for(int i = 0; i < 8; ++i) {
+            bytes[offset + i] = (byte)(value >>> (i * 8));
+        }
+    }
+}
@@ -4,6 +4,7 @@ import mb.resource.ReadableResource;
 import mb.resource.hierarchical.HierarchicalResource;
 import mb.resource.hierarchical.match.ResourceMatcher;
 import mb.resource.hierarchical.walk.ResourceWalker;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 /**
  * Common resource stampers.
@@ -82,6 +83,66 @@ public class ResourceStampers {
     }
 
 
+    /**
+     * Returns a stamper for {@link ReadableResource readable resources} that stamps based on the metadata of the
+     * resource: its last modification date with nanosecond precision, its size, and its file key. Unlike
+     * {@link #modifiedFile()}, changes within the same millisecond, and files that are replaced by a file with the same
+     * modification date, are detected. Metadata of filesystem resources is read with a single filesystem call.
+     *
+     * @param <R> Type of {@link ReadableResource readable resource}.
+     * @return Stamper.
+     */
+    public static <R extends ReadableResource> MetadataResourceStamper<R> metadataFile() {
+        return new MetadataResourceStamper<>();
+    }
+
+    /**
+     * Returns a stamper for {@link HierarchicalResource hierarchical resources} that stamps based on the metadata of a
+     * file, or on the combined metadata and names of non-recursive resources in a directory.
+     *
+     * @return Stamper.
+     */
+    public static MetadataMatchResourceStamper metadataDir() {
+        return new MetadataMatchResourceStamper();
+    }
+
+    /**
+     * Returns a stamper for {@link HierarchicalResource hierarchical resources} that stamps based on the metadata of a
+     * file, or on the combined metadata and names of non-recursive resources in a directory. When the resource is a
+     * directory, only stamps resources in the directory that match given {@link ResourceMatcher resource matcher}.
+     *
+     * @param matcher Resource matcher.
+     * @return Stamper.
+     */
+    public static MetadataMatchResourceStamper metadataDir(ResourceMatcher matcher) {
+        return new MetadataMatchResourceStamper(matcher);
+    }
+
+    /**
+     * Returns a stamper for {@link HierarchicalResource hierarchical resources} that stamps based on the metadata of a
+     * file, or on the combined metadata and relative paths of recursive resources in a directory.
+     *
+     * @return Stamper.
+     */
+    public static MetadataWalkResourceStamper metadataDirRec() {
+        return new MetadataWalkResourceStamper();
+    }
+
+    /**
+     * Returns a stamper for {@link HierarchicalResource hierarchical resources} that stamps based on the metadata of a
+     * file, or on the combined metadata and relative paths of recursive resources in a directory. When the resource is
+     * a directory, only traverses subdirectories that match given {@link ResourceWalker resource walker}, and only
+     * stamps resources that match given {@link ResourceMatcher resource matcher}.
+     *
+     * @param walker  Resource walker.
+     * @param matcher Resource matcher.
+     * @return Stamper.
+     */
+    public static MetadataWalkResourceStamper metadataDirRec(ResourceWalker walker, ResourceMatcher matcher) {
+        return new MetadataWalkResourceStamper(walker, matcher);
+    }
+
+
     /**
      * Returns a stamper for {@link ReadableResource readable resources} that stamps based on the hash of the contents
      * of of the resource. Directories cannot be stamped with this stamper.
@@ -93,6 +154,33 @@ public class ResourceStampers {
         return new HashResourceStamper<>();
     }
 
+    /**
+     * Returns a stamper for {@link ReadableResource readable resources} that stamps based on the hash of the contents
+     * of the resource, only hashing the contents again when the metadata of the resource has changed since it was last
+     * hashed into given {@link HashCache hash cache}. Directories cannot be stamped with this stamper.
+     *
+     * @param cache Hash cache.
+     * @param <R>   Type of {@link ReadableResource readable resource}.
+     * @return Stamper.
+     */
+    public static <R extends ReadableResource> HashResourceStamper<R> hashFile(HashCache cache) {
+        return new HashResourceStamper<>(cache);
+    }
+
+    /**
+     * Returns a stamper for {@link ReadableResource readable resources} that stamps based on the hash of the contents
+     * of the resource, hashed with given {@link HashAlgorithm hash algorithm}. Directories cannot be stamped with this
+     * stamper.
+     *
+     * @param algorithm Hash algorithm.
+     * @param cache     Hash cache, or {@code null} to not cache hashes.
+     * @param <R>       Type of {@link ReadableResource readable resource}.
+     * @return Stamper.
+     */
+    public static <R extends ReadableResource> HashResourceStamper<R> hashFile(HashAlgorithm algorithm, @Nullable HashCache cache) {
+        return new HashResourceStamper<>(algorithm, cache);
+    }
+
     /**
      * Returns a stamper for {@link HierarchicalResource hierarchical resources} that stamps based on the hash of the
      * contents of a file, or on the combined hash of non-recursive resources in a directory.
@@ -115,6 +203,48 @@ public class ResourceStampers {
         return new HashMatchResourceStamper(matcher);
     }
 
+    /**
+     * Returns a stamper for {@link HierarchicalResource hierarchical resources} that stamps based on the hash of the
+     * contents of a file, or on the combined hash of non-recursive resources in a directory. Files are only hashed
+     * again when their metadata has changed since they were last hashed into given {@link HashCache hash cache}.
+     *
+     * @param cache Hash cache.
+     * @return Stamper.
+     */
+    public static HashMatchResourceStamper hashDir(HashCache cache) {
+        return new HashMatchResourceStamper(null, cache);
+    }
+
+    /**
+     * Returns a stamper for {@link HierarchicalResource hierarchical resources} that stamps based on the hash of the
+     * contents of a file, or on the combined hash of non-recursive resources in a directory. When the resource is a
+     * directory, only hashes resources in the directory that match given {@link ResourceMatcher resource matcher}.
+     * Files are only hashed again when their metadata has changed since they were last hashed into given
+     * {@link HashCache hash cache}.
+     *
+     * @param matcher Resource matcher.
+     * @param cache   Hash cache.
+     * @return Stamper.
+     */
+    public static HashMatchResourceStamper hashDir(ResourceMatcher matcher, HashCache cache) {
+        return new HashMatchResourceStamper(matcher, cache);
+    }
+
+    /**
+     * Returns a stamper for {@link HierarchicalResource hierarchical resources} that stamps based on the hash of the
+     * contents of a file, or on the combined hash of non-recursive resources in a directory, hashed with given
+     * {@link HashAlgorithm hash algorithm}. When the resource is a directory, only hashes resources in the directory
+     * that match given {@link ResourceMatcher resource matcher}, or all resources when it is {@code null}.
+     *
+     * @param matcher   Resource matcher, or {@code null} to match all resources.
+     * @param algorithm Hash algorithm.
+     * @param cache     Hash cache, or {@code null} to not cache hashes.
+     * @return Stamper.
+     */
+    public static HashMatchResourceStamper hashDir(@Nullable ResourceMatcher matcher, HashAlgorithm algorithm, @Nullable HashCache cache) {
+        return new HashMatchResourceStamper(matcher, algorithm, cache);
+    }
+
     /**
      * Returns a stamper for {@link HierarchicalResource hierarchical resources} that stamps based on the hash of the
      * contents of a file, or on the combined hash of recursive resources in a directory.
@@ -138,4 +268,107 @@ public class ResourceStampers {
     public static HashWalkResourceStamper hashDirRec(ResourceWalker walker, ResourceMatcher matcher) {
         return new HashWalkResourceStamper(walker, matcher);
     }
+
+    /**
+     * Returns a stamper for {@link HierarchicalResource hierarchical resources} that stamps based on the hash of the
+     * contents of a file, or on the combined hash of recursive resources in a directory. Files are only hashed again
+     * when their metadata has changed since they were last hashed into given {@link HashCache hash cache}.
+     *
+     * @param cache Hash cache.
+     * @return Stamper.
+     */
+    public static HashWalkResourceStamper hashDirRec(HashCache cache) {
+        return new HashWalkResourceStamper(null, null, cache);
+    }
+
+    /**
+     * Returns a stamper for {@link HierarchicalResource hierarchical resources} that stamps based on the hash of the
+     * contents of a file, or on the combined hash of recursive resources in a directory. When the resource is a
+     * directory, only traverses subdirectories that match given {@link ResourceWalker resource walker}, and only hashes
+     * files that match given {@link ResourceMatcher resource matcher}. Files are only hashed again when their metadata
+     * has changed since they were last hashed into given {@link HashCache hash cache}.
+     *
+     * @param matcher Resource matcher.
+     * @param walker  Resource walker.
+     * @param cache   Hash cache.
+     * @return Stamper.
+     */
+    public static HashWalkResourceStamper hashDirRec(ResourceWalker walker, ResourceMatcher matcher, HashCache cache) {
+        return new HashWalkResourceStamper(walker, matcher, cache);
+    }
+
+    /**
+     * Returns a stamper for {@link HierarchicalResource hierarchical resources} that stamps based on the hash of the
+     * contents of a file, or on the combined hash of recursive resources in a directory, hashed with given
+     * {@link HashAlgorithm hash algorithm}. When the resource is a directory and {@code walker} and {@code matcher} are
+     * not {@code null}, only traverses subdirectories that match given {@link ResourceWalker resource walker}, and only
+     * hashes files that match given {@link ResourceMatcher resource matcher}.
+     *
+     * @param walker    Resource walker, or {@code null} to traverse all subdirectories.
+     * @param matcher   Resource matcher, or {@code null} to hash all files.
+     * @param algorithm Hash algorithm.
+     * @param cache     Hash cache, or {@code null} to not cache hashes.
+     * @return Stamper.
+     */
+    public static HashWalkResourceStamper hashDirRec(@Nullable ResourceWalker walker, @Nullable ResourceMatcher matcher, HashAlgorithm algorithm, @Nullable HashCache cache) {
+        return new HashWalkResourceStamper(walker, matcher, algorithm, cache);
+    }
+
+
+    /**
+     * Returns a stamper for {@link HierarchicalResource hierarchical resources} that stamps based on the hash of the
+     * contents of a file, or on the root hash of a Merkle tree over the names and contents of recursive resources in a
+     * directory. Subdirectories and files are hashed in parallel. The stamp changes when files or directories are added,
+     * removed, or renamed.
+     *
+     * @return Stamper.
+     */
+    public static MerkleResourceStamper merkleHashDirRec() {
+        return new MerkleResourceStamper();
+    }
+
+    /**
+     * Returns a stamper for {@link HierarchicalResource hierarchical resources} that stamps based on the hash of the
+     * contents of a file, or on the root hash of a Merkle tree over the names and contents of recursive resources in a
+     * directory. Subdirectories and files are hashed in parallel. When the resource is a directory, only traverses
+     * subdirectories that match given {@link ResourceWalker resource walker}, and only hashes files that match given
+     * {@link ResourceMatcher resource matcher}.
+     *
+     * @param walker    Resource walker, or {@code null} to traverse all subdirectories.
+     * @param matcher   Resource matcher, or {@code null} to hash all files.
+     * @param algorithm Hash algorithm.
+     * @param cache     Hash cache, or {@code null} to not cache hashes of files.
+     * @return Stamper.
+     */
+    public static MerkleResourceStamper merkleHashDirRec(@Nullable ResourceWalker walker, @Nullable ResourceMatcher matcher, HashAlgorithm algorithm, @Nullable HashCache cache) {
+        return new MerkleResourceStamper(walker, matcher, algorithm, cache, true);
+    }
+
+    /**
+     * Returns a stamper for {@link HierarchicalResource hierarchical resources} that stamps based on the size and last
+     * modification date of a file, or on the root hash of a Merkle tree over the names, sizes, and last modification
+     * dates of recursive resources in a directory. The stamp changes when files or directories are added, removed, or
+     * renamed. Does not read the contents of files, making this stamper cheap enough to replace dependencies on each file
+     * in a directory.
+     *
+     * @return Stamper.
+     */
+    public static MerkleResourceStamper merkleModifiedDirRec() {
+        return new MerkleResourceStamper(null, null, false);
+    }
+
+    /**
+     * Returns a stamper for {@link HierarchicalResource hierarchical resources} that stamps based on the size and last
+     * modification date of a file, or on the root hash of a Merkle tree over the names, sizes, and last modification
+     * dates of recursive resources in a directory. When the resource is a directory, only traverses subdirectories that
+     * match given {@link ResourceWalker resource walker}, and only includes files that match given
+     * {@link ResourceMatcher resource matcher}.
+     *
+     * @param walker  Resource walker, or {@code null} to traverse all subdirectories.
+     * @param matcher Resource matcher, or {@code null} to include all files.
+     * @return Stamper.
+     */
+    public static MerkleResourceStamper merkleModifiedDirRec(@Nullable ResourceWalker walker, @Nullable ResourceMatcher matcher) {
+        return new MerkleResourceStamper(walker, matcher, false);
+    }
 }
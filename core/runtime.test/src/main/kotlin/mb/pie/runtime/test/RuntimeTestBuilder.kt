@@ -31,18 +31,24 @@ import mb.pie.runtime.PieBuilderImpl
 import mb.pie.runtime.PieImpl
 import mb.pie.runtime.exec.BottomUpRunner
 import mb.pie.runtime.exec.RequireShared
+import mb.pie.runtime.exec.ResourceStampCache
+import mb.pie.runtime.exec.SpeculativeLayer
+import mb.pie.runtime.exec.SpeculativeTracer
 import mb.pie.runtime.exec.TaskExecutor
 import mb.pie.runtime.exec.TopDownRunner
 import mb.pie.runtime.layer.ValidationLayer
 import mb.pie.runtime.share.NonSharingShare
 import mb.pie.runtime.store.InMemoryStore
 import mb.pie.runtime.tracer.LoggingTracer
+import mb.pie.runtime.tracer.SynchronizedTracer
 import mb.resource.ReadableResource
 import mb.resource.ResourceKey
 import mb.resource.ResourceService
 import mb.resource.hierarchical.HierarchicalResource
 import java.nio.file.FileSystem
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executor
 import java.util.function.Function
 
 open class RuntimeTestBuilder<Ctx : RuntimeTestCtx>(
@@ -62,6 +68,31 @@ open class RuntimeTestBuilder<Ctx : RuntimeTestCtx>(
     shareFactories.add { _ -> NonSharingShare() }
     layerFactories.add(LayerFactory { td, l, serde -> ValidationLayer(td, l, serde) })
   }
+
+  fun withBottomUpExecutor(executor: Executor, parallelism: Int) {
+    val factory = pieBuilderFactory
+    pieBuilderFactory = { factory().withBottomUpExecutor(executor, parallelism) }
+  }
+
+  fun withTopDownExecutor(executor: Executor, parallelism: Int) {
+    val factory = pieBuilderFactory
+    pieBuilderFactory = { factory().withTopDownExecutor(executor, parallelism) }
+  }
+
+  fun withResourceStampingExecutor(executor: Executor) {
+    val factory = pieBuilderFactory
+    pieBuilderFactory = { factory().withResourceStampingExecutor(executor) }
+  }
+
+  fun withTrustChangedResources(trustChangedResources: Boolean) {
+    val factory = pieBuilderFactory
+    pieBuilderFactory = { factory().withTrustChangedResources(trustChangedResources) }
+  }
+
+  fun withBulkResourceStamping(bulkResourceStamping: Boolean) {
+    val factory = pieBuilderFactory
+    pieBuilderFactory = { factory().withBulkResourceStamping(bulkResourceStamping) }
+  }
 }
 
 open class TestPieBuilderImpl(private val shouldSpy: Boolean) : PieBuilderImpl() {
@@ -83,7 +114,14 @@ open class TestPieBuilderImpl(private val shouldSpy: Boolean) : PieBuilderImpl()
       loggerFactory,
       tracerFactory,
       MapCallbacks(),
-      CloseableReentrantReadWriteLock()
+      CloseableReentrantReadWriteLock(),
+      bottomUpExecutor,
+      bottomUpParallelism,
+      topDownExecutor,
+      topDownParallelism,
+      resourceStampingExecutor,
+      trustChangedResources,
+      bulkResourceStamping
     )
   }
 }
@@ -100,8 +138,15 @@ open class TestPieImpl(
   loggerFactory: LoggerFactory,
   tracerFactory: Function<LoggerFactory, Tracer>,
   callbacks: Callbacks,
-  lock: CloseableReentrantReadWriteLock
-) : PieImpl(true, taskDefs, resourceService, serde, store, share, defaultStampers, layerFactory, loggerFactory, tracerFactory, callbacks, lock) {
+  lock: CloseableReentrantReadWriteLock,
+  bottomUpExecutor: Executor? = null,
+  bottomUpParallelism: Int = 1,
+  topDownExecutor: Executor? = null,
+  topDownParallelism: Int = 1,
+  resourceStampingExecutor: Executor? = null,
+  trustChangedResources: Boolean = false,
+  bulkResourceStamping: Boolean = false
+) : PieImpl(true, taskDefs, resourceService, serde, store, share, defaultStampers, layerFactory, loggerFactory, tracerFactory, callbacks, lock, bottomUpExecutor, bottomUpParallelism, topDownExecutor, topDownParallelism, resourceStampingExecutor, trustChangedResources, bulkResourceStamping) {
   val store: Store get() = super.store // Make store available for testing.
 
   override fun newSession(): TestMixedSessionImpl {
@@ -113,22 +158,28 @@ open class TestPieImpl(
   }
 
   private fun createSession(lockHandle: LockHandle): TestMixedSessionImpl {
-    val layer = layerFactory.apply(taskDefs, loggerFactory, serde)
-    val tracer = tracerFactory.apply(loggerFactory)
-    val visited = HashMap<TaskKey, TaskData>()
-    val providedResources = HashSet<ResourceKey>()
-
+    val concurrent = bottomUpExecutor != null || topDownExecutor != null
+    val speculative = topDownExecutor != null
+    val baseLayer = layerFactory.apply(taskDefs, loggerFactory, serde)
+    val layer = if(speculative) SpeculativeLayer(baseLayer) else baseLayer
+    val baseTracer = if(concurrent) SynchronizedTracer(tracerFactory.apply(loggerFactory)) else tracerFactory.apply(loggerFactory)
+    val tracer = if(speculative) SpeculativeTracer(baseTracer) else baseTracer
+    val visited: MutableMap<TaskKey, TaskData> = if(concurrent) ConcurrentHashMap() else HashMap()
+    val providedResources: MutableSet<ResourceKey> = if(concurrent) ConcurrentHashMap.newKeySet() else HashSet()
+
+    val stampCache = ResourceStampCache(resourceService)
     val taskExecutor = TaskExecutor(taskDefs, resourceService, share, defaultStampers, layer, loggerFactory, tracer,
-      callbacks, visited, providedResources)
-    val requireShared = RequireShared(taskDefs, resourceService, tracer, visited)
+      callbacks, stampCache, visited, providedResources)
+    val requireShared = RequireShared(taskDefs, resourceService, tracer, visited, stampCache, resourceStampingExecutor, trustChangedResources, bulkResourceStamping)
 
-    var topDownSession = TopDownRunner(super.store, layer, tracer, taskExecutor, requireShared, callbacks, visited)
+    var topDownSession = TopDownRunner(super.store, layer, tracer, taskExecutor, requireShared, callbacks, visited,
+      topDownExecutor, topDownParallelism)
     if(shouldSpy) {
       topDownSession = spy(topDownSession)
     }
 
     var bottomUpSession = BottomUpRunner(taskDefs, resourceService, super.store, layer, tracer, taskExecutor,
-      requireShared, callbacks, visited)
+      requireShared, callbacks, visited, bottomUpExecutor, bottomUpParallelism)
     if(shouldSpy) {
       bottomUpSession = spy(bottomUpSession)
     }
@@ -151,7 +202,7 @@ open class TestMixedSessionImpl(
   tracer: Tracer,
   callbacks: Callbacks,
 
-  providedResources: HashSet<ResourceKey>,
+  providedResources: MutableSet<ResourceKey>,
 
   lockHandle: LockHandle
 ) : MixedSessionImpl(topDownRunner, bottomUpRunner, taskDefs, resourceService, store, tracer, callbacks, providedResources, lockHandle) {
@@ -0,0 +1,67 @@
+package mb.pie.runtime.test
+
+import mb.pie.api.stamp.resource.ResourceStampers
+import mb.resource.fs.FSResource
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.TestFactory
+import java.util.concurrent.atomic.AtomicInteger
+
+class BulkResourceStampingTests {
+  private val builder = DefaultRuntimeTestBuilder(shouldSpy = false).apply { withBulkResourceStamping(true) }
+
+
+  @TestFactory
+  fun testManyResourceDependenciesInDirectory() = builder.test {
+    val executions = AtomicInteger()
+    val concatDef = taskDef<ArrayList<FSResource>, String>("concat", { input, _ -> "concat($input)" }) { files ->
+      executions.incrementAndGet()
+      files.joinToString(",") {
+        require(it, ResourceStampers.metadataFile())
+        read(it)
+      }
+    }
+    addTaskDef(concatDef)
+
+    // Files in the same directory are stamped with one directory scan.
+    val files = (0 until 16).map { resource("/file$it") }
+    files.forEachIndexed { i, file -> write("$i", file) }
+    val unrelatedFile = resource("/unrelated")
+    val concatTask = concatDef.createTask(ArrayList(files))
+
+    newSession().use { session ->
+      Assertions.assertEquals(files.indices.joinToString(","), session.require(concatTask))
+    }
+    Assertions.assertEquals(1, executions.get())
+
+    // Nothing changed: all resources are stamped in bulk, and the task is not executed.
+    newSession().use { session ->
+      session.require(concatTask)
+    }
+    Assertions.assertEquals(1, executions.get())
+
+    // Change a file: its dependency is inconsistent, and the task is executed once.
+    write("changed", files.first())
+    newSession().use { session ->
+      val expected = files.indices.joinToString(",") { if(it == 0) "changed" else "$it" }
+      Assertions.assertEquals(expected, session.require(concatTask))
+    }
+    Assertions.assertEquals(2, executions.get())
+
+    // Change a file and build bottom-up: the affected resource dependencies are stamped in bulk, and the task is
+    // executed once. Creating an unrelated file in the same directory does not affect the task.
+    write("changed again", files[1])
+    write("unrelated", unrelatedFile)
+    newSession().use { session ->
+      val topDownSession = session.updateAffectedBy(setOf(files[1].key, unrelatedFile.key))
+      val expected = files.indices.joinToString(",") {
+        when(it) {
+          0 -> "changed"
+          1 -> "changed again"
+          else -> "$it"
+        }
+      }
+      Assertions.assertEquals(expected, topDownSession.getOutput(concatTask))
+    }
+    Assertions.assertEquals(3, executions.get())
+  }
+}
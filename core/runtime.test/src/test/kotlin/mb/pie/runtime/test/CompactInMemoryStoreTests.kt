@@ -0,0 +1,171 @@
+package mb.pie.runtime.test
+
+import mb.pie.api.PieBuilder.StoreFactory
+import mb.pie.api.Task
+import mb.pie.api.TaskRequireDep
+import mb.pie.api.stamp.output.OutputStampers
+import mb.pie.api.test.readResource
+import mb.pie.api.test.toLowerCase
+import mb.pie.api.test.toLowerCaseDef
+import mb.pie.runtime.store.CompactInMemoryStore
+import mb.resource.fs.FSResource
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestFactory
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+
+class CompactInMemoryStoreTests {
+  private val builder = DefaultRuntimeTestBuilder(shouldSpy = false).apply {
+    storeFactories.clear()
+    storeFactories.add(StoreFactory { _, _, _ -> CompactInMemoryStore() })
+  }
+
+
+  @Test
+  fun testResetAndDeleteKeepReverseIndicesConsistent() {
+    val store = CompactInMemoryStore()
+    val callee = Task(toLowerCaseDef, "callee")
+    val calleeKey = callee.key()
+    store.resetTask(callee)
+    store.setOutput(calleeKey, "callee")
+    // Enough callers to grow the columns of the store several times.
+    val callers = (0 until 256).map { Task(toLowerCaseDef, "caller$it") }
+    callers.forEach { caller ->
+      val key = caller.key()
+      store.resetTask(caller)
+      store.addTaskRequire(key, calleeKey)
+      store.addTaskRequire(key, calleeKey) // Adding the same task require again has no effect.
+      store.addTaskRequireDep(key, TaskRequireDep(calleeKey, OutputStampers.equals().stamp("callee")))
+      store.setOutput(key, "output")
+    }
+    assertEquals(callers.map { it.key() }.toSet(), store.getCallersOf(calleeKey))
+    callers.forEach { caller ->
+      val key = caller.key()
+      assertEquals(listOf(calleeKey), store.getRequiredTasks(key))
+      assertEquals(listOf(calleeKey), store.getData(key)!!.deps.taskRequireDeps.map { it.callee })
+      assertTrue(store.doesRequireTransitively(key, calleeKey))
+      assertFalse(store.doesRequireTransitively(calleeKey, key))
+    }
+
+    // Reset half of the callers (removing their dependencies), and delete the other half.
+    callers.forEachIndexed { i, caller ->
+      if(i % 2 == 0) {
+        store.resetTask(caller)
+      } else {
+        store.deleteData(caller.key())
+      }
+    }
+    assertTrue(store.getCallersOf(calleeKey).isEmpty())
+    callers.forEachIndexed { i, caller ->
+      val key = caller.key()
+      assertTrue(store.getRequiredTasks(key).isEmpty())
+      if(i % 2 == 0) {
+        assertEquals(caller.input, store.getInput(key))
+      } else {
+        assertNull(store.getInput(key))
+      }
+    }
+    assertEquals(setOf(calleeKey), store.tasksWithoutCallers)
+  }
+
+  @Test
+  fun testReturnedDependenciesAreNotAffectedByLaterWrites() {
+    val store = CompactInMemoryStore()
+    val caller = Task(toLowerCaseDef, "caller")
+    val callerKey = caller.key()
+    val callees = (0 until 8).map { Task(toLowerCaseDef, "callee$it").key() }
+    store.resetTask(caller)
+    store.addTaskRequireDep(callerKey, TaskRequireDep(callees[0], OutputStampers.equals().stamp("callee")))
+    val deps = store.getTaskRequireDeps(callerKey)
+    callees.drop(1).forEach { store.addTaskRequireDep(callerKey, TaskRequireDep(it, OutputStampers.equals().stamp("callee"))) }
+    assertEquals(listOf(callees[0]), deps.map { it.callee })
+    assertEquals(callees, store.getTaskRequireDeps(callerKey).map { it.callee })
+    store.resetTask(caller)
+    assertEquals(listOf(callees[0]), deps.map { it.callee })
+    assertTrue(store.getTaskRequireDeps(callerKey).isEmpty())
+  }
+
+  @Test
+  fun testTopologicalOrder() {
+    val store = CompactInMemoryStore()
+    val tasks = (0 until 64).map { Task(toLowerCaseDef, "task$it") }
+    val keys = tasks.map { it.key() }
+    // Require tasks in reverse order of interning, such that every task require reorders tasks.
+    keys.zipWithNext { callee, caller -> store.addTaskRequire(caller, callee) }
+    for(i in keys.indices) {
+      for(j in keys.indices) {
+        assertEquals(j < i, store.hasDependencyOrderBefore(keys[i], keys[j]))
+        assertEquals(j < i, store.getTopologicalIndex(keys[i]) < store.getTopologicalIndex(keys[j]))
+      }
+    }
+    assertThrows(IllegalArgumentException::class.java) { store.addTaskRequire(keys.first(), keys.last()) }
+    assertTrue(store.getRequiredTasks(keys.first()).isEmpty())
+
+    // Removing task requires keeps the order valid, and adding the reverse task requires reorders the tasks again.
+    tasks.forEach { store.resetTask(it) }
+    keys.zipWithNext { caller, callee -> store.addTaskRequire(caller, callee) }
+    keys.zipWithNext { caller, callee -> store.addTaskRequire(caller, callee) } // Adding the same task require again has no effect.
+    keys.zipWithNext { caller, callee ->
+      assertTrue(store.hasDependencyOrderBefore(caller, callee))
+      assertEquals(listOf(callee), store.getRequiredTasks(caller))
+      assertEquals(setOf(caller), store.getCallersOf(callee))
+    }
+  }
+
+  @Test
+  fun testSerializeDeserialize() {
+    val store = CompactInMemoryStore()
+    val tasks = (0 until 64).map { Task(toLowerCaseDef, "task$it") }
+    tasks.forEach { store.resetTask(it); store.setOutput(it.key(), it.input) }
+    tasks.zipWithNext { caller, callee -> store.addTaskRequire(caller.key(), callee.key()) }
+    val bytes = ByteArrayOutputStream().also { ObjectOutputStream(it).use { stream -> stream.writeObject(store) } }.toByteArray()
+    val deserialized = ObjectInputStream(ByteArrayInputStream(bytes)).use { it.readObject() } as CompactInMemoryStore
+
+    tasks.forEach { assertEquals(it.input, deserialized.getOutput(it.key())!!.output) }
+    // Interning a new key after deserialization must not collide with existing keys.
+    val newTask = Task(toLowerCaseDef, "new")
+    deserialized.resetTask(newTask)
+    assertEquals(newTask.input, deserialized.getInput(newTask.key()))
+    assertTrue(deserialized.doesRequireTransitively(tasks.first().key(), tasks.last().key()))
+    assertEquals(setOf(tasks.first().key()), tasks.map { it.key() }.filter { deserialized.getCallersOf(it).isEmpty() }.toSet())
+  }
+
+  @TestFactory
+  fun testUpdateAffectedBy() = builder.test {
+    val lowerDef = toLowerCase
+    addTaskDef(lowerDef)
+    val readDef = readResource
+    addTaskDef(readDef)
+    val combDef = taskDef<FSResource, String>("combine", { input, _ -> "combine($input)" }) {
+      val text = require(readDef.createTask(it))
+      require(lowerDef.createTask(text))
+    }
+    addTaskDef(combDef)
+    val allDef = taskDef<ArrayList<FSResource>, String>("all", { _, _ -> "all" }) { files ->
+      files.joinToString(",") { require(combDef.createTask(it)) }
+    }
+    addTaskDef(allDef)
+
+    val files = (0 until 32).map { resource("/file$it") }
+    files.forEachIndexed { i, file -> write("HELLO $i", file) }
+    val allTask = allDef.createTask(ArrayList(files))
+    newSession().use { session ->
+      assertEquals(files.indices.joinToString(",") { "hello $it" }, session.require(allTask))
+    }
+
+    val changedFiles = files.filterIndexed { i, _ -> i % 2 == 0 }
+    changedFiles.forEach { write("BYE", it) }
+    newSession().use { session ->
+      val topDownSession = session.updateAffectedBy(changedFiles.map { it.key }.toSet())
+      val expected = files.indices.joinToString(",") { if(it % 2 == 0) "bye" else "hello $it" }
+      assertEquals(expected, topDownSession.getOutput(allTask))
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package mb.pie.runtime.test
+
+import mb.pie.api.PieBuilder.StoreFactory
+import mb.pie.api.Task
+import mb.pie.api.TaskRequireDep
+import mb.pie.api.stamp.output.OutputStampers
+import mb.pie.api.test.readResource
+import mb.pie.api.test.toLowerCase
+import mb.pie.api.test.toLowerCaseDef
+import mb.pie.runtime.store.ConcurrentInMemoryStore
+import mb.resource.fs.FSResource
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestFactory
+import org.junit.jupiter.api.TestInstance
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ConcurrentInMemoryStoreTests {
+  private val executor = Executors.newFixedThreadPool(8)
+  private val builder = DefaultRuntimeTestBuilder(shouldSpy = false).apply {
+    storeFactories.clear()
+    storeFactories.add(StoreFactory { _, _, _ -> ConcurrentInMemoryStore() })
+    withBottomUpExecutor(executor, 8)
+  }
+
+  @AfterAll
+  fun shutdownExecutor() {
+    executor.shutdownNow()
+  }
+
+
+  @Test
+  fun testConcurrentWritesKeepReverseIndicesConsistent() {
+    val store = ConcurrentInMemoryStore()
+    val callee = Task(toLowerCaseDef, "callee")
+    val calleeKey = callee.key()
+    store.resetTask(callee)
+    store.setOutput(calleeKey, "callee")
+    val callers = (0 until 256).map { Task(toLowerCaseDef, "caller$it") }
+
+    // Concurrently write to different caller tasks, which all require the same callee.
+    callers.map { caller ->
+      executor.submit(Callable {
+        val key = caller.key()
+        store.resetTask(caller)
+        store.addTaskRequire(key, calleeKey)
+        store.addTaskRequireDep(key, TaskRequireDep(calleeKey, OutputStampers.equals().stamp("callee")))
+        store.setOutput(key, "output")
+      })
+    }.forEach { it.get() }
+    assertEquals(callers.map { it.key() }.toSet(), store.getCallersOf(calleeKey))
+    callers.forEach { caller ->
+      val data = store.getData(caller.key())!!
+      assertEquals(listOf(calleeKey), data.deps.taskRequireDeps.map { it.callee })
+    }
+
+    // Concurrently reset half of the callers (removing their dependencies), and delete the other half.
+    callers.mapIndexed { i, caller ->
+      executor.submit(Callable {
+        if(i % 2 == 0) {
+          store.resetTask(caller)
+        } else {
+          store.deleteData(caller.key())
+        }
+      })
+    }.forEach { it.get() }
+    assertTrue(store.getCallersOf(calleeKey).isEmpty())
+    callers.forEachIndexed { i, caller ->
+      val key = caller.key()
+      assertTrue(store.getRequiredTasks(key).isEmpty())
+      if(i % 2 == 0) {
+        assertEquals(caller.input, store.getInput(key))
+      } else {
+        assertNull(store.getInput(key))
+      }
+    }
+    assertEquals(setOf(calleeKey), store.tasksWithoutCallers)
+  }
+
+  @TestFactory
+  fun testUpdateAffectedByConcurrently() = builder.test {
+    val lowerDef = toLowerCase
+    addTaskDef(lowerDef)
+    val readDef = readResource
+    addTaskDef(readDef)
+    val combDef = taskDef<FSResource, String>("combine", { input, _ -> "combine($input)" }) {
+      val text = require(readDef.createTask(it))
+      require(lowerDef.createTask(text))
+    }
+    addTaskDef(combDef)
+    val allDef = taskDef<ArrayList<FSResource>, String>("all", { _, _ -> "all" }) { files ->
+      files.joinToString(",") { require(combDef.createTask(it)) }
+    }
+    addTaskDef(allDef)
+
+    val files = (0 until 32).map { resource("/file$it") }
+    files.forEachIndexed { i, file -> write("HELLO $i", file) }
+    val allTask = allDef.createTask(ArrayList(files))
+    newSession().use { session ->
+      assertEquals(files.indices.joinToString(",") { "hello $it" }, session.require(allTask))
+    }
+
+    val changedFiles = files.filterIndexed { i, _ -> i % 2 == 0 }
+    changedFiles.forEach { write("BYE", it) }
+    newSession().use { session ->
+      val topDownSession = session.updateAffectedBy(changedFiles.map { it.key }.toSet())
+      val expected = files.indices.joinToString(",") { if(it % 2 == 0) "bye" else "hello $it" }
+      assertEquals(expected, topDownSession.getOutput(allTask))
+    }
+  }
+}
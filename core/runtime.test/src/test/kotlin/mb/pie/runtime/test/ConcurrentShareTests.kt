@@ -0,0 +1,150 @@
+package mb.pie.runtime.test
+
+import com.nhaarman.mockitokotlin2.mockingDetails
+import com.nhaarman.mockitokotlin2.spy
+import mb.pie.api.Observability
+import mb.pie.api.Output
+import mb.pie.api.TaskData
+import mb.pie.api.TaskDeps
+import mb.pie.api.TaskKey
+import mb.pie.api.test.toLowerCase
+import mb.pie.runtime.share.ConcurrentShare
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestFactory
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+
+class ConcurrentShareTests {
+  private val builder = DefaultRuntimeTestBuilder().apply {
+    shareFactories.clear()
+    shareFactories.add { ConcurrentShare() }
+  }
+
+
+  @TestFactory
+  fun testThreadSafety() = builder.test {
+    addTaskDef(toLowerCase)
+
+    val executor = Executors.newFixedThreadPool(8)
+    try {
+      List(100) { index ->
+        executor.submit(Callable {
+          newSession().use { session ->
+            val task = toLowerCase.createTask("HELLO WORLD $index!")
+            session.require(task)
+          }
+        })
+      }.forEach { it.get() }
+    } finally {
+      executor.shutdownNow()
+    }
+  }
+
+  @TestFactory
+  fun testConcurrentReuse() = builder.test {
+    val lowerDef = spy(toLowerCase)
+    addTaskDef(lowerDef)
+
+    // Run task concurrently 100 times.
+    val executor = Executors.newFixedThreadPool(8)
+    try {
+      List(100) {
+        executor.submit(Callable {
+          newSession().use { session ->
+            val task = lowerDef.createTask("HELLO WORLD!")
+            session.require(task)
+          }
+        })
+      }.forEach { it.get() }
+    } finally {
+      executor.shutdownNow()
+    }
+
+    // Test that function 'exec' has only been called once, even between all threads.
+    var invocations = 0
+    mockingDetails(lowerDef).invocations
+      .filter { it.method.name == "exec" }
+      .forEach { ++invocations }
+    assertEquals(1, invocations)
+  }
+
+  @Test
+  fun testSharesInFlightExecution() {
+    val share = ConcurrentShare()
+    val key = TaskKey("id", "key")
+    val data = TaskData("input", null, Output("output"), Observability.ExplicitObserved, TaskDeps(emptyList(), emptyList(), emptyList()))
+    val started = CountDownLatch(1)
+    val release = CountDownLatch(1)
+    val executions = AtomicInteger()
+    val visited = AtomicReference<TaskData?>()
+
+    val executor = Executors.newFixedThreadPool(8)
+    try {
+      // First share blocks in its execution until released, such that other shares find it in-flight. Shares that
+      // arrive after it completed find its data in the visited map, like in a session.
+      val first = executor.submit(Callable {
+        share.share(key, {
+          executions.incrementAndGet()
+          started.countDown()
+          release.await()
+          visited.set(data)
+          data
+        }, { visited.get() })
+      })
+      started.await(10, TimeUnit.SECONDS)
+      val others = List(16) {
+        executor.submit(Callable {
+          share.share(key, { executions.incrementAndGet(); data }, { visited.get() })
+        })
+      }
+      release.countDown()
+
+      assertSame(data, first.get())
+      others.forEach { assertSame(data, it.get()) }
+      assertEquals(1, executions.get())
+    } finally {
+      executor.shutdownNow()
+    }
+  }
+
+  @Test
+  fun testPropagatesExceptionToWaiters() {
+    val share = ConcurrentShare()
+    val key = TaskKey("id", "key")
+    val started = CountDownLatch(1)
+    val release = CountDownLatch(1)
+
+    val executor = Executors.newFixedThreadPool(2)
+    try {
+      val first = executor.submit(Callable {
+        share.share(key, {
+          started.countDown()
+          release.await()
+          throw IllegalStateException("Execution failed")
+        }, { null })
+      })
+      started.await(10, TimeUnit.SECONDS)
+      val second = executor.submit(Callable {
+        share.share(key, { throw AssertionError("Task must not be executed twice") }, { null })
+      })
+      // Give the second share some time to find the in-flight execution.
+      Thread.sleep(100)
+      release.countDown()
+
+      val firstException = assertThrows(ExecutionException::class.java) { first.get() }
+      assertEquals(IllegalStateException::class.java, firstException.cause!!::class.java)
+      val secondException = assertThrows(ExecutionException::class.java) { second.get() }
+      assertEquals(IllegalStateException::class.java, secondException.cause!!::class.java)
+    } finally {
+      executor.shutdownNow()
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package mb.pie.runtime.test
+
+import mb.pie.api.StoreWriteTxn
+import mb.pie.api.Task
+import mb.pie.api.test.toLowerCaseDef
+import mb.pie.runtime.exec.DistinctTaskKeyPriorityQueue
+import mb.pie.runtime.store.CompactInMemoryStore
+import mb.pie.runtime.store.InMemoryStore
+import mb.pie.runtime.store.NaiveInMemoryStore
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.DynamicTest
+import org.junit.jupiter.api.TestFactory
+
+class DistinctTaskKeyPriorityQueueTests {
+  @TestFactory
+  fun testPollsCalleesBeforeCallers() = listOf(InMemoryStore(), NaiveInMemoryStore(), CompactInMemoryStore()).map { store ->
+    DynamicTest.dynamicTest(store.toString()) {
+      // Chain of 64 tasks where each task requires the next one, added to the queue in caller-to-callee order.
+      val keys = createChain(store, 64)
+      val queue = DistinctTaskKeyPriorityQueue.withTransitiveDependencyComparator(store)
+      queue.addAll(keys)
+      queue.addAll(keys) // Adding keys again has no effect.
+
+      val polled = mutableListOf<Any>()
+      while(queue.isNotEmpty) {
+        polled.add(queue.poll())
+      }
+      assertEquals(keys.reversed(), polled)
+    }
+  }
+
+  @TestFactory
+  fun testRemove() = listOf(InMemoryStore(), NaiveInMemoryStore(), CompactInMemoryStore()).map { store ->
+    DynamicTest.dynamicTest(store.toString()) {
+      val keys = createChain(store, 64)
+      val queue = DistinctTaskKeyPriorityQueue.withTransitiveDependencyComparator(store)
+      queue.addAll(keys)
+
+      // Remove every third key, and then remove the same keys again.
+      val removed = keys.filterIndexed { i, _ -> i % 3 == 0 }
+      removed.forEach { assertEquals(it, queue.pollLeastTaskWithDepTo(it, store)) }
+      removed.forEach {
+        assertFalse(queue.contains(it))
+        assertFalse(queue.remove(it))
+        assertNull(queue.pollLeastTaskWithDepTo(it, store))
+      }
+
+      val remaining = keys.filterIndexed { i, _ -> i % 3 != 0 }
+      remaining.forEach { assertTrue(queue.contains(it)) }
+      val polled = mutableListOf<Any>()
+      while(queue.isNotEmpty) {
+        polled.add(queue.poll())
+      }
+      assertEquals(remaining.reversed(), polled)
+    }
+  }
+
+  private fun createChain(txn: StoreWriteTxn, size: Int) = (0 until size).map { Task(toLowerCaseDef, "task$it") }.also { tasks ->
+    tasks.forEach { txn.resetTask(it) }
+    tasks.zipWithNext { caller, callee -> txn.addTaskRequire(caller.key(), callee.key()) }
+  }.map { it.key() }
+}
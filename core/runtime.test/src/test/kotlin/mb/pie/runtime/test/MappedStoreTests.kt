@@ -0,0 +1,391 @@
+package mb.pie.runtime.test
+
+import com.google.common.jimfs.Configuration
+import com.google.common.jimfs.Jimfs
+import com.nhaarman.mockitokotlin2.*
+import mb.log.api.LoggerFactory
+import mb.pie.api.MapTaskDefs
+import mb.pie.api.Observability
+import mb.pie.api.Output
+import mb.pie.api.ResourceProvideDep
+import mb.pie.api.ResourceRequireDep
+import mb.pie.api.Task
+import mb.pie.api.TaskData
+import mb.pie.api.TaskDeps
+import mb.pie.api.TaskRequireDep
+import mb.pie.api.exec.NullCancelableToken
+import mb.pie.api.serde.DeserializeRuntimeException
+import mb.pie.api.serde.JavaSerde
+import mb.pie.api.serde.Serde
+import mb.pie.api.stamp.output.OutputStampers
+import mb.pie.api.stamp.output.ValueOutputStamp
+import mb.pie.api.stamp.resource.ResourceStampers
+import mb.pie.api.stamp.resource.ValueResourceStamp
+import mb.pie.api.test.anyC
+import mb.pie.api.test.anyER
+import mb.pie.api.test.toLowerCaseDef
+import mb.pie.runtime.exec.NoData
+import mb.pie.runtime.store.MappedStore
+import mb.resource.Resource
+import mb.resource.ResourceService
+import mb.resource.fs.FSPath
+import mb.resource.fs.FSResource
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.io.Serializable
+import java.nio.file.Files
+import java.nio.file.Path
+
+class MappedStoreTests {
+  private fun withTemporaryDirectory(action: (Path) -> Unit) {
+    // Not Jimfs, as the store memory-maps its files.
+    val directory = Files.createTempDirectory("pie-mapped-store")
+    try {
+      action(directory)
+    } finally {
+      directory.toFile().deleteRecursively()
+    }
+  }
+
+  private fun openStore(directory: Path, deserializeFailures: MutableList<Exception> = mutableListOf()) =
+    MappedStore(JavaSerde(), directory, null, false, { throw RuntimeException(it) }, { deserializeFailures.add(it) })
+
+  private fun onlyFile(directory: Path) = Files.list(directory).use { files -> files.iterator().next() }
+
+
+  private val fileA = FSPath("/a")
+  private val fileB = FSPath("/b")
+  private val taskA = Task(toLowerCaseDef, "A")
+  private val taskB = Task(toLowerCaseDef, "B")
+  private val taskC = Task(toLowerCaseDef, "C")
+  private val taskD = Task(toLowerCaseDef, "D")
+  private val taskP = Task(toLowerCaseDef, "P")
+  private val taskQ = Task(toLowerCaseDef, "Q")
+  private val keyA = taskA.key()
+  private val keyB = taskB.key()
+  private val keyC = taskC.key()
+  private val keyD = taskD.key()
+  private val keyP = taskP.key()
+  private val keyQ = taskQ.key()
+
+  private fun taskRequireDep(callee: Task<*>, output: Serializable?) =
+    TaskRequireDep(callee.key(), ValueOutputStamp(output, OutputStampers.equals()))
+
+  private fun resourceRequireDep(file: FSPath) =
+    ResourceRequireDep(file, ValueResourceStamp<Resource>(true, ResourceStampers.exists()))
+
+  private fun resourceProvideDep(file: FSPath) =
+    ResourceProvideDep(file, ValueResourceStamp<Resource>(true, ResourceStampers.exists()))
+
+
+  @Test
+  fun testPersistAndLoad() = withTemporaryDirectory { directory ->
+    val fileSystem = Jimfs.newFileSystem(Configuration.unix())
+    val pieBuilder = TestPieBuilderImpl(true)
+    pieBuilder.withStoreFactory { serde: Serde?, _: ResourceService, loggerFactory: LoggerFactory? ->
+      MappedStore(serde, directory.resolve("store"), loggerFactory)
+    }
+    val taskDefs = MapTaskDefs()
+    pieBuilder.withTaskDefs(taskDefs)
+
+    pieBuilder.build().use { pie ->
+      InMemoryStoreTestCtx(fileSystem, taskDefs, pie).run {
+        val otherFile = resource("/other")
+        write("HELLO WORLD!", file)
+        write("OTHER", otherFile)
+
+        // Build both tasks, observe rebuilds.
+        newSession().use { session ->
+          Assertions.assertEquals("HELLO WORLD!", session.require(readDef.createTask(file)))
+          Assertions.assertEquals("OTHER", session.require(readDef.createTask(otherFile)))
+          verify(session.topDownRunner, times(2)).exec(any(), any(), eq(NoData()), any(), any(), anyC())
+        }
+      }
+    }
+
+    // Load due to pie instance being closed, and only use the task that reads 'file'.
+    taskDefs.clear() // Clear because InMemoryStoreTestCtx re-adds the same task definition
+    pieBuilder.build().use { pie ->
+      InMemoryStoreTestCtx(fileSystem, taskDefs, pie).run {
+        val task = readDef.createTask(file)
+        val key = task.key()
+
+        // No changes - exec 'readPath', observe no rebuild.
+        newSession().use { session ->
+          Assertions.assertEquals("HELLO WORLD!", session.require(task))
+          verify(session.topDownRunner, never()).exec(eq(key), eq(task), anyER(), any(), any(), anyC())
+        }
+
+        // Change required file, observe rebuild, which is persisted when the pie instance is closed.
+        write("!DLROW OLLEH", file)
+        newSession().use { session ->
+          Assertions.assertEquals("!DLROW OLLEH", session.require(task))
+          verify(session.topDownRunner, times(1)).exec(eq(key), eq(task), anyER(), any(), any(), anyC())
+        }
+      }
+    }
+
+    // Load again: the rebuilt task is persisted, and the task that was not used is copied from the previous file.
+    taskDefs.clear()
+    pieBuilder.build().use { pie ->
+      InMemoryStoreTestCtx(fileSystem, taskDefs, pie).run {
+        val otherFile = resource("/other")
+        newSession().use { session ->
+          Assertions.assertEquals("!DLROW OLLEH", session.require(readDef.createTask(file)))
+          Assertions.assertEquals("OTHER", session.require(readDef.createTask(otherFile)))
+          verify(session.topDownRunner, never()).exec(any(), any(), anyER(), any(), any(), anyC())
+        }
+      }
+    }
+
+    // Files of previous generations have been deleted.
+    Assertions.assertEquals(1L, Files.list(directory.resolve("store")).use { it.count() })
+  }
+
+
+  @Test
+  fun testReverseIndicesMergePersistedAndModified() = withTemporaryDirectory { directory ->
+    openStore(directory).use { store ->
+      store.writeTxn().use { txn ->
+        txn.resetTask(taskC)
+        txn.setOutput(keyC, "c")
+        txn.resetTask(taskA)
+        txn.setOutput(keyA, "a")
+        txn.addTaskRequire(keyA, keyC)
+        txn.addTaskRequireDep(keyA, taskRequireDep(taskC, "c"))
+        txn.addResourceRequireDep(keyA, resourceRequireDep(fileA))
+        txn.resetTask(taskB)
+        txn.setOutput(keyB, "b")
+        txn.addTaskRequire(keyB, keyC)
+        txn.addTaskRequireDep(keyB, taskRequireDep(taskC, "c"))
+        txn.resetTask(taskP)
+        txn.setOutput(keyP, "p")
+        txn.addResourceProvideDep(keyP, resourceProvideDep(fileB))
+        // Like the in-memory stores, the store only knows about tasks without callers when their callers have been queried.
+        txn.getCallersOf(keyA)
+        txn.getCallersOf(keyB)
+        txn.getCallersOf(keyP)
+      }
+    }
+
+    // Reverse indices are read from the persisted file.
+    openStore(directory).use { store ->
+      store.readTxn().use { txn ->
+        Assertions.assertEquals(setOf(keyA, keyB), txn.getCallersOf(keyC))
+        Assertions.assertEquals(setOf(keyA), txn.getRequirersOf(fileA))
+        Assertions.assertEquals(keyP, txn.getProviderOf(fileB))
+        Assertions.assertEquals(setOf(keyA, keyB, keyP), txn.tasksWithoutCallers)
+      }
+
+      // Overwrite persisted tasks and add new ones: reverse indices merge the persisted entries with the changes.
+      store.writeTxn().use { txn ->
+        txn.resetTask(taskA)
+        txn.setOutput(keyA, "a2")
+        txn.addTaskRequire(keyA, keyB)
+        txn.addTaskRequireDep(keyA, taskRequireDep(taskB, "b"))
+        txn.resetTask(taskD)
+        txn.setOutput(keyD, "d")
+        txn.addTaskRequire(keyD, keyC)
+        txn.addTaskRequireDep(keyD, taskRequireDep(taskC, "c"))
+        txn.resetTask(taskP)
+        txn.resetTask(taskQ)
+        txn.setOutput(keyQ, "q")
+        txn.addResourceProvideDep(keyQ, resourceProvideDep(fileB))
+      }
+      store.readTxn().use { txn ->
+        Assertions.assertEquals(setOf(keyB, keyD), txn.getCallersOf(keyC))
+        Assertions.assertEquals(setOf(keyA), txn.getCallersOf(keyB))
+        Assertions.assertEquals(emptySet<Any>(), txn.getRequirersOf(fileA))
+        Assertions.assertEquals(keyQ, txn.getProviderOf(fileB))
+        Assertions.assertEquals(setOf(keyA, keyP), txn.tasksWithoutCallers)
+      }
+    }
+
+    // The merged reverse indices are persisted.
+    openStore(directory).use { store ->
+      store.readTxn().use { txn ->
+        Assertions.assertEquals("a2", txn.getOutput(keyA)?.output)
+        Assertions.assertEquals(listOf(keyB), txn.getRequiredTasks(keyA).toList())
+        Assertions.assertEquals(setOf(keyB, keyD), txn.getCallersOf(keyC))
+        Assertions.assertEquals(setOf(keyA), txn.getCallersOf(keyB))
+        Assertions.assertEquals(emptySet<Any>(), txn.getRequirersOf(fileA))
+        Assertions.assertEquals(keyQ, txn.getProviderOf(fileB))
+        Assertions.assertEquals(setOf(keyA, keyP), txn.tasksWithoutCallers)
+      }
+    }
+  }
+
+  @Test
+  fun testDeleteAndOverwritePersistedTasks() = withTemporaryDirectory { directory ->
+    openStore(directory).use { store ->
+      store.writeTxn().use { txn ->
+        txn.resetTask(taskB)
+        txn.setOutput(keyB, "b")
+        txn.resetTask(taskA)
+        txn.setOutput(keyA, "a")
+        txn.addTaskRequire(keyA, keyB)
+        txn.addTaskRequireDep(keyA, taskRequireDep(taskB, "b"))
+        txn.resetTask(taskC)
+        txn.setOutput(keyC, "c")
+      }
+    }
+
+    // Delete a persisted task: it is gone, also after loading again, but its callers keep their dependencies on it.
+    openStore(directory).use { store ->
+      store.writeTxn().use { txn ->
+        Assertions.assertEquals("b", txn.deleteData(keyB)?.output)
+        Assertions.assertNull(txn.getData(keyB))
+        Assertions.assertEquals(emptySet<Any>(), txn.getCallersOf(keyB))
+        Assertions.assertEquals(listOf(keyB), txn.getRequiredTasks(keyA).toList())
+      }
+    }
+    openStore(directory).use { store ->
+      store.writeTxn().use { txn ->
+        Assertions.assertNull(txn.getData(keyB))
+        Assertions.assertEquals(emptySet<Any>(), txn.getCallersOf(keyB))
+        Assertions.assertEquals(listOf(keyB), txn.getRequiredTasks(keyA).toList())
+        Assertions.assertEquals(setOf(keyB), txn.tasksWithoutCallers)
+
+        // Overwrite persisted tasks.
+        txn.restoreData(keyA, TaskData("A", null, Output("a2"), Observability.Unobserved, TaskDeps(listOf(taskRequireDep(taskC, "c")), listOf(), listOf())))
+        txn.setOutput(keyC, "c2")
+      }
+    }
+    openStore(directory).use { store ->
+      store.readTxn().use { txn ->
+        Assertions.assertNull(txn.getData(keyB))
+        Assertions.assertEquals("a2", txn.getOutput(keyA)?.output)
+        Assertions.assertEquals(listOf(keyC), txn.getRequiredTasks(keyA).toList())
+        Assertions.assertEquals(setOf(keyA), txn.getCallersOf(keyC))
+        Assertions.assertEquals(emptySet<Any>(), txn.getCallersOf(keyB))
+        Assertions.assertEquals("c2", txn.getOutput(keyC)?.output)
+      }
+    }
+  }
+
+  @Test
+  fun testBottomUpOverLoadedStore() = withTemporaryDirectory { directory ->
+    val fileSystem = Jimfs.newFileSystem(Configuration.unix())
+    val pieBuilder = TestPieBuilderImpl(true)
+    pieBuilder.withStoreFactory { serde: Serde?, _: ResourceService, loggerFactory: LoggerFactory? ->
+      MappedStore(serde, directory.resolve("store"), loggerFactory)
+    }
+    val taskDefs = MapTaskDefs()
+    pieBuilder.withTaskDefs(taskDefs)
+
+    fun InMemoryStoreTestCtx.addCombineDef() = spy(taskDef<FSResource, String>("combine", { input, _ -> "toLowerCase(read($input))" }) {
+      require(readDef.createTask(it)).toLowerCase()
+    }).also { addTaskDef(it) }
+
+    pieBuilder.build().use { pie ->
+      InMemoryStoreTestCtx(fileSystem, taskDefs, pie).run {
+        val combDef = addCombineDef()
+        write("HELLO WORLD!", file)
+        newSession().use { session ->
+          Assertions.assertEquals("hello world!", session.require(combDef.createTask(file)))
+        }
+      }
+    }
+
+    // Load, change the file, and observe that the bottom-up build executes affected tasks from the loaded store.
+    taskDefs.clear()
+    pieBuilder.build().use { pie ->
+      InMemoryStoreTestCtx(fileSystem, taskDefs, pie).run {
+        val combDef = addCombineDef()
+        val readTask = readDef.createTask(file)
+        val readKey = readTask.key()
+        val combTask = combDef.createTask(file)
+        val combKey = combTask.key()
+
+        write("!DLROW OLLEH", file)
+        newSession().use { session ->
+          session.updateAffectedBy(setOf(file.key), NullCancelableToken.instance)
+          val bottomUpSession = session.bottomUpRunner
+          inOrder(bottomUpSession) {
+            verify(bottomUpSession).exec(eq(readKey), eq(readTask), anyER(), any(), any(), anyC())
+            verify(bottomUpSession).exec(eq(combKey), eq(combTask), anyER(), any(), any(), anyC())
+          }
+        }
+        newSession().use { session ->
+          Assertions.assertEquals("!dlrow olleh", session.require(combTask))
+          verify(session.topDownRunner, never()).exec(any(), any(), anyER(), any(), any(), anyC())
+        }
+      }
+    }
+
+    // The bottom-up build is persisted.
+    taskDefs.clear()
+    pieBuilder.build().use { pie ->
+      InMemoryStoreTestCtx(fileSystem, taskDefs, pie).run {
+        val combDef = addCombineDef()
+        newSession().use { session ->
+          Assertions.assertEquals("!dlrow olleh", session.require(combDef.createTask(file)))
+          verify(session.topDownRunner, never()).exec(any(), any(), anyER(), any(), any(), anyC())
+        }
+      }
+    }
+  }
+
+  // Offsets of fields into the trailer, which is the last 96 bytes of a mapped store file.
+  private val trailerSize = 96
+  private val trailerTaskCount = 12
+  private val trailerGlobalsOffset = 64
+
+  private fun testCorruptFile(expectedException: Class<out Exception>, corrupt: (RandomAccessFile, Long) -> Unit) = withTemporaryDirectory { directory ->
+    openStore(directory).use { store ->
+      store.writeTxn().use { txn ->
+        txn.resetTask(taskA)
+        txn.setOutput(keyA, "a")
+      }
+    }
+    val path = onlyFile(directory)
+    RandomAccessFile(path.toFile(), "rw").use { file -> corrupt(file, file.length()) }
+
+    // Loading fails and reports the failure, but the store starts empty and is usable.
+    val failures = mutableListOf<Exception>()
+    openStore(directory, failures).use { store ->
+      Assertions.assertEquals(1, failures.size)
+      Assertions.assertTrue(expectedException.isInstance(failures[0]), "Unexpected failure: ${failures[0]}")
+      store.writeTxn().use { txn ->
+        Assertions.assertNull(txn.getData(keyA))
+        txn.resetTask(taskA)
+        txn.setOutput(keyA, "a2")
+      }
+    }
+
+    // The corrupt file has been replaced.
+    openStore(directory).use { store ->
+      store.readTxn().use { txn ->
+        Assertions.assertEquals("a2", txn.getOutput(keyA)?.output)
+      }
+    }
+    Assertions.assertEquals(1L, Files.list(directory).use { it.count() })
+  }
+
+  @Test
+  fun testTruncatedFile() = testCorruptFile(IOException::class.java) { file, length ->
+    file.setLength(length / 2)
+  }
+
+  @Test
+  fun testCorruptMagic() = testCorruptFile(IOException::class.java) { file, length ->
+    file.seek(length - trailerSize)
+    file.writeLong(0)
+  }
+
+  @Test
+  fun testCorruptTrailer() = testCorruptFile(IOException::class.java) { file, length ->
+    // A huge count must be rejected instead of being allocated or probed for.
+    file.seek(length - trailerSize + trailerTaskCount)
+    file.writeInt(Int.MAX_VALUE)
+  }
+
+  @Test
+  fun testCorruptGlobals() = testCorruptFile(DeserializeRuntimeException::class.java) { file, length ->
+    file.seek(length - trailerSize + trailerGlobalsOffset)
+    file.seek(file.readLong())
+    file.write(ByteArray(8) { 0x7f.toByte() })
+  }
+}
@@ -0,0 +1,99 @@
+package mb.pie.runtime.test
+
+import mb.pie.api.test.readResource
+import mb.pie.api.test.toLowerCase
+import mb.resource.fs.FSResource
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.TestFactory
+import org.junit.jupiter.api.TestInstance
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ParallelBottomUpTests {
+  private val executor = Executors.newFixedThreadPool(4)
+  private val builder = DefaultRuntimeTestBuilder(shouldSpy = false).apply { withBottomUpExecutor(executor, 4) }
+
+  @AfterAll
+  fun shutdownExecutor() {
+    executor.shutdownNow()
+  }
+
+
+  @TestFactory
+  fun testUpdateAffectedByManyIndependentTasks() = builder.test {
+    val lowerDef = toLowerCase
+    addTaskDef(lowerDef)
+    val readDef = readResource
+    addTaskDef(readDef)
+    val executions = ConcurrentHashMap<FSResource, AtomicInteger>()
+    val combDef = taskDef<FSResource, String>("combine", { input, _ -> "combine($input)" }) {
+      executions.computeIfAbsent(it) { AtomicInteger() }.incrementAndGet()
+      val text = require(readDef.createTask(it))
+      require(lowerDef.createTask(text))
+    }
+    addTaskDef(combDef)
+    val allDef = taskDef<ArrayList<FSResource>, String>("all", { _, _ -> "all" }) { files ->
+      files.joinToString(",") { require(combDef.createTask(it)) }
+    }
+    addTaskDef(allDef)
+
+    val files = (0 until 32).map { resource("/file$it") }
+    files.forEachIndexed { i, file -> write("HELLO $i", file) }
+    val allTask = allDef.createTask(ArrayList(files))
+
+    newSession().use { session ->
+      Assertions.assertEquals(files.indices.joinToString(",") { "hello $it" }, session.require(allTask))
+    }
+    executions.clear()
+
+    // Change every other file, making half of the read tasks affected, which can then be executed concurrently.
+    val changedFiles = files.filterIndexed { i, _ -> i % 2 == 0 }
+    changedFiles.forEach { write("BYE", it) }
+    newSession().use { session ->
+      val topDownSession = session.updateAffectedBy(changedFiles.map { it.key }.toSet())
+      val expected = files.indices.joinToString(",") { if(it % 2 == 0) "bye" else "hello $it" }
+      Assertions.assertEquals(expected, topDownSession.getOutput(allTask))
+    }
+    // Affected combine tasks are executed exactly once, unaffected ones are not executed.
+    Assertions.assertEquals(changedFiles.toSet(), executions.keys)
+    executions.values.forEach { Assertions.assertEquals(1, it.get()) }
+  }
+
+  @TestFactory
+  fun testUpdateAffectedByDependentTasksInOrder() = builder.test {
+    val readDef = readResource
+    addTaskDef(readDef)
+    val order = ConcurrentHashMap<String, Int>()
+    val counter = AtomicInteger()
+    val firstDef = taskDef<FSResource, String>("first") {
+      val text = require(readDef.createTask(it))
+      order["first"] = counter.incrementAndGet()
+      text
+    }
+    addTaskDef(firstDef)
+    val secondDef = taskDef<FSResource, String>("second") {
+      val text = require(firstDef.createTask(it))
+      order["second"] = counter.incrementAndGet()
+      "$text!"
+    }
+    addTaskDef(secondDef)
+
+    val file = resource("/file")
+    write("hello", file)
+    val secondTask = secondDef.createTask(file)
+    newSession().use { session ->
+      Assertions.assertEquals("hello!", session.require(secondTask))
+    }
+
+    write("bye", file)
+    newSession().use { session ->
+      val topDownSession = session.updateAffectedBy(setOf(file.key))
+      Assertions.assertEquals("bye!", topDownSession.getOutput(secondTask))
+    }
+    // Dependent task is executed after its dependency, even though both are executed concurrently with other tasks.
+    Assertions.assertTrue(order["first"]!! < order["second"]!!)
+  }
+}
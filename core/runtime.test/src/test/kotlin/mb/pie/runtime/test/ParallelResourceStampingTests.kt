@@ -0,0 +1,75 @@
+package mb.pie.runtime.test
+
+import mb.pie.api.stamp.resource.ResourceStampers
+import mb.resource.fs.FSResource
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.TestFactory
+import org.junit.jupiter.api.TestInstance
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ParallelResourceStampingTests {
+  private val executor = Executors.newCachedThreadPool()
+  private val builder = DefaultRuntimeTestBuilder(shouldSpy = false).apply { withResourceStampingExecutor(executor) }
+
+  @AfterAll
+  fun shutdownExecutor() {
+    executor.shutdownNow()
+  }
+
+
+  @TestFactory
+  fun testManyResourceDependencies() = builder.test {
+    val executions = AtomicInteger()
+    val concatDef = taskDef<ArrayList<FSResource>, String>("concat", { input, _ -> "concat($input)" }) { files ->
+      executions.incrementAndGet()
+      files.joinToString(",") {
+        require(it, ResourceStampers.hashFile())
+        read(it)
+      }
+    }
+    addTaskDef(concatDef)
+
+    val files = (0 until 32).map { resource("/file$it") }
+    files.forEachIndexed { i, file -> write("$i", file) }
+    val concatTask = concatDef.createTask(ArrayList(files))
+
+    newSession().use { session ->
+      Assertions.assertEquals(files.indices.joinToString(","), session.require(concatTask))
+    }
+    Assertions.assertEquals(1, executions.get())
+
+    // Nothing changed: all resources are stamped (concurrently), and the task is not executed.
+    newSession().use { session ->
+      Assertions.assertEquals(files.indices.joinToString(","), session.require(concatTask))
+    }
+    Assertions.assertEquals(1, executions.get())
+
+    // Change the last file: only the last dependency is inconsistent, and the task is executed once.
+    write("last", files.last())
+    newSession().use { session ->
+      val expected = files.indices.joinToString(",") { if(it == files.size - 1) "last" else "$it" }
+      Assertions.assertEquals(expected, session.require(concatTask))
+    }
+    Assertions.assertEquals(2, executions.get())
+
+    // Change some files and build bottom-up: the affected resource dependencies are stamped (concurrently), and the
+    // task is executed once.
+    val changedFiles = files.filterIndexed { i, _ -> i % 4 == 0 }
+    changedFiles.forEach { write("changed", it) }
+    newSession().use { session ->
+      val topDownSession = session.updateAffectedBy(files.map { it.key }.toSet())
+      val expected = files.indices.joinToString(",") {
+        when {
+          it % 4 == 0 -> "changed"
+          it == files.size - 1 -> "last"
+          else -> "$it"
+        }
+      }
+      Assertions.assertEquals(expected, topDownSession.getOutput(concatTask))
+    }
+    Assertions.assertEquals(3, executions.get())
+  }
+}
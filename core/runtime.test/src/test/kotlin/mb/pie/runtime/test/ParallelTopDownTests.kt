@@ -0,0 +1,251 @@
+package mb.pie.runtime.test
+
+import mb.pie.api.TaskDef
+import mb.pie.api.test.readResource
+import mb.pie.api.test.toLowerCase
+import mb.pie.runtime.layer.ValidationException
+import mb.resource.fs.FSResource
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.TestFactory
+import org.junit.jupiter.api.TestInstance
+import org.junit.jupiter.api.function.Executable
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ParallelTopDownTests {
+  private val executor = Executors.newFixedThreadPool(4)
+  private val builder = DefaultRuntimeTestBuilder(shouldSpy = false).apply { withTopDownExecutor(executor, 4) }
+
+  @AfterAll
+  fun shutdownExecutor() {
+    executor.shutdownNow()
+  }
+
+
+  @TestFactory
+  fun testRequireManyIndependentTasks() = builder.test {
+    val lowerDef = toLowerCase
+    addTaskDef(lowerDef)
+    val readDef = readResource
+    addTaskDef(readDef)
+    val executions = ConcurrentHashMap<FSResource, AtomicInteger>()
+    val combDef = taskDef<FSResource, String>("combine", { input, _ -> "combine($input)" }) {
+      executions.computeIfAbsent(it) { AtomicInteger() }.incrementAndGet()
+      val text = require(readDef.createTask(it))
+      require(lowerDef.createTask(text))
+    }
+    addTaskDef(combDef)
+    val allDef = taskDef<ArrayList<FSResource>, String>("all", { _, _ -> "all" }) { files ->
+      requireAll(files.map { combDef.createTask(it) }).joinToString(",")
+    }
+    addTaskDef(allDef)
+
+    val files = (0 until 32).map { resource("/file$it") }
+    files.forEachIndexed { i, file -> write("HELLO $i", file) }
+    val allTask = allDef.createTask(ArrayList(files))
+
+    newSession().use { session ->
+      Assertions.assertEquals(files.indices.joinToString(",") { "hello $it" }, session.require(allTask))
+    }
+    Assertions.assertEquals(files.toSet(), executions.keys)
+    executions.values.forEach { Assertions.assertEquals(1, it.get()) }
+    executions.clear()
+
+    // Nothing changed: all dependencies are checked (concurrently), and no task is executed.
+    newSession().use { session ->
+      Assertions.assertEquals(files.indices.joinToString(",") { "hello $it" }, session.require(allTask))
+    }
+    Assertions.assertTrue(executions.isEmpty())
+
+    // Change every other file, making half of the combine tasks inconsistent.
+    val changedFiles = files.filterIndexed { i, _ -> i % 2 == 0 }
+    changedFiles.forEach { write("BYE", it) }
+    newSession().use { session ->
+      val expected = files.indices.joinToString(",") { if(it % 2 == 0) "bye" else "hello $it" }
+      Assertions.assertEquals(expected, session.require(allTask))
+    }
+    // Inconsistent combine tasks are executed exactly once, consistent ones are not executed.
+    Assertions.assertEquals(changedFiles.toSet(), executions.keys)
+    executions.values.forEach { Assertions.assertEquals(1, it.get()) }
+  }
+
+  @TestFactory
+  fun testLaterRequireDependsOnEarlierOutput() = builder.test {
+    val readDef = readResource
+    addTaskDef(readDef)
+    // Task with a key that does not depend on its input, such that requiring it with a different input in the same
+    // session is detected as an error by the validation layer.
+    val processDef = taskDef<String, String>("process", { _ -> "process" }) { it.toUpperCase() }
+    addTaskDef(processDef)
+    val mainDef = taskDef<FSResource, String>("main") {
+      val text = require(readDef.createTask(it))
+      require(processDef.createTask(text))
+    }
+    addTaskDef(mainDef)
+
+    val file = resource("/file")
+    write("hello", file)
+    val mainTask = mainDef.createTask(file)
+    newSession().use { session ->
+      Assertions.assertEquals("HELLO", session.require(mainTask))
+    }
+
+    // The second dependency of `main` is consistent with the old input, but it must not be marked as visited with that
+    // input, since the first dependency is inconsistent, causing `main` to require it with a new input.
+    write("bye", file)
+    newSession().use { session ->
+      Assertions.assertEquals("BYE", session.require(mainTask))
+    }
+  }
+
+  @TestFactory
+  fun testDiscardedSpeculationDoesNotExecuteWithOutdatedInput() = builder.test {
+    val readDef = readResource
+    addTaskDef(readDef)
+    val processInputs = ConcurrentLinkedQueue<String>()
+    val suffixFile = resource("/suffix")
+    // Task with a key that does not depend on its input, which also reads a file of its own.
+    val processDef = taskDef<String, String>("process", { _ -> "process" }) {
+      processInputs.add(it)
+      it.toUpperCase() + require(readDef.createTask(suffixFile))
+    }
+    addTaskDef(processDef)
+    val mainDef = taskDef<FSResource, String>("main") {
+      val text = require(readDef.createTask(it))
+      require(processDef.createTask(text))
+    }
+    addTaskDef(mainDef)
+
+    val file = resource("/file")
+    write("hello", file)
+    write("!", suffixFile)
+    val mainTask = mainDef.createTask(file)
+    newSession().use { session ->
+      Assertions.assertEquals("HELLO!", session.require(mainTask))
+    }
+    processInputs.clear()
+
+    // Both dependencies of `main` are inconsistent. The second one must not be executed speculatively with the old
+    // input while the first one is being checked, since `main` requires it with a new input.
+    write("bye", file)
+    write("?", suffixFile)
+    newSession().use { session ->
+      Assertions.assertEquals("BYE?", session.require(mainTask))
+    }
+    Assertions.assertEquals(listOf("bye"), processInputs.toList())
+  }
+
+  @TestFactory
+  fun testIndependentSubtreesExecuteConcurrently() = builder.test {
+    val readDef = readResource
+    addTaskDef(readDef)
+    var latch: CountDownLatch? = null
+    var latchedFiles = setOf<FSResource>()
+    val combDef = taskDef<FSResource, String>("combine", { input, _ -> "combine($input)" }) {
+      val text = require(readDef.createTask(it))
+      // Only completes when all latched combine tasks are executing at the same time.
+      latch?.takeIf { _ -> it in latchedFiles }?.let { l ->
+        l.countDown()
+        Assertions.assertTrue(l.await(10, TimeUnit.SECONDS))
+      }
+      text.toLowerCase()
+    }
+    addTaskDef(combDef)
+    val allDef = taskDef<ArrayList<FSResource>, String>("all", { _, _ -> "all" }) { files ->
+      requireAll(files.map { combDef.createTask(it) }).joinToString(",")
+    }
+    addTaskDef(allDef)
+
+    val files = (0 until 3).map { resource("/file$it") }
+    files.forEachIndexed { i, file -> write("HELLO $i", file) }
+    val allTask = allDef.createTask(ArrayList(files))
+
+    // New build: all combine tasks are executed concurrently.
+    latchedFiles = files.toSet()
+    latch = CountDownLatch(files.size)
+    newSession().use { session ->
+      Assertions.assertEquals("hello 0,hello 1,hello 2", session.require(allTask))
+    }
+
+    // All combine tasks are inconsistent. The first one is executed in order when checking `all`, which is then
+    // executed, executing the other combine tasks concurrently.
+    files.forEach { write("BYE", it) }
+    latchedFiles = files.drop(1).toSet()
+    latch = CountDownLatch(files.size - 1)
+    newSession().use { session ->
+      Assertions.assertEquals("bye,bye,bye", session.require(allTask))
+    }
+  }
+
+  @TestFactory
+  fun testSharedCalleeIsExecutedOnce() = builder.test {
+    val readDef = readResource
+    addTaskDef(readDef)
+    val executions = ConcurrentHashMap<String, AtomicInteger>()
+    val sharedDef = taskDef<FSResource, String>("shared", { input, _ -> "shared($input)" }) {
+      executions.computeIfAbsent("shared") { AtomicInteger() }.incrementAndGet()
+      require(readDef.createTask(it)).toLowerCase()
+    }
+    addTaskDef(sharedDef)
+    val sharedFile = resource("/shared")
+    val userDef = taskDef<Int, String>("user", { input, _ -> "user($input)" }) {
+      executions.computeIfAbsent("user$it") { AtomicInteger() }.incrementAndGet()
+      require(sharedDef.createTask(sharedFile)) + it
+    }
+    addTaskDef(userDef)
+    val allDef = taskDef<Int, String>("all", { input, _ -> "all($input)" }) { n ->
+      requireAll((0 until n).map { userDef.createTask(it) }).joinToString(",")
+    }
+    addTaskDef(allDef)
+
+    // All user tasks are executed concurrently and require the new shared task, which is executed once.
+    write("HELLO", sharedFile)
+    val allTask = allDef.createTask(8)
+    newSession().use { session ->
+      Assertions.assertEquals((0 until 8).joinToString(",") { "hello$it" }, session.require(allTask))
+    }
+    Assertions.assertEquals(setOf("shared") + (0 until 8).map { "user$it" }, executions.keys)
+    executions.values.forEach { Assertions.assertEquals(1, it.get()) }
+    executions.clear()
+
+    // All user tasks require the inconsistent shared task, which is executed once.
+    write("BYE", sharedFile)
+    newSession().use { session ->
+      Assertions.assertEquals((0 until 8).joinToString(",") { "bye$it" }, session.require(allTask))
+    }
+    Assertions.assertEquals(setOf("shared") + (0 until 8).map { "user$it" }, executions.keys)
+    executions.values.forEach { Assertions.assertEquals(1, it.get()) }
+  }
+
+  @TestFactory
+  fun testCyclicDependencyAcrossThreadsIsReported() = builder.test {
+    val lowerDef = toLowerCase
+    addTaskDef(lowerDef)
+    lateinit var cycleDef: TaskDef<String, String>
+    cycleDef = taskDef<String, String>("cycle") {
+      when(it) {
+        "a" -> requireAll(listOf(lowerDef.createTask("A"), cycleDef.createTask("b"))).joinToString(",")
+        "b" -> require(cycleDef.createTask("c"))
+        else -> require(cycleDef.createTask("a"))
+      }
+    }
+    addTaskDef(cycleDef)
+
+    // Task `a` waits for `b`, which is required concurrently on another thread, and transitively requires `a` again.
+    // The cycle spans multiple threads, and must be reported instead of deadlocking.
+    newSession().use { session ->
+      Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), Executable {
+        Assertions.assertThrows(ValidationException::class.java) {
+          session.require(cycleDef.createTask("a"))
+        }
+      })
+    }
+  }
+}
@@ -0,0 +1,169 @@
+package mb.pie.runtime.test
+
+import mb.pie.api.ResourceRequireDep
+import mb.pie.api.stamp.ResourceStamp
+import mb.pie.api.stamp.ResourceStamper
+import mb.pie.api.stamp.resource.FileAttributesResourceStamper
+import mb.pie.api.stamp.resource.ResourceStampers
+import mb.pie.api.stamp.resource.ValueResourceStamp
+import mb.pie.runtime.exec.ResourceStampCache
+import mb.resource.DefaultResourceService
+import mb.resource.Resource
+import mb.resource.ReadableResource
+import mb.resource.fs.FSResource
+import mb.resource.fs.FSResourceRegistry
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotEquals
+import org.junit.jupiter.api.Assertions.assertNotSame
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.TestFactory
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.concurrent.atomic.AtomicInteger
+
+class ResourceStampCacheTests {
+  private val builder = DefaultRuntimeTestBuilder(shouldSpy = false)
+
+  /**
+   * Stamps resources by their contents, counting the number of times a resource is stamped.
+   */
+  private class CountingStamper(val count: AtomicInteger) : ResourceStamper<ReadableResource> {
+    override fun stamp(resource: ReadableResource): ResourceStamp<ReadableResource> {
+      count.incrementAndGet()
+      return ValueResourceStamp(String(resource.readBytes()), this)
+    }
+  }
+
+  /**
+   * Stamps resources by their last modification date, counting the number of times a resource is stamped individually
+   * and from file attributes.
+   */
+  private class CountingAttributesStamper(val count: AtomicInteger, val attributesCount: AtomicInteger) : FileAttributesResourceStamper<FSResource> {
+    override fun stamp(resource: FSResource): ResourceStamp<FSResource> {
+      count.incrementAndGet()
+      val modified = if(resource.exists()) resource.lastModifiedTime.toEpochMilli() else Long.MAX_VALUE
+      return ValueResourceStamp(modified, this)
+    }
+
+    override fun stamp(resource: FSResource, attributes: BasicFileAttributes?): ResourceStamp<FSResource> {
+      attributesCount.incrementAndGet()
+      val modified = attributes?.lastModifiedTime()?.toMillis() ?: Long.MAX_VALUE
+      return ValueResourceStamp(modified, this)
+    }
+  }
+
+
+  @TestFactory
+  fun testSharedResourceIsStampedOncePerSession() = builder.test {
+    val stamper = CountingStamper(AtomicInteger())
+    val readDef = taskDef<Pair<Int, FSResource>, String>("read", { (i, _), _ -> "read($i)" }) { (i, file) ->
+      require(file, stamper)
+      "$i:${file.readString()}"
+    }
+    addTaskDef(readDef)
+    val allDef = taskDef<FSResource, String>("all", { _, _ -> "all" }) { file ->
+      (0 until 16).joinToString(",") { require(readDef.createTask(Pair(it, file))) }
+    }
+    addTaskDef(allDef)
+
+    val file = resource("/file")
+    write("A", file)
+    val allTask = allDef.createTask(file)
+
+    // Each of the 16 tasks requires the file, but it is stamped once.
+    newSession().use { session ->
+      assertEquals((0 until 16).joinToString(",") { "$it:A" }, session.require(allTask))
+    }
+    assertEquals(1, stamper.count.getAndSet(0))
+
+    // Checking consistency of the 16 tasks stamps the file once.
+    newSession().use { session ->
+      session.require(allTask)
+    }
+    assertEquals(1, stamper.count.getAndSet(0))
+
+    // Stamps are not shared between sessions: changes made between sessions are observed.
+    write("B", file)
+    newSession().use { session ->
+      assertEquals((0 until 16).joinToString(",") { "$it:B" }, session.require(allTask))
+    }
+    // The file is stamped once during consistency checks, and executed tasks get the cached stamp.
+    assertEquals(1, stamper.count.getAndSet(0))
+  }
+
+  @TestFactory
+  fun testInvalidate() = builder.test {
+    val stamper = CountingStamper(AtomicInteger())
+    val cache = ResourceStampCache(DefaultResourceService(FSResourceRegistry()))
+    val dir = resource("/dir")
+    val file = resource("/dir/file")
+    val otherFile = resource("/otherFile")
+    dir.createDirectory(true)
+    write("A", file)
+    write("B", otherFile)
+
+    assertEquals(ValueResourceStamp("A", stamper), cache.stamp(file, stamper))
+    cache.stamp(file, stamper)
+    cache.stamp(otherFile, stamper)
+    assertEquals(2, stamper.count.getAndSet(0))
+
+    // Providing the file invalidates its stamps.
+    write("C", file)
+    cache.invalidate(file.key)
+    assertEquals(ValueResourceStamp("C", stamper), cache.stamp(file, stamper))
+    cache.stamp(otherFile, stamper)
+    assertEquals(1, stamper.count.getAndSet(0))
+
+    // Invalidating a file also invalidates the stamps of its ancestors, whose stamps may depend on the file.
+    val dirStamper = ResourceStampers.modifiedDirRec()
+    val dirStamp = cache.stamp(dir, dirStamper)
+    assertSame(dirStamp, cache.stamp(dir, dirStamper))
+    cache.invalidate(file.key)
+    assertNotSame(dirStamp, cache.stamp(dir, dirStamper))
+
+    // Invalidating a directory also invalidates the stamps of its descendants, as providing a directory may change the
+    // files in it.
+    cache.stamp(file, stamper)
+    cache.stamp(otherFile, stamper)
+    assertEquals(1, stamper.count.getAndSet(0))
+    write("D", file)
+    cache.invalidate(dir.key)
+    assertEquals(ValueResourceStamp("D", stamper), cache.stamp(file, stamper))
+    cache.stamp(otherFile, stamper)
+    assertEquals(1, stamper.count.getAndSet(0))
+  }
+
+  @TestFactory
+  fun testStampBatch() = builder.test {
+    val stamper = CountingAttributesStamper(AtomicInteger(), AtomicInteger())
+    val dir = resource("/dir")
+    dir.createDirectory(true)
+    val files = (0 until 8).map { resource("/dir/file$it") }
+    files.forEach { write("A", it) }
+    val nonExistentFile = resource("/dir/nonExistent")
+    val fileInNonExistentDir = resource("/nonExistentDir/file")
+    val otherFileInNonExistentDir = resource("/nonExistentDir/otherFile")
+    val allFiles = files + listOf(nonExistentFile, fileInNonExistentDir, otherFileInNonExistentDir)
+
+    // Stamps created from file attributes are equal to stamps created individually.
+    @Suppress("UNCHECKED_CAST")
+    val deps = allFiles.map { ResourceRequireDep(it.key, stamper.stamp(it) as ResourceStamp<Resource>) }
+    stamper.count.set(0)
+    val resourceService = DefaultResourceService(FSResourceRegistry())
+    val cache = ResourceStampCache(resourceService)
+    cache.stampBatch(deps, listOf())
+    assertEquals(allFiles.size, stamper.attributesCount.getAndSet(0))
+    deps.forEach { assertEquals(null, cache.checkConsistency(it)) }
+    assertEquals(0, stamper.count.get())
+
+    // Changed files are observed, and cached stamps are not stamped again.
+    write("BB", files[0])
+    files[0].lastModifiedTime = files[0].lastModifiedTime.plusSeconds(1)
+    val newCache = ResourceStampCache(resourceService)
+    newCache.stampBatch(deps, listOf())
+    newCache.stampBatch(deps, listOf())
+    assertEquals(allFiles.size, stamper.attributesCount.getAndSet(0))
+    assertNotEquals(null, newCache.checkConsistency(deps[0]))
+    deps.drop(1).forEach { assertEquals(null, newCache.checkConsistency(it)) }
+    assertEquals(0, stamper.count.get())
+  }
+}
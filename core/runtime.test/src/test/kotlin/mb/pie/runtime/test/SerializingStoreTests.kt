@@ -11,12 +11,14 @@ import mb.pie.api.test.anyC
 import mb.pie.api.test.anyER
 import mb.pie.api.test.readResource
 import mb.pie.runtime.exec.NoData
+import mb.pie.runtime.store.InMemoryStore
 import mb.pie.runtime.store.SerializingStoreBuilder
 import mb.resource.ResourceService
 import mb.resource.fs.FSResource
 import org.junit.jupiter.api.Assertions
 import org.junit.jupiter.api.Test
 import java.nio.file.FileSystem
+import java.nio.file.Files
 
 class SerializingStoreTests {
   @Test
@@ -87,6 +89,132 @@ class SerializingStoreTests {
       }
     }
   }
+
+  @Test
+  fun testJournalRecoversChanges() {
+    val fileSystem = Jimfs.newFileSystem(Configuration.unix())
+    val pieBuilder = TestPieBuilderImpl(true)
+    pieBuilder.withStoreFactory { serde: Serde?, _: ResourceService, loggerFactory: LoggerFactory? ->
+      SerializingStoreBuilder.ofInMemoryStore(serde)
+        .withJournal(fileSystem.getPath("journal"))
+        .withJournalCompactionThreshold(1) // Compact in the background whenever possible.
+        .withLoggingDeserializeFailHandler(loggerFactory)
+        .build()
+    }
+    val taskDefs = MapTaskDefs()
+    pieBuilder.withTaskDefs(taskDefs)
+
+    pieBuilder.build().use { pie ->
+      InMemoryStoreTestCtx(fileSystem, taskDefs, pie).run {
+        write("HELLO WORLD!", file)
+        val task = readDef.createTask(file)
+        val key = task.key()
+
+        // Build 'readPath', observe rebuild.
+        newSession().use { session ->
+          val output = session.require(task)
+          Assertions.assertEquals("HELLO WORLD!", output)
+          verify(session.topDownRunner, times(1)).exec(eq(key), eq(task), eq(NoData()), any(), any(), anyC())
+        }
+      }
+    }
+
+    // Recover from journal due to pie instance being closed.
+    taskDefs.clear()
+    pieBuilder.build().use { pie ->
+      InMemoryStoreTestCtx(fileSystem, taskDefs, pie).run {
+        val task = readDef.createTask(file)
+        val key = task.key()
+
+        // No changes - exec 'readPath', observe no rebuild.
+        newSession().use { session ->
+          val output = session.require(task)
+          Assertions.assertEquals("HELLO WORLD!", output)
+          verify(session.topDownRunner, never()).exec(eq(key), eq(task), anyER(), any(), any(), anyC())
+        }
+
+        // Change required file, observe rebuild.
+        write("!DLROW OLLEH", file)
+        newSession().use { session ->
+          val output = session.require(task)
+          Assertions.assertEquals("!DLROW OLLEH", output)
+          verify(session.topDownRunner, times(1)).exec(eq(key), eq(task), anyER(), any(), any(), anyC())
+        }
+      }
+    }
+
+    // Recover again, which includes the rebuild.
+    taskDefs.clear()
+    pieBuilder.build().use { pie ->
+      InMemoryStoreTestCtx(fileSystem, taskDefs, pie).run {
+        val task = readDef.createTask(file)
+        val key = task.key()
+
+        // No changes - exec 'readPath', observe no rebuild.
+        newSession().use { session ->
+          val output = session.require(task)
+          Assertions.assertEquals("!DLROW OLLEH", output)
+          verify(session.topDownRunner, never()).exec(eq(key), eq(task), anyER(), any(), any(), anyC())
+        }
+      }
+    }
+  }
+
+  @Test
+  fun testBackgroundSerialization() {
+    val fileSystem = Jimfs.newFileSystem(Configuration.unix())
+    val pieBuilder = TestPieBuilderImpl(true)
+    pieBuilder.withStoreFactory { serde: Serde?, _: ResourceService, loggerFactory: LoggerFactory? ->
+      SerializingStoreBuilder.ofInMemoryStore(serde)
+        .withResourceStorage(FSResource(fileSystem.getPath("store")))
+        .withBackgroundSerialization(InMemoryStore::copy)
+        .withLoggingDeserializeFailHandler(loggerFactory)
+        .build()
+    }
+    val taskDefs = MapTaskDefs()
+    pieBuilder.withTaskDefs(taskDefs)
+
+    pieBuilder.build().use { pie ->
+      InMemoryStoreTestCtx(fileSystem, taskDefs, pie).run {
+        write("HELLO WORLD!", file)
+        val task = readDef.createTask(file)
+        val key = task.key()
+
+        // Build 'readPath', observe rebuild. Closing the session serializes a copy of the store in the background.
+        newSession().use { session ->
+          val output = session.require(task)
+          Assertions.assertEquals("HELLO WORLD!", output)
+          verify(session.topDownRunner, times(1)).exec(eq(key), eq(task), eq(NoData()), any(), any(), anyC())
+        }
+
+        // Change required file, observe rebuild, while the previous copy may still be serializing.
+        write("!DLROW OLLEH", file)
+        newSession().use { session ->
+          val output = session.require(task)
+          Assertions.assertEquals("!DLROW OLLEH", output)
+          verify(session.topDownRunner, times(1)).exec(eq(key), eq(task), anyER(), any(), any(), anyC())
+        }
+      }
+    }
+
+    // Closing the pie instance waits for background serialization to complete.
+    taskDefs.clear() // Clear because InMemoryStoreTestCtx re-adds the same task definition
+    pieBuilder.build().use { pie ->
+      InMemoryStoreTestCtx(fileSystem, taskDefs, pie).run {
+        val task = readDef.createTask(file)
+        val key = task.key()
+
+        // No changes - exec 'readPath', observe no rebuild.
+        newSession().use { session ->
+          val output = session.require(task)
+          Assertions.assertEquals("!DLROW OLLEH", output)
+          verify(session.topDownRunner, never()).exec(eq(key), eq(task), anyER(), any(), any(), anyC())
+        }
+      }
+    }
+    // The store file was atomically replaced, without leaving a temporary file behind.
+    Assertions.assertFalse(Files.exists(fileSystem.getPath("store.tmp")))
+  }
 }
 
 class InMemoryStoreTestCtx(
@@ -0,0 +1,173 @@
+package mb.pie.runtime.test
+
+import mb.pie.api.PieBuilder.StoreFactory
+import mb.pie.api.ResourceRequireDep
+import mb.pie.api.Task
+import mb.pie.api.TaskRequireDep
+import mb.pie.api.stamp.output.OutputStampers
+import mb.pie.api.stamp.resource.ResourceStampers
+import mb.pie.api.stamp.resource.ValueResourceStamp
+import mb.pie.api.test.toLowerCase
+import mb.pie.api.test.toLowerCaseDef
+import mb.pie.runtime.store.InMemoryStore
+import mb.pie.runtime.store.SnapshotStore
+import mb.resource.Resource
+import mb.resource.fs.FSPath
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestFactory
+import org.junit.jupiter.api.TestInstance
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class SnapshotStoreTests {
+  private val executor = Executors.newSingleThreadExecutor()
+  private val builder = DefaultRuntimeTestBuilder(shouldSpy = false).apply {
+    storeFactories.clear()
+    storeFactories.add(StoreFactory { _, _, _ -> SnapshotStore(InMemoryStore()) })
+  }
+
+  @AfterAll
+  fun shutdownExecutor() {
+    executor.shutdownNow()
+  }
+
+
+  @Test
+  fun testSnapshotReadsLastCommittedState() {
+    val store = SnapshotStore(InMemoryStore())
+    val callee = Task(toLowerCaseDef, "callee")
+    val calleeKey = callee.key()
+    val caller = Task(toLowerCaseDef, "caller")
+    val callerKey = caller.key()
+    store.writeTxn().use { txn ->
+      txn.resetTask(callee)
+      txn.setOutput(calleeKey, "callee")
+      txn.resetTask(caller)
+      txn.addTaskRequire(callerKey, calleeKey)
+      txn.addTaskRequireDep(callerKey, TaskRequireDep(calleeKey, OutputStampers.equals().stamp("callee")))
+      txn.setOutput(callerKey, "caller")
+    }
+
+    val snapshot = store.snapshotReadTxn()
+    store.writeTxn().use { txn ->
+      // Reset the caller, removing its dependency to the callee, and delete the callee.
+      txn.resetTask(caller)
+      txn.deleteData(calleeKey)
+      // Snapshots taken during the write transaction do not observe its writes.
+      store.snapshotReadTxn().use { duringTxn ->
+        assertEquals("caller", duringTxn.getOutput(callerKey)!!.output)
+        assertEquals("callee", duringTxn.getOutput(calleeKey)!!.output)
+        assertEquals(setOf(callerKey), duringTxn.getCallersOf(calleeKey))
+      }
+    }
+
+    // Snapshots taken before the commit keep reading the same state.
+    assertEquals("caller", snapshot.getOutput(callerKey)!!.output)
+    assertEquals(listOf(calleeKey), snapshot.getData(callerKey)!!.deps.taskRequireDeps.map { it.callee })
+    assertEquals(setOf(callerKey), snapshot.getCallersOf(calleeKey))
+    assertTrue(snapshot.doesRequireTransitively(callerKey, calleeKey))
+    snapshot.close()
+
+    // Snapshots taken after the commit read the committed state.
+    store.snapshotReadTxn().use { afterTxn ->
+      assertNull(afterTxn.getOutput(callerKey))
+      assertNull(afterTxn.getInput(calleeKey))
+      assertTrue(afterTxn.getCallersOf(calleeKey).isEmpty())
+    }
+  }
+
+  @Test
+  fun testSnapshotQueriesOverAllTasks() {
+    val store = SnapshotStore(InMemoryStore())
+    val callee = Task(toLowerCaseDef, "callee")
+    val calleeKey = callee.key()
+    val caller = Task(toLowerCaseDef, "caller")
+    val callerKey = caller.key()
+    val file = FSPath("/file")
+    store.writeTxn().use { txn ->
+      txn.resetTask(callee)
+      txn.setOutput(calleeKey, "callee")
+      txn.resetTask(caller)
+      txn.addTaskRequire(callerKey, calleeKey)
+      txn.addTaskRequireDep(callerKey, TaskRequireDep(calleeKey, OutputStampers.equals().stamp("callee")))
+      txn.setOutput(callerKey, "caller")
+    }
+
+    store.snapshotReadTxn().use { snapshot ->
+      store.writeTxn().use { txn ->
+        txn.resetTask(caller)
+        txn.setOutput(callerKey, "caller")
+        txn.resetTask(callee)
+        txn.addResourceRequireDep(calleeKey, ResourceRequireDep(file, ValueResourceStamp<Resource>(true, ResourceStampers.exists())))
+        txn.setOutput(calleeKey, "callee")
+        assertEquals(setOf(callerKey, calleeKey), txn.tasksWithoutCallers)
+        assertEquals(1, txn.numSourceFiles)
+      }
+      // The snapshot reads the state before the write transaction.
+      assertEquals(setOf(callerKey), snapshot.tasksWithoutCallers)
+      assertEquals(0, snapshot.numSourceFiles)
+    }
+  }
+
+  @Test
+  fun testSnapshotTakenDuringWriteTxnReadsCommittedState() {
+    val store = SnapshotStore(InMemoryStore())
+    val task = Task(toLowerCaseDef, "task")
+    val key = task.key()
+    store.writeTxn().use { txn ->
+      txn.resetTask(task)
+      txn.setOutput(key, "first")
+    }
+    store.writeTxn().use { txn ->
+      txn.setOutput(key, "second")
+      // No snapshot was open when the task was modified, but a snapshot taken now still reads the committed state.
+      store.snapshotReadTxn().use { snapshot ->
+        assertEquals("first", snapshot.getOutput(key)!!.output)
+        txn.setOutput(key, "third")
+        assertEquals("first", snapshot.getOutput(key)!!.output)
+      }
+      // A task that did not exist before the write transaction does not exist in a snapshot taken during it.
+      val newTask = Task(toLowerCaseDef, "new")
+      txn.resetTask(newTask)
+      txn.setOutput(newTask.key(), "new")
+      store.snapshotReadTxn().use { snapshot ->
+        assertNull(snapshot.getInput(newTask.key()))
+        assertEquals("first", snapshot.getOutput(key)!!.output)
+      }
+    }
+    store.snapshotReadTxn().use { snapshot ->
+      assertEquals("third", snapshot.getOutput(key)!!.output)
+    }
+  }
+
+  @TestFactory
+  fun testReadSessionDoesNotWaitForSession() = builder.test {
+    val lowerDef = toLowerCase
+    addTaskDef(lowerDef)
+    val checkDef = taskDef<String, String>("check", { input, _ -> "check($input)" }) { input ->
+      val lowerTask = lowerDef.createTask(input)
+      require(lowerTask)
+      // A read session on another thread does not wait for this session, and does not observe the uncommitted
+      // execution of the task that was just required.
+      executor.submit(Callable {
+        pie.newReadSession().use { it.hasBeenExecuted(lowerTask).toString() }
+      }).get(10, TimeUnit.SECONDS)
+    }
+    addTaskDef(checkDef)
+
+    newSession().use { session ->
+      assertEquals("false", session.require(checkDef.createTask("HELLO")))
+    }
+    pie.newReadSession().use { session ->
+      assertTrue(session.hasBeenExecuted(lowerDef.createTask("HELLO")))
+      assertEquals("hello", session.getOutput(lowerDef.createTask("HELLO")))
+      assertTrue(session.isExplicitlyObserved(checkDef.createTask("HELLO")))
+    }
+  }
+}
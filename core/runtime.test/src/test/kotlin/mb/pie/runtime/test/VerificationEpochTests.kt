@@ -0,0 +1,162 @@
+package mb.pie.runtime.test
+
+import mb.pie.api.None
+import mb.pie.api.stamp.ResourceStamp
+import mb.pie.api.None
+import mb.pie.api.stamp.ResourceStamper
+import mb.pie.api.stamp.resource.ValueResourceStamp
+import mb.resource.ReadableResource
+import mb.resource.fs.FSResource
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.TestFactory
+import java.util.concurrent.atomic.AtomicInteger
+
+class VerificationEpochTests {
+  private val builder = DefaultRuntimeTestBuilder(shouldSpy = false).apply { withTrustChangedResources(true) }
+  private val untrustedBuilder = DefaultRuntimeTestBuilder(shouldSpy = false)
+
+  /**
+   * Stamps resources by their contents, counting the number of times a resource is stamped.
+   */
+  private class CountingStamper(val count: AtomicInteger) : ResourceStamper<ReadableResource> {
+    override fun stamp(resource: ReadableResource): ResourceStamp<ReadableResource> {
+      count.incrementAndGet()
+      return ValueResourceStamp(String(resource.readBytes()), this)
+    }
+  }
+
+
+  @TestFactory
+  fun testVerifiedTaskIsNotCheckedAgain() = builder.test {
+    val stamper = CountingStamper(AtomicInteger())
+    val readDef = taskDef<FSResource, String>("read", { _, _ -> "read" }) { file ->
+      require(file, stamper)
+      file.readString()
+    }
+    addTaskDef(readDef)
+    val file = resource("/file")
+    write("A", file)
+    val task = readDef.createTask(file)
+
+    newSession().use { session ->
+      assertEquals("A", session.require(task))
+    }
+    assertEquals(1, stamper.count.getAndSet(0))
+
+    // Task was verified in the current epoch, and no changes were reported: resources are not stamped.
+    newSession().use { session ->
+      assertEquals("A", session.require(task))
+    }
+    assertEquals(0, stamper.count.getAndSet(0))
+
+    // Reporting a changed resource advances the epoch, and re-executes the affected task.
+    write("B", file)
+    newSession().use { session ->
+      val topDownSession = session.updateAffectedBy(setOf(file.key))
+      assertEquals("B", topDownSession.getOutput(task))
+    }
+    stamper.count.set(0)
+    newSession().use { session ->
+      assertEquals("B", session.require(task))
+    }
+    assertEquals(0, stamper.count.getAndSet(0))
+
+    // Changes that are not reported are not observed, since reports are trusted.
+    write("C", file)
+    newSession().use { session ->
+      assertEquals("B", session.require(task))
+    }
+    assertEquals(0, stamper.count.getAndSet(0))
+  }
+
+  @TestFactory
+  fun testUnobservedTaskIsCheckedAfterReportedChange() = builder.test {
+    val stamper = CountingStamper(AtomicInteger())
+    val readDef = taskDef<FSResource, String>("read", { _, _ -> "read" }) { file ->
+      require(file, stamper)
+      file.readString()
+    }
+    addTaskDef(readDef)
+    val file = resource("/file")
+    write("A", file)
+    val task = readDef.createTask(file)
+
+    // Execute the task without observing it, such that bottom-up builds do not schedule it.
+    newSession().use { session ->
+      assertEquals("A", session.requireWithoutObserving(task))
+    }
+    stamper.count.set(0)
+
+    write("B", file)
+    newSession().use { session ->
+      session.updateAffectedBy(setOf(file.key))
+    }
+    assertEquals(0, stamper.count.getAndSet(0))
+
+    // Task was verified in an earlier epoch: its resources are checked again, and it is re-executed.
+    newSession().use { session ->
+      assertEquals("B", session.requireWithoutObserving(task))
+    }
+    stamper.count.set(0)
+    newSession().use { session ->
+      assertEquals("B", session.requireWithoutObserving(task))
+    }
+    assertEquals(0, stamper.count.getAndSet(0))
+  }
+
+  @TestFactory
+  fun testProvidingResourcesAdvancesEpoch() = builder.test {
+    val stamper = CountingStamper(AtomicInteger())
+    val readDef = taskDef<FSResource, String>("read", { _, _ -> "read" }) { file ->
+      require(file, stamper)
+      file.readString()
+    }
+    addTaskDef(readDef)
+    val writeDef = taskDef<FSResource, None>("write") { file ->
+      file.writeString("A")
+      provide(file)
+      None.instance
+    }
+    addTaskDef(writeDef)
+    val file = resource("/file")
+    write("A", file)
+    val readTask = readDef.createTask(file)
+
+    newSession().use { session ->
+      assertEquals("A", session.require(readTask))
+    }
+    stamper.count.set(0)
+
+    // Executing a task that provides resources starts a new epoch: the read task is checked again.
+    newSession().use { session ->
+      session.require(writeDef.createTask(resource("/other")))
+    }
+    newSession().use { session ->
+      assertEquals("A", session.require(readTask))
+    }
+    assertEquals(1, stamper.count.getAndSet(0))
+  }
+
+  @TestFactory
+  fun testUntrustedResourcesAreAlwaysChecked() = untrustedBuilder.test {
+    val stamper = CountingStamper(AtomicInteger())
+    val readDef = taskDef<FSResource, String>("read", { _, _ -> "read" }) { file ->
+      require(file, stamper)
+      file.readString()
+    }
+    addTaskDef(readDef)
+    val file = resource("/file")
+    write("A", file)
+    val task = readDef.createTask(file)
+
+    newSession().use { session ->
+      assertEquals("A", session.require(task))
+    }
+    stamper.count.set(0)
+
+    newSession().use { session ->
+      assertEquals("A", session.require(task))
+    }
+    assertEquals(1, stamper.count.getAndSet(0))
+  }
+}
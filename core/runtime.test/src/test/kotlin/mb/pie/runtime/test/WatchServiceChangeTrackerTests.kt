@@ -0,0 +1,114 @@
+package mb.pie.runtime.test
+
+import mb.pie.runtime.watch.WatchServiceChangeTracker
+import mb.resource.DefaultResourceService
+import mb.resource.ResourceKey
+import mb.resource.fs.FSResource
+import mb.resource.fs.FSResourceRegistry
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Assumptions.assumeTrue
+import org.junit.jupiter.api.Test
+import java.nio.file.Files
+import java.nio.file.Path
+
+class WatchServiceChangeTrackerTests {
+  private val resourceService = DefaultResourceService(FSResourceRegistry())
+
+  /**
+   * Takes changes from [tracker] until [key] is reported or a timeout passes, since watch services report events
+   * asynchronously (and some implementations poll).
+   */
+  private fun takeUntil(tracker: WatchServiceChangeTracker, key: ResourceKey): Set<ResourceKey> {
+    val changes = HashSet<ResourceKey>()
+    val deadline = System.currentTimeMillis() + 30_000
+    while(System.currentTimeMillis() < deadline) {
+      changes.addAll(tracker.takeChanges())
+      if(changes.contains(key)) return changes
+      Thread.sleep(50)
+    }
+    return changes
+  }
+
+  private fun withTemporaryDirectory(action: (Path) -> Unit) {
+    val directory = Files.createTempDirectory("pie-watch")
+    try {
+      action(directory)
+    } finally {
+      directory.toFile().deleteRecursively()
+    }
+  }
+
+
+  @Test
+  fun testFileChangesAreReported() = withTemporaryDirectory { directory ->
+    val file = FSResource(directory.resolve("file"))
+    val unwatched = FSResource(directory.resolve("unwatched"))
+    file.writeString("HELLO")
+    WatchServiceChangeTracker(resourceService).use { tracker ->
+      tracker.watch(file.key)
+      // A resource is reported as changed once after it is watched, as it may have changed before being watched.
+      assertEquals(setOf(file.key), tracker.takeChanges())
+      assertTrue(tracker.takeChanges().isEmpty())
+
+      unwatched.writeString("HELLO")
+      file.writeString("WORLD!")
+      val changes = takeUntil(tracker, file.key)
+      assertTrue(changes.contains(file.key))
+      assertFalse(changes.contains(unwatched.key))
+
+      file.delete()
+      assertTrue(takeUntil(tracker, file.key).contains(file.key))
+    }
+  }
+
+  @Test
+  fun testChangesInsideDirectoryAreReported() = withTemporaryDirectory { directory ->
+    val dir = FSResource(directory.resolve("dir"))
+    dir.createDirectory(true)
+    WatchServiceChangeTracker(resourceService).use { tracker ->
+      tracker.watch(dir.key)
+      assertEquals(setOf(dir.key), tracker.takeChanges())
+      assertTrue(tracker.takeChanges().isEmpty())
+
+      // Creating a nested directory registers it, such that changes inside it are reported as well.
+      val nested = dir.appendSegment("nested")
+      nested.createDirectory(true)
+      assertTrue(takeUntil(tracker, dir.key).contains(dir.key))
+      nested.appendSegment("file").writeString("HELLO")
+      assertTrue(takeUntil(tracker, dir.key).contains(dir.key))
+    }
+  }
+
+  @Test
+  fun testFileInMissingDirectoryIsReportedWhenCreated() = withTemporaryDirectory { directory ->
+    val file = FSResource(directory.resolve("missing").resolve("file"))
+    WatchServiceChangeTracker(resourceService).use { tracker ->
+      tracker.watch(file.key)
+      assertEquals(setOf(file.key), tracker.takeChanges())
+      assertTrue(tracker.takeChanges().isEmpty())
+
+      file.createParents()
+      file.writeString("HELLO")
+      assertTrue(takeUntil(tracker, file.key).contains(file.key))
+    }
+  }
+
+  @Test
+  fun testTakeChangesWaitsForEvents() = withTemporaryDirectory { directory ->
+    // The cookie barrier is exact for watch services that deliver events in order, which the Linux one does.
+    assumeTrue(System.getProperty("os.name").startsWith("Linux"))
+    val files = (0 until 16).map { FSResource(directory.resolve("file$it")) }
+    files.forEach { it.writeString("HELLO") }
+    WatchServiceChangeTracker(resourceService).use { tracker ->
+      files.forEach { tracker.watch(it.key) }
+      tracker.takeChanges()
+
+      // Changes made right before a take are reported by that take, without waiting for the watch service.
+      files.forEach { it.writeString("WORLD!") }
+      assertEquals(files.map { it.key }.toSet(), tracker.takeChanges())
+      assertTrue(tracker.takeChanges().isEmpty())
+    }
+  }
+}
@@ -0,0 +1,193 @@
+package mb.pie.runtime.test
+
+import mb.pie.api.PieBuilder.StoreFactory
+import mb.pie.api.Task
+import mb.pie.api.TaskData
+import mb.pie.api.TaskKey
+import mb.pie.api.TaskRequireDep
+import mb.pie.api.stamp.output.OutputStampers
+import mb.pie.api.test.readResource
+import mb.pie.api.test.toLowerCase
+import mb.pie.api.test.toLowerCaseDef
+import mb.pie.runtime.store.InMemoryStore
+import mb.pie.runtime.store.WriteBehindStore
+import mb.resource.fs.FSResource
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestFactory
+
+class WriteBehindStoreTests {
+  private val builder = DefaultRuntimeTestBuilder(shouldSpy = false).apply {
+    storeFactories.clear()
+    storeFactories.add(StoreFactory { _, _, _ -> WriteBehindStore(InMemoryStore()) })
+  }
+
+  /**
+   * Counts the number of times data of a task is reset or restored, which a write-behind store does once for each
+   * modified task.
+   */
+  private class CountingStore : InMemoryStore() {
+    var numWrites = 0
+
+    override fun resetTask(task: Task<*>): TaskData? {
+      ++numWrites
+      return super.resetTask(task)
+    }
+
+    override fun restoreData(key: TaskKey, data: TaskData?) {
+      ++numWrites
+      super.restoreData(key, data)
+    }
+  }
+
+
+  @Test
+  fun testWritesAreFlushedOnClose() {
+    val base = CountingStore()
+    val store = WriteBehindStore(base)
+    val callee = Task(toLowerCaseDef, "callee")
+    val calleeKey = callee.key()
+    val caller = Task(toLowerCaseDef, "caller")
+    val callerKey = caller.key()
+    store.writeTxn().use { txn ->
+      txn.resetTask(callee)
+      txn.setOutput(calleeKey, "callee")
+      txn.resetTask(caller)
+      txn.addTaskRequire(callerKey, calleeKey)
+      txn.addTaskRequireDep(callerKey, TaskRequireDep(calleeKey, OutputStampers.equals().stamp("callee")))
+      txn.setOutput(callerKey, "caller")
+      // Writes are read from the overlay, but not written to the decorated store yet.
+      assertEquals("caller", txn.getOutput(callerKey)!!.output)
+      assertEquals(setOf(callerKey), txn.getCallersOf(calleeKey))
+      assertTrue(txn.doesRequireTransitively(callerKey, calleeKey))
+      assertNull(base.getInput(callerKey))
+      assertEquals(0, base.numWrites)
+    }
+
+    // The data of each task is written once.
+    assertEquals(2, base.numWrites)
+    assertEquals("caller", base.getOutput(callerKey)!!.output)
+    assertEquals(listOf(calleeKey), base.getData(callerKey)!!.deps.taskRequireDeps.map { it.callee })
+    assertEquals(setOf(callerKey), base.getCallersOf(calleeKey))
+
+    // Restoring a task to its previous data, as is done when a task fails, does not write to the decorated store.
+    store.writeTxn().use { txn ->
+      val previousData = txn.resetTask(caller)
+      assertTrue(txn.getCallersOf(calleeKey).isEmpty())
+      txn.restoreData(callerKey, previousData)
+    }
+    assertEquals(2, base.numWrites)
+    assertEquals("caller", base.getOutput(callerKey)!!.output)
+
+    store.writeTxn().use { txn ->
+      txn.resetTask(caller)
+      txn.deleteData(calleeKey)
+      assertNull(txn.getInput(calleeKey))
+      assertEquals(setOf(callerKey), txn.tasksWithoutCallers)
+    }
+    assertEquals(4, base.numWrites)
+    assertNull(base.getInput(calleeKey))
+    assertEquals(caller.input, base.getInput(callerKey))
+    assertTrue(base.getRequiredTasks(callerKey).isEmpty())
+  }
+
+  @Test
+  fun testRequiredTasksAreFlushedFirst() {
+    val base = InMemoryStore()
+    val store = WriteBehindStore(base)
+    val a = Task(toLowerCaseDef, "a")
+    val aKey = a.key()
+    val b = Task(toLowerCaseDef, "b")
+    val bKey = b.key()
+    store.writeTxn().use { txn ->
+      txn.resetTask(a)
+      txn.setOutput(aKey, "a")
+      txn.resetTask(b)
+      txn.addTaskRequire(bKey, aKey)
+      txn.setOutput(bKey, "b")
+    }
+
+    // Reverse the dependency, which would create a cycle in the decorated store if `a` was written before `b`.
+    store.writeTxn().use { txn ->
+      txn.resetTask(a)
+      txn.addTaskRequire(aKey, bKey)
+      txn.setOutput(aKey, "a")
+      txn.resetTask(b)
+      txn.setOutput(bKey, "b")
+    }
+    assertEquals(listOf(bKey), base.getRequiredTasks(aKey).toList())
+    assertTrue(base.getRequiredTasks(bKey).isEmpty())
+    assertTrue(base.hasDependencyOrderBefore(aKey, bKey))
+  }
+
+  @Test
+  fun testRequiredTasksAreFlushedFirstThroughUnmodifiedTask() {
+    val base = InMemoryStore()
+    val store = WriteBehindStore(base)
+    val a = Task(toLowerCaseDef, "a")
+    val aKey = a.key()
+    val c = Task(toLowerCaseDef, "c")
+    val cKey = c.key()
+    val x = Task(toLowerCaseDef, "x")
+    val xKey = x.key()
+    // c -> x -> a
+    store.writeTxn().use { txn ->
+      txn.resetTask(a)
+      txn.setOutput(aKey, "a")
+      txn.resetTask(x)
+      txn.addTaskRequire(xKey, aKey)
+      txn.setOutput(xKey, "x")
+      txn.resetTask(c)
+      txn.addTaskRequire(cKey, xKey)
+      txn.setOutput(cKey, "c")
+    }
+
+    // a -> c -> x, modifying `a` and `x` but not `c`. Writing `a` before `x` would create a cycle in the decorated
+    // store through the (unmodified) dependency of `c` and the old dependency of `x`.
+    store.writeTxn().use { txn ->
+      txn.resetTask(a)
+      txn.addTaskRequire(aKey, cKey)
+      txn.setOutput(aKey, "a")
+      txn.resetTask(x)
+      txn.setOutput(xKey, "x")
+    }
+    assertEquals(listOf(cKey), base.getRequiredTasks(aKey).toList())
+    assertEquals(listOf(xKey), base.getRequiredTasks(cKey).toList())
+    assertTrue(base.getRequiredTasks(xKey).isEmpty())
+    assertTrue(base.hasDependencyOrderBefore(aKey, xKey))
+  }
+
+  @TestFactory
+  fun testUpdateAffectedBy() = builder.test {
+    val lowerDef = toLowerCase
+    addTaskDef(lowerDef)
+    val readDef = readResource
+    addTaskDef(readDef)
+    val combDef = taskDef<FSResource, String>("combine", { input, _ -> "combine($input)" }) {
+      val text = require(readDef.createTask(it))
+      require(lowerDef.createTask(text))
+    }
+    addTaskDef(combDef)
+    val allDef = taskDef<ArrayList<FSResource>, String>("all", { _, _ -> "all" }) { files ->
+      files.joinToString(",") { require(combDef.createTask(it)) }
+    }
+    addTaskDef(allDef)
+
+    val files = (0 until 8).map { resource("/file$it") }
+    files.forEachIndexed { i, file -> write("HELLO $i", file) }
+    val allTask = allDef.createTask(ArrayList(files))
+    newSession().use { session ->
+      assertEquals(files.indices.joinToString(",") { "hello $it" }, session.require(allTask))
+    }
+
+    val changedFiles = files.filterIndexed { i, _ -> i % 2 == 0 }
+    changedFiles.forEach { write("BYE", it) }
+    newSession().use { session ->
+      val topDownSession = session.updateAffectedBy(changedFiles.map { it.key }.toSet())
+      val expected = files.indices.joinToString(",") { if(it % 2 == 0) "bye" else "hello $it" }
+      assertEquals(expected, topDownSession.getOutput(allTask))
+    }
+  }
+}
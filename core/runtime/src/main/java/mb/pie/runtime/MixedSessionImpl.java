@@ -17,7 +17,6 @@ import mb.resource.ResourceKey;
 import mb.resource.ResourceService;
 
 import java.io.Serializable;
-import java.util.HashSet;
 import java.util.Set;
 
 public class MixedSessionImpl extends SessionImpl implements MixedSession {
@@ -43,7 +42,7 @@ public class MixedSessionImpl extends SessionImpl implements MixedSession {
         Tracer tracer,
         Callbacks callbacks,
 
-        HashSet<ResourceKey> providedResources,
+        Set<ResourceKey> providedResources,
 
         LockHandle lockHandle
     ) {
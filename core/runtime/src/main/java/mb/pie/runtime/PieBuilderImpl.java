@@ -30,6 +30,7 @@ import mb.resource.url.URLResourceRegistry;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.util.ArrayList;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 
 public class PieBuilderImpl implements PieBuilder {
@@ -47,6 +48,13 @@ public class PieBuilderImpl implements PieBuilder {
     protected LayerFactory layerFactory = ValidationLayer::new;
     protected LoggerFactory loggerFactory = NoopLoggerFactory.instance;
     protected Function<LoggerFactory, Tracer> tracerFactory = (loggerFactory) -> NoopTracer.instance;
+    protected @Nullable Executor bottomUpExecutor = null;
+    protected int bottomUpParallelism = 1;
+    protected @Nullable Executor topDownExecutor = null;
+    protected int topDownParallelism = 1;
+    protected @Nullable Executor resourceStampingExecutor = null;
+    protected boolean trustChangedResources = false;
+    protected boolean bulkResourceStamping = System.getProperty("os.name", "").startsWith("Windows");
 
 
     @Override
@@ -133,6 +141,44 @@ public class PieBuilderImpl implements PieBuilder {
         return this;
     }
 
+    @Override
+    public PieBuilderImpl withBottomUpExecutor(Executor executor, int parallelism) {
+        if(parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1, but got " + parallelism);
+        }
+        this.bottomUpExecutor = executor;
+        this.bottomUpParallelism = parallelism;
+        return this;
+    }
+
+    @Override
+    public PieBuilderImpl withTopDownExecutor(Executor executor, int parallelism) {
+        if(parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1, but got " + parallelism);
+        }
+        this.topDownExecutor = executor;
+        this.topDownParallelism = parallelism;
+        return this;
+    }
+
+    @Override
+    public PieBuilderImpl withResourceStampingExecutor(Executor executor) {
+        this.resourceStampingExecutor = executor;
+        return this;
+    }
+
+    @Override
+    public PieBuilderImpl withTrustChangedResources(boolean trustChangedResources) {
+        this.trustChangedResources = trustChangedResources;
+        return this;
+    }
+
+    @Override
+    public PieBuilderImpl withBulkResourceStamping(boolean bulkResourceStamping) {
+        this.bulkResourceStamping = bulkResourceStamping;
+        return this;
+    }
+
 
     @Override public PieImpl build() {
         final TaskDefs taskDefs;
@@ -165,7 +211,14 @@ public class PieBuilderImpl implements PieBuilder {
             loggerFactory,
             tracerFactory,
             new MapCallbacks(),
-            new CloseableReentrantReadWriteLock()
+            new CloseableReentrantReadWriteLock(),
+            bottomUpExecutor,
+            bottomUpParallelism,
+            topDownExecutor,
+            topDownParallelism,
+            resourceStampingExecutor,
+            trustChangedResources,
+            bulkResourceStamping
         );
     }
 }
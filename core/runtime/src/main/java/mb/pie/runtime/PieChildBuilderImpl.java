@@ -225,7 +225,14 @@ public class PieChildBuilderImpl implements PieChildBuilder {
             loggerFactory,
             tracerFactory,
             new CompositeCallbacks(new MapCallbacks(), ancestorCallbacks),
-            parent.lock
+            parent.lock,
+            parent.bottomUpExecutor,
+            parent.bottomUpParallelism,
+            parent.topDownExecutor,
+            parent.topDownParallelism,
+            parent.resourceStampingExecutor,
+            parent.trustChangedResources,
+            parent.bulkResourceStamping
         );
     }
 }
@@ -9,9 +9,9 @@ import mb.pie.api.MixedSession;
 import mb.pie.api.Pie;
 import mb.pie.api.PieBuilder.LayerFactory;
 import mb.pie.api.PieChildBuilder;
+import mb.pie.api.ReadSession;
 import mb.pie.api.Share;
 import mb.pie.api.Store;
-import mb.pie.api.StoreReadTxn;
 import mb.pie.api.StoreWriteTxn;
 import mb.pie.api.TaskData;
 import mb.pie.api.TaskDefs;
@@ -20,14 +20,23 @@ import mb.pie.api.Tracer;
 import mb.pie.api.serde.Serde;
 import mb.pie.runtime.exec.BottomUpRunner;
 import mb.pie.runtime.exec.RequireShared;
+import mb.pie.runtime.exec.ResourceStampCache;
+import mb.pie.runtime.exec.SpeculativeLayer;
+import mb.pie.runtime.exec.SpeculativeTracer;
 import mb.pie.runtime.exec.TaskExecutor;
 import mb.pie.runtime.exec.TopDownRunner;
+import mb.pie.runtime.tracer.SynchronizedTracer;
 import mb.resource.ResourceKey;
 import mb.resource.ResourceService;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 
 public class PieImpl implements Pie {
@@ -43,6 +52,13 @@ public class PieImpl implements Pie {
     protected final Function<LoggerFactory, Tracer> tracerFactory;
     protected final Callbacks callbacks;
     protected final CloseableReentrantReadWriteLock lock;
+    protected final @Nullable Executor bottomUpExecutor;
+    protected final int bottomUpParallelism;
+    protected final @Nullable Executor topDownExecutor;
+    protected final int topDownParallelism;
+    protected final @Nullable Executor resourceStampingExecutor;
+    protected final boolean trustChangedResources;
+    protected final boolean bulkResourceStamping;
     boolean isClosed = false;
 
 
@@ -58,7 +74,14 @@ public class PieImpl implements Pie {
         LoggerFactory loggerFactory,
         Function<LoggerFactory, Tracer> tracerFactory,
         Callbacks callbacks,
-        CloseableReentrantReadWriteLock lock
+        CloseableReentrantReadWriteLock lock,
+        @Nullable Executor bottomUpExecutor,
+        int bottomUpParallelism,
+        @Nullable Executor topDownExecutor,
+        int topDownParallelism,
+        @Nullable Executor resourceStampingExecutor,
+        boolean trustChangedResources,
+        boolean bulkResourceStamping
     ) {
         this.isBase = ownsStore;
         this.taskDefs = taskDefs;
@@ -72,6 +95,23 @@ public class PieImpl implements Pie {
         this.tracerFactory = tracerFactory;
         this.callbacks = callbacks;
         this.lock = lock;
+        this.bottomUpExecutor = bottomUpExecutor;
+        this.bottomUpParallelism = bottomUpParallelism;
+        this.topDownExecutor = topDownExecutor;
+        this.topDownParallelism = topDownParallelism;
+        this.resourceStampingExecutor = resourceStampingExecutor;
+        this.trustChangedResources = trustChangedResources;
+        this.bulkResourceStamping = bulkResourceStamping;
+        if(trustChangedResources && ownsStore) {
+            // Resources may have changed without being reported since tasks were last verified, for example while no
+            // PIE instance was running: start a new epoch. Only done by the instance that owns the store, as child
+            // instances share the store (and its epochs) with a parent that may be running a session.
+            try(final LockHandle ignored = lock.lockWrite(); final StoreWriteTxn txn = store.writeTxn()) {
+                if(txn.hasVerificationEpochs()) {
+                    txn.advanceEpoch();
+                }
+            }
+        }
     }
 
     @Override public void close() {
@@ -90,22 +130,51 @@ public class PieImpl implements Pie {
         return lock.tryLockWrite().map(this::createSession);
     }
 
+    @Override public ReadSession newReadSession() {
+        if(store.supportsSnapshotReadTxn()) {
+            // Snapshot read transactions do not observe the writes of a running session: no need to wait for it.
+            return new ReadSessionImpl(store.snapshotReadTxn(), null);
+        }
+        final LockHandle lockHandle = lock.lockRead();
+        try {
+            return new ReadSessionImpl(store.readTxn(), lockHandle);
+        } catch(RuntimeException e) {
+            lockHandle.close();
+            throw e;
+        }
+    }
+
     private MixedSessionImpl createSession(LockHandle lockHandle) {
-        final Layer layer = layerFactory.apply(taskDefs, loggerFactory, serde);
-        final Tracer tracer = tracerFactory.apply(loggerFactory);
-        final HashMap<TaskKey, TaskData> visited = new HashMap<>();
-        final HashSet<ResourceKey> providedResources = new HashSet<>();
-        final TaskExecutor taskExecutor = new TaskExecutor(taskDefs, resourceService, share, defaultStampers, layer, loggerFactory, tracer, callbacks, visited, providedResources);
-        final RequireShared requireShared = new RequireShared(taskDefs, resourceService, tracer, visited);
-        final TopDownRunner topDownRunner = new TopDownRunner(store, layer, tracer, taskExecutor, requireShared, callbacks, visited);
-        final BottomUpRunner bottomUpRunner = new BottomUpRunner(taskDefs, resourceService, store, layer, tracer, taskExecutor, requireShared, callbacks, visited);
+        // Top-down builds with an executor require tasks speculatively: defer layer calls and tracer events of
+        // speculations until they are committed.
+        final Layer sessionLayer = layerFactory.apply(taskDefs, loggerFactory, serde);
+        final Layer layer = topDownExecutor != null ? new SpeculativeLayer(sessionLayer) : sessionLayer;
+        final Tracer tracer;
+        final Map<TaskKey, TaskData> visited;
+        final Set<ResourceKey> providedResources;
+        if(bottomUpExecutor != null || topDownExecutor != null) {
+            // Tasks may be executed or checked concurrently: use a synchronized tracer and concurrent collections.
+            final Tracer synchronizedTracer = new SynchronizedTracer(tracerFactory.apply(loggerFactory));
+            tracer = topDownExecutor != null ? new SpeculativeTracer(synchronizedTracer) : synchronizedTracer;
+            visited = new ConcurrentHashMap<>();
+            providedResources = ConcurrentHashMap.newKeySet();
+        } else {
+            tracer = tracerFactory.apply(loggerFactory);
+            visited = new HashMap<>();
+            providedResources = new HashSet<>();
+        }
+        final ResourceStampCache stampCache = new ResourceStampCache(resourceService);
+        final TaskExecutor taskExecutor = new TaskExecutor(taskDefs, resourceService, share, defaultStampers, layer, loggerFactory, tracer, callbacks, stampCache, visited, providedResources);
+        final RequireShared requireShared = new RequireShared(taskDefs, resourceService, tracer, visited, stampCache, resourceStampingExecutor, trustChangedResources, bulkResourceStamping);
+        final TopDownRunner topDownRunner = new TopDownRunner(store, layer, tracer, taskExecutor, requireShared, callbacks, visited, topDownExecutor, topDownParallelism);
+        final BottomUpRunner bottomUpRunner = new BottomUpRunner(taskDefs, resourceService, store, layer, tracer, taskExecutor, requireShared, callbacks, visited, bottomUpExecutor, bottomUpParallelism);
         return new MixedSessionImpl(topDownRunner, bottomUpRunner, taskDefs, resourceService, store, tracer, callbacks, providedResources, lockHandle);
     }
 
 
     @Override public boolean hasBeenExecuted(TaskKey key) {
-        try(final LockHandle ignored = lock.lockRead(); final StoreReadTxn txn = store.readTxn()) {
-            return txn.getOutput(key) != null;
+        try(final ReadSession session = newReadSession()) {
+            return session.hasBeenExecuted(key);
         }
     }
 
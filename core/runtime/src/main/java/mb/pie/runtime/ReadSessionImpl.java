@@ -0,0 +1,54 @@
+package mb.pie.runtime;
+
+import mb.common.concurrent.lock.LockHandle;
+import mb.pie.api.Observability;
+import mb.pie.api.ReadSession;
+import mb.pie.api.StoreReadTxn;
+import mb.pie.api.Task;
+import mb.pie.api.TaskKey;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.Serializable;
+
+public class ReadSessionImpl implements ReadSession {
+    private final StoreReadTxn txn;
+    private final @Nullable LockHandle lockHandle;
+
+
+    /**
+     * Creates a read session that reads from {@code txn}, which is closed when the session is closed. If
+     * {@code lockHandle} is not {@code null}, it is closed after {@code txn} is closed.
+     */
+    public ReadSessionImpl(StoreReadTxn txn, @Nullable LockHandle lockHandle) {
+        this.txn = txn;
+        this.lockHandle = lockHandle;
+    }
+
+
+    @Override public <O extends Serializable> O getOutput(Task<O> task) {
+        return TopDownSessionImpl.getOutput(txn, task);
+    }
+
+    @Override public boolean hasBeenExecuted(TaskKey key) {
+        return txn.getOutput(key) != null;
+    }
+
+    @Override public boolean isObserved(TaskKey key) {
+        return txn.getTaskObservability(key).isObserved();
+    }
+
+    @Override public boolean isExplicitlyObserved(TaskKey key) {
+        return txn.getTaskObservability(key) == Observability.ExplicitObserved;
+    }
+
+
+    @Override public void close() {
+        try {
+            txn.close();
+        } finally {
+            if(lockHandle != null) {
+                lockHandle.close();
+            }
+        }
+    }
+}
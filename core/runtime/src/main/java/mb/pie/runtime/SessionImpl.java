@@ -42,7 +42,7 @@ public abstract class SessionImpl implements Session {
     protected final Tracer tracer;
     protected final Callbacks callbacks;
 
-    protected final HashSet<ResourceKey> providedResources;
+    protected final Set<ResourceKey> providedResources;
 
 
     public SessionImpl(
@@ -51,7 +51,7 @@ public abstract class SessionImpl implements Session {
         Store store,
         Tracer tracer,
         Callbacks callbacks,
-        HashSet<ResourceKey> providedResources
+        Set<ResourceKey> providedResources
     ) {
         this.taskDefs = taskDefs;
         this.resourceService = resourceService;
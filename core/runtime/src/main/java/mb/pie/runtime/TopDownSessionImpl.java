@@ -18,7 +18,7 @@ import mb.resource.ResourceService;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.io.Serializable;
-import java.util.HashSet;
+import java.util.Set;
 
 public class TopDownSessionImpl extends SessionImpl implements TopDownSession {
     private final BottomUpRunner bottomUpRunner;
@@ -33,7 +33,7 @@ public class TopDownSessionImpl extends SessionImpl implements TopDownSession {
         Tracer tracer,
         Callbacks callbacks,
 
-        HashSet<ResourceKey> providedResources
+        Set<ResourceKey> providedResources
     ) {
         super(taskDefs, resourceService, store, tracer, callbacks, providedResources);
         this.bottomUpRunner = bottomUpRunner;
@@ -44,23 +44,27 @@ public class TopDownSessionImpl extends SessionImpl implements TopDownSession {
     @SuppressWarnings({"ConstantConditions"}) @Override
     public <O extends Serializable> O getOutput(Task<O> task) {
         try(final StoreReadTxn txn = store.readTxn()) {
-            final TaskKey key = task.key();
-            final @Nullable Serializable input = txn.getInput(key);
-            if(input == null) {
-                throw new IllegalStateException("Cannot get output of task '" + task + "', it does not exist. Call require to execute this new task");
-            }
-            if(!input.equals(task.input)) {
-                throw new IllegalStateException("Cannot get output of task '" + task + "', its stored input '" + input + "' differs from given input '" + task.input + "'. Create a new session to execute this task");
-            }
-            final @Nullable Output output = txn.getOutput(key);
-            if(output == null) {
-                throw new IllegalStateException("Cannot get output of task '" + task + "', it has no output object. Call require to execute this new task");
-            }
-            // noinspection unchecked (cast is safe because task must return object of type O)
-            return (O)output.output;
+            return getOutput(txn, task);
         }
     }
 
+    static <O extends Serializable> O getOutput(StoreReadTxn txn, Task<O> task) {
+        final TaskKey key = task.key();
+        final @Nullable Serializable input = txn.getInput(key);
+        if(input == null) {
+            throw new IllegalStateException("Cannot get output of task '" + task + "', it does not exist. Call require to execute this new task");
+        }
+        if(!input.equals(task.input)) {
+            throw new IllegalStateException("Cannot get output of task '" + task + "', its stored input '" + input + "' differs from given input '" + task.input + "'. Create a new session to execute this task");
+        }
+        final @Nullable Output output = txn.getOutput(key);
+        if(output == null) {
+            throw new IllegalStateException("Cannot get output of task '" + task + "', it has no output object. Call require to execute this new task");
+        }
+        // noinspection unchecked (cast is safe because task must return object of type O)
+        return (O)output.output;
+    }
+
 
     @Override
     public <O extends Serializable> O require(Task<O> task) throws ExecException, InterruptedException {
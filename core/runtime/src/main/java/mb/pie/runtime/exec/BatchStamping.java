@@ -0,0 +1,166 @@
+package mb.pie.runtime.exec;
+
+import mb.pie.api.stamp.ResourceStamp;
+import mb.pie.api.stamp.ResourceStamper;
+import mb.pie.api.stamp.resource.FileAttributesResourceStamper;
+import mb.resource.fs.FSResource;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stamps many filesystem resources with {@link FileAttributesResourceStamper file attribute stampers} in bulk, grouping
+ * them by parent directory and reading the attributes of the resources in a directory with one directory scan. On
+ * platforms where listing a directory returns attributes (e.g., Windows), this replaces a filesystem call per resource
+ * with one per directory. On other platforms, the scan still reads attributes once per resource instead of once per
+ * attribute, and resources in directories that do not exist are stamped without reading their attributes.
+ *
+ * Stamping in bulk is best effort: resources that could not be stamped are not passed to the consumer, and should be
+ * stamped individually, which reports their errors.
+ *
+ * Because a scan may read up to twice as many attributes as there are resources in a directory on platforms where
+ * listing a directory does not return attributes, stamping in bulk is only done before checking dependencies when
+ * enabled with {@link mb.pie.api.PieBuilder#withBulkResourceStamping}.
+ */
+class BatchStamping<C> {
+    /**
+     * Minimum number of resources in a directory to scan the directory.
+     */
+    private static final int minimumBatchSize = 2;
+
+    private final HashMap<Path, ArrayList<Pending<C>>> pendingPerDirectory = new HashMap<>();
+
+
+    /**
+     * Adds {@code resource} to be stamped with {@code stamper}, if the stamper only depends on file attributes.
+     *
+     * @param context Context passed to the consumer along with the stamp.
+     */
+    @SuppressWarnings("unchecked")
+    void add(FSResource resource, ResourceStamper<?> stamper, C context) {
+        if(!(stamper instanceof FileAttributesResourceStamper<?>)) return;
+        final Path path = resource.getJavaPath();
+        final @Nullable Path directory = path.getParent();
+        final @Nullable Path fileName = path.getFileName();
+        if(directory == null || fileName == null) return;
+        pendingPerDirectory.computeIfAbsent(directory, (d) -> new ArrayList<>()).add(new Pending<>(resource, path, fileName.toString(), (FileAttributesResourceStamper<FSResource>)stamper, context));
+    }
+
+    /**
+     * Stamps all added resources in directories with at least {@link #minimumBatchSize} added resources, and passes the
+     * stamps to {@code consumer}.
+     */
+    void stamp(StampConsumer<C> consumer) {
+        for(Map.Entry<Path, ArrayList<Pending<C>>> entry : pendingPerDirectory.entrySet()) {
+            final ArrayList<Pending<C>> pending = entry.getValue();
+            if(pending.size() < minimumBatchSize) continue;
+            final Scan scan;
+            try {
+                scan = Scan.of(entry.getKey(), pending.size());
+            } catch(IOException e) {
+                continue; // Stamp resources in this directory individually.
+            }
+            for(Pending<C> p : pending) {
+                try {
+                    @Nullable BasicFileAttributes attributes = null;
+                    if(!scan.directoryIsMissing) {
+                        attributes = scan.attributes.get(p.fileName);
+                        if(attributes == null) {
+                            // Not found by the scan: the file does not exist, was not scanned, was created during the
+                            // scan, or its name differs in case on a case-insensitive filesystem.
+                            attributes = readAttributes(p.path);
+                        }
+                    }
+                    consumer.accept(p.context, p.stamper, p.stamper.stamp(p.resource, attributes));
+                } catch(IOException e) {
+                    // Stamp this resource individually.
+                }
+            }
+        }
+        pendingPerDirectory.clear();
+    }
+
+
+    private static @Nullable BasicFileAttributes readAttributes(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch(NoSuchFileException e) {
+            return null;
+        }
+    }
+
+
+    @FunctionalInterface
+    interface StampConsumer<C> {
+        void accept(C context, ResourceStamper<FSResource> stamper, ResourceStamp<FSResource> stamp);
+    }
+
+    private static class Pending<C> {
+        final FSResource resource;
+        final Path path;
+        final String fileName;
+        final FileAttributesResourceStamper<FSResource> stamper;
+        final C context;
+
+        Pending(FSResource resource, Path path, String fileName, FileAttributesResourceStamper<FSResource> stamper, C context) {
+            this.resource = resource;
+            this.path = path;
+            this.fileName = fileName;
+            this.stamper = stamper;
+            this.context = context;
+        }
+    }
+
+    private static class Scan {
+        final HashMap<String, BasicFileAttributes> attributes = new HashMap<>();
+        boolean directoryIsMissing = false;
+
+        /**
+         * Scans {@code directory}, reading the attributes of at most twice {@code numberOfPending} entries, since on
+         * some platforms the attributes of every scanned entry are read separately.
+         */
+        static Scan of(Path directory, int numberOfPending) throws IOException {
+            final Scan scan = new Scan();
+            final int maximumEntries = numberOfPending * 2;
+            Files.walkFileTree(directory, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<Path>() {
+                @Override public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) {
+                    if(path.equals(directory)) {
+                        // Directory is a file: no files exist in it.
+                        scan.directoryIsMissing = true;
+                        return FileVisitResult.TERMINATE;
+                    }
+                    final @Nullable Path fileName = path.getFileName();
+                    if(fileName != null) {
+                        scan.attributes.put(fileName.toString(), attributes);
+                    }
+                    return scan.attributes.size() < maximumEntries ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+                }
+
+                @Override public FileVisitResult visitFileFailed(Path path, IOException e) throws IOException {
+                    if(path.equals(directory)) {
+                        if(e instanceof NoSuchFileException || e instanceof NotDirectoryException) {
+                            scan.directoryIsMissing = true;
+                            return FileVisitResult.TERMINATE;
+                        }
+                        throw e;
+                    }
+                    // Entry could not be read, for example a broken symbolic link: read it individually.
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            return scan;
+        }
+    }
+}
@@ -1,13 +1,9 @@
 package mb.pie.runtime.exec;
 
 import mb.pie.api.Callbacks;
-import mb.pie.api.InconsistentResourceProvide;
-import mb.pie.api.InconsistentResourceRequire;
 import mb.pie.api.InconsistentTaskRequire;
 import mb.pie.api.Layer;
 import mb.pie.api.Observability;
-import mb.pie.api.ResourceProvideDep;
-import mb.pie.api.ResourceRequireDep;
 import mb.pie.api.Store;
 import mb.pie.api.StoreReadTxn;
 import mb.pie.api.StoreWriteTxn;
@@ -19,15 +15,23 @@ import mb.pie.api.TaskRequireDep;
 import mb.pie.api.Tracer;
 import mb.pie.api.exec.CancelToken;
 import mb.pie.api.exec.ExecReason;
+import mb.pie.api.exec.UncheckedInterruptedException;
+import mb.pie.runtime.store.SynchronizedStoreWriteTxn;
 import mb.resource.ResourceKey;
 import mb.resource.ResourceService;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
@@ -41,9 +45,13 @@ public class BottomUpRunner implements RequireTask {
     private final RequireShared requireShared;
     private final Callbacks callbacks;
 
-    private final HashMap<TaskKey, TaskData> visited;
+    private final Map<TaskKey, TaskData> visited;
     private @MonotonicNonNull DistinctTaskKeyPriorityQueue scheduled;
 
+    private final @Nullable Executor executor;
+    private final int parallelism;
+    private final ConcurrentHashMap<TaskKey, TaskExecutionFuture> executions = new ConcurrentHashMap<>();
+
     public BottomUpRunner(
         TaskDefs taskDefs,
         ResourceService resourceService,
@@ -53,7 +61,9 @@ public class BottomUpRunner implements RequireTask {
         TaskExecutor taskExecutor,
         RequireShared requireShared,
         Callbacks callbacks,
-        HashMap<TaskKey, TaskData> visited
+        Map<TaskKey, TaskData> visited,
+        @Nullable Executor executor,
+        int parallelism
     ) {
         this.taskDefs = taskDefs;
         this.resourceService = resourceService;
@@ -65,13 +75,21 @@ public class BottomUpRunner implements RequireTask {
         this.callbacks = callbacks;
 
         this.visited = visited;
+
+        this.executor = executor;
+        this.parallelism = parallelism;
     }
 
 
     public void requireInitial(Set<? extends ResourceKey> changedResources, Set<?> tags, CancelToken cancel) {
         tracer.requireBottomUpInitialStart(changedResources);
-        try(final StoreWriteTxn txn = store.writeTxn()) {
+        try(final StoreWriteTxn storeTxn = store.writeTxn()) {
+            // Tasks are executed concurrently when an executor is set, which requires synchronized access to the store.
+            final StoreWriteTxn txn = executor != null ? SynchronizedStoreWriteTxn.synchronizeIfNeeded(storeTxn) : storeTxn;
+            // Resources have changed: tasks verified in the previous epoch must be checked again.
+            requireShared.advanceEpoch(txn);
             scheduled = DistinctTaskKeyPriorityQueue.withTransitiveDependencyComparator(txn);
+            executions.clear();
             // Copy deferred tasks because `scheduleDeferredOrUndefer` may change the set, causing CME.
             for(TaskKey deferred : new HashSet<>(txn.getDeferredTasks())) {
                 // Schedule deferred tasks that are observable and should not be deferred again.
@@ -88,6 +106,7 @@ public class BottomUpRunner implements RequireTask {
     public <O extends @Nullable Serializable> O requireInitial(Task<O> task, boolean modifyObservability, CancelToken cancel) {
         try(final StoreWriteTxn txn = store.writeTxn()) {
             scheduled = DistinctTaskKeyPriorityQueue.withTransitiveDependencyComparator(txn);
+            executions.clear();
             final TaskKey key = task.key();
             tracer.requireTopDownInitialStart(key, task);
             final O output = require(key, task, modifyObservability, txn, cancel);
@@ -111,6 +130,10 @@ public class BottomUpRunner implements RequireTask {
      * Executes scheduled tasks (and schedules affected tasks) until queue is empty.
      */
     private void execScheduled(Set<?> tags, boolean modifyObservability, StoreWriteTxn txn, CancelToken cancel) {
+        if(executor != null) {
+            execScheduledConcurrently(executor, tags, modifyObservability, txn, cancel);
+            return;
+        }
         while(scheduled.isNotEmpty()) {
             cancel.throwIfCanceled();
             final TaskKey key = scheduled.poll();
@@ -124,6 +147,80 @@ public class BottomUpRunner implements RequireTask {
         }
     }
 
+    /**
+     * Executes scheduled tasks (and schedules affected tasks) until queue is empty, executing tasks that have no
+     * dependency order between them concurrently on {@code executor}.
+     */
+    private void execScheduledConcurrently(Executor executor, Set<?> tags, boolean modifyObservability, StoreWriteTxn txn, CancelToken cancel) {
+        final LinkedBlockingQueue<TaskExecutionFuture> completed = new LinkedBlockingQueue<>();
+        final HashMap<TaskKey, TaskExecutionFuture> executing = new HashMap<>();
+        try {
+            while(true) {
+                cancel.throwIfCanceled();
+                final ArrayList<TaskExecutionFuture> started = new ArrayList<>();
+                synchronized(scheduled) {
+                    if(executing.isEmpty() && !scheduled.isNotEmpty()) {
+                        break;
+                    }
+                    // Register executions while holding the lock, so that tasks requiring a polled task can find it.
+                    for(TaskKey key : scheduled.pollIndependent(executing.keySet(), parallelism - executing.size(), txn)) {
+                        final TaskExecutionFuture execution = new TaskExecutionFuture(key, () -> execScheduledTask(key, tags, modifyObservability, txn, cancel), completed);
+                        executions.put(key, execution);
+                        executing.put(key, execution);
+                        started.add(execution);
+                    }
+                }
+                for(TaskExecutionFuture execution : started) {
+                    try {
+                        executor.execute(execution);
+                    } catch(RejectedExecutionException e) {
+                        execution.run(); // Execute on this thread if the executor does not accept the execution.
+                    }
+                }
+                final TaskExecutionFuture execution = completed.take();
+                executing.remove(execution.key);
+                execution.getResult(); // Rethrows exceptions thrown during execution.
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedInterruptedException(e);
+        } finally {
+            // Wait for executions that are still running, as they use the transaction which is closed after returning.
+            awaitExecutions(executing, completed);
+        }
+    }
+
+    private static void awaitExecutions(HashMap<TaskKey, TaskExecutionFuture> executing, LinkedBlockingQueue<TaskExecutionFuture> completed) {
+        for(TaskExecutionFuture execution : executing.values()) {
+            execution.cancel(false); // Only cancels executions that have not been started yet.
+        }
+        boolean interrupted = false;
+        while(!executing.isEmpty()) {
+            try {
+                executing.remove(completed.take().key);
+            } catch(InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Executes given scheduled task if it should be executed, or defers it otherwise.
+     */
+    private @Nullable TaskData execScheduledTask(TaskKey key, Set<?> tags, boolean modifyObservability, StoreWriteTxn txn, CancelToken cancel) {
+        final Task<?> task = key.toTask(taskDefs, txn);
+        if(task.taskDef.shouldExecWhenAffected(task.input, tags)) {
+            return execAndSchedule(key, task, new AffectedExecReason(), modifyObservability, txn, cancel);
+        } else {
+            tracer.deferTask(key);
+            txn.addDeferredTask(key);
+            return null;
+        }
+    }
+
     /**
      * Executes given task, and schedules new tasks based on given task's output.
      */
@@ -155,23 +252,14 @@ public class BottomUpRunner implements RequireTask {
                 return;
             }
             // Transient output consistency.
-            if(requireShared.checkOutputConsistency(data.getOutput()) != null) {
+            if(requireShared.checkOutputConsistency(data) != null) {
                 schedule(key);
                 return;
             }
-            // Resource require consistency.
-            for(ResourceRequireDep resourceRequireDep : data.deps.resourceRequireDeps) {
-                if(requireShared.checkResourceRequireDep(key, task, resourceRequireDep) != null) {
-                    schedule(key);
-                    return;
-                }
-            }
-            // Resource provide consistency.
-            for(ResourceProvideDep resourceProvideDep : data.deps.resourceProvideDeps) {
-                if(requireShared.checkResourceProvideDep(key, task, resourceProvideDep) != null) {
-                    schedule(key);
-                    return;
-                }
+            // Resource require and provide consistency.
+            if(requireShared.checkResourceDeps(key, task, data.deps.resourceRequireDeps, data.deps.resourceProvideDeps) != null) {
+                schedule(key);
+                return;
             }
             // Task require consistency (shallow).
             for(TaskRequireDep taskRequireDep : data.deps.taskRequireDeps) {
@@ -192,7 +280,7 @@ public class BottomUpRunner implements RequireTask {
      * Schedules tasks affected by (changes to) required and provided files.
      */
     private void scheduleAffectedByResources(Stream<? extends ResourceKey> resources, StoreReadTxn txn) {
-        BottomUpShared.directlyAffectedByResources(resources, resourceService, txn, tracer, this::schedule);
+        BottomUpShared.directlyAffectedByResources(resources, requireShared.getStampCache(), txn, tracer, this::schedule, requireShared.getStampingExecutor(), requireShared.isBulkStamping());
     }
 
     /**
@@ -201,7 +289,7 @@ public class BottomUpRunner implements RequireTask {
     private void scheduleAffectedByRequiredResources(Stream<? extends ResourceKey> resources, StoreReadTxn txn) {
         resources.forEach((changedResource) -> {
             tracer.scheduleAffectedByResourceStart(changedResource);
-            BottomUpShared.directlyAffectedByRequiredResource(changedResource, resourceService, txn, tracer, this::schedule);
+            BottomUpShared.directlyAffectedByRequiredResource(changedResource, requireShared.getStampCache(), txn, tracer, this::schedule);
             tracer.scheduleAffectedByResourceEnd(changedResource);
         });
     }
@@ -218,7 +306,9 @@ public class BottomUpRunner implements RequireTask {
      */
     private void schedule(TaskKey key) {
         tracer.scheduleTask(key);
-        scheduled.add(key);
+        synchronized(scheduled) {
+            scheduled.add(key);
+        }
     }
 
 
@@ -299,8 +389,9 @@ public class BottomUpRunner implements RequireTask {
                 }
             }
 
-            // Mark as visited.
+            // Mark as visited, and as verified in the current epoch, as the task is not affected by changed resources.
             visited.put(key, storedData);
+            requireShared.setVerified(key, requireShared.getEpoch(txn), txn);
 
             // Invoke callback, if any.
             final @Nullable Consumer<@Nullable Serializable> callback = callbacks.get(key, txn);
@@ -318,6 +409,7 @@ public class BottomUpRunner implements RequireTask {
 
     private TaskData requireUnobserved(TaskKey key, Task<?> task, TaskData data, boolean modifyObservability, StoreWriteTxn txn, CancelToken cancel) {
         // Check consistency of task.
+        final long epoch = requireShared.getEpoch(txn);
         try {
             tracer.checkTopDownStart(key, task);
             // Input consistency.
@@ -331,25 +423,16 @@ public class BottomUpRunner implements RequireTask {
             // Transient output consistency.
             {
                 final @Nullable InconsistentTransientOutput reason =
-                    requireShared.checkOutputConsistency(data.getOutput());
-                if(reason != null) {
-                    return exec(key, task, reason, modifyObservability, txn, cancel);
-                }
-            }
-
-            // Resource require consistency.
-            for(ResourceRequireDep resourceRequireDep : data.deps.resourceRequireDeps) {
-                final @Nullable InconsistentResourceRequire reason =
-                    requireShared.checkResourceRequireDep(key, task, resourceRequireDep);
+                    requireShared.checkOutputConsistency(data);
                 if(reason != null) {
                     return exec(key, task, reason, modifyObservability, txn, cancel);
                 }
             }
 
-            // Resource provide consistency.
-            for(ResourceProvideDep resourceProvideDep : data.deps.resourceProvideDeps) {
-                final @Nullable InconsistentResourceProvide reason =
-                    requireShared.checkResourceProvideDep(key, task, resourceProvideDep);
+            // Resource require and provide consistency. Skipped when the task was verified in the current epoch.
+            if(!requireShared.isVerifiedInCurrentEpoch(key, txn)) {
+                final @Nullable ExecReason reason =
+                    requireShared.checkResourceDeps(key, task, data.deps.resourceRequireDeps, data.deps.resourceProvideDeps);
                 if(reason != null) {
                     return exec(key, task, reason, modifyObservability, txn, cancel);
                 }
@@ -375,8 +458,9 @@ public class BottomUpRunner implements RequireTask {
             txn.setTaskObservability(key, newObservability);
         }
 
-        // Mark task as visited.
+        // Mark task as visited, and as verified.
         visited.put(key, data);
+        requireShared.setVerified(key, epoch, txn);
 
         // Invoke callback, if any.
         final @Nullable Consumer<@Nullable Serializable> callback = callbacks.get(key, txn);
@@ -397,6 +481,11 @@ public class BottomUpRunner implements RequireTask {
      */
     private @Nullable TaskData requireScheduledNow(TaskKey key, boolean modifyObservability, StoreWriteTxn txn, CancelToken cancel) {
         tracer.requireScheduledNowStart(key);
+        if(executor != null) {
+            final @Nullable TaskData data = requireScheduledNowConcurrently(key, modifyObservability, txn, cancel);
+            tracer.requireScheduledNowEnd(key, data);
+            return data;
+        }
         while(scheduled.isNotEmpty()) {
             cancel.throwIfCanceled();
             final @Nullable TaskKey minTaskKey = scheduled.pollLeastTaskWithDepTo(key, txn);
@@ -415,7 +504,32 @@ public class BottomUpRunner implements RequireTask {
     }
 
 
+    /**
+     * Execute the scheduled task, which is required to be run *now*, when tasks are executed concurrently. If the task
+     * is already being executed by another thread, waits for that execution to complete.
+     */
+    private @Nullable TaskData requireScheduledNowConcurrently(TaskKey key, boolean modifyObservability, StoreWriteTxn txn, CancelToken cancel) {
+        cancel.throwIfCanceled();
+        final @Nullable TaskExecutionFuture execution;
+        synchronized(scheduled) {
+            if(scheduled.remove(key)) {
+                execution = new TaskExecutionFuture(key, () -> execAndSchedule(key, key.toTask(taskDefs, txn), new AffectedExecReason(), modifyObservability, txn, cancel), null);
+                executions.put(key, execution);
+            } else {
+                execution = executions.get(key);
+            }
+        }
+        if(execution == null) {
+            return null; // Task was not affected: return null.
+        }
+        return execution.runOrAwait();
+    }
+
+
     public TaskData exec(TaskKey key, Task<?> task, ExecReason reason, boolean modifyObservability, StoreWriteTxn txn, CancelToken cancel) {
-        return taskExecutor.exec(key, task, reason, modifyObservability, txn, this, cancel);
+        final long epoch = requireShared.getEpoch(txn);
+        final TaskData data = taskExecutor.exec(key, task, reason, modifyObservability, txn, this, cancel);
+        requireShared.executed(key, data, epoch, txn);
+        return data;
     }
 }
@@ -14,10 +14,18 @@ import mb.resource.ResourceService;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class BottomUpShared {
@@ -30,13 +38,37 @@ public class BottomUpShared {
         StoreReadTxn txn,
         Tracer tracer,
         Consumer<TaskKey> consumer
+    ) {
+        directlyAffectedByProvidedResource(resource, (dep) -> dep.checkConsistency(resourceService), txn, tracer, consumer);
+    }
+
+    /**
+     * Notifies the {@code consumer} with tasks that are directly affected by providing the {@code changedResource},
+     * using stamps from {@code stampCache}.
+     */
+    public static void directlyAffectedByProvidedResource(
+        ResourceKey resource,
+        ResourceStampCache stampCache,
+        StoreReadTxn txn,
+        Tracer tracer,
+        Consumer<TaskKey> consumer
+    ) {
+        directlyAffectedByProvidedResource(resource, (ResourceProvideDep dep) -> stampCache.checkConsistency(dep), txn, tracer, consumer);
+    }
+
+    private static void directlyAffectedByProvidedResource(
+        ResourceKey resource,
+        Function<ResourceProvideDep, @Nullable InconsistentResourceProvide> checker,
+        StoreReadTxn txn,
+        Tracer tracer,
+        Consumer<TaskKey> consumer
     ) {
         final @Nullable TaskKey provider = txn.getProviderOf(resource);
         if(provider != null) {
             if(txn.getTaskObservability(provider).isObserved()) {
                 for(ResourceProvideDep dep : txn.getResourceProvideDeps(provider)) {
                     if(!dep.key.equals(resource)) continue;
-                    final @Nullable InconsistentResourceProvide reason = dep.checkConsistency(resourceService);
+                    final @Nullable InconsistentResourceProvide reason = checker.apply(dep);
                     tracer.checkAffectedByProvidedResource(provider, dep, reason);
                     if(reason != null) {
                         consumer.accept(provider);
@@ -58,12 +90,36 @@ public class BottomUpShared {
         StoreReadTxn txn,
         Tracer tracer,
         Consumer<TaskKey> consumer
+    ) {
+        directlyAffectedByRequiredResource(resource, (dep) -> dep.checkConsistency(resourceService), txn, tracer, consumer);
+    }
+
+    /**
+     * Notifies the {@code consumer} with tasks that are directly affected by requiring the {@code resource}, using
+     * stamps from {@code stampCache}.
+     */
+    public static void directlyAffectedByRequiredResource(
+        ResourceKey resource,
+        ResourceStampCache stampCache,
+        StoreReadTxn txn,
+        Tracer tracer,
+        Consumer<TaskKey> consumer
+    ) {
+        directlyAffectedByRequiredResource(resource, (ResourceRequireDep dep) -> stampCache.checkConsistency(dep), txn, tracer, consumer);
+    }
+
+    private static void directlyAffectedByRequiredResource(
+        ResourceKey resource,
+        Function<ResourceRequireDep, @Nullable InconsistentResourceRequire> checker,
+        StoreReadTxn txn,
+        Tracer tracer,
+        Consumer<TaskKey> consumer
     ) {
         for(TaskKey requirer : txn.getRequirersOf(resource)) {
             if(txn.getTaskObservability(requirer).isObserved()) {
                 for(ResourceRequireDep dep : txn.getResourceRequireDeps(requirer)) {
                     if(!dep.key.equals(resource)) continue;
-                    final @Nullable InconsistentResourceRequire reason = dep.checkConsistency(resourceService);
+                    final @Nullable InconsistentResourceRequire reason = checker.apply(dep);
                     tracer.checkAffectedByRequiredResource(requirer, dep, reason);
                     if(reason != null) {
                         consumer.accept(requirer);
@@ -94,6 +150,81 @@ public class BottomUpShared {
         });
     }
 
+    /**
+     * Notifies the {@code consumer} with tasks that are directly affected by {@code changedResources}, using stamps
+     * from {@code stampCache}. When {@code stampingExecutor} is not {@code null}, the resource dependencies of observed providers and requirers of
+     * all changed resources are first stamped concurrently on the executor, after which the results are checked in
+     * order on the current thread. The consumer is notified, and the tracer is called, in the same order as when
+     * checking sequentially. When {@code bulkStamping} is {@code true}, these resources are first stamped in bulk, on the
+     * executor if it is set.
+     */
+    public static void directlyAffectedByResources(
+        Stream<? extends ResourceKey> resources,
+        ResourceStampCache stampCache,
+        StoreReadTxn txn,
+        Tracer tracer,
+        Consumer<TaskKey> consumer,
+        @Nullable Executor stampingExecutor,
+        boolean bulkStamping
+    ) {
+        // Collect all dependencies that will be checked, such that their resources can be stamped in bulk.
+        final ArrayList<ResourceKey> changedResources = resources.collect(Collectors.toCollection(ArrayList::new));
+        final LinkedHashSet<ResourceProvideDep> provideDeps = new LinkedHashSet<>();
+        final LinkedHashSet<ResourceRequireDep> requireDeps = new LinkedHashSet<>();
+        for(ResourceKey resource : changedResources) {
+            final @Nullable TaskKey provider = txn.getProviderOf(resource);
+            if(provider != null && txn.getTaskObservability(provider).isObserved()) {
+                for(ResourceProvideDep dep : txn.getResourceProvideDeps(provider)) {
+                    if(dep.key.equals(resource)) provideDeps.add(dep);
+                }
+            }
+            for(TaskKey requirer : txn.getRequirersOf(resource)) {
+                if(!txn.getTaskObservability(requirer).isObserved()) continue;
+                for(ResourceRequireDep dep : txn.getResourceRequireDeps(requirer)) {
+                    if(dep.key.equals(resource)) requireDeps.add(dep);
+                }
+            }
+        }
+
+        if(stampingExecutor == null) {
+            if(bulkStamping) {
+                stampCache.stampBatch(requireDeps, provideDeps);
+            }
+            for(ResourceKey resource : changedResources) {
+                tracer.scheduleAffectedByResourceStart(resource);
+                directlyAffectedByProvidedResource(resource, stampCache, txn, tracer, consumer);
+                directlyAffectedByRequiredResource(resource, stampCache, txn, tracer, consumer);
+                tracer.scheduleAffectedByResourceEnd(resource);
+            }
+            return;
+        }
+
+        // Start stamping all dependencies that will be checked, after stamping in bulk. Equal dependencies of different
+        // tasks are stamped once.
+        final CompletableFuture<?> batch = bulkStamping
+            ? ParallelStamping.supply(() -> {
+                stampCache.stampBatch(requireDeps, provideDeps);
+                return null;
+            }, stampingExecutor)
+            : CompletableFuture.completedFuture(null);
+        final HashMap<ResourceProvideDep, CompletableFuture<@Nullable InconsistentResourceProvide>> provideReasons = new HashMap<>();
+        for(ResourceProvideDep dep : provideDeps) {
+            provideReasons.put(dep, ParallelStamping.supplyAfter(batch, () -> stampCache.checkConsistency(dep), stampingExecutor));
+        }
+        final HashMap<ResourceRequireDep, CompletableFuture<@Nullable InconsistentResourceRequire>> requireReasons = new HashMap<>();
+        for(ResourceRequireDep dep : requireDeps) {
+            requireReasons.put(dep, ParallelStamping.supplyAfter(batch, () -> stampCache.checkConsistency(dep), stampingExecutor));
+        }
+
+        // Check results in order.
+        for(ResourceKey resource : changedResources) {
+            tracer.scheduleAffectedByResourceStart(resource);
+            directlyAffectedByProvidedResource(resource, (dep) -> ParallelStamping.join(provideReasons.get(dep)), txn, tracer, consumer);
+            directlyAffectedByRequiredResource(resource, (dep) -> ParallelStamping.join(requireReasons.get(dep)), txn, tracer, consumer);
+            tracer.scheduleAffectedByResourceEnd(resource);
+        }
+    }
+
     /**
      * Notifies the {@code consumer} with tasks that are directly affected by requiring the {@code requiree}.
      */
@@ -128,8 +259,11 @@ public class BottomUpShared {
      */
     public static boolean hasTransitiveTaskReq(TaskKey caller, TaskKey callee, StoreReadTxn txn) {
         // TODO: more efficient implementation for transitive calls?
-        final Queue<TaskKey> toCheckQueue = new LinkedList<>();
+        final Queue<TaskKey> toCheckQueue = new ArrayDeque<>();
+        // Keep track of checked tasks, as tasks can be reached through multiple paths in the dependency graph.
+        final HashSet<TaskKey> checked = new HashSet<>();
         toCheckQueue.add(caller);
+        checked.add(caller);
         while(!toCheckQueue.isEmpty()) {
             final TaskKey toCheck = toCheckQueue.poll();
             final Collection<TaskKey> requiredTasks = txn.getRequiredTasks(toCheck);
@@ -137,7 +271,9 @@ public class BottomUpShared {
                 if(requiredTask.equals(callee)) {
                     return true;
                 }
-                toCheckQueue.add(requiredTask);
+                if(checked.add(requiredTask)) {
+                    toCheckQueue.add(requiredTask);
+                }
             }
         }
         return false;
@@ -4,56 +4,128 @@ import mb.pie.api.StoreReadTxn;
 import mb.pie.api.TaskKey;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
-import java.util.HashSet;
-import java.util.PriorityQueue;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
 
+/**
+ * Priority queue of distinct task keys, implemented as an indexed binary heap: the position of every key in the heap is
+ * tracked, such that a given key can be removed in O(log n).
+ *
+ * When created with {@link #withTransitiveDependencyComparator(StoreReadTxn)} for a store that
+ * {@link StoreReadTxn#hasTopologicalOrder() keeps a topological order}, the topological index of a key is retrieved
+ * once when it is added, and keys are ordered by comparing these primitive indices. Topological indices may change
+ * while tasks are executed, after which the order of the queue may be stale. This is fine for bottom-up builds, which
+ * execute scheduled tasks that are required before their turn when required.
+ */
 public class DistinctTaskKeyPriorityQueue {
-    private final PriorityQueue<TaskKey> queue;
-    private final HashSet<TaskKey> set;
+    // Maximum number of tasks to skip when polling independent tasks, to bound the number of dependency checks.
+    private static final int maxSkippedWhenPollingIndependent = 64;
+    private static final int initialCapacity = 16;
 
+    private final @Nullable Comparator<TaskKey> comparator;
+    private final @Nullable StoreReadTxn topologicalOrderTxn;
+    private final HashMap<TaskKey, Entry> entries = new HashMap<>();
+    private Entry[] heap = new Entry[initialCapacity];
+    private int size = 0;
+
+
+    private DistinctTaskKeyPriorityQueue(@Nullable Comparator<TaskKey> comparator, @Nullable StoreReadTxn topologicalOrderTxn) {
+        this.comparator = comparator;
+        this.topologicalOrderTxn = topologicalOrderTxn;
+    }
 
     public DistinctTaskKeyPriorityQueue(Comparator<TaskKey> comparator) {
-        this.queue = new PriorityQueue<>(comparator);
-        this.set = new HashSet<>();
+        this(comparator, null);
     }
 
     public static DistinctTaskKeyPriorityQueue withTransitiveDependencyComparator(StoreReadTxn txn) {
+        if(txn.hasTopologicalOrder()) {
+            return new DistinctTaskKeyPriorityQueue(null, txn);
+        }
         return new DistinctTaskKeyPriorityQueue(new DependencyComparator(txn));
     }
 
 
     public boolean isNotEmpty() {
-        return !queue.isEmpty();
+        return size != 0;
     }
 
     public boolean contains(TaskKey key) {
-        return set.contains(key);
+        return entries.containsKey(key);
     }
 
     public TaskKey poll() {
-        final TaskKey key = queue.remove();
-        set.remove(key);
-        return key;
+        if(size == 0) {
+            throw new NoSuchElementException();
+        }
+        final Entry entry = removeAt(0);
+        entries.remove(entry.key);
+        return entry.key;
     }
 
+    /**
+     * Removes task with {@code key} from this queue if it is in the queue, in O(log n).
+     *
+     * @return {@code key} if it was in the queue, {@code null} otherwise.
+     */
     public @Nullable TaskKey pollLeastTaskWithDepTo(TaskKey key, StoreReadTxn txn) {
-        final PriorityQueue<TaskKey> queueCopy = new PriorityQueue<>(queue);
-        while(!queueCopy.isEmpty()) {
-            final TaskKey queuedKey = queueCopy.poll();
-            if(queuedKey.equals(key)) {
-                queue.remove(queuedKey);
-                set.remove(queuedKey);
-                return queuedKey;
+        return remove(key) ? key : null;
+    }
+
+    /**
+     * Polls at most {@code max} tasks in priority order that can be executed concurrently: tasks that have no
+     * dependency order with any task in {@code executing}, any previously polled task, or any task that precedes them
+     * in this queue. Tasks that cannot be executed concurrently yet stay in the queue.
+     */
+    public ArrayList<TaskKey> pollIndependent(Collection<TaskKey> executing, int max, StoreReadTxn txn) {
+        final ArrayList<TaskKey> polled = new ArrayList<>();
+        final ArrayList<Entry> skipped = new ArrayList<>();
+        final ArrayList<TaskKey> skippedKeys = new ArrayList<>();
+        while(size != 0 && polled.size() < max && skipped.size() < maxSkippedWhenPollingIndependent) {
+            final Entry entry = removeAt(0);
+            final TaskKey key = entry.key;
+            if(isIndependent(key, executing, txn) && isIndependent(key, skippedKeys, txn) && isIndependent(key, polled, txn)) {
+                entries.remove(key);
+                polled.add(key);
+            } else {
+                skipped.add(entry);
+                skippedKeys.add(key);
             }
         }
-        return null;
+        // Re-insert skipped entries with their (cached) priority.
+        for(Entry entry : skipped) {
+            insert(entry);
+        }
+        return polled;
+    }
+
+    private static boolean isIndependent(TaskKey key, Collection<TaskKey> others, StoreReadTxn txn) {
+        for(TaskKey other : others) {
+            // Check dependency order first, which is cheap for stores that keep a topological order, and only then
+            // check the (more expensive) transitive dependency.
+            if(txn.hasDependencyOrderBefore(key, other) && txn.doesRequireTransitively(key, other)) return false;
+            if(txn.hasDependencyOrderBefore(other, key) && txn.doesRequireTransitively(other, key)) return false;
+        }
+        return true;
+    }
+
+    public boolean remove(TaskKey key) {
+        final @Nullable Entry entry = entries.remove(key);
+        if(entry == null) return false;
+        removeAt(entry.position);
+        return true;
     }
 
     public void add(TaskKey key) {
-        if(set.contains(key)) return;
-        queue.add(key);
-        set.add(key);
+        if(entries.containsKey(key)) return;
+        final int topologicalIndex = topologicalOrderTxn != null ? topologicalOrderTxn.getTopologicalIndex(key) : 0;
+        final Entry entry = new Entry(key, topologicalIndex);
+        entries.put(key, entry);
+        insert(entry);
     }
 
     public void addAll(Iterable<TaskKey> keys) {
@@ -63,7 +135,95 @@ public class DistinctTaskKeyPriorityQueue {
     }
 
     @Override public String toString() {
-        return queue.toString();
+        final ArrayList<TaskKey> keys = new ArrayList<>(size);
+        for(int i = 0; i < size; ++i) {
+            keys.add(heap[i].key);
+        }
+        return keys.toString();
     }
-}
 
+
+    private static class Entry {
+        final TaskKey key;
+        final int topologicalIndex;
+        int position;
+
+        Entry(TaskKey key, int topologicalIndex) {
+            this.key = key;
+            this.topologicalIndex = topologicalIndex;
+        }
+    }
+
+    /**
+     * @return {@code true} if {@code entry1} should be polled before {@code entry2}.
+     */
+    private boolean isBefore(Entry entry1, Entry entry2) {
+        if(comparator != null) {
+            return comparator.compare(entry1.key, entry2.key) < 0;
+        }
+        // Tasks with a higher topological index (callees) must be executed before tasks with a lower index (callers).
+        return entry1.topologicalIndex > entry2.topologicalIndex;
+    }
+
+    private void insert(Entry entry) {
+        if(size == heap.length) {
+            heap = Arrays.copyOf(heap, heap.length * 2);
+        }
+        entry.position = size;
+        heap[size] = entry;
+        ++size;
+        siftUp(entry.position);
+    }
+
+    private Entry removeAt(int position) {
+        final Entry removed = heap[position];
+        --size;
+        if(position != size) {
+            final Entry last = heap[size];
+            heap[position] = last;
+            last.position = position;
+            heap[size] = null;
+            siftDown(position);
+            if(heap[position] == last) {
+                siftUp(position);
+            }
+        } else {
+            heap[size] = null;
+        }
+        return removed;
+    }
+
+    private void siftUp(int position) {
+        final Entry entry = heap[position];
+        while(position > 0) {
+            final int parentPosition = (position - 1) >>> 1;
+            final Entry parent = heap[parentPosition];
+            if(!isBefore(entry, parent)) break;
+            heap[position] = parent;
+            parent.position = position;
+            position = parentPosition;
+        }
+        heap[position] = entry;
+        entry.position = position;
+    }
+
+    private void siftDown(int position) {
+        final Entry entry = heap[position];
+        final int half = size >>> 1;
+        while(position < half) {
+            int childPosition = (position << 1) + 1;
+            Entry child = heap[childPosition];
+            final int rightPosition = childPosition + 1;
+            if(rightPosition < size && isBefore(heap[rightPosition], child)) {
+                childPosition = rightPosition;
+                child = heap[childPosition];
+            }
+            if(!isBefore(child, entry)) break;
+            heap[position] = child;
+            child.position = position;
+            position = childPosition;
+        }
+        heap[position] = entry;
+        entry.position = position;
+    }
+}
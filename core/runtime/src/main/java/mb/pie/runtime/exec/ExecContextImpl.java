@@ -37,6 +37,7 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.Collections;
 import java.util.LinkedHashSet;
+import java.util.List;
 
 public class ExecContextImpl implements ExecContext {
     private final TaskDefs taskDefs;
@@ -45,6 +46,7 @@ public class ExecContextImpl implements ExecContext {
     private final Layer layer;
     private final LoggerFactory loggerFactory;
     private final Tracer tracer;
+    private final ResourceStampCache stampCache;
 
     private final TaskKey currentTaskKey;
     private final @Nullable TaskData previousData;
@@ -67,6 +69,7 @@ public class ExecContextImpl implements ExecContext {
         Layer layer,
         LoggerFactory loggerFactory,
         Tracer tracer,
+        ResourceStampCache stampCache,
 
         TaskKey currentTaskKey,
         @Nullable TaskData previousData,
@@ -82,6 +85,7 @@ public class ExecContextImpl implements ExecContext {
         this.layer = layer;
         this.loggerFactory = loggerFactory;
         this.tracer = tracer;
+        this.stampCache = stampCache;
 
         this.currentTaskKey = currentTaskKey;
         this.previousData = previousData;
@@ -111,19 +115,37 @@ public class ExecContextImpl implements ExecContext {
     @Override
     public <O extends @Nullable Serializable> O require(Task<O> task, OutputStamper stamper) {
         cancel.throwIfCanceled();
+        final O output = requireCallee(task);
+        addTaskRequireDep(task, output, stamper);
+        return output;
+    }
+
+    @Override
+    public <O extends @Nullable Serializable> List<O> requireAll(List<? extends Task<? extends O>> tasks, OutputStamper stamper) {
+        cancel.throwIfCanceled();
+        // Tasks may be required concurrently, so only record their dependencies once all tasks have been required.
+        final List<O> outputs = requireTask.requireAll(tasks.size(), i -> requireCallee(tasks.get(i)));
+        for(int i = 0; i < tasks.size(); ++i) {
+            addTaskRequireDep(tasks.get(i), outputs.get(i), stamper);
+        }
+        return outputs;
+    }
+
+    private <O extends @Nullable Serializable> O requireCallee(Task<O> task) {
         final TaskKey callee = task.key();
         layer.validateTaskRequire(currentTaskKey, callee, txn);
         txn.addTaskRequire(currentTaskKey, callee);
+        return requireTask.require(callee, task, modifyObservability, txn, cancel);
+    }
 
-        final O output = requireTask.require(callee, task, modifyObservability, txn, cancel);
+    private void addTaskRequireDep(Task<?> task, @Nullable Serializable output, OutputStamper stamper) {
         final OutputStamp stamp = stamper.stamp(output);
-        final TaskRequireDep dep = new TaskRequireDep(callee, stamp);
-        if(taskRequires.contains(dep)) return output;
+        final TaskRequireDep dep = new TaskRequireDep(task.key(), stamp);
+        if(taskRequires.contains(dep)) return;
 
         taskRequires.add(dep);
         tracer.requiredTask(task, stamper);
         txn.addTaskRequireDep(currentTaskKey, dep);
-        return output;
     }
 
     @Override
@@ -167,7 +189,7 @@ public class ExecContextImpl implements ExecContext {
 
     @Override
     public <R extends Resource> boolean require(R resource, ResourceStamper<R> stamper) throws IOException {
-        @SuppressWarnings("unchecked") final ResourceStamp<Resource> stamp = (ResourceStamp<Resource>)stamper.stamp(resource);
+        @SuppressWarnings("unchecked") final ResourceStamp<Resource> stamp = (ResourceStamp<Resource>)stampCache.stamp(resource, stamper);
         final ResourceRequireDep dep = new ResourceRequireDep(resource.getKey(), stamp);
         if(resourceRequires.contains(dep)) return hasResourceStampChanged(dep);
 
@@ -192,6 +214,8 @@ public class ExecContextImpl implements ExecContext {
 
     @Override
     public <R extends Resource> boolean provide(R resource, ResourceStamper<R> stamper) throws IOException {
+        // Resource was written: invalidate cached stamps and stamp it without using the cache.
+        stampCache.invalidate(resource.getKey());
         @SuppressWarnings("unchecked") final ResourceStamp<Resource> stamp = (ResourceStamp<Resource>)stamper.stamp(resource);
         final ResourceProvideDep dep = new ResourceProvideDep(resource.getKey(), stamp);
         if(resourceProvides.contains(dep)) return hasResourceStampChanged(dep);
@@ -0,0 +1,58 @@
+package mb.pie.runtime.exec;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Stamps resources concurrently on an executor, for checking the consistency of resource dependencies while waiting on
+ * I/O. Results are joined in the order of the dependencies by the caller, such that reasons and tracer events are
+ * deterministic.
+ */
+class ParallelStamping {
+    /**
+     * Runs {@code stamp} on {@code executor}, or on the current thread if the executor rejects it.
+     */
+    static <T> CompletableFuture<T> supply(Supplier<T> stamp, Executor executor) {
+        try {
+            return CompletableFuture.supplyAsync(stamp, executor);
+        } catch(RejectedExecutionException e) {
+            final CompletableFuture<T> future = new CompletableFuture<>();
+            try {
+                future.complete(stamp.get());
+            } catch(Throwable t) {
+                future.completeExceptionally(t);
+            }
+            return future;
+        }
+    }
+
+    /**
+     * Runs {@code stamp} on {@code executor} after {@code before} has completed, normally or exceptionally. Runs
+     * {@code stamp} on the thread that completed {@code before} if the executor rejects it.
+     */
+    static <T> CompletableFuture<T> supplyAfter(CompletableFuture<?> before, Supplier<T> stamp, Executor executor) {
+        return before.handle((result, exception) -> result).thenCompose((ignored) -> supply(stamp, executor));
+    }
+
+    /**
+     * Waits for the result of {@code future}, rethrowing any exception that was thrown while stamping as if it was
+     * thrown on the current thread.
+     */
+    static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch(CompletionException e) {
+            final Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if(cause instanceof Error) {
+                throw (Error)cause;
+            } else {
+                throw e;
+            }
+        }
+    }
+}
@@ -15,30 +15,47 @@ import mb.pie.api.TaskKey;
 import mb.pie.api.TaskRequireDep;
 import mb.pie.api.Tracer;
 import mb.pie.api.exec.CancelToken;
+import mb.pie.api.exec.ExecReason;
 import mb.resource.ResourceService;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.io.Serializable;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public class RequireShared {
     private final TaskDefs taskDefs;
     private final ResourceService resourceService;
     private final Tracer tracer;
 
-    private final HashMap<TaskKey, TaskData> visited;
+    private final Map<TaskKey, TaskData> visited;
+    private final ResourceStampCache stampCache;
+    private final @Nullable Executor stampingExecutor;
+    private final boolean trustChangedResources;
+    private final boolean bulkStamping;
 
     public RequireShared(
         TaskDefs taskDefs,
         ResourceService resourceService,
         Tracer tracer,
-        HashMap<TaskKey, TaskData> visited
+        Map<TaskKey, TaskData> visited,
+        ResourceStampCache stampCache,
+        @Nullable Executor stampingExecutor,
+        boolean trustChangedResources,
+        boolean bulkStamping
     ) {
         this.taskDefs = taskDefs;
         this.resourceService = resourceService;
         this.tracer = tracer;
 
         this.visited = visited;
+        this.stampCache = stampCache;
+        this.stampingExecutor = stampingExecutor;
+        this.trustChangedResources = trustChangedResources;
+        this.bulkStamping = bulkStamping;
     }
 
     /**
@@ -47,7 +64,7 @@ public class RequireShared {
     @Nullable TaskData dataFromVisited(TaskKey key) {
         tracer.checkVisitedStart(key);
         final @Nullable TaskData data = visited.get(key);
-        tracer.checkVisitedEnd(key, data != null ? data.getOutput() : null);
+        tracer.checkVisitedEnd(key, data);
         return data;
     }
 
@@ -57,11 +74,63 @@ public class RequireShared {
     @Nullable TaskData dataFromStore(TaskKey key, StoreReadTxn txn) {
         tracer.checkStoredStart(key);
         final @Nullable TaskData data = txn.getData(key);
-        tracer.checkStoredEnd(key, data != null ? data.getOutput() : null);
+        tracer.checkStoredEnd(key, data);
         return data;
     }
 
 
+    /**
+     * Gets the current epoch when changed resources are trusted and the store records verification epochs, or
+     * {@code -1} otherwise. Must be called before checking or executing a task, such that the task is not marked as
+     * verified in an epoch that started while it was being checked or executed.
+     */
+    long getEpoch(StoreReadTxn txn) {
+        if(!trustChangedResources || !txn.hasVerificationEpochs()) return -1;
+        return txn.getEpoch();
+    }
+
+    /**
+     * Checks whether task with {@code key} has been verified to be consistent with its resource dependencies in the
+     * current epoch. Since all changed resources are reported, and reporting changed resources advances the epoch, its
+     * resource dependencies need not be checked again.
+     */
+    boolean isVerifiedInCurrentEpoch(TaskKey key, StoreReadTxn txn) {
+        final long epoch = getEpoch(txn);
+        return epoch >= 0 && txn.getVerifiedEpoch(key) == epoch;
+    }
+
+    /**
+     * Marks task with {@code key} as verified in {@code epoch}, obtained with {@link #getEpoch(StoreReadTxn)}.
+     */
+    void setVerified(TaskKey key, long epoch, StoreWriteTxn txn) {
+        if(epoch < 0) return;
+        txn.setVerifiedEpoch(key, epoch);
+    }
+
+    /**
+     * Advances the epoch when changed resources are trusted and the store records verification epochs, for example
+     * because changed resources are reported.
+     */
+    void advanceEpoch(StoreWriteTxn txn) {
+        if(!trustChangedResources || !txn.hasVerificationEpochs()) return;
+        txn.advanceEpoch();
+    }
+
+    /**
+     * Updates verification epochs after task with {@code key} was executed, with {@code epoch} obtained before
+     * executing it. Tasks that provide resources advance the epoch, since the provided resources may be required by
+     * tasks that were verified in the current epoch. Other tasks are marked as verified.
+     */
+    void executed(TaskKey key, TaskData data, long epoch, StoreWriteTxn txn) {
+        if(epoch < 0) return;
+        if(!data.deps.resourceProvideDeps.isEmpty()) {
+            txn.advanceEpoch();
+        } else {
+            txn.setVerifiedEpoch(key, epoch);
+        }
+    }
+
+
     /**
      * Check if input is internally consistent.
      */
@@ -79,12 +148,20 @@ public class RequireShared {
         return InconsistentTransientOutput.checkOutput(output);
     }
 
+    /**
+     * Check if the output of task data is internally consistent, only decoding the output when it may be transient.
+     */
+    @Nullable InconsistentTransientOutput checkOutputConsistency(TaskData data) {
+        if(!data.mayHaveTransientOutput()) return null;
+        return checkOutputConsistency(data.getOutput());
+    }
+
     /**
      * Check if a resource require dependency is internally consistent.
      */
     @Nullable InconsistentResourceRequire checkResourceRequireDep(TaskKey key, Task<?> task, ResourceRequireDep resourceRequireDep) {
         tracer.checkResourceRequireStart(key, task, resourceRequireDep);
-        final @Nullable InconsistentResourceRequire reason = resourceRequireDep.checkConsistency(resourceService);
+        final @Nullable InconsistentResourceRequire reason = stampCache.checkConsistency(resourceRequireDep);
         tracer.checkResourceRequireEnd(key, task, resourceRequireDep, reason);
         return reason;
     }
@@ -94,18 +171,116 @@ public class RequireShared {
      */
     @Nullable InconsistentResourceProvide checkResourceProvideDep(TaskKey key, Task<?> task, ResourceProvideDep resourceProvideDep) {
         tracer.checkResourceProvideStart(key, task, resourceProvideDep);
-        final @Nullable InconsistentResourceProvide reason = resourceProvideDep.checkConsistency(resourceService);
+        final @Nullable InconsistentResourceProvide reason = stampCache.checkConsistency(resourceProvideDep);
         tracer.checkResourceProvideEnd(key, task, resourceProvideDep, reason);
         return reason;
     }
 
+    /**
+     * Check if resource require and provide dependencies are internally consistent, in order, returning the reason of
+     * the first inconsistent dependency, or {@code null} if all dependencies are consistent. When a stamping executor
+     * is set, all resources are stamped concurrently on the executor first, after which the results are checked and
+     * traced in order on the current thread. Reasons and tracer events are therefore the same as when checking
+     * sequentially, but tracer events do not surround the actual stamping. When stamping in bulk is enabled, resources
+     * are first stamped in bulk, on the stamping executor if it is set.
+     */
+    @Nullable ExecReason checkResourceDeps(TaskKey key, Task<?> task, Collection<ResourceRequireDep> resourceRequireDeps, Collection<ResourceProvideDep> resourceProvideDeps) {
+        final int numberOfDeps = resourceRequireDeps.size() + resourceProvideDeps.size();
+        final boolean stampBatch = bulkStamping && numberOfDeps >= 2;
+        final @Nullable Executor executor = stampingExecutor;
+        if(executor == null || numberOfDeps < 2) {
+            if(stampBatch) {
+                // Stamp resources in bulk, such that the checks below use cached stamps.
+                stampCache.stampBatch(resourceRequireDeps, resourceProvideDeps);
+            }
+            for(ResourceRequireDep resourceRequireDep : resourceRequireDeps) {
+                final @Nullable InconsistentResourceRequire reason = checkResourceRequireDep(key, task, resourceRequireDep);
+                if(reason != null) return reason;
+            }
+            for(ResourceProvideDep resourceProvideDep : resourceProvideDeps) {
+                final @Nullable InconsistentResourceProvide reason = checkResourceProvideDep(key, task, resourceProvideDep);
+                if(reason != null) return reason;
+            }
+            return null;
+        }
+
+        // Stamp resources in bulk on the executor first, such that the checks use cached stamps.
+        final CompletableFuture<?> batch = stampBatch
+            ? ParallelStamping.supply(() -> {
+                stampCache.stampBatch(resourceRequireDeps, resourceProvideDeps);
+                return null;
+            }, executor)
+            : CompletableFuture.completedFuture(null);
+        final ArrayList<CompletableFuture<@Nullable InconsistentResourceRequire>> requireReasons = new ArrayList<>(resourceRequireDeps.size());
+        for(ResourceRequireDep resourceRequireDep : resourceRequireDeps) {
+            requireReasons.add(ParallelStamping.supplyAfter(batch, () -> stampCache.checkConsistency(resourceRequireDep), executor));
+        }
+        final ArrayList<CompletableFuture<@Nullable InconsistentResourceProvide>> provideReasons = new ArrayList<>(resourceProvideDeps.size());
+        for(ResourceProvideDep resourceProvideDep : resourceProvideDeps) {
+            provideReasons.add(ParallelStamping.supplyAfter(batch, () -> stampCache.checkConsistency(resourceProvideDep), executor));
+        }
+
+        // Stamping of dependencies after an inconsistent one is not awaited; their results are ignored.
+        int i = 0;
+        for(ResourceRequireDep resourceRequireDep : resourceRequireDeps) {
+            tracer.checkResourceRequireStart(key, task, resourceRequireDep);
+            final @Nullable InconsistentResourceRequire reason = ParallelStamping.join(requireReasons.get(i++));
+            tracer.checkResourceRequireEnd(key, task, resourceRequireDep, reason);
+            if(reason != null) return reason;
+        }
+        i = 0;
+        for(ResourceProvideDep resourceProvideDep : resourceProvideDeps) {
+            tracer.checkResourceProvideStart(key, task, resourceProvideDep);
+            final @Nullable InconsistentResourceProvide reason = ParallelStamping.join(provideReasons.get(i++));
+            tracer.checkResourceProvideEnd(key, task, resourceProvideDep, reason);
+            if(reason != null) return reason;
+        }
+        return null;
+    }
+
+    /**
+     * Gets the session-scoped resource stamp cache.
+     */
+    ResourceStampCache getStampCache() {
+        return stampCache;
+    }
+
+    /**
+     * Gets the executor to stamp resources on concurrently, or {@code null} if resources are stamped sequentially.
+     */
+    @Nullable Executor getStampingExecutor() {
+        return stampingExecutor;
+    }
+
+    /**
+     * Gets whether resources of many dependencies are stamped in bulk before checking them.
+     */
+    boolean isBulkStamping() {
+        return bulkStamping;
+    }
+
     /**
      * Check if a task require dependency is totally consistent.
      */
     @Nullable InconsistentTaskRequire checkTaskRequireDep(TaskKey key, Task<?> task, TaskRequireDep taskRequireDep, boolean modifyObservability, StoreWriteTxn txn, RequireTask requireTask, CancelToken cancel) {
+        final @Nullable Serializable calleeOutput = requireCallee(taskRequireDep, modifyObservability, txn, requireTask, cancel);
+        return checkTaskRequireDepOutput(key, task, taskRequireDep, calleeOutput);
+    }
+
+    /**
+     * Require the callee of a task require dependency in a top-down manner.
+     */
+    @Nullable Serializable requireCallee(TaskRequireDep taskRequireDep, boolean modifyObservability, StoreWriteTxn txn, RequireTask requireTask, CancelToken cancel) {
         final TaskKey calleeKey = taskRequireDep.callee;
         final Task<?> calleeTask = calleeKey.toTask(taskDefs, txn);
-        final @Nullable Serializable calleeOutput = requireTask.require(calleeKey, calleeTask, modifyObservability, txn, cancel);
+        return requireTask.require(calleeKey, calleeTask, modifyObservability, txn, cancel);
+    }
+
+    /**
+     * Check if a task require dependency is consistent with the output of its callee, which was already required in a
+     * top-down manner.
+     */
+    @Nullable InconsistentTaskRequire checkTaskRequireDepOutput(TaskKey key, Task<?> task, TaskRequireDep taskRequireDep, @Nullable Serializable calleeOutput) {
         tracer.checkTaskRequireStart(key, task, taskRequireDep);
         final @Nullable InconsistentTaskRequire reason = taskRequireDep.checkConsistency(calleeOutput);
         tracer.checkTaskRequireEnd(key, task, taskRequireDep, reason);
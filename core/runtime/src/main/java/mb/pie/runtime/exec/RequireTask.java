@@ -7,7 +7,22 @@ import mb.pie.api.exec.CancelToken;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.function.IntFunction;
 
 public interface RequireTask {
     <O extends @Nullable Serializable> O require(TaskKey key, Task<O> task, boolean modifyObservability, StoreWriteTxn txn, CancelToken cancel);
+
+    /**
+     * Performs {@code count} independent requires, where {@code require} performs the require with given index and
+     * returns its output, and returns the outputs in order. Requires are performed in order on the current thread,
+     * unless overridden by an implementation that performs them concurrently.
+     */
+    default <O extends @Nullable Serializable> ArrayList<O> requireAll(int count, IntFunction<? extends O> require) {
+        final ArrayList<O> outputs = new ArrayList<>(count);
+        for(int i = 0; i < count; ++i) {
+            outputs.add(require.apply(i));
+        }
+        return outputs;
+    }
 }
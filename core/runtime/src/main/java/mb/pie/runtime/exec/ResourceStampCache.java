@@ -0,0 +1,165 @@
+package mb.pie.runtime.exec;
+
+import mb.pie.api.InconsistentResourceProvide;
+import mb.pie.api.InconsistentResourceRequire;
+import mb.pie.api.ResourceProvideDep;
+import mb.pie.api.ResourceRequireDep;
+import mb.pie.api.stamp.ResourceStamp;
+import mb.pie.api.stamp.ResourceStamper;
+import mb.pie.api.stamp.resource.FileAttributesResourceStamper;
+import mb.resource.Resource;
+import mb.resource.ResourceKey;
+import mb.resource.ResourceService;
+import mb.resource.fs.FSResource;
+import mb.resource.hierarchical.ResourcePath;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Session-scoped cache of resource stamps, keyed on resource key and stamper, such that a resource that is required by
+ * many tasks is stamped once per session. Stamps of a resource are invalidated when a task provides the resource. When
+ * the resource is a {@link ResourcePath hierarchical resource}, stamps of its ancestors are invalidated as well, since
+ * stamps of directories may depend on the resources they contain, and so are stamps of its descendants, since a task
+ * may provide a directory by writing the files in it. Descendants are found through an index of the cached paths under
+ * each directory, such that invalidating a subtree does not scan the entire cache.
+ *
+ * Resources that are changed during a session without being provided by a task are not observed by this cache, which is
+ * fine because tasks must provide the resources they write.
+ */
+public class ResourceStampCache {
+    private final ResourceService resourceService;
+    private final ConcurrentHashMap<ResourceKey, ConcurrentHashMap<ResourceStamper<?>, ResourceStamp<?>>> stamps = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<ResourcePath, Set<ResourcePath>> cachedChildren = new ConcurrentHashMap<>();
+
+
+    public ResourceStampCache(ResourceService resourceService) {
+        this.resourceService = resourceService;
+    }
+
+
+    /**
+     * Gets the cached stamp of {@code resource} for {@code stamper}, or stamps the resource and caches the stamp if no
+     * stamp was cached.
+     */
+    @SuppressWarnings("unchecked")
+    public <R extends Resource> ResourceStamp<R> stamp(R resource, ResourceStamper<R> stamper) throws IOException {
+        // Get the stamps map before stamping, such that a stamp that is being created while the resource is
+        // invalidated, is stored in a map that is no longer reachable.
+        final ConcurrentHashMap<ResourceStamper<?>, ResourceStamp<?>> stampsOfResource = getOrCreateStamps(resource.getKey());
+        final @Nullable ResourceStamp<?> cachedStamp = stampsOfResource.get(stamper);
+        if(cachedStamp != null) {
+            return (ResourceStamp<R>)cachedStamp;
+        }
+        final ResourceStamp<R> stamp = stamper.stamp(resource);
+        final @Nullable ResourceStamp<?> concurrentStamp = stampsOfResource.putIfAbsent(stamper, stamp);
+        return concurrentStamp != null ? (ResourceStamp<R>)concurrentStamp : stamp;
+    }
+
+    /**
+     * Stamps the resources of {@code requireDeps} and {@code provideDeps} that have no cached stamp in bulk where
+     * possible, and caches the stamps, such that checking the consistency of these dependencies afterwards uses the
+     * cached stamps. Filesystem resources stamped with {@link FileAttributesResourceStamper file attribute stampers}
+     * are grouped by directory and stamped with one directory scan per directory.
+     */
+    public void stampBatch(Collection<ResourceRequireDep> requireDeps, Collection<ResourceProvideDep> provideDeps) {
+        final BatchStamping<ConcurrentHashMap<ResourceStamper<?>, ResourceStamp<?>>> batch = new BatchStamping<>();
+        for(ResourceRequireDep dep : requireDeps) {
+            addToBatch(batch, dep.key, dep.stamp.getStamper());
+        }
+        for(ResourceProvideDep dep : provideDeps) {
+            addToBatch(batch, dep.key, dep.stamp.getStamper());
+        }
+        batch.stamp((stampsOfResource, stamper, stamp) -> stampsOfResource.putIfAbsent(stamper, stamp));
+    }
+
+    private void addToBatch(BatchStamping<ConcurrentHashMap<ResourceStamper<?>, ResourceStamp<?>>> batch, ResourceKey key, ResourceStamper<?> stamper) {
+        if(!(stamper instanceof FileAttributesResourceStamper<?>)) return;
+        final @Nullable ConcurrentHashMap<ResourceStamper<?>, ResourceStamp<?>> cachedStamps = stamps.get(key);
+        if(cachedStamps != null && cachedStamps.containsKey(stamper)) return;
+        final Resource resource = resourceService.getResource(key);
+        if(!(resource instanceof FSResource)) return;
+        // Get the stamps map before stamping, for the same reason as in stamp.
+        final ConcurrentHashMap<ResourceStamper<?>, ResourceStamp<?>> stampsOfResource = getOrCreateStamps(resource.getKey());
+        batch.add((FSResource)resource, stamper, stampsOfResource);
+    }
+
+    /**
+     * Invalidates the cached stamps of resource with {@code key}, of its ancestors, and of its descendants.
+     */
+    public void invalidate(ResourceKey key) {
+        stamps.remove(key);
+        if(key instanceof ResourcePath) {
+            final ResourcePath path = (ResourcePath)key;
+            @Nullable ResourcePath parent = path.getParent();
+            while(parent != null) {
+                stamps.remove(parent);
+                parent = parent.getParent();
+            }
+            final ArrayDeque<ResourcePath> toInvalidate = new ArrayDeque<>();
+            toInvalidate.add(path);
+            while(!toInvalidate.isEmpty()) {
+                final @Nullable Set<ResourcePath> children = cachedChildren.remove(toInvalidate.poll());
+                if(children == null) continue;
+                for(ResourcePath child : children) {
+                    stamps.remove(child);
+                    toInvalidate.add(child);
+                }
+            }
+        }
+    }
+
+    private ConcurrentHashMap<ResourceStamper<?>, ResourceStamp<?>> getOrCreateStamps(ResourceKey key) {
+        final @Nullable ConcurrentHashMap<ResourceStamper<?>, ResourceStamp<?>> stampsOfResource = stamps.get(key);
+        if(stampsOfResource != null) return stampsOfResource;
+        if(key instanceof ResourcePath) {
+            // Index the path under all its ancestors before caching stamps, such that invalidating an ancestor always
+            // finds it. Links are added again after being removed by an invalidation.
+            ResourcePath path = (ResourcePath)key;
+            @Nullable ResourcePath parent = path.getParent();
+            while(parent != null) {
+                cachedChildren.computeIfAbsent(parent, (p) -> ConcurrentHashMap.newKeySet()).add(path);
+                path = parent;
+                parent = path.getParent();
+            }
+        }
+        return stamps.computeIfAbsent(key, (k) -> new ConcurrentHashMap<>());
+    }
+
+
+    /**
+     * Check if a resource require dependency is internally consistent, using cached stamps.
+     */
+    public @Nullable InconsistentResourceRequire checkConsistency(ResourceRequireDep dep) {
+        final ResourceStamp<Resource> newStamp = stamp(dep.key, dep.stamp.getStamper());
+        if(!dep.stamp.equals(newStamp)) {
+            return new InconsistentResourceRequire(dep, newStamp);
+        }
+        return null;
+    }
+
+    /**
+     * Check if a resource provide dependency is internally consistent, using cached stamps.
+     */
+    public @Nullable InconsistentResourceProvide checkConsistency(ResourceProvideDep dep) {
+        final ResourceStamp<Resource> newStamp = stamp(dep.key, dep.stamp.getStamper());
+        if(!dep.stamp.equals(newStamp)) {
+            return new InconsistentResourceProvide(dep, newStamp);
+        }
+        return null;
+    }
+
+    private ResourceStamp<Resource> stamp(ResourceKey key, ResourceStamper<Resource> stamper) {
+        final Resource resource = resourceService.getResource(key);
+        try {
+            return stamp(resource, stamper);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package mb.pie.runtime.exec;
+
+import mb.pie.api.Layer;
+import mb.pie.api.ResourceProvideDep;
+import mb.pie.api.ResourceRequireDep;
+import mb.pie.api.StoreReadTxn;
+import mb.pie.api.Task;
+import mb.pie.api.TaskData;
+import mb.pie.api.TaskKey;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.Serializable;
+
+/**
+ * Layer decorator that defers calls that occur during a {@link TopDownSpeculation speculative top-down check}, until
+ * the speculation is committed. Committing a speculation replays the calls on the thread that reaches the dependency in
+ * order, such that validation (e.g., cycle detection) sees the same sequence of calls as when requiring sequentially.
+ * Speculations never execute tasks, so deferred calls are only calls of checks, which are not passed to the decorated
+ * {@link Layer} when the speculation is discarded, because the check is then performed again in order. Calls that
+ * occur outside of speculations, including all calls of task executions, are passed to the decorated layer directly.
+ */
+public class SpeculativeLayer implements Layer {
+    private final Layer layer;
+
+
+    public SpeculativeLayer(Layer layer) {
+        this.layer = layer;
+    }
+
+
+    @Override
+    public void requireTopDownStart(TaskKey key, Serializable input) {
+        call(() -> layer.requireTopDownStart(key, input));
+    }
+
+    @Override
+    public void requireTopDownEnd(TaskKey key) {
+        call(() -> layer.requireTopDownEnd(key));
+    }
+
+    @Override
+    public void validateVisited(TaskKey key, Task<?> task, TaskData data) {
+        call(() -> layer.validateVisited(key, task, data));
+    }
+
+    @Override
+    public void validateTaskRequire(TaskKey caller, TaskKey callee, StoreReadTxn txn) {
+        call(() -> layer.validateTaskRequire(caller, callee, txn));
+    }
+
+    @Override
+    public void validateResourceRequireDep(TaskKey requirer, ResourceRequireDep dep, StoreReadTxn txn) {
+        call(() -> layer.validateResourceRequireDep(requirer, dep, txn));
+    }
+
+    @Override
+    public void validateResourceProvideDep(TaskKey provider, ResourceProvideDep dep, StoreReadTxn txn) {
+        call(() -> layer.validateResourceProvideDep(provider, dep, txn));
+    }
+
+    @Override
+    public void validateTaskOutput(TaskKey key, @Nullable Serializable output, StoreReadTxn txn) {
+        call(() -> layer.validateTaskOutput(key, output, txn));
+    }
+
+
+    private void call(Runnable call) {
+        final @Nullable TopDownSpeculation speculation = TopDownSpeculation.current();
+        if(speculation != null) {
+            speculation.addEffect(call);
+        } else {
+            call.run();
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package mb.pie.runtime.exec;
+
+import mb.pie.api.InconsistentResourceProvide;
+import mb.pie.api.InconsistentResourceRequire;
+import mb.pie.api.InconsistentTaskRequire;
+import mb.pie.api.Observability;
+import mb.pie.api.ResourceProvideDep;
+import mb.pie.api.ResourceRequireDep;
+import mb.pie.api.Task;
+import mb.pie.api.TaskData;
+import mb.pie.api.TaskKey;
+import mb.pie.api.TaskRequireDep;
+import mb.pie.api.Tracer;
+import mb.pie.api.exec.ExecReason;
+import mb.pie.api.stamp.OutputStamper;
+import mb.pie.api.stamp.ResourceStamper;
+import mb.resource.Resource;
+import mb.resource.ResourceKey;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.Serializable;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Tracer decorator that buffers events that occur during a {@link TopDownSpeculation speculative top-down check},
+ * until the speculation is committed. Speculations never execute tasks, so buffered events are only events of checks,
+ * which are not passed to the decorated {@link Tracer} when the speculation is discarded, because the check is then
+ * performed again in order. Events that occur outside of speculations, including all events of task executions, are
+ * passed to the decorated tracer directly.
+ */
+public class SpeculativeTracer implements Tracer {
+    private final Tracer tracer;
+
+
+    public SpeculativeTracer(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+
+    @Override
+    public void providedResource(Resource resource, ResourceStamper<?> stamper) {
+        event(() -> tracer.providedResource(resource, stamper));
+    }
+
+    @Override
+    public void requiredResource(Resource resource, ResourceStamper<?> stamper) {
+        event(() -> tracer.requiredResource(resource, stamper));
+    }
+
+    @Override
+    public void requiredTask(Task<?> task, OutputStamper stamper) {
+        event(() -> tracer.requiredTask(task, stamper));
+    }
+
+
+    @Override
+    public void executeStart(TaskKey key, Task<?> task, ExecReason reason) {
+        event(() -> tracer.executeStart(key, task, reason));
+    }
+
+    @Override
+    public void executeEndSuccess(TaskKey key, Task<?> task, ExecReason reason, TaskData data) {
+        event(() -> tracer.executeEndSuccess(key, task, reason, data));
+    }
+
+    @Override
+    public void executeEndFailed(TaskKey key, Task<?> task, ExecReason reason, Exception e) {
+        event(() -> tracer.executeEndFailed(key, task, reason, e));
+    }
+
+    @Override
+    public void executeEndInterrupted(TaskKey key, Task<?> task, ExecReason reason, InterruptedException e) {
+        event(() -> tracer.executeEndInterrupted(key, task, reason, e));
+    }
+
+
+    @Override public void requireStart(TaskKey key, Task<?> task) {
+        event(() -> tracer.requireStart(key, task));
+    }
+
+    @Override public void requireEnd(TaskKey key, Task<?> task) {
+        event(() -> tracer.requireEnd(key, task));
+    }
+
+
+    @Override
+    public void upToDate(TaskKey key, Task<?> task) {
+        event(() -> tracer.upToDate(key, task));
+    }
+
+
+    @Override
+    public void requireTopDownInitialStart(TaskKey key, Task<?> task) {
+        event(() -> tracer.requireTopDownInitialStart(key, task));
+    }
+
+    @Override
+    public void requireTopDownInitialEnd(TaskKey key, Task<?> task, @Nullable Serializable output) {
+        event(() -> tracer.requireTopDownInitialEnd(key, task, output));
+    }
+
+    @Override
+    public void checkTopDownStart(TaskKey key, Task<?> task) {
+        event(() -> tracer.checkTopDownStart(key, task));
+    }
+
+    @Override
+    public void checkTopDownEnd(TaskKey key, Task<?> task) {
+        event(() -> tracer.checkTopDownEnd(key, task));
+    }
+
+    @Override
+    public void checkResourceProvideStart(TaskKey provider, Task<?> task, ResourceProvideDep dep) {
+        event(() -> tracer.checkResourceProvideStart(provider, task, dep));
+    }
+
+    @Override
+    public void checkResourceProvideEnd(TaskKey provider, Task<?> task, ResourceProvideDep dep, @Nullable InconsistentResourceProvide reason) {
+        event(() -> tracer.checkResourceProvideEnd(provider, task, dep, reason));
+    }
+
+    @Override
+    public void checkResourceRequireStart(TaskKey requirer, Task<?> task, ResourceRequireDep dep) {
+        event(() -> tracer.checkResourceRequireStart(requirer, task, dep));
+    }
+
+    @Override
+    public void checkResourceRequireEnd(TaskKey requirer, Task<?> task, ResourceRequireDep dep, @Nullable InconsistentResourceRequire reason) {
+        event(() -> tracer.checkResourceRequireEnd(requirer, task, dep, reason));
+    }
+
+    @Override
+    public void checkTaskRequireStart(TaskKey key, Task<?> task, TaskRequireDep dep) {
+        event(() -> tracer.checkTaskRequireStart(key, task, dep));
+    }
+
+    @Override
+    public void checkTaskRequireEnd(TaskKey key, Task<?> task, TaskRequireDep dep, @Nullable InconsistentTaskRequire reason) {
+        event(() -> tracer.checkTaskRequireEnd(key, task, dep, reason));
+    }
+
+
+    @Override
+    public void requireBottomUpInitialStart(Set<? extends ResourceKey> changedResources) {
+        event(() -> tracer.requireBottomUpInitialStart(changedResources));
+    }
+
+    @Override
+    public void requireBottomUpInitialEnd() {
+        event(() -> tracer.requireBottomUpInitialEnd());
+    }
+
+    @Override
+    public void scheduleAffectedByResourceStart(ResourceKey resource) {
+        event(() -> tracer.scheduleAffectedByResourceStart(resource));
+    }
+
+    @Override
+    public void scheduleAffectedByResourceEnd(ResourceKey resource) {
+        event(() -> tracer.scheduleAffectedByResourceEnd(resource));
+    }
+
+    @Override
+    public void checkAffectedByProvidedResource(TaskKey provider, @Nullable ResourceProvideDep dep, @Nullable InconsistentResourceProvide reason) {
+        event(() -> tracer.checkAffectedByProvidedResource(provider, dep, reason));
+    }
+
+    @Override
+    public void checkAffectedByRequiredResource(TaskKey requirer, @Nullable ResourceRequireDep dep, @Nullable InconsistentResourceRequire reason) {
+        event(() -> tracer.checkAffectedByRequiredResource(requirer, dep, reason));
+    }
+
+    @Override
+    public void scheduleAffectedByTaskOutputStart(TaskKey requiree, @Nullable Serializable output) {
+        event(() -> tracer.scheduleAffectedByTaskOutputStart(requiree, output));
+    }
+
+    @Override
+    public void scheduleAffectedByTaskOutputEnd(TaskKey requiree, @Nullable Serializable output) {
+        event(() -> tracer.scheduleAffectedByTaskOutputEnd(requiree, output));
+    }
+
+    @Override
+    public void checkAffectedByRequiredTask(TaskKey requirer, @Nullable TaskRequireDep dep, @Nullable InconsistentTaskRequire reason) {
+        event(() -> tracer.checkAffectedByRequiredTask(requirer, dep, reason));
+    }
+
+    @Override
+    public void scheduleTask(TaskKey key) {
+        event(() -> tracer.scheduleTask(key));
+    }
+
+    @Override public void deferTask(TaskKey key) {
+        event(() -> tracer.deferTask(key));
+    }
+
+    @Override
+    public void requireScheduledNowStart(TaskKey key) {
+        event(() -> tracer.requireScheduledNowStart(key));
+    }
+
+    @Override
+    public void requireScheduledNowEnd(TaskKey key, @Nullable TaskData data) {
+        event(() -> tracer.requireScheduledNowEnd(key, data));
+    }
+
+
+    @Override
+    public void checkVisitedStart(TaskKey key) {
+        event(() -> tracer.checkVisitedStart(key));
+    }
+
+    @Override
+    public void checkVisitedEnd(TaskKey key, @Nullable TaskData data) {
+        event(() -> tracer.checkVisitedEnd(key, data));
+    }
+
+    @Override
+    public void checkStoredStart(TaskKey key) {
+        event(() -> tracer.checkStoredStart(key));
+    }
+
+    @Override
+    public void checkStoredEnd(TaskKey key, @Nullable TaskData data) {
+        event(() -> tracer.checkStoredEnd(key, data));
+    }
+
+    @Override
+    public void invokeCallbackStart(Consumer<@Nullable Serializable> observer, TaskKey key, @Nullable Serializable output) {
+        event(() -> tracer.invokeCallbackStart(observer, key, output));
+    }
+
+    @Override
+    public void invokeCallbackEnd(Consumer<@Nullable Serializable> observer, TaskKey key, @Nullable Serializable output) {
+        event(() -> tracer.invokeCallbackEnd(observer, key, output));
+    }
+
+
+    @Override
+    public void setTaskObservability(TaskKey key, Observability previousObservability, Observability newObservability) {
+        event(() -> tracer.setTaskObservability(key, previousObservability, newObservability));
+    }
+
+
+    private void event(Runnable event) {
+        final @Nullable TopDownSpeculation speculation = TopDownSpeculation.current();
+        if(speculation != null) {
+            speculation.addEffect(event);
+        } else {
+            event.run();
+        }
+    }
+}
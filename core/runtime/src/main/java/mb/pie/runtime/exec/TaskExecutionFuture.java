@@ -0,0 +1,70 @@
+package mb.pie.runtime.exec;
+
+import mb.pie.api.TaskData;
+import mb.pie.api.TaskKey;
+import mb.pie.api.exec.CanceledException;
+import mb.pie.api.exec.UncheckedInterruptedException;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Supplier;
+
+/**
+ * Execution of a task that may be started by an executor, or by a thread that needs its result before the executor
+ * gets to it. The task is executed at most once: {@link FutureTask#run()} does nothing when the execution has already
+ * been started by another thread.
+ */
+class TaskExecutionFuture extends FutureTask<@Nullable TaskData> {
+    final TaskKey key;
+    private final @Nullable BlockingQueue<TaskExecutionFuture> completed;
+
+
+    TaskExecutionFuture(TaskKey key, Supplier<@Nullable TaskData> execFunc, @Nullable BlockingQueue<TaskExecutionFuture> completed) {
+        super(execFunc::get);
+        this.key = key;
+        this.completed = completed;
+    }
+
+
+    /**
+     * Executes the task on the current thread if it has not been started yet, and waits for its result otherwise.
+     *
+     * @return task data of the executed task, or {@code null} if the task was not executed (e.g., it was deferred).
+     */
+    @Nullable TaskData runOrAwait() {
+        run();
+        return getResult();
+    }
+
+    /**
+     * Gets the result of this (completed) execution, rethrowing any exception that was thrown during execution.
+     */
+    @Nullable TaskData getResult() {
+        try {
+            return get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedInterruptedException(e);
+        } catch(CancellationException e) {
+            throw new CanceledException("Execution of task '" + key + "' was canceled");
+        } catch(ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if(cause instanceof Error) {
+                throw (Error)cause;
+            } else {
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+
+    @Override protected void done() {
+        if(completed != null) {
+            completed.add(this);
+        }
+    }
+}
@@ -28,8 +28,9 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -42,9 +43,10 @@ public class TaskExecutor {
     private final LoggerFactory loggerFactory;
     private final Tracer tracer;
     private final Callbacks callbacks;
+    private final ResourceStampCache stampCache;
 
-    private final HashMap<TaskKey, TaskData> visited;
-    private final HashSet<ResourceKey> providedResources;
+    private final Map<TaskKey, TaskData> visited;
+    private final Set<ResourceKey> providedResources;
 
     public TaskExecutor(
         TaskDefs taskDefs,
@@ -55,8 +57,9 @@ public class TaskExecutor {
         LoggerFactory loggerFactory,
         Tracer tracer,
         Callbacks callbacks,
-        HashMap<TaskKey, TaskData> visited,
-        HashSet<ResourceKey> providedResources
+        ResourceStampCache stampCache,
+        Map<TaskKey, TaskData> visited,
+        Set<ResourceKey> providedResources
     ) {
         this.taskDefs = taskDefs;
         this.resourceService = resourceService;
@@ -66,6 +69,7 @@ public class TaskExecutor {
         this.loggerFactory = loggerFactory;
         this.tracer = tracer;
         this.callbacks = callbacks;
+        this.stampCache = stampCache;
 
         this.visited = visited;
         this.providedResources = providedResources;
@@ -115,6 +119,7 @@ public class TaskExecutor {
             layer,
             loggerFactory,
             tracer,
+            stampCache,
 
             key,
             previousData,
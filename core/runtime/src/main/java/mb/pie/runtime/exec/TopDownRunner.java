@@ -1,13 +1,9 @@
 package mb.pie.runtime.exec;
 
 import mb.pie.api.Callbacks;
-import mb.pie.api.InconsistentResourceProvide;
-import mb.pie.api.InconsistentResourceRequire;
 import mb.pie.api.InconsistentTaskRequire;
 import mb.pie.api.Layer;
 import mb.pie.api.Observability;
-import mb.pie.api.ResourceProvideDep;
-import mb.pie.api.ResourceRequireDep;
 import mb.pie.api.Store;
 import mb.pie.api.StoreWriteTxn;
 import mb.pie.api.Task;
@@ -17,11 +13,26 @@ import mb.pie.api.TaskRequireDep;
 import mb.pie.api.Tracer;
 import mb.pie.api.exec.CancelToken;
 import mb.pie.api.exec.ExecReason;
+import mb.pie.api.exec.UncheckedInterruptedException;
+import mb.pie.runtime.store.SynchronizedStoreWriteTxn;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.io.Serializable;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
 
 public class TopDownRunner implements RequireTask {
     private final Store store;
@@ -31,7 +42,20 @@ public class TopDownRunner implements RequireTask {
     private final RequireShared requireShared;
     private final Callbacks callbacks;
 
-    private final HashMap<TaskKey, TaskData> visited;
+    private final Map<TaskKey, TaskData> visited;
+
+    private final @Nullable Executor executor;
+    private final int parallelism;
+    /**
+     * Number of speculations and independent requires that have been started on the executor and have not completed
+     * yet, bounded by {@code parallelism}.
+     */
+    private final AtomicInteger running = new AtomicInteger();
+    /**
+     * Executions of tasks in this session when an executor is set, claimed before executing a task such that a task is
+     * never executed by two threads at the same time.
+     */
+    private final @Nullable ConcurrentHashMap<TaskKey, Execution> executions;
 
     public TopDownRunner(
         Store store,
@@ -40,7 +64,9 @@ public class TopDownRunner implements RequireTask {
         TaskExecutor taskExecutor,
         RequireShared requireShared,
         Callbacks callbacks,
-        HashMap<TaskKey, TaskData> visited
+        Map<TaskKey, TaskData> visited,
+        @Nullable Executor executor,
+        int parallelism
     ) {
         this.store = store;
         this.layer = layer;
@@ -50,10 +76,16 @@ public class TopDownRunner implements RequireTask {
         this.callbacks = callbacks;
 
         this.visited = visited;
+
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.executions = executor != null ? new ConcurrentHashMap<>() : null;
     }
 
     public <O extends @Nullable Serializable> O requireInitial(Task<O> task, boolean modifyObservability, CancelToken cancel) {
-        try(final StoreWriteTxn txn = store.writeTxn()) {
+        try(final StoreWriteTxn storeTxn = store.writeTxn()) {
+            // Dependencies are checked concurrently when an executor is set, which requires synchronized access to the store.
+            final StoreWriteTxn txn = executor != null ? SynchronizedStoreWriteTxn.synchronizeIfNeeded(storeTxn) : storeTxn;
             final TaskKey key = task.key();
             tracer.requireTopDownInitialStart(key, task);
             final O output = require(key, task, modifyObservability, txn, cancel);
@@ -74,34 +106,39 @@ public class TopDownRunner implements RequireTask {
 
     @Override
     public <O extends @Nullable Serializable> O require(TaskKey key, Task<O> task, boolean modifyObservability, StoreWriteTxn txn, CancelToken cancel) {
+        return require(key, task, modifyObservability, txn, cancel, null);
+    }
+
+    /**
+     * Requires given task, speculatively if {@code speculation} is not {@code null}.
+     */
+    <O extends @Nullable Serializable> O require(TaskKey key, Task<O> task, boolean modifyObservability, StoreWriteTxn txn, CancelToken cancel, @Nullable TopDownSpeculation speculation) {
         cancel.throwIfCanceled();
+        if(speculation != null && speculation.isAbandoned()) throw TopDownSpeculation.Aborted.instance;
         layer.requireTopDownStart(key, task.input);
         tracer.requireStart(key, task);
         try {
-            final DataAndExecutionStatus status = executeOrGetExisting(key, task, modifyObservability, txn, cancel);
-            TaskData data = status.data;
-            final O output = data.getOutputCasted();
+            final DataAndExecutionStatus status = executeOrGetExisting(key, task, modifyObservability, txn, cancel, speculation);
+            final TaskData data;
+            final O output = status.data.getOutputCasted();
             if(!status.executed) {
-                if(modifyObservability && data.taskObservability.isUnobserved()) {
+                final boolean setObserved = modifyObservability && status.data.taskObservability.isUnobserved();
+                if(setObserved) {
                     // Force observability status to observed in task data, so that validation and the visited map contain a consistent TaskData object.
-                    final Observability newObservability = Observability.ImplicitObserved;
-                    tracer.setTaskObservability(key, Observability.Unobserved, newObservability);
-                    data = data.withTaskObservability(newObservability);
-                    txn.setTaskObservability(key, newObservability);
+                    data = status.data.withTaskObservability(Observability.ImplicitObserved);
+                } else {
+                    data = status.data;
                 }
 
-                // Mark task as visited.
-                visited.put(key, data);
-
-                // Invoke callback, if any.
-                final @Nullable Consumer<@Nullable Serializable> callback = callbacks.get(key, txn);
-                if(callback != null) {
-                    tracer.invokeCallbackStart(callback, key, output);
-                    callback.accept(output);
-                    tracer.invokeCallbackEnd(callback, key, output);
+                // Mark task as visited, and perform side effects. Speculations buffer these until they are committed.
+                final Runnable effects = () -> upToDate(key, task, output, setObserved, txn);
+                if(speculation != null) {
+                    speculation.addVisited(key, data);
+                    speculation.addEffect(effects);
+                } else {
+                    visited.put(key, data);
+                    effects.run();
                 }
-
-                tracer.upToDate(key, task);
             }
             return output;
         } finally {
@@ -110,6 +147,24 @@ public class TopDownRunner implements RequireTask {
         }
     }
 
+    private void upToDate(TaskKey key, Task<?> task, @Nullable Serializable output, boolean setObserved, StoreWriteTxn txn) {
+        if(setObserved) {
+            final Observability newObservability = Observability.ImplicitObserved;
+            tracer.setTaskObservability(key, Observability.Unobserved, newObservability);
+            txn.setTaskObservability(key, newObservability);
+        }
+
+        // Invoke callback, if any.
+        final @Nullable Consumer<@Nullable Serializable> callback = callbacks.get(key, txn);
+        if(callback != null) {
+            tracer.invokeCallbackStart(callback, key, output);
+            callback.accept(output);
+            tracer.invokeCallbackEnd(callback, key, output);
+        }
+
+        tracer.upToDate(key, task);
+    }
+
     private static class DataAndExecutionStatus {
         final TaskData data;
         final boolean executed;
@@ -123,23 +178,42 @@ public class TopDownRunner implements RequireTask {
     /**
      * Get data for given task/key, either by getting existing data or through execution.
      */
-    private DataAndExecutionStatus executeOrGetExisting(TaskKey key, Task<?> task, boolean modifyObservability, StoreWriteTxn txn, CancelToken cancel) {
-        // Check if task was already visited this execution.
-        final @Nullable TaskData visitedData = requireShared.dataFromVisited(key);
-        if(visitedData != null) {
-            // Validate required task against visited data.
-            layer.validateVisited(key, task, visitedData);
-            // If validation succeeds, return immediately.
-            return new DataAndExecutionStatus(visitedData, false);
+    private DataAndExecutionStatus executeOrGetExisting(TaskKey key, Task<?> task, boolean modifyObservability, StoreWriteTxn txn, CancelToken cancel, @Nullable TopDownSpeculation speculation) {
+        while(true) {
+            // Check if task was already visited this execution.
+            @Nullable TaskData visitedData = requireShared.dataFromVisited(key);
+            if(visitedData == null && speculation != null) {
+                visitedData = speculation.getVisited(key);
+            }
+            if(visitedData != null) {
+                // Validate required task against visited data.
+                layer.validateVisited(key, task, visitedData);
+                // If validation succeeds, return immediately.
+                return new DataAndExecutionStatus(visitedData, false);
+            }
+
+            // Wait for an execution of the task by another thread, such that its stored data is not read while it is
+            // being executed.
+            final @Nullable Execution execution = executions != null ? awaitExecution(key, speculation) : null;
+            final @Nullable DataAndExecutionStatus status = checkOrExecute(key, task, modifyObservability, txn, cancel, speculation, execution);
+            if(status != null) return status;
+            // Task was executed by another thread while it was being checked: check it again.
         }
+    }
 
+    /**
+     * Get data for given task/key by checking its stored data, executing it when inconsistent. Returns {@code null} if
+     * another thread has executed (or started executing) the task since {@code observed} was observed.
+     */
+    private @Nullable DataAndExecutionStatus checkOrExecute(TaskKey key, Task<?> task, boolean modifyObservability, StoreWriteTxn txn, CancelToken cancel, @Nullable TopDownSpeculation speculation, @Nullable Execution observed) {
         // Check if data is stored for task. Execute if not.
         final @Nullable TaskData storedData = requireShared.dataFromStore(key, txn);
         if(storedData == null) {
-            return new DataAndExecutionStatus(exec(key, task, new NoData(), modifyObservability, txn, cancel), true);
+            return executed(exec(key, task, new NoData(), modifyObservability, txn, cancel, speculation, observed));
         }
 
         // Check consistency of task.
+        final long epoch = requireShared.getEpoch(txn);
         try {
             tracer.checkTopDownStart(key, task);
 
@@ -147,50 +221,283 @@ public class TopDownRunner implements RequireTask {
             {
                 final @Nullable InconsistentInput reason = requireShared.checkInput(storedData.input, task);
                 if(reason != null) {
-                    return new DataAndExecutionStatus(exec(key, task, reason, modifyObservability, txn, cancel), true);
+                    return executed(exec(key, task, reason, modifyObservability, txn, cancel, speculation, observed));
                 }
             }
 
             // Output consistency.
             {
-                final @Nullable InconsistentTransientOutput reason = requireShared.checkOutputConsistency(storedData.getOutput());
-                if(reason != null) {
-                    return new DataAndExecutionStatus(exec(key, task, reason, modifyObservability, txn, cancel), true);
-                }
-            }
-
-            // Resource require consistency.
-            for(ResourceRequireDep resourceRequireDep : storedData.deps.resourceRequireDeps) {
-                final @Nullable InconsistentResourceRequire reason = requireShared.checkResourceRequireDep(key, task, resourceRequireDep);
+                final @Nullable InconsistentTransientOutput reason = requireShared.checkOutputConsistency(storedData);
                 if(reason != null) {
-                    return new DataAndExecutionStatus(exec(key, task, reason, modifyObservability, txn, cancel), true);
+                    return executed(exec(key, task, reason, modifyObservability, txn, cancel, speculation, observed));
                 }
             }
 
-            // Resource provide consistency.
-            for(ResourceProvideDep resourceProvideDep : storedData.deps.resourceProvideDeps) {
-                final @Nullable InconsistentResourceProvide reason = requireShared.checkResourceProvideDep(key, task, resourceProvideDep);
+            // Resource require and provide consistency. Skipped when the task was verified in the current epoch.
+            if(!requireShared.isVerifiedInCurrentEpoch(key, txn)) {
+                final @Nullable ExecReason reason = requireShared.checkResourceDeps(key, task, storedData.deps.resourceRequireDeps, storedData.deps.resourceProvideDeps);
                 if(reason != null) {
-                    return new DataAndExecutionStatus(exec(key, task, reason, modifyObservability, txn, cancel), true);
+                    return executed(exec(key, task, reason, modifyObservability, txn, cancel, speculation, observed));
                 }
             }
 
             // Task require consistency.
-            for(TaskRequireDep taskRequireDep : storedData.deps.taskRequireDeps) {
-                final @Nullable InconsistentTaskRequire reason = requireShared.checkTaskRequireDep(key, task, taskRequireDep, modifyObservability, txn, this, cancel);
+            {
+                final @Nullable InconsistentTaskRequire reason = checkTaskRequireDeps(key, task, storedData.deps.taskRequireDeps, modifyObservability, txn, cancel, speculation);
                 if(reason != null) {
-                    return new DataAndExecutionStatus(exec(key, task, reason, modifyObservability, txn, cancel), true);
+                    return executed(exec(key, task, reason, modifyObservability, txn, cancel, speculation, observed));
                 }
             }
 
-            // Task is consistent.
+            // Task is consistent, unless another thread executed it during the check, in which case the check was
+            // (partially) performed on data that is being replaced.
+            if(executions != null && executions.get(key) != observed) {
+                return null;
+            }
+            // Speculations buffer marking it as verified until they are committed.
+            if(speculation != null) {
+                speculation.observe(key, observed);
+                speculation.addEffect(() -> requireShared.setVerified(key, epoch, txn));
+            } else {
+                requireShared.setVerified(key, epoch, txn);
+            }
             return new DataAndExecutionStatus(storedData, false);
         } finally {
             tracer.checkTopDownEnd(key, task);
         }
     }
 
+    private static @Nullable DataAndExecutionStatus executed(@Nullable TaskData data) {
+        return data != null ? new DataAndExecutionStatus(data, true) : null;
+    }
+
+    /**
+     * Checks task require dependencies in order, returning the reason of the first inconsistent dependency, or
+     * {@code null} if all dependencies are consistent. When an executor is set, the callees of dependencies after the
+     * one being checked are speculatively checked concurrently, but their results are still checked in order. A
+     * speculation is aborted when its callee, or a task it requires, must be executed, in which case the callee is
+     * required in order.
+     */
+    private @Nullable InconsistentTaskRequire checkTaskRequireDeps(TaskKey key, Task<?> task, Collection<TaskRequireDep> taskRequireDeps, boolean modifyObservability, StoreWriteTxn txn, CancelToken cancel, @Nullable TopDownSpeculation speculation) {
+        final RequireTask requireTask = speculation != null ? speculation : this;
+        if(executor == null || taskRequireDeps.size() < 2) {
+            for(TaskRequireDep taskRequireDep : taskRequireDeps) {
+                final @Nullable InconsistentTaskRequire reason = requireShared.checkTaskRequireDep(key, task, taskRequireDep, modifyObservability, txn, requireTask, cancel);
+                if(reason != null) return reason;
+            }
+            return null;
+        }
+
+        final ArrayList<TaskRequireDep> deps = new ArrayList<>(taskRequireDeps);
+        final ArrayList<@Nullable TopDownSpeculation> speculations = new ArrayList<>(Collections.nCopies(deps.size(), null));
+        int nextToSpeculate = 1; // The callee of the first dependency is required directly.
+        try {
+            for(int i = 0; i < deps.size(); ++i) {
+                // Speculatively check the callees of later dependencies, as far as the parallelism allows.
+                for(nextToSpeculate = Math.max(nextToSpeculate, i + 1); nextToSpeculate < deps.size(); ++nextToSpeculate) {
+                    final @Nullable TopDownSpeculation dependencySpeculation = trySpeculate(deps.get(nextToSpeculate), executor, modifyObservability, txn, cancel, speculation);
+                    if(dependencySpeculation == null) break;
+                    speculations.set(nextToSpeculate, dependencySpeculation);
+                }
+
+                final TaskRequireDep taskRequireDep = deps.get(i);
+                final @Nullable TopDownSpeculation dependencySpeculation = speculations.get(i);
+                final @Nullable InconsistentTaskRequire reason;
+                if(dependencySpeculation != null && dependencySpeculation.await() && dependencySpeculation.commit(speculation, visited, executions)) {
+                    reason = requireShared.checkTaskRequireDepOutput(key, task, taskRequireDep, dependencySpeculation.getOutput());
+                } else {
+                    // No (valid) speculation: require the callee in order.
+                    reason = requireShared.checkTaskRequireDep(key, task, taskRequireDep, modifyObservability, txn, requireTask, cancel);
+                }
+                if(reason != null) return reason;
+            }
+            return null;
+        } finally {
+            // Abandon speculations that were not committed, and wait for them to stop, such that they do not run after
+            // the check of the dependencies of this task.
+            for(@Nullable TopDownSpeculation dependencySpeculation : speculations) {
+                if(dependencySpeculation != null) dependencySpeculation.abandon();
+            }
+            for(@Nullable TopDownSpeculation dependencySpeculation : speculations) {
+                if(dependencySpeculation != null) dependencySpeculation.await();
+            }
+        }
+    }
+
+    /**
+     * Starts a speculative require of the callee of given dependency on the executor, or returns {@code null} if the
+     * maximum number of concurrent requires are already running or the executor rejects it.
+     */
+    private @Nullable TopDownSpeculation trySpeculate(TaskRequireDep taskRequireDep, Executor executor, boolean modifyObservability, StoreWriteTxn txn, CancelToken cancel, @Nullable TopDownSpeculation parent) {
+        final TopDownSpeculation speculation = new TopDownSpeculation(this, parent, taskRequireDep, modifyObservability, txn, cancel);
+        return tryStartConcurrent(executor, speculation::run) ? speculation : null;
+    }
+
+    /**
+     * Speculatively requires the callee of given dependency, called by {@link TopDownSpeculation}.
+     */
+    @Nullable Serializable requireSpeculatively(TaskRequireDep taskRequireDep, boolean modifyObservability, StoreWriteTxn txn, CancelToken cancel, TopDownSpeculation speculation) {
+        return requireShared.requireCallee(taskRequireDep, modifyObservability, txn, speculation, cancel);
+    }
+
+    /**
+     * Performs independent requires concurrently on the executor, as far as the parallelism allows. The first require,
+     * and requires that the executor has not started yet when their output is needed, are performed on the current
+     * thread. Always waits for all started requires to complete, such that they do not use the store transaction after
+     * the caller is done, and then throws the exception of the first failed require, if any. Requires that were not
+     * started yet when a require failed are skipped.
+     */
+    @Override
+    public <O extends @Nullable Serializable> ArrayList<O> requireAll(int count, IntFunction<? extends O> require) {
+        if(executor == null || count < 2) {
+            return RequireTask.super.requireAll(count, require);
+        }
+
+        final AtomicBoolean failed = new AtomicBoolean();
+        final ArrayList<FutureTask<O>> futures = new ArrayList<>(count);
+        boolean startConcurrently = true;
+        for(int i = 0; i < count; ++i) {
+            final int index = i;
+            final FutureTask<O> future = new FutureTask<>(() -> {
+                // Skip requires that were not started yet when a require failed. Their output is never returned.
+                if(failed.get()) return null;
+                try {
+                    return require.apply(index);
+                } catch(Throwable e) {
+                    failed.set(true);
+                    throw e;
+                }
+            });
+            futures.add(future);
+            if(i > 0 && startConcurrently) {
+                startConcurrently = tryStartConcurrent(executor, future);
+            }
+        }
+
+        final ArrayList<O> outputs = new ArrayList<>(count);
+        @Nullable Throwable failure = null;
+        boolean interrupted = false;
+        for(FutureTask<O> future : futures) {
+            // Perform the require on the current thread if the executor has not started it yet.
+            future.run();
+            while(true) {
+                try {
+                    outputs.add(future.get());
+                    break;
+                } catch(InterruptedException e) {
+                    interrupted = true;
+                } catch(ExecutionException e) {
+                    if(failure == null) failure = e.getCause();
+                    break;
+                }
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if(failure instanceof RuntimeException) {
+            throw (RuntimeException)failure;
+        } else if(failure instanceof Error) {
+            throw (Error)failure;
+        } else if(failure != null) {
+            throw new RuntimeException(failure);
+        }
+        return outputs;
+    }
+
+    /**
+     * Starts given runnable on the executor, unless the maximum number of concurrent requires are already running or
+     * the executor rejects it.
+     *
+     * @return {@code true} if the runnable was started, {@code false} otherwise.
+     */
+    private boolean tryStartConcurrent(Executor executor, Runnable runnable) {
+        int current;
+        do {
+            current = running.get();
+            if(current >= parallelism) return false;
+        } while(!running.compareAndSet(current, current + 1));
+        try {
+            executor.execute(() -> {
+                try {
+                    runnable.run();
+                } finally {
+                    running.decrementAndGet();
+                }
+            });
+            return true;
+        } catch(RejectedExecutionException e) {
+            running.decrementAndGet();
+            return false;
+        }
+    }
+
+
+    /**
+     * Waits for an execution of given task by another thread to complete, and returns the latest execution of the task
+     * in this session, or {@code null} if it has not been executed in this session.
+     */
+    private @Nullable Execution awaitExecution(TaskKey key, @Nullable TopDownSpeculation speculation) {
+        while(true) {
+            final @Nullable Execution execution = executions.get(key);
+            if(execution == null || execution.isDone()) return execution;
+            // Speculations never wait on executions, which could be waiting on the thread that awaits the speculation.
+            // The callee is required in order instead.
+            if(speculation != null) throw TopDownSpeculation.Aborted.instance;
+            // Task is required during its own execution, which is a cycle. Proceed like a sequential build, such that
+            // the cycle is reported by the layer.
+            if(execution.thread == Thread.currentThread()) return execution;
+            try {
+                execution.get();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UncheckedInterruptedException(e);
+            } catch(ExecutionException | CancellationException e) {
+                // Failures are reproduced when the task is checked or executed again.
+            }
+        }
+    }
+
+
     public TaskData exec(TaskKey key, Task<?> task, ExecReason reason, boolean modifyObservability, StoreWriteTxn txn, CancelToken cancel) {
-        return taskExecutor.exec(key, task, reason, modifyObservability, txn, this, cancel);
+        final long epoch = requireShared.getEpoch(txn);
+        final TaskData data = taskExecutor.exec(key, task, reason, modifyObservability, txn, this, cancel);
+        requireShared.executed(key, data, epoch, txn);
+        return data;
+    }
+
+    /**
+     * Executes given task, claiming the execution when an executor is set. Returns {@code null} if another thread has
+     * executed (or started executing) the task since {@code observed} was observed.
+     */
+    private @Nullable TaskData exec(TaskKey key, Task<?> task, ExecReason reason, boolean modifyObservability, StoreWriteTxn txn, CancelToken cancel, @Nullable TopDownSpeculation speculation, @Nullable Execution observed) {
+        // Speculations only check tasks, because the task may not be required (with this input) anymore when the
+        // dependencies that precede the speculated one turn out to be inconsistent. Abort, and require in order.
+        if(speculation != null) throw TopDownSpeculation.Aborted.instance;
+        if(executions == null) {
+            return exec(key, task, reason, modifyObservability, txn, cancel);
+        }
+        final Execution execution = new Execution(key, () -> exec(key, task, reason, modifyObservability, txn, cancel));
+        if(!claim(key, execution, observed)) return null;
+        return execution.runOrAwait();
+    }
+
+    private boolean claim(TaskKey key, Execution execution, @Nullable Execution observed) {
+        if(observed != null) {
+            return executions.replace(key, observed, execution);
+        } else {
+            return executions.putIfAbsent(key, execution) == null;
+        }
+    }
+
+    /**
+     * Execution of a task by the thread that claimed it.
+     */
+    private static class Execution extends TaskExecutionFuture {
+        final Thread thread = Thread.currentThread();
+
+        Execution(TaskKey key, Supplier<@Nullable TaskData> execFunc) {
+            super(key, execFunc, null);
+        }
     }
 }
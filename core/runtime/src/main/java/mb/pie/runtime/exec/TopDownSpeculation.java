@@ -0,0 +1,189 @@
+package mb.pie.runtime.exec;
+
+import mb.pie.api.StoreWriteTxn;
+import mb.pie.api.Task;
+import mb.pie.api.TaskData;
+import mb.pie.api.TaskKey;
+import mb.pie.api.TaskRequireDep;
+import mb.pie.api.exec.CancelToken;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Speculative top-down require of the callee of a task require dependency, performed concurrently with requiring the
+ * callees of the dependencies that precede it.
+ *
+ * Dependencies are taken from the stored data of the caller, and a preceding dependency may turn out to be
+ * inconsistent, in which case the caller is re-executed and may require different tasks, or tasks with different
+ * inputs. Therefore, a speculation only checks tasks, and is aborted when a task must be executed, such that it never
+ * causes side effects that requiring in order would not cause. The callee is then required in order instead. Tasks are
+ * executed concurrently when a task requires them with {@link mb.pie.api.ExecContext#requireAll}, which declares that
+ * they are independent.
+ *
+ * Visited task data, side effects (observability changes, callbacks, marking tasks as verified), and tracer and layer
+ * events of checks are buffered, and only committed when the dependency is reached in order, and no task that the
+ * speculation observed was executed since.
+ */
+class TopDownSpeculation implements RequireTask {
+    private static final ThreadLocal<@Nullable TopDownSpeculation> current = new ThreadLocal<>();
+
+    private final @Nullable TopDownSpeculation parent;
+    private final FutureTask<@Nullable Serializable> future;
+
+    private final ConcurrentHashMap<TaskKey, TaskData> visited = new ConcurrentHashMap<>();
+    private final HashMap<TaskKey, @Nullable TaskExecutionFuture> observed = new HashMap<>();
+    private final ArrayList<Runnable> effects = new ArrayList<>();
+    private final TopDownRunner runner;
+    private volatile boolean abandoned = false;
+
+
+    TopDownSpeculation(TopDownRunner runner, @Nullable TopDownSpeculation parent, TaskRequireDep taskRequireDep, boolean modifyObservability, StoreWriteTxn txn, CancelToken cancel) {
+        this.runner = runner;
+        this.parent = parent;
+        this.future = new FutureTask<>(() -> runner.requireSpeculatively(taskRequireDep, modifyObservability, txn, cancel, this));
+    }
+
+
+    @Override
+    public <O extends @Nullable Serializable> O require(TaskKey key, Task<O> task, boolean modifyObservability, StoreWriteTxn txn, CancelToken cancel) {
+        return runner.require(key, task, modifyObservability, txn, cancel, this);
+    }
+
+
+    /**
+     * Gets the speculation that the current thread is running, or {@code null} if it is not running a speculation.
+     */
+    static @Nullable TopDownSpeculation current() {
+        return current.get();
+    }
+
+    /**
+     * Runs this speculation on the current thread if it has not been started yet, and returns immediately otherwise.
+     */
+    void run() {
+        final @Nullable TopDownSpeculation previous = current.get();
+        current.set(this);
+        try {
+            future.run();
+        } finally {
+            current.set(previous);
+        }
+    }
+
+    /**
+     * Runs this speculation on the current thread if it has not been started yet, and waits for it to complete
+     * otherwise. A speculation never waits on other threads, except on its own nested speculations, so this does not
+     * deadlock.
+     *
+     * @return {@code true} if the speculation completed successfully, {@code false} if it was aborted or failed.
+     * Failures are not propagated: requiring the callee in order will reproduce them.
+     */
+    boolean await() {
+        run();
+        try {
+            future.get();
+            return true;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch(ExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the output of the callee of this (successfully completed) speculation.
+     */
+    @Nullable Serializable getOutput() {
+        try {
+            return future.get();
+        } catch(InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("Cannot get output of speculation that did not complete successfully", e);
+        }
+    }
+
+
+    /**
+     * Abandons this speculation and its nested speculations, making them stop at the next require.
+     */
+    void abandon() {
+        abandoned = true;
+    }
+
+    boolean isAbandoned() {
+        return abandoned || (parent != null && parent.isAbandoned());
+    }
+
+
+    /**
+     * Gets visited task data that this speculation or one of its enclosing speculations has buffered.
+     */
+    @Nullable TaskData getVisited(TaskKey key) {
+        final @Nullable TaskData data = visited.get(key);
+        if(data != null) return data;
+        if(parent != null) return parent.getVisited(key);
+        return null;
+    }
+
+    void addVisited(TaskKey key, TaskData data) {
+        visited.put(key, data);
+    }
+
+    void addEffect(Runnable effect) {
+        effects.add(effect);
+    }
+
+    /**
+     * Records that this speculation checked the stored data of given task as it was after {@code execution}, or as it
+     * was before this session when {@code execution} is {@code null}.
+     */
+    void observe(TaskKey key, @Nullable TaskExecutionFuture execution) {
+        observed.put(key, execution);
+    }
+
+    /**
+     * Commits this (successfully completed) speculation into {@code target} if it is not {@code null}, or into
+     * {@code sharedVisited} while performing buffered side effects and events otherwise.
+     *
+     * @return {@code true} if the speculation was committed, {@code false} if it is invalid because a task it observed
+     * was executed since, in which case the speculation must be discarded.
+     */
+    boolean commit(@Nullable TopDownSpeculation target, Map<TaskKey, TaskData> sharedVisited, Map<TaskKey, ? extends TaskExecutionFuture> executions) {
+        for(Map.Entry<TaskKey, @Nullable TaskExecutionFuture> entry : observed.entrySet()) {
+            if(executions.get(entry.getKey()) != entry.getValue()) {
+                return false;
+            }
+        }
+        if(target != null) {
+            target.visited.putAll(visited);
+            // Keep observations of the target, which must be checked again when the target is committed.
+            observed.forEach(target.observed::putIfAbsent);
+            target.effects.addAll(effects);
+        } else {
+            sharedVisited.putAll(visited);
+            for(Runnable effect : effects) {
+                effect.run();
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Thrown to abort a speculation when it was abandoned, or when it would have to execute a task.
+     */
+    static class Aborted extends RuntimeException {
+        static final Aborted instance = new Aborted();
+
+        private Aborted() {
+            super("Speculative require was aborted", null, false, false);
+        }
+    }
+}
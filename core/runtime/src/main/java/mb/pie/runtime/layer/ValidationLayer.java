@@ -18,8 +18,10 @@ import mb.resource.ResourceKey;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
@@ -136,7 +138,18 @@ public class ValidationLayer implements Layer {
     private final TaskDefs taskDefs;
     private final Logger logger;
     private final Serde serde;
-    private final HashSet<TaskKey> executing = new HashSet<>();
+    // Tasks being required form a wait-for graph, with an edge from a caller to each callee it is waiting for, counted
+    // per require. Tasks may be required concurrently on multiple threads, and a caller on one thread may wait for a
+    // callee that is being required on another thread, so the graph is shared by all threads of the session, and a
+    // cyclic dependency is detected when a require would close a cycle in the graph, instead of deadlocking. The graph
+    // only contains requires that are in progress, so it stays small. Guarded by synchronizing on itself.
+    private final HashMap<TaskKey, HashMap<TaskKey, Integer>> waitingFor = new HashMap<>();
+    // Requires in progress on the current thread, innermost last.
+    private final ThreadLocal<ArrayDeque<Require>> requires = ThreadLocal.withInitial(ArrayDeque::new);
+    // Last task require validated on the current thread, which provides the caller of the next require when the caller
+    // is not the innermost require of the current thread, such as when tasks are required concurrently on other
+    // threads, or when a task executed bottom-up requires a task.
+    private final ThreadLocal<@Nullable Require> validatedRequire = new ThreadLocal<>();
 
 
     public ValidationLayer(ValidationOptions options, TaskDefs taskDefs, LoggerFactory loggerFactory, Serde serde) {
@@ -159,8 +172,11 @@ public class ValidationLayer implements Layer {
                     100) + "', but the ID of its task definition '" + taskDefId + "' has not been registered with the task definition collection");
         }
 
-        checkForCycles(currentTask);
-        executing.add(currentTask);
+        final @Nullable TaskKey caller = callerOf(currentTask);
+        if(caller != null) {
+            addWaitingFor(caller, currentTask);
+        }
+        requires.get().addLast(new Require(caller, currentTask));
 
         if(options.checkKeyObjects) {
             validateKey(currentTask);
@@ -171,7 +187,13 @@ public class ValidationLayer implements Layer {
     }
 
     @Override public void requireTopDownEnd(TaskKey key) {
-        executing.remove(key);
+        final ArrayDeque<Require> requires = this.requires.get();
+        final @Nullable Require require = requires.peekLast();
+        if(require == null || !require.callee.equals(key)) return;
+        requires.removeLast();
+        if(require.caller != null) {
+            removeWaitingFor(require.caller, key);
+        }
     }
 
     @Override public void validateVisited(TaskKey currentTaskKey, Task<?> currentTask, TaskData visitedData) {
@@ -189,7 +211,10 @@ public class ValidationLayer implements Layer {
     }
 
     @Override public void validateTaskRequire(TaskKey caller, TaskKey callee, StoreReadTxn txn) {
-        checkForCycles(callee);
+        synchronized(waitingFor) {
+            checkForCycles(caller, callee);
+        }
+        validatedRequire.set(new Require(caller, callee));
     }
 
     @Override public void validateResourceRequireDep(TaskKey requirer, ResourceRequireDep dep, StoreReadTxn txn) {
@@ -297,19 +322,73 @@ public class ValidationLayer implements Layer {
         }
     }
 
-    private void checkForCycles(TaskKey key) {
-        if(executing.contains(key)) {
+    private @Nullable TaskKey callerOf(TaskKey callee) {
+        final @Nullable Require validated = validatedRequire.get();
+        validatedRequire.remove();
+        if(validated != null && validated.callee.equals(callee)) {
+            return validated.caller;
+        }
+        final @Nullable Require innermost = requires.get().peekLast();
+        return innermost != null ? innermost.callee : null;
+    }
+
+    private void addWaitingFor(TaskKey caller, TaskKey callee) {
+        synchronized(waitingFor) {
+            checkForCycles(caller, callee);
+            waitingFor.computeIfAbsent(caller, k -> new HashMap<>()).merge(callee, 1, Integer::sum);
+        }
+    }
+
+    private void removeWaitingFor(TaskKey caller, TaskKey callee) {
+        synchronized(waitingFor) {
+            final @Nullable HashMap<TaskKey, Integer> callees = waitingFor.get(caller);
+            if(callees == null) return;
+            callees.computeIfPresent(callee, (k, count) -> count > 1 ? count - 1 : null);
+            if(callees.isEmpty()) {
+                waitingFor.remove(caller);
+            }
+        }
+    }
+
+    private void checkForCycles(TaskKey caller, TaskKey callee) {
+        final @Nullable List<TaskKey> path = findWaitingForPath(callee, caller, new HashSet<>());
+        if(path != null) {
             // Cyclic dependency.
+            path.add(callee);
             final StringBuilder sb = new StringBuilder();
             sb.append("Cyclic dependency. Cause:\n");
             sb.append("requirement of task\n");
-            sb.append("  " + key.toShortString(options.shortStringLength) + "\n");
+            sb.append("  " + callee.toShortString(options.shortStringLength) + "\n");
             sb.append("from requirements\n");
-            sb.append("  " + executing.stream().map((k) -> k.toShortString(options.shortStringLength)).collect(Collectors.joining(" -> ")));
+            sb.append("  " + path.stream().map((k) -> k.toShortString(options.shortStringLength)).collect(Collectors.joining(" -> ")));
             error(sb.toString());
         }
     }
 
+    /**
+     * Finds a path from {@code from} to {@code to} in the wait-for graph, which must be locked.
+     *
+     * @return the tasks on the path, including {@code from} and {@code to}, or {@code null} if there is no path.
+     */
+    private @Nullable List<TaskKey> findWaitingForPath(TaskKey from, TaskKey to, HashSet<TaskKey> seen) {
+        if(from.equals(to)) {
+            final ArrayList<TaskKey> path = new ArrayList<>();
+            path.add(from);
+            return path;
+        }
+        if(!seen.add(from)) return null;
+        final @Nullable HashMap<TaskKey, Integer> callees = waitingFor.get(from);
+        if(callees == null) return null;
+        for(TaskKey callee : callees.keySet()) {
+            final @Nullable List<TaskKey> path = findWaitingForPath(callee, to, seen);
+            if(path != null) {
+                path.add(0, from);
+                return path;
+            }
+        }
+        return null;
+    }
+
     private void validateOutput(@Nullable Serializable output, TaskKey key) {
         final List<String> errors;
         if(output instanceof OutTransientEquatable<?, ?>) {
@@ -481,5 +560,16 @@ public class ValidationLayer implements Layer {
     @Override public String toString() {
         return "ValidationLayer()";
     }
+
+
+    private static class Require {
+        final @Nullable TaskKey caller;
+        final TaskKey callee;
+
+        private Require(@Nullable TaskKey caller, TaskKey callee) {
+            this.caller = caller;
+            this.callee = callee;
+        }
+    }
 }
 
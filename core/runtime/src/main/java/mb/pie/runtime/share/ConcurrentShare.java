@@ -0,0 +1,82 @@
+package mb.pie.runtime.share;
+
+import mb.pie.api.Share;
+import mb.pie.api.TaskData;
+import mb.pie.api.TaskKey;
+import mb.pie.api.exec.UncheckedInterruptedException;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * {@link Share} implementation that shares concurrently executing tasks through a concurrent map of in-flight
+ * executions, without a global lock. The first thread to share a task executes it, and other threads that share the
+ * same task while it is executing wait for its result, or for its exception to be rethrown.
+ */
+public class ConcurrentShare implements Share {
+    private final ConcurrentHashMap<TaskKey, InFlight> inFlight = new ConcurrentHashMap<>();
+
+
+    @Override
+    public TaskData share(TaskKey key, Supplier<TaskData> execFunc, @Nullable Supplier<TaskData> visitedFunc) {
+        final InFlight execution = new InFlight(Thread.currentThread());
+        final @Nullable InFlight existing = inFlight.putIfAbsent(key, execution);
+        if(existing != null) {
+            if(existing.owner == Thread.currentThread()) {
+                // Task (indirectly) shares itself on the same thread. Waiting would dead-lock, execute without sharing.
+                return execFunc.get();
+            }
+            return existing.await(key);
+        }
+
+        try {
+            // Check if task was visited after registering the execution. This handles the case where another execution
+            // of the task completed (and was removed) before this execution was registered, which would otherwise cause a
+            // re-execution.
+            final @Nullable TaskData visited = visitedFunc != null ? visitedFunc.get() : null;
+            final TaskData data = visited != null ? visited : execFunc.get();
+            execution.complete(data);
+            return data;
+        } catch(Throwable e) {
+            execution.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, execution);
+        }
+    }
+
+
+    @Override public String toString() {
+        return "ConcurrentShare()";
+    }
+
+
+    private static class InFlight extends CompletableFuture<TaskData> {
+        final Thread owner;
+
+        InFlight(Thread owner) {
+            this.owner = owner;
+        }
+
+        TaskData await(TaskKey key) {
+            try {
+                return get();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UncheckedInterruptedException(e);
+            } catch(ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if(cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                } else if(cause instanceof Error) {
+                    throw (Error)cause;
+                } else {
+                    throw new RuntimeException("Shared execution of task '" + key + "' failed", cause);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package mb.pie.runtime.store;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Output stream that writes to a temporary file next to {@code file}, which atomically replaces {@code file} when the
+ * stream is {@link #commit() committed}. When the stream is closed without being committed, for example because writing
+ * failed, or when the process is killed while writing, {@code file} is left untouched. Closing the stream (which
+ * serializers may do when they are done) flushes all written data to the storage device, but does not replace {@code
+ * file}.
+ */
+class AtomicFileOutputStream extends BufferedOutputStream {
+    private final Path file;
+    private final Path temporaryFile;
+    private final FileChannel channel;
+    private boolean closed = false;
+
+
+    private AtomicFileOutputStream(Path file, Path temporaryFile, FileChannel channel) {
+        super(Channels.newOutputStream(channel));
+        this.file = file;
+        this.temporaryFile = temporaryFile;
+        this.channel = channel;
+    }
+
+    static AtomicFileOutputStream open(Path file) throws IOException {
+        final Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        final FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new AtomicFileOutputStream(file, temporaryFile, channel);
+    }
+
+
+    /**
+     * Closes the stream if it is not closed yet, and atomically replaces the file with the written data.
+     */
+    void commit() throws IOException {
+        close();
+        Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override public void close() throws IOException {
+        if(closed) return;
+        closed = true;
+        try {
+            flush();
+            channel.force(true);
+        } finally {
+            super.close();
+        }
+    }
+}
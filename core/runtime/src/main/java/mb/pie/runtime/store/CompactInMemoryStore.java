@@ -0,0 +1,812 @@
+package mb.pie.runtime.store;
+
+import mb.pie.api.Observability;
+import mb.pie.api.Output;
+import mb.pie.api.ResourceProvideDep;
+import mb.pie.api.ResourceRequireDep;
+import mb.pie.api.SerializableConsumer;
+import mb.pie.api.Store;
+import mb.pie.api.StoreReadTxn;
+import mb.pie.api.StoreWriteTxn;
+import mb.pie.api.Task;
+import mb.pie.api.TaskData;
+import mb.pie.api.TaskDeps;
+import mb.pie.api.TaskKey;
+import mb.pie.api.TaskRequireDep;
+import mb.resource.ResourceKey;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+/**
+ * In-memory store that uses little memory per task, for large dependency graphs.
+ *
+ * Task and resource keys are interned to dense {@code int} identifiers, and task data is kept in columnar arrays indexed
+ * by identifier, instead of in a map per kind of data. Task require edges, and the reverse {@code callersOf} and
+ * {@code requireesOf} edges, are stored as primitive {@code int} lists. Dependencies are stored in arrays per task,
+ * which are never modified in place except for appending, such that returned dependency collections are views that
+ * are not affected by later writes. Which pairs of identifiers are in these lists is also kept in one {@link IdPairs}
+ * set, such that adding an edge or dependency checks for duplicates in constant time, and only compares dependencies
+ * when the task already has a dependency on the same task or resource.
+ *
+ * Like {@link InMemoryStore}, a topological order of tasks is maintained incrementally with the dynamic topological
+ * sort algorithm of Pearce and Kelly, such that dependency order is determined by comparing topological indices. Tasks
+ * get the topological index equal to their identifier when they are interned, after which adding a task require only
+ * reorders the tasks between the indices of caller and callee. Identifiers of keys are never reused: the keys of
+ * deleted tasks stay interned until the store is {@link #drop() dropped}. This store is not thread-safe.
+ */
+public class CompactInMemoryStore implements Store, StoreReadTxn, StoreWriteTxn, Serializable {
+    private static final int initialCapacity = 16;
+    private static final Observability[] observabilities = Observability.values();
+    private static final byte unobserved = (byte)Observability.Unobserved.ordinal();
+
+    // Kinds of pairs in `pairs`.
+    private static final int taskRequirePair = 1; // (caller, callee): callee is in `taskRequires` of caller.
+    private static final int callerPair = 2; // (callee, caller): caller is in `callersOf` of callee.
+    private static final int taskRequireDepPair = 3; // (caller, callee): caller has a task require dependency on callee.
+    private static final int resourceRequirePair = 4; // (resource, requirer): requirer is in `requireesOf` of resource.
+    private static final int resourceProvidePair = 5; // (provider, resource): provider has a provide dependency on resource.
+
+    private final KeyIds<TaskKey> taskIds = new KeyIds<>();
+    private final KeyIds<ResourceKey> resourceIds = new KeyIds<>();
+
+    // Task columns, indexed by task identifier.
+    private @Nullable Serializable[] inputs = new Serializable[initialCapacity];
+    private @Nullable Serializable[] internalObjects = new Serializable[initialCapacity];
+    private @Nullable Serializable[] outputs = new Serializable[initialCapacity];
+    private final BitSet hasOutput = new BitSet();
+    private byte[] observability = newObservabilityColumn(initialCapacity);
+    private int[] @Nullable [] taskRequires = new int[initialCapacity][];
+    private TaskRequireDep @Nullable [] @Nullable [] taskRequireDeps = new TaskRequireDep[initialCapacity][];
+    private int[] @Nullable [] callersOf = new int[initialCapacity][];
+    private final BitSet hasCallersOf = new BitSet();
+    private ResourceRequireDep @Nullable [] @Nullable [] resourceRequireDeps = new ResourceRequireDep[initialCapacity][];
+    private ResourceProvideDep @Nullable [] @Nullable [] resourceProvideDeps = new ResourceProvideDep[initialCapacity][];
+    private long[] verifiedEpochs = newEpochColumn(initialCapacity);
+    private int[] topologicalIndices = newTopologicalIndexColumn(0, initialCapacity);
+    private final BitSet deferredTasks = new BitSet();
+
+    // Resource columns, indexed by resource identifier.
+    private int[] @Nullable [] requireesOf = new int[initialCapacity][];
+    private int[] providerOf = newProviderColumn(initialCapacity);
+
+    private final IdPairs pairs = new IdPairs();
+    private final HashMap<TaskKey, SerializableConsumer<Serializable>> callbacks = new HashMap<>();
+    private long epoch = 0;
+
+
+    @Override public @Nullable Serializable getInput(TaskKey key) {
+        final int id = taskIds.get(key);
+        return id != -1 ? inputs[id] : null;
+    }
+
+
+    @Override public @Nullable Serializable getInternalObject(TaskKey key) {
+        final int id = taskIds.get(key);
+        return id != -1 ? internalObjects[id] : null;
+    }
+
+    @Override public void setInternalObject(TaskKey key, @Nullable Serializable obj) {
+        final int id = internTask(key);
+        internalObjects[id] = obj;
+    }
+
+    @Override public void clearInternalObject(TaskKey key) {
+        final int id = taskIds.get(key);
+        if(id != -1) internalObjects[id] = null;
+    }
+
+
+    @Override public @Nullable Output getOutput(TaskKey key) {
+        final int id = taskIds.get(key);
+        if(id == -1 || !hasOutput.get(id)) return null;
+        return new Output(outputs[id]);
+    }
+
+    @Override public void setOutput(TaskKey key, @Nullable Serializable output) {
+        final int id = internTask(key);
+        outputs[id] = output;
+        hasOutput.set(id);
+    }
+
+
+    @Override public Observability getTaskObservability(TaskKey key) {
+        final int id = taskIds.get(key);
+        return id != -1 ? observabilities[observability[id]] : Observability.Unobserved;
+    }
+
+    @Override public void setTaskObservability(TaskKey key, Observability observability) {
+        final int id = internTask(key);
+        this.observability[id] = (byte)observability.ordinal();
+    }
+
+
+    @Override public Collection<TaskRequireDep> getTaskRequireDeps(TaskKey caller) {
+        final int id = taskIds.get(caller);
+        return id != -1 ? view(taskRequireDeps[id]) : Collections.emptyList();
+    }
+
+    @Override public Collection<TaskKey> getRequiredTasks(TaskKey caller) {
+        final int id = taskIds.get(caller);
+        return id != -1 ? taskKeys(taskRequires[id], new ArrayList<>()) : new ArrayList<>();
+    }
+
+    @Override public Set<TaskKey> getCallersOf(TaskKey callee) {
+        final int id = internTask(callee);
+        hasCallersOf.set(id);
+        return taskKeys(callersOf[id], new HashSet<>());
+    }
+
+    @Override public boolean doesRequireTransitively(TaskKey caller, TaskKey callee) {
+        return hasTransitiveTaskRequire(caller, callee);
+    }
+
+    @Override public boolean hasDependencyOrderBefore(TaskKey caller, TaskKey callee) {
+        // Intern before reading the column, as interning may replace the column with a larger one.
+        final int callerId = internTask(caller);
+        final int calleeId = internTask(callee);
+        return topologicalIndices[callerId] < topologicalIndices[calleeId];
+    }
+
+    @Override public boolean hasTopologicalOrder() {
+        return true;
+    }
+
+    @Override public int getTopologicalIndex(TaskKey key) {
+        final int id = internTask(key);
+        return topologicalIndices[id];
+    }
+
+    private boolean hasTransitiveTaskRequire(TaskKey caller, TaskKey callee) {
+        final int callerId = taskIds.get(caller);
+        final int calleeId = taskIds.get(callee);
+        if(callerId == -1 || calleeId == -1) return false;
+        final BitSet checked = new BitSet();
+        int[] queue = new int[initialCapacity];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = callerId;
+        checked.set(callerId);
+        while(head < tail) {
+            final int @Nullable [] required = taskRequires[queue[head++]];
+            if(required == null) continue;
+            for(int i = 1; i <= required[0]; ++i) {
+                final int requiredId = required[i];
+                if(requiredId == calleeId) return true;
+                if(!checked.get(requiredId)) {
+                    checked.set(requiredId);
+                    if(tail == queue.length) queue = Arrays.copyOf(queue, queue.length * 2);
+                    queue[tail++] = requiredId;
+                }
+            }
+        }
+        return false;
+    }
+
+
+    @Override public boolean hasVerificationEpochs() {
+        return true;
+    }
+
+    @Override public long getEpoch() {
+        return epoch;
+    }
+
+    @Override public long getVerifiedEpoch(TaskKey key) {
+        final int id = taskIds.get(key);
+        return id != -1 ? verifiedEpochs[id] : -1;
+    }
+
+    @Override public long advanceEpoch() {
+        return ++epoch;
+    }
+
+    @Override public void setVerifiedEpoch(TaskKey key, long epoch) {
+        final int id = internTask(key);
+        verifiedEpochs[id] = epoch;
+    }
+
+
+    @Override public Collection<ResourceRequireDep> getResourceRequireDeps(TaskKey requirer) {
+        final int id = taskIds.get(requirer);
+        return id != -1 ? view(resourceRequireDeps[id]) : Collections.emptyList();
+    }
+
+    @Override public Set<TaskKey> getRequirersOf(ResourceKey requiree) {
+        final int id = resourceIds.get(requiree);
+        return id != -1 ? taskKeys(requireesOf[id], new HashSet<>()) : new HashSet<>();
+    }
+
+
+    @Override public Collection<ResourceProvideDep> getResourceProvideDeps(TaskKey provider) {
+        final int id = taskIds.get(provider);
+        return id != -1 ? view(resourceProvideDeps[id]) : Collections.emptyList();
+    }
+
+    @Override public @Nullable TaskKey getProviderOf(ResourceKey providee) {
+        final int id = resourceIds.get(providee);
+        if(id == -1) return null;
+        final int providerId = providerOf[id];
+        return providerId != -1 ? taskIds.getKey(providerId) : null;
+    }
+
+
+    @Override public @Nullable TaskData resetTask(Task<?> task) {
+        final int id = internTask(task.key());
+        final @Nullable Serializable previousInput = inputs[id];
+        final @Nullable TaskData previousData = previousInput != null ? createData(id, previousInput) : null;
+        inputs[id] = task.input;
+        removeOutput(id);
+        observability[id] = unobserved;
+        verifiedEpochs[id] = -1;
+        // Do not remove `id` from `callersOf`, as we want to keep dependencies from other tasks to it intact.
+        removeTaskRequiresAndDepsOf(id);
+        removeResourceRequireDepsOf(id);
+        removeResourceProvideDepsOf(id);
+        return previousData;
+    }
+
+    @Override public void addTaskRequire(TaskKey caller, TaskKey callee) {
+        final int callerId = internTask(caller);
+        final int calleeId = internTask(callee);
+        final boolean isRequired = pairs.contains(taskRequirePair, callerId, calleeId);
+        final boolean isCaller = pairs.contains(callerPair, calleeId, callerId);
+        if(isRequired && isCaller) return;
+        // Update the order before adding the edge, such that the store is not modified when the edge forms a cycle.
+        updateTopologicalOrder(callerId, calleeId);
+        if(!isRequired) {
+            pairs.add(taskRequirePair, callerId, calleeId);
+            taskRequires[callerId] = add(taskRequires[callerId], calleeId);
+        }
+        if(!isCaller) {
+            pairs.add(callerPair, calleeId, callerId);
+            callersOf[calleeId] = add(callersOf[calleeId], callerId);
+        }
+        hasCallersOf.set(calleeId);
+    }
+
+    @Override public void addTaskRequireDep(TaskKey caller, TaskRequireDep dep) {
+        final int id = internTask(caller);
+        final int calleeId = internTask(dep.callee);
+        final boolean isNew = pairs.add(taskRequireDepPair, id, calleeId);
+        taskRequireDeps[id] = add(taskRequireDeps[id], dep, !isNew, TaskRequireDep[]::new);
+    }
+
+    @Override public void addResourceRequireDep(TaskKey requiree, ResourceRequireDep dep) {
+        final int id = internTask(requiree);
+        final int resourceId = internResource(dep.key);
+        final boolean isNew = pairs.add(resourceRequirePair, resourceId, id);
+        resourceRequireDeps[id] = add(resourceRequireDeps[id], dep, !isNew, ResourceRequireDep[]::new);
+        if(isNew) {
+            requireesOf[resourceId] = add(requireesOf[resourceId], id);
+        }
+    }
+
+    @Override public void addResourceProvideDep(TaskKey provider, ResourceProvideDep dep) {
+        final int id = internTask(provider);
+        final int resourceId = internResource(dep.key);
+        final boolean isNew = pairs.add(resourceProvidePair, id, resourceId);
+        resourceProvideDeps[id] = add(resourceProvideDeps[id], dep, !isNew, ResourceProvideDep[]::new);
+        providerOf[resourceId] = id;
+    }
+
+
+    /**
+     * Updates the topological order for a new task require from {@code callerId} to {@code calleeId}, in the same way
+     * as {@code TopologicalOrderIndex} of the LMDB store: tasks in the affected region that require the caller are
+     * placed before tasks in that region that are required by the callee, keeping their relative order.
+     *
+     * @throws IllegalArgumentException when the task require would introduce a cycle.
+     */
+    private void updateTopologicalOrder(int callerId, int calleeId) {
+        final int upperBound = topologicalIndices[callerId];
+        final int lowerBound = topologicalIndices[calleeId];
+        if(upperBound < lowerBound) return; // Order is already correct.
+        if(callerId == calleeId) {
+            throw new IllegalArgumentException("Cannot add task require from '" + taskIds.getKey(callerId) + "' to itself, it would introduce a cycle");
+        }
+        final long[] forward = collectForward(calleeId, callerId, upperBound);
+        final long[] backward = collectBackward(callerId, lowerBound);
+        final int[] indices = new int[forward.length + backward.length];
+        int i = 0;
+        for(long entry : backward) indices[i++] = (int)(entry >>> 32);
+        for(long entry : forward) indices[i++] = (int)(entry >>> 32);
+        Arrays.sort(indices);
+        i = 0;
+        for(long entry : backward) topologicalIndices[(int)entry] = indices[i++];
+        for(long entry : forward) topologicalIndices[(int)entry] = indices[i++];
+    }
+
+    /**
+     * Collects tasks required by {@code calleeId} (including itself) with an index below {@code upperBound}.
+     *
+     * @return entries of the topological index in the upper half and identifier in the lower half, sorted by index.
+     */
+    private long[] collectForward(int calleeId, int callerId, int upperBound) {
+        final BitSet visited = new BitSet();
+        long[] collected = new long[initialCapacity];
+        int size = 0;
+        int[] stack = new int[initialCapacity];
+        int top = 0;
+        visited.set(calleeId);
+        stack[top++] = calleeId;
+        while(top > 0) {
+            final int id = stack[--top];
+            if(size == collected.length) collected = Arrays.copyOf(collected, size * 2);
+            collected[size++] = entry(id);
+            final int @Nullable [] required = taskRequires[id];
+            if(required == null) continue;
+            for(int i = 1; i <= required[0]; ++i) {
+                final int requiredId = required[i];
+                // Skip requires of which the reverse was removed when the required task was deleted.
+                if(!pairs.contains(callerPair, requiredId, id)) continue;
+                if(requiredId == callerId) {
+                    throw new IllegalArgumentException("Cannot add task require from '" + taskIds.getKey(callerId) + "' to '" + taskIds.getKey(calleeId) + "', it would introduce a cycle");
+                }
+                if(visited.get(requiredId) || topologicalIndices[requiredId] >= upperBound) continue;
+                visited.set(requiredId);
+                if(top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+                stack[top++] = requiredId;
+            }
+        }
+        return sorted(collected, size);
+    }
+
+    /**
+     * Collects tasks that require {@code callerId} (including itself) with an index above {@code lowerBound}.
+     *
+     * @return entries of the topological index in the upper half and identifier in the lower half, sorted by index.
+     */
+    private long[] collectBackward(int callerId, int lowerBound) {
+        final BitSet visited = new BitSet();
+        long[] collected = new long[initialCapacity];
+        int size = 0;
+        int[] stack = new int[initialCapacity];
+        int top = 0;
+        visited.set(callerId);
+        stack[top++] = callerId;
+        while(top > 0) {
+            final int id = stack[--top];
+            if(size == collected.length) collected = Arrays.copyOf(collected, size * 2);
+            collected[size++] = entry(id);
+            final int @Nullable [] callers = callersOf[id];
+            if(callers == null) continue;
+            for(int i = 1; i <= callers[0]; ++i) {
+                final int callerOfId = callers[i];
+                if(visited.get(callerOfId) || topologicalIndices[callerOfId] <= lowerBound) continue;
+                visited.set(callerOfId);
+                if(top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+                stack[top++] = callerOfId;
+            }
+        }
+        return sorted(collected, size);
+    }
+
+    private long entry(int id) {
+        return ((long)topologicalIndices[id] << 32) | id;
+    }
+
+    private static long[] sorted(long[] entries, int size) {
+        final long[] sorted = Arrays.copyOf(entries, size);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+
+    @Override public @Nullable TaskData getData(TaskKey key) {
+        final int id = taskIds.get(key);
+        if(id == -1) return null;
+        final @Nullable Serializable input = inputs[id];
+        if(input == null || !hasOutput.get(id)) return null;
+        return createData(id, input);
+    }
+
+    @Override public void restoreData(TaskKey key, @Nullable TaskData data) {
+        final int id = internTask(key);
+        verifiedEpochs[id] = -1;
+        removeTaskRequiresAndDepsOf(id);
+        removeResourceRequireDepsOf(id);
+        removeResourceProvideDepsOf(id);
+        if(data != null) {
+            inputs[id] = data.input;
+            internalObjects[id] = data.internalObject;
+            if(data.hasOutput()) {
+                setOutput(key, data.getOutput());
+            } else {
+                removeOutput(id);
+            }
+            observability[id] = (byte)data.taskObservability.ordinal();
+            for(TaskRequireDep dep : data.deps.taskRequireDeps) {
+                addTaskRequire(key, dep.callee);
+                addTaskRequireDep(key, dep);
+            }
+            for(ResourceRequireDep dep : data.deps.resourceRequireDeps) {
+                addResourceRequireDep(key, dep);
+            }
+            for(ResourceProvideDep dep : data.deps.resourceProvideDeps) {
+                addResourceProvideDep(key, dep);
+            }
+        } else {
+            inputs[id] = null;
+            internalObjects[id] = null;
+            removeOutput(id);
+            observability[id] = unobserved;
+            removeFromCallersOf(id);
+        }
+    }
+
+    @Override public @Nullable TaskData deleteData(TaskKey key) {
+        final int id = taskIds.get(key);
+        if(id == -1) return null;
+        final @Nullable Serializable input = inputs[id];
+        if(input == null) return null;
+        if(!hasOutput.get(id)) {
+            throw new IllegalStateException("BUG: deleting task data for '" + key + "', but no output was deleted");
+        }
+        final TaskData data = createData(id, input);
+        inputs[id] = null;
+        internalObjects[id] = null;
+        removeOutput(id);
+        observability[id] = unobserved;
+        verifiedEpochs[id] = -1;
+        removeTaskRequiresAndDepsOf(id);
+        removeFromCallersOf(id);
+        removeResourceRequireDepsOf(id);
+        removeResourceProvideDepsOf(id);
+        deferredTasks.clear(id);
+        return data;
+    }
+
+
+    private TaskData createData(int id, Serializable input) {
+        final Output output = hasOutput.get(id) ? new Output(outputs[id]) : null;
+        return new TaskData(input, internalObjects[id], output, observabilities[observability[id]], new TaskDeps(
+            view(taskRequireDeps[id]),
+            view(resourceRequireDeps[id]),
+            view(resourceProvideDeps[id])
+        ));
+    }
+
+    private void removeOutput(int id) {
+        outputs[id] = null;
+        hasOutput.clear(id);
+    }
+
+    private void removeTaskRequiresAndDepsOf(int id) {
+        // Use `taskRequires` instead of `taskRequireDeps` to remove entries from `callersOf`, for the same reason as in
+        // `InMemoryStoreBase.removeTaskRequiresAndDepsOf`.
+        final int @Nullable [] removedCallees = taskRequires[id];
+        if(removedCallees != null) {
+            for(int i = 1; i <= removedCallees[0]; ++i) {
+                final int calleeId = removedCallees[i];
+                pairs.remove(taskRequirePair, id, calleeId);
+                if(pairs.contains(callerPair, calleeId, id)) {
+                    pairs.remove(callerPair, calleeId, id);
+                    remove(callersOf[calleeId], id);
+                }
+            }
+        }
+        final TaskRequireDep @Nullable [] removedDeps = taskRequireDeps[id];
+        if(removedDeps != null) {
+            for(TaskRequireDep removedDep : removedDeps) {
+                if(removedDep == null) break;
+                pairs.remove(taskRequireDepPair, id, taskIds.get(removedDep.callee));
+            }
+        }
+        taskRequires[id] = null;
+        taskRequireDeps[id] = null;
+    }
+
+    private void removeFromCallersOf(int id) {
+        // See `InMemoryStoreBase.removeFromCallersOf` for why the mapping must be removed entirely.
+        final int @Nullable [] callers = callersOf[id];
+        if(callers != null) {
+            for(int i = 1; i <= callers[0]; ++i) {
+                pairs.remove(callerPair, id, callers[i]);
+            }
+        }
+        callersOf[id] = null;
+        hasCallersOf.clear(id);
+    }
+
+    private void removeResourceRequireDepsOf(int id) {
+        final ResourceRequireDep @Nullable [] removedDeps = resourceRequireDeps[id];
+        if(removedDeps != null) {
+            for(ResourceRequireDep removedDep : removedDeps) {
+                if(removedDep == null) break;
+                final int resourceId = resourceIds.get(removedDep.key);
+                if(pairs.contains(resourceRequirePair, resourceId, id)) {
+                    pairs.remove(resourceRequirePair, resourceId, id);
+                    remove(requireesOf[resourceId], id);
+                }
+            }
+        }
+        resourceRequireDeps[id] = null;
+    }
+
+    private void removeResourceProvideDepsOf(int id) {
+        final ResourceProvideDep @Nullable [] removedDeps = resourceProvideDeps[id];
+        if(removedDeps != null) {
+            for(ResourceProvideDep removedDep : removedDeps) {
+                if(removedDep == null) break;
+                final int resourceId = resourceIds.get(removedDep.key);
+                pairs.remove(resourceProvidePair, id, resourceId);
+                if(providerOf[resourceId] == id) {
+                    providerOf[resourceId] = -1;
+                }
+            }
+        }
+        resourceProvideDeps[id] = null;
+    }
+
+
+    @Override public Set<TaskKey> getDeferredTasks() {
+        final HashSet<TaskKey> keys = new HashSet<>();
+        for(int id = deferredTasks.nextSetBit(0); id >= 0; id = deferredTasks.nextSetBit(id + 1)) {
+            keys.add(taskIds.getKey(id));
+        }
+        return keys;
+    }
+
+    @Override public void addDeferredTask(TaskKey key) {
+        deferredTasks.set(internTask(key));
+    }
+
+    @Override public void removeDeferredTask(TaskKey key) {
+        final int id = taskIds.get(key);
+        if(id != -1) deferredTasks.clear(id);
+    }
+
+
+    @Override public Set<TaskKey> getTasksWithoutCallers() {
+        final HashSet<TaskKey> keys = new HashSet<>();
+        for(int id = hasCallersOf.nextSetBit(0); id >= 0; id = hasCallersOf.nextSetBit(id + 1)) {
+            final int @Nullable [] callers = callersOf[id];
+            if(callers == null || callers[0] == 0) {
+                keys.add(taskIds.getKey(id));
+            }
+        }
+        return keys;
+    }
+
+
+    @Override public int getNumSourceFiles() {
+        int numSourceFiles = 0;
+        for(int id = 0; id < resourceIds.size(); ++id) {
+            if(requireesOf[id] != null && providerOf[id] == -1) {
+                ++numSourceFiles;
+            }
+        }
+        return numSourceFiles;
+    }
+
+
+    @Override public @Nullable SerializableConsumer<Serializable> getCallback(TaskKey key) {
+        return callbacks.get(key);
+    }
+
+    @Override public void setCallback(TaskKey key, SerializableConsumer<Serializable> callback) {
+        callbacks.put(key, callback);
+    }
+
+    @Override public void removeCallback(TaskKey key) {
+        callbacks.remove(key);
+    }
+
+    @Override public void dropCallbacks() {
+        callbacks.clear();
+    }
+
+
+    @Override public void drop() {
+        taskIds.clear();
+        resourceIds.clear();
+        inputs = new Serializable[initialCapacity];
+        internalObjects = new Serializable[initialCapacity];
+        outputs = new Serializable[initialCapacity];
+        hasOutput.clear();
+        observability = newObservabilityColumn(initialCapacity);
+        taskRequires = new int[initialCapacity][];
+        taskRequireDeps = new TaskRequireDep[initialCapacity][];
+        callersOf = new int[initialCapacity][];
+        hasCallersOf.clear();
+        resourceRequireDeps = new ResourceRequireDep[initialCapacity][];
+        resourceProvideDeps = new ResourceProvideDep[initialCapacity][];
+        verifiedEpochs = newEpochColumn(initialCapacity);
+        topologicalIndices = newTopologicalIndexColumn(0, initialCapacity);
+        deferredTasks.clear();
+        requireesOf = new int[initialCapacity][];
+        providerOf = newProviderColumn(initialCapacity);
+        pairs.clear();
+        callbacks.clear();
+    }
+
+
+    /**
+     * Interns {@code key}, growing the task columns when a new identifier does not fit.
+     */
+    private int internTask(TaskKey key) {
+        final int id = taskIds.intern(key);
+        if(id == inputs.length) {
+            final int capacity = inputs.length * 2;
+            inputs = Arrays.copyOf(inputs, capacity);
+            internalObjects = Arrays.copyOf(internalObjects, capacity);
+            outputs = Arrays.copyOf(outputs, capacity);
+            observability = Arrays.copyOf(observability, capacity);
+            Arrays.fill(observability, id, capacity, unobserved);
+            taskRequires = Arrays.copyOf(taskRequires, capacity);
+            taskRequireDeps = Arrays.copyOf(taskRequireDeps, capacity);
+            callersOf = Arrays.copyOf(callersOf, capacity);
+            resourceRequireDeps = Arrays.copyOf(resourceRequireDeps, capacity);
+            resourceProvideDeps = Arrays.copyOf(resourceProvideDeps, capacity);
+            verifiedEpochs = Arrays.copyOf(verifiedEpochs, capacity);
+            Arrays.fill(verifiedEpochs, id, capacity, -1);
+            final int[] newTopologicalIndices = newTopologicalIndexColumn(id, capacity);
+            System.arraycopy(topologicalIndices, 0, newTopologicalIndices, 0, id);
+            topologicalIndices = newTopologicalIndices;
+        }
+        return id;
+    }
+
+    /**
+     * Interns {@code key}, growing the resource columns when a new identifier does not fit.
+     */
+    private int internResource(ResourceKey key) {
+        final int id = resourceIds.intern(key);
+        if(id == providerOf.length) {
+            final int capacity = providerOf.length * 2;
+            requireesOf = Arrays.copyOf(requireesOf, capacity);
+            providerOf = Arrays.copyOf(providerOf, capacity);
+            Arrays.fill(providerOf, id, capacity, -1);
+        }
+        return id;
+    }
+
+    private List<TaskKey> taskKeys(int @Nullable [] ids, List<TaskKey> keys) {
+        if(ids != null) {
+            for(int i = 1; i <= ids[0]; ++i) {
+                keys.add(taskIds.getKey(ids[i]));
+            }
+        }
+        return keys;
+    }
+
+    private Set<TaskKey> taskKeys(int @Nullable [] ids, Set<TaskKey> keys) {
+        if(ids != null) {
+            for(int i = 1; i <= ids[0]; ++i) {
+                keys.add(taskIds.getKey(ids[i]));
+            }
+        }
+        return keys;
+    }
+
+
+    // Primitive int lists are arrays that store their size in the first element.
+
+    private static int[] add(int @Nullable [] list, int value) {
+        if(list == null) {
+            list = new int[4];
+        } else if(list[0] + 1 == list.length) {
+            list = Arrays.copyOf(list, list.length * 2);
+        }
+        list[++list[0]] = value;
+        return list;
+    }
+
+    private static void remove(int @Nullable [] list, int value) {
+        if(list == null) return;
+        final int size = list[0];
+        for(int i = 1; i <= size; ++i) {
+            if(list[i] == value) {
+                list[i] = list[size];
+                list[0] = size - 1;
+                return;
+            }
+        }
+    }
+
+
+    // Dependency arrays are filled from the start, followed by unused null elements. Filled elements are never modified.
+
+    /**
+     * Appends {@code dep} to {@code deps}, unless {@code mayContain} and an equal dependency is already in {@code deps}.
+     */
+    private static <T> T[] add(T @Nullable [] deps, T dep, boolean mayContain, IntFunction<T[]> newArray) {
+        if(deps == null) {
+            final T[] newDeps = newArray.apply(2);
+            newDeps[0] = dep;
+            return newDeps;
+        }
+        final int size = size(deps);
+        if(mayContain) {
+            for(int i = 0; i < size; ++i) {
+                if(deps[i].equals(dep)) return deps;
+            }
+        }
+        if(size == deps.length) {
+            deps = Arrays.copyOf(deps, deps.length * 2);
+        }
+        deps[size] = dep;
+        return deps;
+    }
+
+    /**
+     * Gets the number of filled elements of {@code deps}, with a binary search for the first unused element.
+     */
+    private static int size(@Nullable Object[] deps) {
+        int low = 0;
+        int high = deps.length;
+        while(low < high) {
+            final int middle = (low + high) >>> 1;
+            if(deps[middle] != null) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static <T> Collection<T> view(T @Nullable [] deps) {
+        if(deps == null) return Collections.emptyList();
+        return Collections.unmodifiableList(Arrays.asList(deps).subList(0, size(deps)));
+    }
+
+
+    private static byte[] newObservabilityColumn(int capacity) {
+        final byte[] column = new byte[capacity];
+        Arrays.fill(column, unobserved);
+        return column;
+    }
+
+    private static long[] newEpochColumn(int capacity) {
+        final long[] column = new long[capacity];
+        Arrays.fill(column, -1);
+        return column;
+    }
+
+    /**
+     * Creates a topological index column in which tasks from {@code from} have the index equal to their identifier.
+     */
+    private static int[] newTopologicalIndexColumn(int from, int capacity) {
+        final int[] column = new int[capacity];
+        for(int id = from; id < capacity; ++id) {
+            column[id] = id;
+        }
+        return column;
+    }
+
+    private static int[] newProviderColumn(int capacity) {
+        final int[] column = new int[capacity];
+        Arrays.fill(column, -1);
+        return column;
+    }
+
+
+    @Override public CompactInMemoryStore readTxn() {
+        return this;
+    }
+
+    @Override public CompactInMemoryStore writeTxn() {
+        return this;
+    }
+
+    @Override public void sync() {}
+
+    @Override public void close() {}
+
+
+    @Override public String toString() {
+        return "CompactInMemoryStore()";
+    }
+}
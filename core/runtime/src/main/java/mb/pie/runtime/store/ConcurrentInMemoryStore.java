@@ -0,0 +1,545 @@
+package mb.pie.runtime.store;
+
+import mb.pie.api.Observability;
+import mb.pie.api.Output;
+import mb.pie.api.ResourceProvideDep;
+import mb.pie.api.ResourceRequireDep;
+import mb.pie.api.SerializableConsumer;
+import mb.pie.api.Store;
+import mb.pie.api.StoreReadTxn;
+import mb.pie.api.StoreWriteTxn;
+import mb.pie.api.Task;
+import mb.pie.api.TaskData;
+import mb.pie.api.TaskDeps;
+import mb.pie.api.TaskKey;
+import mb.pie.api.TaskRequireDep;
+import mb.pie.runtime.exec.BottomUpShared;
+import mb.resource.ResourceKey;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+/**
+ * Thread-safe in-memory store that supports concurrent reads, and concurrent writes to different tasks.
+ *
+ * All data is kept in {@link ConcurrentHashMap}s. Operations that touch multiple pieces of data of a single task (e.g.,
+ * {@link #getData}, {@link #resetTask}, and adding dependencies) are guarded by a read-write lock of the stripe that the
+ * task key hashes to, such that they observe and produce consistent task data. At most one stripe lock is held at a
+ * time. The reverse indices ({@code callersOf}, {@code requireesOf}, {@code providerOf}) are updated atomically with
+ * concurrent sets and maps, such that they stay consistent with the dependencies when different tasks are written to
+ * concurrently.
+ *
+ * Collections returned by this store are copies, except for {@link #getDeferredTasks()}, which returns a concurrent set.
+ * Like {@link NaiveInMemoryStore}, dependency order is determined by (naive) transitive dependency checks.
+ */
+public class ConcurrentInMemoryStore implements Store, StoreReadTxn, StoreWriteTxn, Serializable {
+    private static final int numStripes = 64; // Must be a power of 2.
+
+    private final ConcurrentHashMap<TaskKey, Serializable> taskInputs = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<TaskKey, Serializable> taskInternalObjects = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<TaskKey, Output> taskOutputs = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<TaskKey, Observability> taskObservability = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<TaskKey, Collection<TaskKey>> taskRequires = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<TaskKey, Collection<TaskRequireDep>> taskRequireDeps = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<TaskKey, Set<TaskKey>> callersOf = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<TaskKey, Collection<ResourceRequireDep>> resourceRequireDeps = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<ResourceKey, Set<TaskKey>> requireesOf = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<TaskKey, Collection<ResourceProvideDep>> resourceProvideDeps = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<ResourceKey, TaskKey> providerOf = new ConcurrentHashMap<>();
+
+    private final Set<TaskKey> deferredTasks = ConcurrentHashMap.newKeySet();
+
+    private final ConcurrentHashMap<TaskKey, SerializableConsumer<Serializable>> callbacks = new ConcurrentHashMap<>();
+
+    private final AtomicLong epoch = new AtomicLong();
+    private final ConcurrentHashMap<TaskKey, Long> verifiedEpochs = new ConcurrentHashMap<>();
+
+    private final ReentrantReadWriteLock[] stripes = new ReentrantReadWriteLock[numStripes];
+
+    {
+        for(int i = 0; i < numStripes; ++i) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+
+    @Override public @Nullable Serializable getInput(TaskKey key) {
+        return taskInputs.get(key);
+    }
+
+
+    @Override public @Nullable Serializable getInternalObject(TaskKey key) {
+        return taskInternalObjects.get(key);
+    }
+
+    @Override public void setInternalObject(TaskKey key, @Nullable Serializable obj) {
+        // ConcurrentHashMap does not support null values, but a missing internal object is equivalent to a null one.
+        if(obj != null) {
+            taskInternalObjects.put(key, obj);
+        } else {
+            taskInternalObjects.remove(key);
+        }
+    }
+
+    @Override public void clearInternalObject(TaskKey key) {
+        taskInternalObjects.remove(key);
+    }
+
+
+    @Override public @Nullable Output getOutput(TaskKey key) {
+        final @Nullable Output wrapper = taskOutputs.get(key);
+        if(wrapper != null) {
+            return new Output(wrapper.output);
+        } else {
+            return null;
+        }
+    }
+
+    @Override public void setOutput(TaskKey key, @Nullable Serializable output) {
+        // ConcurrentHashMap does not support null values, so wrap outputs (which can be null) into an Output object.
+        taskOutputs.put(key, new Output(output));
+    }
+
+
+    @Override public Observability getTaskObservability(TaskKey key) {
+        return taskObservability.getOrDefault(key, Observability.Unobserved);
+    }
+
+    @Override public void setTaskObservability(TaskKey key, Observability observability) {
+        taskObservability.put(key, observability);
+    }
+
+
+    @Override public Collection<TaskRequireDep> getTaskRequireDeps(TaskKey caller) {
+        return copyOf(taskRequireDeps, caller);
+    }
+
+    @Override public Collection<TaskKey> getRequiredTasks(TaskKey caller) {
+        return copyOf(taskRequires, caller);
+    }
+
+    @Override public Set<TaskKey> getCallersOf(TaskKey callee) {
+        return new HashSet<>(getOrPutEmptySet(callersOf, callee));
+    }
+
+    @Override public boolean doesRequireTransitively(TaskKey caller, TaskKey callee) {
+        return BottomUpShared.hasTransitiveTaskReq(caller, callee, this);
+    }
+
+    @Override public boolean hasDependencyOrderBefore(TaskKey caller, TaskKey callee) {
+        return BottomUpShared.hasTransitiveTaskReq(caller, callee, this);
+    }
+
+
+    @Override public boolean hasVerificationEpochs() {
+        return true;
+    }
+
+    @Override public long getEpoch() {
+        return epoch.get();
+    }
+
+    @Override public long getVerifiedEpoch(TaskKey key) {
+        return verifiedEpochs.getOrDefault(key, -1L);
+    }
+
+    @Override public long advanceEpoch() {
+        return epoch.incrementAndGet();
+    }
+
+    @Override public void setVerifiedEpoch(TaskKey key, long epoch) {
+        verifiedEpochs.put(key, epoch);
+    }
+
+
+    @Override public Collection<ResourceRequireDep> getResourceRequireDeps(TaskKey requirer) {
+        return copyOf(resourceRequireDeps, requirer);
+    }
+
+    @Override public Set<TaskKey> getRequirersOf(ResourceKey requiree) {
+        return new HashSet<>(getOrPutEmptySet(requireesOf, requiree));
+    }
+
+
+    @Override public Collection<ResourceProvideDep> getResourceProvideDeps(TaskKey provider) {
+        return copyOf(resourceProvideDeps, provider);
+    }
+
+    @Override public @Nullable TaskKey getProviderOf(ResourceKey providee) {
+        return providerOf.get(providee);
+    }
+
+
+    @Override public @Nullable TaskData resetTask(Task<?> task) {
+        final TaskKey key = task.key();
+        final Lock lock = writeLock(key);
+        lock.lock();
+        try {
+            final @Nullable Serializable previousInput = taskInputs.put(key, task.input);
+            final @Nullable Serializable previousInternalObject = taskInternalObjects.get(key);
+            final @Nullable Output previousOutput = taskOutputs.remove(key);
+            final @Nullable Observability previousTaskObservability = taskObservability.remove(key);
+            verifiedEpochs.remove(key);
+            // Do not remove `key` from the `callersOf` map, as we want to keep dependencies from other tasks to `key` intact.
+            final @Nullable Collection<TaskRequireDep> previousTaskRequireDeps = removeTaskRequiresAndDepsOf(key);
+            final @Nullable Collection<ResourceRequireDep> previousResourceRequireDeps = removeResourceRequireDepsOf(key);
+            final @Nullable Collection<ResourceProvideDep> previousResourceProvideDeps = removeResourceProvideDepsOf(key);
+            if(previousInput != null) {
+                return new TaskData(
+                    previousInput,
+                    previousInternalObject,
+                    previousOutput,
+                    previousTaskObservability != null ? previousTaskObservability : Observability.Unobserved,
+                    new TaskDeps(
+                        previousTaskRequireDeps != null ? previousTaskRequireDeps : Collections.emptySet(),
+                        previousResourceRequireDeps != null ? previousResourceRequireDeps : Collections.emptySet(),
+                        previousResourceProvideDeps != null ? previousResourceProvideDeps : Collections.emptySet()
+                    )
+                );
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override public void addTaskRequire(TaskKey caller, TaskKey callee) {
+        final Lock lock = writeLock(caller);
+        lock.lock();
+        try {
+            getOrPutEmptyLinkedHashSet(taskRequires, caller).add(callee);
+            getOrPutEmptySet(callersOf, callee).add(caller);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override public void addTaskRequireDep(TaskKey caller, TaskRequireDep dep) {
+        final Lock lock = writeLock(caller);
+        lock.lock();
+        try {
+            getOrPutEmptyLinkedHashSet(taskRequireDeps, caller).add(dep);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override public void addResourceRequireDep(TaskKey requiree, ResourceRequireDep dep) {
+        final Lock lock = writeLock(requiree);
+        lock.lock();
+        try {
+            getOrPutEmptyLinkedHashSet(resourceRequireDeps, requiree).add(dep);
+            getOrPutEmptySet(requireesOf, dep.key).add(requiree);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override public void addResourceProvideDep(TaskKey provider, ResourceProvideDep dep) {
+        final Lock lock = writeLock(provider);
+        lock.lock();
+        try {
+            getOrPutEmptyLinkedHashSet(resourceProvideDeps, provider).add(dep);
+            providerOf.put(dep.key, provider);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    @Override public @Nullable TaskData getData(TaskKey key) {
+        final Lock lock = readLock(key);
+        lock.lock();
+        try {
+            final @Nullable Serializable input = getInput(key);
+            if(input == null) {
+                return null;
+            }
+            final @Nullable Serializable internalObject = getInternalObject(key);
+            final @Nullable Output output = getOutput(key);
+            if(output == null) {
+                return null;
+            }
+            final Observability taskObservability = getTaskObservability(key);
+            final Collection<TaskRequireDep> taskRequireDeps = getTaskRequireDeps(key);
+            final Collection<ResourceRequireDep> resourceRequireDeps = getResourceRequireDeps(key);
+            final Collection<ResourceProvideDep> resourceProvideDeps = getResourceProvideDeps(key);
+            return new TaskData(input, internalObject, output, taskObservability, new TaskDeps(taskRequireDeps, resourceRequireDeps, resourceProvideDeps));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override public void restoreData(TaskKey key, @Nullable TaskData data) {
+        final Lock lock = writeLock(key);
+        lock.lock();
+        try {
+            verifiedEpochs.remove(key);
+            if(data != null) {
+                taskInputs.put(key, data.input);
+                setInternalObject(key, data.internalObject);
+                if(data.hasOutput()) {
+                    setOutput(key, data.getOutput());
+                } else {
+                    taskOutputs.remove(key);
+                }
+                setTaskObservability(key, data.taskObservability);
+            } else {
+                taskInputs.remove(key);
+                clearInternalObject(key);
+                taskOutputs.remove(key);
+                taskObservability.remove(key);
+            }
+            removeTaskRequiresAndDepsOf(key);
+            if(data != null) {
+                for(TaskRequireDep dep : data.deps.taskRequireDeps) {
+                    addTaskRequire(key, dep.callee);
+                    addTaskRequireDep(key, dep);
+                }
+            } else {
+                callersOf.remove(key);
+            }
+            removeResourceRequireDepsOf(key);
+            if(data != null) {
+                for(ResourceRequireDep dep : data.deps.resourceRequireDeps) {
+                    addResourceRequireDep(key, dep);
+                }
+            }
+            removeResourceProvideDepsOf(key);
+            if(data != null) {
+                for(ResourceProvideDep dep : data.deps.resourceProvideDeps) {
+                    addResourceProvideDep(key, dep);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override public @Nullable TaskData deleteData(TaskKey key) {
+        final Lock lock = writeLock(key);
+        lock.lock();
+        try {
+            final @Nullable Serializable input = taskInputs.remove(key);
+            if(input == null) {
+                return null;
+            }
+            final @Nullable Serializable internalObject = taskInternalObjects.remove(key);
+            final @Nullable Output output = taskOutputs.remove(key);
+            if(output == null) {
+                throw new IllegalStateException("BUG: deleting task data for '" + key + "', but no output was deleted");
+            }
+            final @Nullable Observability observability = taskObservability.remove(key);
+            verifiedEpochs.remove(key);
+            final @Nullable Collection<TaskRequireDep> removedTaskRequires = removeTaskRequiresAndDepsOf(key);
+            // See `InMemoryStoreBase.removeFromCallersOf` for why the mapping must be removed entirely.
+            callersOf.remove(key);
+            final @Nullable Collection<ResourceRequireDep> removedResourceRequires = removeResourceRequireDepsOf(key);
+            final @Nullable Collection<ResourceProvideDep> removedResourceProvides = removeResourceProvideDepsOf(key);
+            deferredTasks.remove(key);
+            return new TaskData(
+                input,
+                internalObject,
+                output,
+                observability != null ? observability : Observability.Unobserved,
+                new TaskDeps(
+                    removedTaskRequires != null ? removedTaskRequires : Collections.emptySet(),
+                    removedResourceRequires != null ? removedResourceRequires : Collections.emptySet(),
+                    removedResourceProvides != null ? removedResourceProvides : Collections.emptySet()
+                )
+            );
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    // Must be called while holding the write lock of `key`.
+    private @Nullable Collection<TaskRequireDep> removeTaskRequiresAndDepsOf(TaskKey key) {
+        final @Nullable Collection<TaskKey> removedCallees = taskRequires.remove(key);
+        // Use the removed tasks from `taskRequires` instead of the removed deps from `taskRequireDeps`, for the same
+        // reason as in `InMemoryStoreBase.removeTaskRequiresAndDepsOf`.
+        if(removedCallees != null) {
+            for(final TaskKey removedCallee : removedCallees) {
+                final @Nullable Set<TaskKey> callersOfRemovedCallee = callersOf.get(removedCallee);
+                if(callersOfRemovedCallee != null) {
+                    callersOfRemovedCallee.remove(key);
+                }
+            }
+        }
+        return taskRequireDeps.remove(key);
+    }
+
+    // Must be called while holding the write lock of `key`.
+    private @Nullable Collection<ResourceRequireDep> removeResourceRequireDepsOf(TaskKey key) {
+        final @Nullable Collection<ResourceRequireDep> removedDeps = resourceRequireDeps.remove(key);
+        if(removedDeps != null) {
+            for(final ResourceRequireDep removedDep : removedDeps) {
+                final @Nullable Set<TaskKey> requirees = requireesOf.get(removedDep.key);
+                if(requirees != null) {
+                    requirees.remove(key);
+                }
+            }
+        }
+        return removedDeps;
+    }
+
+    // Must be called while holding the write lock of `key`.
+    private @Nullable Collection<ResourceProvideDep> removeResourceProvideDepsOf(TaskKey key) {
+        final @Nullable Collection<ResourceProvideDep> removedDeps = resourceProvideDeps.remove(key);
+        if(removedDeps != null) {
+            for(final ResourceProvideDep removedDep : removedDeps) {
+                // Only remove the mapping if `key` is still the provider, as another task may have provided it since.
+                providerOf.remove(removedDep.key, key);
+            }
+        }
+        return removedDeps;
+    }
+
+
+    @Override public Set<TaskKey> getDeferredTasks() {
+        return deferredTasks;
+    }
+
+    @Override public void addDeferredTask(TaskKey key) {
+        deferredTasks.add(key);
+    }
+
+    @Override public void removeDeferredTask(TaskKey key) {
+        deferredTasks.remove(key);
+    }
+
+
+    @Override public Set<TaskKey> getTasksWithoutCallers() {
+        return callersOf
+            .entrySet()
+            .stream()
+            .filter((e) -> e.getValue().isEmpty())
+            .map(Entry::getKey)
+            .collect(Collectors.toCollection(HashSet::new));
+    }
+
+
+    @Override public int getNumSourceFiles() {
+        int numSourceFiles = 0;
+        for(ResourceKey file : requireesOf.keySet()) {
+            if(!providerOf.containsKey(file)) {
+                ++numSourceFiles;
+            }
+        }
+        return numSourceFiles;
+    }
+
+
+    @Override public @Nullable SerializableConsumer<Serializable> getCallback(TaskKey key) {
+        return callbacks.get(key);
+    }
+
+    @Override public void setCallback(TaskKey key, SerializableConsumer<Serializable> callback) {
+        callbacks.put(key, callback);
+    }
+
+    @Override public void removeCallback(TaskKey key) {
+        callbacks.remove(key);
+    }
+
+    @Override public void dropCallbacks() {
+        callbacks.clear();
+    }
+
+
+    @Override public void drop() {
+        // Acquire all write locks (in order, to prevent dead-locks), such that no task is being written to while dropping.
+        for(ReentrantReadWriteLock stripe : stripes) {
+            stripe.writeLock().lock();
+        }
+        try {
+            taskInputs.clear();
+            taskInternalObjects.clear();
+            taskOutputs.clear();
+            taskObservability.clear();
+            taskRequires.clear();
+            taskRequireDeps.clear();
+            callersOf.clear();
+            resourceRequireDeps.clear();
+            requireesOf.clear();
+            resourceProvideDeps.clear();
+            providerOf.clear();
+            deferredTasks.clear();
+            callbacks.clear();
+            verifiedEpochs.clear();
+        } finally {
+            for(int i = numStripes - 1; i >= 0; --i) {
+                stripes[i].writeLock().unlock();
+            }
+        }
+    }
+
+
+    private Lock readLock(TaskKey key) {
+        return stripe(key).readLock();
+    }
+
+    private Lock writeLock(TaskKey key) {
+        return stripe(key).writeLock();
+    }
+
+    private ReentrantReadWriteLock stripe(TaskKey key) {
+        final int hash = key.hashCode();
+        // Spread higher bits downwards, as only the lower bits are used to select a stripe.
+        return stripes[(hash ^ (hash >>> 16)) & (numStripes - 1)];
+    }
+
+    private static <K, V> Set<V> getOrPutEmptySet(ConcurrentHashMap<K, Set<V>> map, K key) {
+        return map.computeIfAbsent(key, (k) -> ConcurrentHashMap.newKeySet());
+    }
+
+    // Must be called while holding the write lock of `key`, as the returned set is not thread-safe.
+    private static <V> Collection<V> getOrPutEmptyLinkedHashSet(ConcurrentHashMap<TaskKey, Collection<V>> map, TaskKey key) {
+        return map.computeIfAbsent(key, (k) -> new LinkedHashSet<>());
+    }
+
+    private <V> Collection<V> copyOf(ConcurrentHashMap<TaskKey, Collection<V>> map, TaskKey key) {
+        final Lock lock = readLock(key);
+        lock.lock();
+        try {
+            final @Nullable Collection<V> collection = map.get(key);
+            return collection != null ? new LinkedHashSet<>(collection) : new LinkedHashSet<>();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    @Override public ConcurrentInMemoryStore readTxn() {
+        return this;
+    }
+
+    @Override public ConcurrentInMemoryStore writeTxn() {
+        return this;
+    }
+
+    @Override public void sync() {}
+
+    @Override public void close() {}
+
+
+    @Override public String toString() {
+        return "ConcurrentInMemoryStore()";
+    }
+}
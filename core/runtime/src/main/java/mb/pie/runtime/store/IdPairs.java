@@ -0,0 +1,98 @@
+package mb.pie.runtime.store;
+
+import java.io.Serializable;
+
+/**
+ * Set of pairs of {@code int} identifiers, each tagged with a small kind, such that one set can hold several relations.
+ * Pairs are packed into {@code long}s and stored in an open addressing hash table with linear probing, which does not
+ * allocate an entry object per pair. Removed pairs do not leave tombstones: later pairs in the probe sequence are
+ * shifted back instead.
+ *
+ * Identifiers must be lower than {@code 2^29}, and kinds must be between {@code 1} and {@code 7}, such that a packed
+ * pair is never {@code 0}, which marks empty slots.
+ */
+class IdPairs implements Serializable {
+    private static final int initialCapacity = 16;
+
+    private long[] slots = new long[initialCapacity];
+    private int size = 0;
+
+
+    boolean contains(int kind, int first, int second) {
+        final long pair = pack(kind, first, second);
+        final int mask = slots.length - 1;
+        for(int i = hash(pair) & mask; slots[i] != 0; i = (i + 1) & mask) {
+            if(slots[i] == pair) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return {@code true} if the pair was added, {@code false} if it was already in this set.
+     */
+    boolean add(int kind, int first, int second) {
+        final long pair = pack(kind, first, second);
+        final int mask = slots.length - 1;
+        int i = hash(pair) & mask;
+        for(; slots[i] != 0; i = (i + 1) & mask) {
+            if(slots[i] == pair) return false;
+        }
+        slots[i] = pair;
+        ++size;
+        if(size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        return true;
+    }
+
+    void remove(int kind, int first, int second) {
+        final long pair = pack(kind, first, second);
+        final int mask = slots.length - 1;
+        int i = hash(pair) & mask;
+        for(; slots[i] != pair; i = (i + 1) & mask) {
+            if(slots[i] == 0) return;
+        }
+        // Shift back pairs that are later in the probe sequence than the freed slot, but do not start after it, such
+        // that lookups do not stop at the freed slot before finding them.
+        int free = i;
+        for(int j = (i + 1) & mask; slots[j] != 0; j = (j + 1) & mask) {
+            final int home = hash(slots[j]) & mask;
+            if(((j - home) & mask) >= ((j - free) & mask)) {
+                slots[free] = slots[j];
+                free = j;
+            }
+        }
+        slots[free] = 0;
+        --size;
+    }
+
+    void clear() {
+        slots = new long[initialCapacity];
+        size = 0;
+    }
+
+
+    private void rehash(int capacity) {
+        final long[] oldSlots = slots;
+        slots = new long[capacity];
+        final int mask = capacity - 1;
+        for(long pair : oldSlots) {
+            if(pair == 0) continue;
+            int i = hash(pair) & mask;
+            while(slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = pair;
+        }
+    }
+
+    private static long pack(int kind, int first, int second) {
+        return ((long)kind << 61) | ((long)first << 32) | (second & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long pair) {
+        // Spread higher bits downwards, as only the lower bits are used to select a slot.
+        final long hash = pair * 0x9E3779B97F4A7C15L;
+        return (int)(hash ^ (hash >>> 32));
+    }
+}
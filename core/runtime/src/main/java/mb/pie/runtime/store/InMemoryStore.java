@@ -21,6 +21,14 @@ public class InMemoryStore extends InMemoryStoreBase {
         return this.taskRequireGraph.getTopologicalIndex(caller) < this.taskRequireGraph.getTopologicalIndex(callee);
     }
 
+    @Override public boolean hasTopologicalOrder() {
+        return true;
+    }
+
+    @Override public int getTopologicalIndex(TaskKey key) {
+        return this.taskRequireGraph.getTopologicalIndex(key);
+    }
+
 
     @Override public @Nullable TaskData resetTask(Task<?> task) {
         final TaskKey key = task.key();
@@ -56,7 +64,11 @@ public class InMemoryStore extends InMemoryStoreBase {
 
 
     @Override public void restoreData(TaskKey key, @Nullable TaskData data) {
-        removeOutgoingEdgesOf(key);
+        // Data may be restored for a task that was never reset, for example by `WriteBehindStore`, so ensure there is a
+        // vertex for it in the same way as `resetTask`.
+        if(!this.taskRequireGraph.addVertex(key)) {
+            removeOutgoingEdgesOf(key);
+        }
         if(data != null) {
             for(TaskRequireDep dep : data.deps.taskRequireDeps) {
                 doAddTaskRequire(key, dep.callee);
@@ -77,6 +89,25 @@ public class InMemoryStore extends InMemoryStoreBase {
     }
 
 
+    /**
+     * Creates a copy of this store that can be modified independently, for example to serialize the copy while this
+     * store is being modified. See {@link #copyTo(InMemoryStoreBase)}.
+     */
+    public InMemoryStore copy() {
+        final InMemoryStore store = new InMemoryStore();
+        copyTo(store);
+        // Add vertices in topological order (the iteration order of the graph) before adding edges, such that adding
+        // edges never has to reorder vertices.
+        for(TaskKey key : taskRequireGraph) {
+            store.taskRequireGraph.addVertex(key);
+        }
+        for(DefaultEdge edge : taskRequireGraph.edgeSet()) {
+            store.taskRequireGraph.addEdge(taskRequireGraph.getEdgeSource(edge), taskRequireGraph.getEdgeTarget(edge));
+        }
+        return store;
+    }
+
+
     @Override public String toString() {
         return "InMemoryStore()";
     }
@@ -48,6 +48,9 @@ public abstract class InMemoryStoreBase implements Store, StoreReadTxn, StoreWri
 
     protected final HashMap<TaskKey, SerializableConsumer<Serializable>> callbacks = new HashMap<>();
 
+    protected long epoch = 0;
+    protected final HashMap<TaskKey, Long> verifiedEpochs = new HashMap<>();
+
 
     @Override public @Nullable Serializable getInput(TaskKey key) {
         return this.taskInputs.get(key);
@@ -117,6 +120,27 @@ public abstract class InMemoryStoreBase implements Store, StoreReadTxn, StoreWri
     }
 
 
+    @Override public boolean hasVerificationEpochs() {
+        return true;
+    }
+
+    @Override public long getEpoch() {
+        return this.epoch;
+    }
+
+    @Override public long getVerifiedEpoch(TaskKey key) {
+        return this.verifiedEpochs.getOrDefault(key, -1L);
+    }
+
+    @Override public long advanceEpoch() {
+        return ++this.epoch;
+    }
+
+    @Override public void setVerifiedEpoch(TaskKey key, long epoch) {
+        this.verifiedEpochs.put(key, epoch);
+    }
+
+
     @Override public Collection<ResourceRequireDep> getResourceRequireDeps(TaskKey requirer) {
         return getOrEmptyLinkedHashSet(this.resourceRequireDeps, requirer);
     }
@@ -141,6 +165,7 @@ public abstract class InMemoryStoreBase implements Store, StoreReadTxn, StoreWri
         final @Nullable Serializable previousInternalObject = getInternalObject(key);
         final @Nullable Output previousOutput = this.taskOutputs.remove(key);
         final @Nullable Observability previousTaskObservability = this.taskObservability.remove(key);
+        this.verifiedEpochs.remove(key);
         // Pass `false` to `removeTaskRequireDepsOf` to not remove `key` from the `callersOf` map, as we want to keep
         // dependencies from other tasks to `key` intact.
         final @Nullable Collection<TaskRequireDep> previousTaskRequireDeps = removeTaskRequiresAndDepsOf(key);
@@ -200,6 +225,7 @@ public abstract class InMemoryStoreBase implements Store, StoreReadTxn, StoreWri
     }
 
     @Override public void restoreData(TaskKey key, @Nullable TaskData data) {
+        this.verifiedEpochs.remove(key);
         if(data != null) {
             setInput(key, data.input);
             setInternalObject(key, data.internalObject);
@@ -249,6 +275,7 @@ public abstract class InMemoryStoreBase implements Store, StoreReadTxn, StoreWri
             throw new IllegalStateException("BUG: deleting task data for '" + key + "', but no output was deleted");
         }
         final @Nullable Observability observability = this.taskObservability.remove(key);
+        this.verifiedEpochs.remove(key);
         final @Nullable Collection<TaskRequireDep> removedTaskRequires = removeTaskRequiresAndDepsOf(key);
         removeFromCallersOf(key);
         final @Nullable Collection<ResourceRequireDep> removedResourceRequires = removeResourceRequireDepsOf(key);
@@ -384,6 +411,43 @@ public abstract class InMemoryStoreBase implements Store, StoreReadTxn, StoreWri
         providerOf.clear();
         deferredTasks.clear();
         callbacks.clear();
+        verifiedEpochs.clear();
+    }
+
+
+    /**
+     * Copies all data of this store into {@code store}, which must be empty. Keys, inputs, outputs, and dependencies
+     * are shared between the stores as they are not modified, but maps and collections are copied, such that both
+     * stores can be modified independently. Copying is much cheaper than serializing, as no data is encoded.
+     */
+    protected void copyTo(InMemoryStoreBase store) {
+        store.taskInputs.putAll(taskInputs);
+        store.taskInternalObjects.putAll(taskInternalObjects);
+        store.taskOutputs.putAll(taskOutputs);
+        store.taskObservability.putAll(taskObservability);
+        copyLinkedHashSets(taskRequires, store.taskRequires);
+        copyLinkedHashSets(taskRequireDeps, store.taskRequireDeps);
+        copyHashSets(callersOf, store.callersOf);
+        copyLinkedHashSets(resourceRequireDeps, store.resourceRequireDeps);
+        copyHashSets(requireesOf, store.requireesOf);
+        copyLinkedHashSets(resourceProvideDeps, store.resourceProvideDeps);
+        store.providerOf.putAll(providerOf);
+        store.deferredTasks.addAll(deferredTasks);
+        store.callbacks.putAll(callbacks);
+        store.epoch = epoch;
+        store.verifiedEpochs.putAll(verifiedEpochs);
+    }
+
+    private static <K, V> void copyHashSets(HashMap<K, Set<V>> from, HashMap<K, Set<V>> to) {
+        for(Entry<K, Set<V>> entry : from.entrySet()) {
+            to.put(entry.getKey(), new HashSet<>(entry.getValue()));
+        }
+    }
+
+    private static <K, V> void copyLinkedHashSets(HashMap<K, Collection<V>> from, HashMap<K, Collection<V>> to) {
+        for(Entry<K, Collection<V>> entry : from.entrySet()) {
+            to.put(entry.getKey(), new LinkedHashSet<>(entry.getValue()));
+        }
     }
 
 
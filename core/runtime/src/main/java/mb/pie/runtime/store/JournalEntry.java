@@ -0,0 +1,297 @@
+package mb.pie.runtime.store;
+
+import mb.pie.api.ExecContext;
+import mb.pie.api.Observability;
+import mb.pie.api.Output;
+import mb.pie.api.ResourceProvideDep;
+import mb.pie.api.ResourceRequireDep;
+import mb.pie.api.SerializableConsumer;
+import mb.pie.api.StoreWriteTxn;
+import mb.pie.api.Task;
+import mb.pie.api.TaskData;
+import mb.pie.api.TaskDef;
+import mb.pie.api.TaskDeps;
+import mb.pie.api.TaskKey;
+import mb.pie.api.TaskRequireDep;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * Change made by a write transaction, recorded in a {@link StoreJournal journal} and replayed onto a store to recover
+ * the change. There is one kind of entry per writing method of {@link StoreWriteTxn}, except for the verification epoch
+ * methods, which are not journaled.
+ */
+abstract class JournalEntry implements Serializable {
+    abstract void apply(StoreWriteTxn txn);
+
+
+    static class ResetTask extends JournalEntry {
+        private final TaskKey key;
+        private final Serializable input;
+
+        ResetTask(TaskKey key, Serializable input) {
+            this.key = key;
+            this.input = input;
+        }
+
+        @Override void apply(StoreWriteTxn txn) {
+            txn.resetTask(new Task<>(new ReplayTaskDef(key), input));
+        }
+    }
+
+    static class AddTaskRequire extends JournalEntry {
+        private final TaskKey caller;
+        private final TaskKey callee;
+
+        AddTaskRequire(TaskKey caller, TaskKey callee) {
+            this.caller = caller;
+            this.callee = callee;
+        }
+
+        @Override void apply(StoreWriteTxn txn) {
+            txn.addTaskRequire(caller, callee);
+        }
+    }
+
+    static class AddTaskRequireDep extends JournalEntry {
+        private final TaskKey caller;
+        private final TaskRequireDep dep;
+
+        AddTaskRequireDep(TaskKey caller, TaskRequireDep dep) {
+            this.caller = caller;
+            this.dep = dep;
+        }
+
+        @Override void apply(StoreWriteTxn txn) {
+            txn.addTaskRequireDep(caller, dep);
+        }
+    }
+
+    static class AddResourceRequireDep extends JournalEntry {
+        private final TaskKey requirer;
+        private final ResourceRequireDep dep;
+
+        AddResourceRequireDep(TaskKey requirer, ResourceRequireDep dep) {
+            this.requirer = requirer;
+            this.dep = dep;
+        }
+
+        @Override void apply(StoreWriteTxn txn) {
+            txn.addResourceRequireDep(requirer, dep);
+        }
+    }
+
+    static class AddResourceProvideDep extends JournalEntry {
+        private final TaskKey provider;
+        private final ResourceProvideDep dep;
+
+        AddResourceProvideDep(TaskKey provider, ResourceProvideDep dep) {
+            this.provider = provider;
+            this.dep = dep;
+        }
+
+        @Override void apply(StoreWriteTxn txn) {
+            txn.addResourceProvideDep(provider, dep);
+        }
+    }
+
+    static class SetOutput extends JournalEntry {
+        private final TaskKey key;
+        private final @Nullable Serializable output;
+
+        SetOutput(TaskKey key, @Nullable Serializable output) {
+            this.key = key;
+            this.output = output;
+        }
+
+        @Override void apply(StoreWriteTxn txn) {
+            txn.setOutput(key, output);
+        }
+    }
+
+    static class SetTaskObservability extends JournalEntry {
+        private final TaskKey key;
+        private final Observability observability;
+
+        SetTaskObservability(TaskKey key, Observability observability) {
+            this.key = key;
+            this.observability = observability;
+        }
+
+        @Override void apply(StoreWriteTxn txn) {
+            txn.setTaskObservability(key, observability);
+        }
+    }
+
+    static class SetInternalObject extends JournalEntry {
+        private final TaskKey key;
+        private final @Nullable Serializable obj;
+
+        SetInternalObject(TaskKey key, @Nullable Serializable obj) {
+            this.key = key;
+            this.obj = obj;
+        }
+
+        @Override void apply(StoreWriteTxn txn) {
+            txn.setInternalObject(key, obj);
+        }
+    }
+
+    static class ClearInternalObject extends JournalEntry {
+        private final TaskKey key;
+
+        ClearInternalObject(TaskKey key) {
+            this.key = key;
+        }
+
+        @Override void apply(StoreWriteTxn txn) {
+            txn.clearInternalObject(key);
+        }
+    }
+
+    static class RestoreData extends JournalEntry {
+        private final TaskKey key;
+        private final boolean hasData;
+        private final @Nullable Serializable input;
+        private final @Nullable Serializable internalObject;
+        private final @Nullable Output output;
+        private final Observability taskObservability;
+        private final ArrayList<TaskRequireDep> taskRequireDeps;
+        private final ArrayList<ResourceRequireDep> resourceRequireDeps;
+        private final ArrayList<ResourceProvideDep> resourceProvideDeps;
+
+        RestoreData(TaskKey key, @Nullable TaskData data) {
+            this.key = key;
+            this.hasData = data != null;
+            if(data != null) {
+                this.input = data.input;
+                this.internalObject = data.internalObject;
+                this.output = data.hasOutput() ? new Output(data.getOutput()) : null;
+                this.taskObservability = data.taskObservability;
+                // Copy dependencies, as the collections of the data may be live views of the store.
+                this.taskRequireDeps = new ArrayList<>(data.deps.taskRequireDeps);
+                this.resourceRequireDeps = new ArrayList<>(data.deps.resourceRequireDeps);
+                this.resourceProvideDeps = new ArrayList<>(data.deps.resourceProvideDeps);
+            } else {
+                this.input = null;
+                this.internalObject = null;
+                this.output = null;
+                this.taskObservability = Observability.Unobserved;
+                this.taskRequireDeps = new ArrayList<>();
+                this.resourceRequireDeps = new ArrayList<>();
+                this.resourceProvideDeps = new ArrayList<>();
+            }
+        }
+
+        @SuppressWarnings("ConstantConditions") @Override void apply(StoreWriteTxn txn) {
+            if(!hasData) {
+                txn.restoreData(key, null);
+                return;
+            }
+            final TaskDeps deps = new TaskDeps(taskRequireDeps, resourceRequireDeps, resourceProvideDeps);
+            txn.restoreData(key, new TaskData(input, internalObject, output, taskObservability, deps));
+        }
+    }
+
+    static class DeleteData extends JournalEntry {
+        private final TaskKey key;
+
+        DeleteData(TaskKey key) {
+            this.key = key;
+        }
+
+        @Override void apply(StoreWriteTxn txn) {
+            txn.deleteData(key);
+        }
+    }
+
+    static class AddDeferredTask extends JournalEntry {
+        private final TaskKey key;
+
+        AddDeferredTask(TaskKey key) {
+            this.key = key;
+        }
+
+        @Override void apply(StoreWriteTxn txn) {
+            txn.addDeferredTask(key);
+        }
+    }
+
+    static class RemoveDeferredTask extends JournalEntry {
+        private final TaskKey key;
+
+        RemoveDeferredTask(TaskKey key) {
+            this.key = key;
+        }
+
+        @Override void apply(StoreWriteTxn txn) {
+            txn.removeDeferredTask(key);
+        }
+    }
+
+    static class SetCallback extends JournalEntry {
+        private final TaskKey key;
+        private final SerializableConsumer<Serializable> callback;
+
+        SetCallback(TaskKey key, SerializableConsumer<Serializable> callback) {
+            this.key = key;
+            this.callback = callback;
+        }
+
+        @Override void apply(StoreWriteTxn txn) {
+            txn.setCallback(key, callback);
+        }
+    }
+
+    static class RemoveCallback extends JournalEntry {
+        private final TaskKey key;
+
+        RemoveCallback(TaskKey key) {
+            this.key = key;
+        }
+
+        @Override void apply(StoreWriteTxn txn) {
+            txn.removeCallback(key);
+        }
+    }
+
+    static class DropCallbacks extends JournalEntry {
+        @Override void apply(StoreWriteTxn txn) {
+            txn.dropCallbacks();
+        }
+    }
+
+    static class Drop extends JournalEntry {
+        @Override void apply(StoreWriteTxn txn) {
+            txn.drop();
+        }
+    }
+
+
+    /**
+     * Task definition for replaying {@link StoreWriteTxn#resetTask(Task)}, which only needs the key and input of a
+     * task. The original task definition is not available when replaying, and is not needed as the task is not
+     * executed.
+     */
+    private static class ReplayTaskDef implements TaskDef<Serializable, Serializable> {
+        private final TaskKey key;
+
+        private ReplayTaskDef(TaskKey key) {
+            this.key = key;
+        }
+
+        @Override public String getId() {
+            return key.id;
+        }
+
+        @Override public Serializable key(Serializable input) {
+            return key.key;
+        }
+
+        @Override public Serializable exec(ExecContext context, Serializable input) {
+            throw new UnsupportedOperationException("Cannot execute task '" + key + "' that is being replayed from a journal");
+        }
+    }
+}
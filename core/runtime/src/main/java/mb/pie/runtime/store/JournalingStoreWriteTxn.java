@@ -0,0 +1,246 @@
+package mb.pie.runtime.store;
+
+import mb.pie.api.Observability;
+import mb.pie.api.Output;
+import mb.pie.api.ResourceProvideDep;
+import mb.pie.api.ResourceRequireDep;
+import mb.pie.api.SerializableConsumer;
+import mb.pie.api.StoreWriteTxn;
+import mb.pie.api.Task;
+import mb.pie.api.TaskData;
+import mb.pie.api.TaskKey;
+import mb.pie.api.TaskRequireDep;
+import mb.resource.ResourceKey;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Write transaction decorator that records the changes made through it as {@link JournalEntry journal entries}, and
+ * appends them to a {@link StoreJournal journal} as one record when it is closed. This decorator is not thread-safe, as
+ * the runtime {@link SynchronizedStoreWriteTxn synchronizes} write transactions that are shared between threads.
+ */
+class JournalingStoreWriteTxn implements StoreWriteTxn {
+    private final StoreWriteTxn txn;
+    private final StoreJournal<?> journal;
+    private final Consumer<Exception> appendFailHandler;
+    private final ArrayList<JournalEntry> entries = new ArrayList<>();
+
+
+    JournalingStoreWriteTxn(StoreWriteTxn txn, StoreJournal<?> journal, Consumer<Exception> appendFailHandler) {
+        this.txn = txn;
+        this.journal = journal;
+        this.appendFailHandler = appendFailHandler;
+    }
+
+
+    @Override public @Nullable Serializable getInput(TaskKey key) {
+        return txn.getInput(key);
+    }
+
+    @Override public @Nullable Serializable getInternalObject(TaskKey key) {
+        return txn.getInternalObject(key);
+    }
+
+    @Override public @Nullable Output getOutput(TaskKey key) {
+        return txn.getOutput(key);
+    }
+
+    @Override public Observability getTaskObservability(TaskKey key) {
+        return txn.getTaskObservability(key);
+    }
+
+    @Override public Collection<TaskRequireDep> getTaskRequireDeps(TaskKey caller) {
+        return txn.getTaskRequireDeps(caller);
+    }
+
+    @Override public Collection<TaskKey> getRequiredTasks(TaskKey caller) {
+        return txn.getRequiredTasks(caller);
+    }
+
+    @Override public Set<TaskKey> getCallersOf(TaskKey callee) {
+        return txn.getCallersOf(callee);
+    }
+
+    @Override public boolean doesRequireTransitively(TaskKey caller, TaskKey callee) {
+        return txn.doesRequireTransitively(caller, callee);
+    }
+
+    @Override public boolean hasDependencyOrderBefore(TaskKey caller, TaskKey callee) {
+        return txn.hasDependencyOrderBefore(caller, callee);
+    }
+
+    @Override public boolean hasTopologicalOrder() {
+        return txn.hasTopologicalOrder();
+    }
+
+    @Override public int getTopologicalIndex(TaskKey key) {
+        return txn.getTopologicalIndex(key);
+    }
+
+    @Override public boolean hasVerificationEpochs() {
+        return txn.hasVerificationEpochs();
+    }
+
+    @Override public long getEpoch() {
+        return txn.getEpoch();
+    }
+
+    @Override public long getVerifiedEpoch(TaskKey key) {
+        return txn.getVerifiedEpoch(key);
+    }
+
+    @Override public Collection<ResourceRequireDep> getResourceRequireDeps(TaskKey requirer) {
+        return txn.getResourceRequireDeps(requirer);
+    }
+
+    @Override public Set<TaskKey> getRequirersOf(ResourceKey requiree) {
+        return txn.getRequirersOf(requiree);
+    }
+
+    @Override public Collection<ResourceProvideDep> getResourceProvideDeps(TaskKey provider) {
+        return txn.getResourceProvideDeps(provider);
+    }
+
+    @Override public @Nullable TaskKey getProviderOf(ResourceKey providee) {
+        return txn.getProviderOf(providee);
+    }
+
+    @Override public @Nullable TaskData getData(TaskKey key) {
+        return txn.getData(key);
+    }
+
+    @Override public Set<TaskKey> getDeferredTasks() {
+        return txn.getDeferredTasks();
+    }
+
+    @Override public Set<TaskKey> getTasksWithoutCallers() {
+        return txn.getTasksWithoutCallers();
+    }
+
+    @Override public int getNumSourceFiles() {
+        return txn.getNumSourceFiles();
+    }
+
+    @Override public @Nullable SerializableConsumer<Serializable> getCallback(TaskKey key) {
+        return txn.getCallback(key);
+    }
+
+
+    @Override public @Nullable TaskData resetTask(Task<?> task) {
+        final @Nullable TaskData previousData = txn.resetTask(task);
+        entries.add(new JournalEntry.ResetTask(task.key(), task.input));
+        return previousData;
+    }
+
+    @Override public void addTaskRequire(TaskKey caller, TaskKey callee) {
+        txn.addTaskRequire(caller, callee);
+        entries.add(new JournalEntry.AddTaskRequire(caller, callee));
+    }
+
+    @Override public void addTaskRequireDep(TaskKey caller, TaskRequireDep dep) {
+        txn.addTaskRequireDep(caller, dep);
+        entries.add(new JournalEntry.AddTaskRequireDep(caller, dep));
+    }
+
+    @Override public void addResourceRequireDep(TaskKey requirer, ResourceRequireDep dep) {
+        txn.addResourceRequireDep(requirer, dep);
+        entries.add(new JournalEntry.AddResourceRequireDep(requirer, dep));
+    }
+
+    @Override public void addResourceProvideDep(TaskKey provider, ResourceProvideDep dep) {
+        txn.addResourceProvideDep(provider, dep);
+        entries.add(new JournalEntry.AddResourceProvideDep(provider, dep));
+    }
+
+    @Override public void setOutput(TaskKey key, @Nullable Serializable output) {
+        txn.setOutput(key, output);
+        entries.add(new JournalEntry.SetOutput(key, output));
+    }
+
+    @Override public void setTaskObservability(TaskKey key, Observability observability) {
+        txn.setTaskObservability(key, observability);
+        entries.add(new JournalEntry.SetTaskObservability(key, observability));
+    }
+
+    @Override public void setInternalObject(TaskKey key, @Nullable Serializable obj) {
+        txn.setInternalObject(key, obj);
+        entries.add(new JournalEntry.SetInternalObject(key, obj));
+    }
+
+    @Override public void clearInternalObject(TaskKey key) {
+        txn.clearInternalObject(key);
+        entries.add(new JournalEntry.ClearInternalObject(key));
+    }
+
+    @Override public void restoreData(TaskKey key, @Nullable TaskData data) {
+        // Record the entry before restoring, as the collections of `data` may be live views that restoring modifies.
+        entries.add(new JournalEntry.RestoreData(key, data));
+        txn.restoreData(key, data);
+    }
+
+    @Override public @Nullable TaskData deleteData(TaskKey key) {
+        final @Nullable TaskData deletedData = txn.deleteData(key);
+        entries.add(new JournalEntry.DeleteData(key));
+        return deletedData;
+    }
+
+    @Override public long advanceEpoch() {
+        // Not journaled: verification epochs are only valid while resources are tracked, which does not survive a
+        // restart, and verifying tasks would append an entry for every checked task.
+        return txn.advanceEpoch();
+    }
+
+    @Override public void setVerifiedEpoch(TaskKey key, long epoch) {
+        // Not journaled, see `advanceEpoch`.
+        txn.setVerifiedEpoch(key, epoch);
+    }
+
+    @Override public void addDeferredTask(TaskKey key) {
+        txn.addDeferredTask(key);
+        entries.add(new JournalEntry.AddDeferredTask(key));
+    }
+
+    @Override public void removeDeferredTask(TaskKey key) {
+        txn.removeDeferredTask(key);
+        entries.add(new JournalEntry.RemoveDeferredTask(key));
+    }
+
+    @Override public void setCallback(TaskKey key, SerializableConsumer<Serializable> callback) {
+        txn.setCallback(key, callback);
+        entries.add(new JournalEntry.SetCallback(key, callback));
+    }
+
+    @Override public void removeCallback(TaskKey key) {
+        txn.removeCallback(key);
+        entries.add(new JournalEntry.RemoveCallback(key));
+    }
+
+    @Override public void dropCallbacks() {
+        txn.dropCallbacks();
+        entries.add(new JournalEntry.DropCallbacks());
+    }
+
+    @Override public void drop() {
+        txn.drop();
+        entries.add(new JournalEntry.Drop());
+    }
+
+
+    @Override public void close() {
+        txn.close();
+        if(entries.isEmpty()) return;
+        try {
+            journal.append(entries);
+        } catch(IOException e) {
+            appendFailHandler.accept(e);
+        } finally {
+            entries.clear();
+        }
+    }
+}
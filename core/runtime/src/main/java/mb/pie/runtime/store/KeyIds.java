@@ -0,0 +1,110 @@
+package mb.pie.runtime.store;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Interns keys to dense {@code int} identifiers, starting at {@code 0}, in the order in which keys are interned.
+ * Identifiers are never reused. Keys are stored in an open addressing hash table with linear probing, which does not
+ * allocate an entry object or a boxed identifier per key.
+ *
+ * The hash table is not serialized, but rebuilt after deserialization, since hash codes of keys may differ between runs.
+ */
+class KeyIds<K extends Serializable> implements Serializable {
+    private static final int initialCapacity = 16;
+
+    private Object[] keys = new Object[initialCapacity];
+    private int size = 0;
+    private transient int[] table = newTable(initialCapacity * 2);
+
+
+    /**
+     * @return identifier of {@code key}, or {@code -1} if {@code key} has not been interned.
+     */
+    int get(K key) {
+        final int mask = table.length - 1;
+        for(int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            final int id = table[i];
+            if(id == -1) return -1;
+            if(keys[id].equals(key)) return id;
+        }
+    }
+
+    /**
+     * @return identifier of {@code key}, interning it if it has not been interned.
+     */
+    int intern(K key) {
+        final int mask = table.length - 1;
+        int i = hash(key) & mask;
+        for(; ; i = (i + 1) & mask) {
+            final int id = table[i];
+            if(id == -1) break;
+            if(keys[id].equals(key)) return id;
+        }
+        final int id = size++;
+        if(id == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        }
+        keys[id] = key;
+        table[i] = id;
+        if(size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return id;
+    }
+
+    @SuppressWarnings("unchecked") K getKey(int id) {
+        return (K)keys[id];
+    }
+
+    /**
+     * @return number of interned keys, which is one higher than the highest identifier.
+     */
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        keys = new Object[initialCapacity];
+        size = 0;
+        table = newTable(initialCapacity * 2);
+    }
+
+
+    private void rehash(int capacity) {
+        table = newTable(capacity);
+        final int mask = capacity - 1;
+        for(int id = 0; id < size; ++id) {
+            int i = hash(keys[id]) & mask;
+            while(table[i] != -1) {
+                i = (i + 1) & mask;
+            }
+            table[i] = id;
+        }
+    }
+
+    private static int[] newTable(int capacity) {
+        final int[] table = new int[capacity];
+        Arrays.fill(table, -1);
+        return table;
+    }
+
+    private static int hash(@Nullable Object key) {
+        // Spread higher bits downwards, as only the lower bits are used to select a slot.
+        final int hash = key != null ? key.hashCode() * 0x9E3779B9 : 0;
+        return hash ^ (hash >>> 16);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int capacity = initialCapacity * 2;
+        while(size * 2 > capacity) {
+            capacity *= 2;
+        }
+        rehash(capacity);
+    }
+}
@@ -0,0 +1,190 @@
+package mb.pie.runtime.store;
+
+import mb.log.api.LoggerFactory;
+import mb.pie.api.PieBuilder;
+import mb.pie.api.Store;
+import mb.pie.api.StoreReadTxn;
+import mb.pie.api.StoreWriteTxn;
+import mb.pie.api.serde.DeserializeRuntimeException;
+import mb.pie.api.serde.Serde;
+import mb.pie.api.serde.SerializeRuntimeException;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Persistent store that loads tasks lazily from a memory-mapped file, such that opening the store does not read or
+ * deserialize the entire store, and time to the first build scales with the tasks that are actually used.
+ *
+ * The file is indexed by the serialized keys of tasks and resources. The data and dependencies of a task are only
+ * deserialized when the task is first used, and the reverse indices of tasks and resources (callers, requirers, and
+ * providers) are only read for the tasks and resources that are queried. Changes are kept in an in-memory overlay,
+ * and persisted by writing a new file when the store is closed, and on {@link #sync() sync} if persisting on sync is
+ * enabled. Writing copies tasks that were not used from the previous file without deserializing them. As tasks are
+ * looked up by their serialized keys, keys must serialize deterministically, as with the LMDB store.
+ *
+ * Files are stored in a directory with increasing generation numbers, and atomically created when they have been
+ * completely written, such that a crash while writing leaves the previous file intact. Files of previous generations
+ * are deleted when a new file has been written, or when the store is opened if they are still mapped on platforms that
+ * do not allow deleting mapped files.
+ *
+ * Verification epochs are not persisted, as they are only valid while resources are tracked. Topological order is not
+ * kept, as that would require loading all tasks.
+ */
+public class MappedStore implements Store {
+    private static final String fileNamePrefix = "store-";
+
+    /**
+     * Sets the store of {@code pieBuilder} to a {@link MappedStore} in {@code directory}, which logs deserialization
+     * failures and throws on persisting failures.
+     */
+    public static PieBuilder withMappedStore(PieBuilder pieBuilder, Path directory) {
+        pieBuilder.withStoreFactory((serde, resourceService, loggerFactory) -> new MappedStore(serde, directory, loggerFactory));
+        return pieBuilder;
+    }
+
+
+    private final Path directory;
+    private final boolean persistOnSync;
+    private final Consumer<Exception> persistFailHandler;
+    private final MappedStoreTxn txn;
+    private long generation;
+
+
+    /**
+     * Creates a mapped store in {@code directory}, loading the latest file in the directory if there is one.
+     *
+     * @param deserializeClassLoader {@link ClassLoader} to deserialize tasks with, or {@code null} to use the default.
+     * @param persistOnSync          whether to persist the store on {@link #sync() sync}.
+     * @param persistFailHandler     called when persisting the store fails.
+     * @param deserializeFailHandler called when the file cannot be loaded, after which the store starts empty, or when
+     *                               the data of a task cannot be deserialized, after which the task has no data.
+     */
+    public MappedStore(
+        Serde serde,
+        Path directory,
+        @Nullable ClassLoader deserializeClassLoader,
+        boolean persistOnSync,
+        Consumer<Exception> persistFailHandler,
+        Consumer<Exception> deserializeFailHandler
+    ) {
+        this.directory = directory;
+        this.persistOnSync = persistOnSync;
+        this.persistFailHandler = persistFailHandler;
+        @Nullable MappedStoreFile file = null;
+        long generation = -1;
+        try {
+            Files.createDirectories(directory);
+            final TreeMap<Long, Path> files = listFiles();
+            final @Nullable Entry<Long, Path> lastFile = files.lastEntry();
+            if(lastFile != null) {
+                generation = lastFile.getKey();
+                deleteFilesBefore(files, generation);
+                file = MappedStoreFile.open(lastFile.getValue());
+            }
+        } catch(IOException e) {
+            deserializeFailHandler.accept(e);
+            file = null;
+        }
+        this.generation = generation;
+        MappedStoreTxn txn;
+        try {
+            txn = new MappedStoreTxn(serde, file, deserializeClassLoader, deserializeFailHandler);
+        } catch(DeserializeRuntimeException e) {
+            deserializeFailHandler.accept(e);
+            txn = new MappedStoreTxn(serde, null, deserializeClassLoader, deserializeFailHandler);
+        }
+        this.txn = txn;
+    }
+
+    /**
+     * Creates a mapped store in {@code directory}, which logs deserialization failures, throws on persisting failures,
+     * and only persists the store when it is closed.
+     */
+    public MappedStore(Serde serde, Path directory, LoggerFactory loggerFactory) {
+        this(
+            serde,
+            directory,
+            null,
+            false,
+            e -> {
+                throw new RuntimeException("Persisting mapped store failed", e);
+            },
+            e -> loggerFactory.create(MappedStore.class).info("Deserializing mapped store failed. " + e.getMessage())
+        );
+    }
+
+
+    @Override public StoreReadTxn readTxn() {
+        return txn;
+    }
+
+    @Override public StoreWriteTxn writeTxn() {
+        return txn;
+    }
+
+    @Override public void sync() {
+        if(persistOnSync) {
+            persist();
+        }
+    }
+
+    @Override public void close() {
+        persist();
+    }
+
+
+    private void persist() {
+        if(!txn.isModified()) return;
+        final long nextGeneration = generation + 1;
+        try(final AtomicFileOutputStream outputStream = AtomicFileOutputStream.open(directory.resolve(fileNamePrefix + nextGeneration))) {
+            txn.write(new MappedStoreFile.Writer(outputStream));
+            outputStream.commit();
+        } catch(IOException | SerializeRuntimeException e) {
+            persistFailHandler.accept(e);
+            return;
+        }
+        generation = nextGeneration;
+        try {
+            deleteFilesBefore(listFiles(), generation);
+        } catch(IOException e) {
+            // Ignore: files of previous generations are deleted again when the store is opened.
+        }
+    }
+
+    private TreeMap<Long, Path> listFiles() throws IOException {
+        final TreeMap<Long, Path> files = new TreeMap<>();
+        try(final DirectoryStream<Path> stream = Files.newDirectoryStream(directory, fileNamePrefix + "*")) {
+            for(Path path : stream) {
+                final String generation = path.getFileName().toString().substring(fileNamePrefix.length());
+                try {
+                    files.put(Long.parseLong(generation), path);
+                } catch(NumberFormatException e) {
+                    // Ignore files that are not store files, such as temporary files.
+                }
+            }
+        }
+        return files;
+    }
+
+    private static void deleteFilesBefore(TreeMap<Long, Path> files, long generation) {
+        for(Path path : files.headMap(generation).values()) {
+            try {
+                Files.deleteIfExists(path);
+            } catch(IOException e) {
+                // Ignore: the file may still be mapped on platforms that do not allow deleting mapped files, in which case
+                // it is deleted when the store is opened next time.
+            }
+        }
+    }
+
+    @Override public String toString() {
+        return "MappedStore(" + directory + ")";
+    }
+}
@@ -0,0 +1,491 @@
+package mb.pie.runtime.store;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Memory-mapped file of a {@link MappedStore}, in which the entries of tasks and resources are indexed by their
+ * serialized keys, such that only the entries that are accessed are read and deserialized.
+ *
+ * The file consists of:
+ * <ul>
+ * <li>Blobs: serialized keys and task data, and lists of {@code int} ordinals of task require and caller edges and
+ * resource requirer edges.</li>
+ * <li>Task entries: one fixed-size entry per task ordinal, with the offsets of the key, data, requires and callers of
+ * the task, and flags.</li>
+ * <li>Resource entries: one fixed-size entry per resource ordinal, with the offsets of the key and requirers of the
+ * resource, the ordinal of its provider, and flags.</li>
+ * <li>Task and resource tables: open addressing hash tables with linear probing from the hash of serialized keys to
+ * ordinals.</li>
+ * <li>Globals: serialized data that is loaded when the file is opened, such as deferred tasks.</li>
+ * <li>Trailer: offsets of the sections above, at the end of the file.</li>
+ * </ul>
+ *
+ * The file is mapped in regions of 1 GiB, as a {@link MappedByteBuffer} cannot be larger than 2 GiB. The writer pads
+ * the file such that no blob or entry crosses a region boundary.
+ */
+class MappedStoreFile {
+    private static final long magic = 0x5049455f4d415053L; // "PIE_MAPS"
+    private static final int version = 1;
+
+    private static final int regionBits = 30;
+    private static final long regionSize = 1L << regionBits;
+    private static final long regionMask = regionSize - 1;
+
+    private static final int taskEntrySize = 64;
+    private static final int resourceEntrySize = 64;
+    private static final int trailerSize = 96;
+
+    /** Task flag denoting that the task is a key of the callers-of index, even when it has no callers. */
+    static final int inCallersOfFlag = 1;
+    /**
+     * Task flag denoting that not all tasks that require the task are its callers, which happens when the task is
+     * deleted while other tasks still require it.
+     */
+    static final int partialCallersFlag = 2;
+    /** Resource flag denoting that the resource is a key of the requirers-of index, even when it has no requirers. */
+    static final int inRequirersOfFlag = 1;
+
+    private final MappedByteBuffer[] regions;
+    private final int taskCount;
+    private final int resourceCount;
+    private final long taskEntriesOffset;
+    private final long resourceEntriesOffset;
+    private final long taskTableOffset;
+    private final int taskTableMask;
+    private final long resourceTableOffset;
+    private final int resourceTableMask;
+    private final long globalsOffset;
+    private final int globalsLength;
+
+
+    private MappedStoreFile(MappedByteBuffer[] regions, long size) throws IOException {
+        this.regions = regions;
+        if(size < trailerSize) {
+            throw new IOException("Mapped store file is truncated");
+        }
+        final long trailerOffset = size - trailerSize;
+        if(getLong(trailerOffset) != magic) {
+            throw new IOException("Mapped store file is not a mapped store file, or is truncated");
+        }
+        final int fileVersion = getInt(trailerOffset + 8);
+        if(fileVersion != version) {
+            throw new IOException("Mapped store file has version " + fileVersion + ", but only version " + version + " is supported");
+        }
+        this.taskCount = getInt(trailerOffset + 12);
+        this.resourceCount = getInt(trailerOffset + 16);
+        this.taskTableMask = getInt(trailerOffset + 20) - 1;
+        this.resourceTableMask = getInt(trailerOffset + 24) - 1;
+        this.globalsLength = getInt(trailerOffset + 28);
+        this.taskEntriesOffset = getLong(trailerOffset + 32);
+        this.resourceEntriesOffset = getLong(trailerOffset + 40);
+        this.taskTableOffset = getLong(trailerOffset + 48);
+        this.resourceTableOffset = getLong(trailerOffset + 56);
+        this.globalsOffset = getLong(trailerOffset + 64);
+        // Validate the trailer, such that a corrupt file is rejected when it is opened, instead of causing huge
+        // allocations or endless probing when it is read.
+        if(taskCount < 0 || resourceCount < 0 || globalsLength < 0
+            || !isTable(taskTableMask + 1, taskCount) || !isTable(resourceTableMask + 1, resourceCount)
+            || !isSection(taskEntriesOffset, (long)taskCount * taskEntrySize, trailerOffset)
+            || !isSection(resourceEntriesOffset, (long)resourceCount * resourceEntrySize, trailerOffset)
+            || !isSection(taskTableOffset, 4L * (taskTableMask + 1), trailerOffset)
+            || !isSection(resourceTableOffset, 4L * (resourceTableMask + 1), trailerOffset)
+            || !isSection(globalsOffset, globalsLength, trailerOffset)) {
+            throw new IOException("Mapped store file is corrupt");
+        }
+    }
+
+    private static boolean isTable(int capacity, int count) {
+        return capacity > count && Integer.bitCount(capacity) == 1;
+    }
+
+    private static boolean isSection(long offset, long length, long end) {
+        return offset >= 0 && offset <= end && length <= end - offset;
+    }
+
+    /**
+     * Maps {@code file}. The mapping stays valid after the file is deleted or replaced, as long as this object is
+     * reachable.
+     */
+    static MappedStoreFile open(Path file) throws IOException {
+        try(final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final int regionCount = (int)((size + regionSize - 1) >>> regionBits);
+            final MappedByteBuffer[] regions = new MappedByteBuffer[regionCount];
+            for(int i = 0; i < regionCount; ++i) {
+                final long offset = (long)i << regionBits;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(regionSize, size - offset));
+            }
+            return new MappedStoreFile(regions, size);
+        }
+    }
+
+
+    int getTaskCount() {
+        return taskCount;
+    }
+
+    int getResourceCount() {
+        return resourceCount;
+    }
+
+    ByteBuffer getGlobals() {
+        return getBlob(globalsOffset, globalsLength);
+    }
+
+
+    /**
+     * @return ordinal of the task with serialized key {@code key} and hash {@code hash}, or {@code -1} if there is no
+     * such task.
+     */
+    int findTask(byte[] key, int hash) {
+        return find(key, hash, taskTableOffset, taskTableMask, taskEntriesOffset, taskEntrySize);
+    }
+
+    ByteBuffer getTaskKey(int task) {
+        final long entry = taskEntry(task);
+        return getBlob(getLong(entry), getInt(entry + 8));
+    }
+
+    int getTaskKeyHash(int task) {
+        return getInt(taskEntry(task) + 12);
+    }
+
+    /**
+     * @return serialized data of {@code task}, or {@code null} if the task has no data.
+     */
+    @Nullable ByteBuffer getTaskData(int task) {
+        final long entry = taskEntry(task);
+        final int length = getInt(entry + 24);
+        if(length < 0) return null;
+        return getBlob(getLong(entry + 16), length);
+    }
+
+    int getTaskFlags(int task) {
+        return getInt(taskEntry(task) + 28);
+    }
+
+    int getTaskRequireCount(int task) {
+        return getInt(taskEntry(task) + 48);
+    }
+
+    int getTaskRequire(int task, int index) {
+        return getInt(getLong(taskEntry(task) + 32) + 4L * index);
+    }
+
+    int getTaskCallerCount(int task) {
+        return getInt(taskEntry(task) + 52);
+    }
+
+    int getTaskCaller(int task, int index) {
+        return getInt(getLong(taskEntry(task) + 40) + 4L * index);
+    }
+
+
+    /**
+     * @return ordinal of the resource with serialized key {@code key} and hash {@code hash}, or {@code -1} if there is
+     * no such resource.
+     */
+    int findResource(byte[] key, int hash) {
+        return find(key, hash, resourceTableOffset, resourceTableMask, resourceEntriesOffset, resourceEntrySize);
+    }
+
+    ByteBuffer getResourceKey(int resource) {
+        final long entry = resourceEntry(resource);
+        return getBlob(getLong(entry), getInt(entry + 8));
+    }
+
+    int getResourceKeyHash(int resource) {
+        return getInt(resourceEntry(resource) + 12);
+    }
+
+    int getResourceRequirerCount(int resource) {
+        return getInt(resourceEntry(resource) + 24);
+    }
+
+    int getResourceRequirer(int resource, int index) {
+        return getInt(getLong(resourceEntry(resource) + 16) + 4L * index);
+    }
+
+    /**
+     * @return ordinal of the task that provides {@code resource}, or {@code -1} if no task provides it.
+     */
+    int getResourceProvider(int resource) {
+        return getInt(resourceEntry(resource) + 28);
+    }
+
+    int getResourceFlags(int resource) {
+        return getInt(resourceEntry(resource) + 32);
+    }
+
+
+    static int hash(byte[] key) {
+        final int hash = Arrays.hashCode(key);
+        return hash ^ (hash >>> 16);
+    }
+
+
+    private long taskEntry(int task) {
+        return taskEntriesOffset + (long)task * taskEntrySize;
+    }
+
+    private long resourceEntry(int resource) {
+        return resourceEntriesOffset + (long)resource * resourceEntrySize;
+    }
+
+    private int find(byte[] key, int hash, long tableOffset, int tableMask, long entriesOffset, int entrySize) {
+        for(int slot = hash & tableMask; ; slot = (slot + 1) & tableMask) {
+            final int ordinal = getInt(tableOffset + 4L * slot) - 1;
+            if(ordinal == -1) return -1;
+            final long entry = entriesOffset + (long)ordinal * entrySize;
+            if(getInt(entry + 12) != hash || getInt(entry + 8) != key.length) continue;
+            if(getBlob(getLong(entry), key.length).equals(ByteBuffer.wrap(key))) return ordinal;
+        }
+    }
+
+    private int getInt(long offset) {
+        return regions[(int)(offset >>> regionBits)].getInt((int)(offset & regionMask));
+    }
+
+    private long getLong(long offset) {
+        return regions[(int)(offset >>> regionBits)].getLong((int)(offset & regionMask));
+    }
+
+    private ByteBuffer getBlob(long offset, int length) {
+        final ByteBuffer blob = regions[(int)(offset >>> regionBits)].duplicate();
+        final int position = (int)(offset & regionMask);
+        blob.position(position);
+        blob.limit(position + length);
+        return blob.slice();
+    }
+
+
+    /**
+     * Writes a mapped store file sequentially. Tasks and resources are added in the order of their ordinals, after
+     * which {@link #finish} writes the entries, tables, globals, and trailer.
+     */
+    static class Writer {
+        private final DataOutputStream outputStream;
+        private long position = 0;
+
+        private int taskCount = 0;
+        private long[] taskLongs = new long[4 * 16]; // Offsets of key, data, requires, and callers.
+        private int[] taskInts = new int[6 * 16]; // Key length, key hash, data length, flags, require count, caller count.
+
+        private int resourceCount = 0;
+        private long[] resourceLongs = new long[2 * 16]; // Offsets of key and requirers.
+        private int[] resourceInts = new int[5 * 16]; // Key length, key hash, requirer count, provider, flags.
+
+
+        Writer(OutputStream outputStream) {
+            this.outputStream = new DataOutputStream(outputStream);
+        }
+
+
+        /**
+         * Adds a task with the next ordinal.
+         *
+         * @param data     serialized data of the task, or {@code null} if the task has no data.
+         * @param requires ordinals of the tasks that the task requires, in the first {@code requireCount} elements.
+         * @param callers  ordinals of the tasks that require the task, in the first {@code callerCount} elements.
+         */
+        void addTask(ByteBuffer key, int keyHash, @Nullable ByteBuffer data, int flags, int[] requires, int requireCount, int[] callers, int callerCount) throws IOException {
+            if(taskCount == taskInts.length / 6) {
+                taskLongs = Arrays.copyOf(taskLongs, taskLongs.length * 2);
+                taskInts = Arrays.copyOf(taskInts, taskInts.length * 2);
+            }
+            final int l = taskCount * 4;
+            final int i = taskCount * 6;
+            taskInts[i] = key.remaining();
+            taskInts[i + 1] = keyHash;
+            taskLongs[l] = writeBlob(key);
+            if(data != null) {
+                taskInts[i + 2] = data.remaining();
+                taskLongs[l + 1] = writeBlob(data);
+            } else {
+                taskInts[i + 2] = -1;
+            }
+            taskInts[i + 3] = flags;
+            taskInts[i + 4] = requireCount;
+            taskLongs[l + 2] = writeInts(requires, requireCount);
+            taskInts[i + 5] = callerCount;
+            taskLongs[l + 3] = writeInts(callers, callerCount);
+            ++taskCount;
+        }
+
+        /**
+         * Adds a resource with the next ordinal.
+         *
+         * @param requirers ordinals of the tasks that require the resource, in the first {@code requirerCount}
+         *                  elements.
+         * @param provider  ordinal of the task that provides the resource, or {@code -1} if no task provides it.
+         */
+        void addResource(ByteBuffer key, int keyHash, int flags, int[] requirers, int requirerCount, int provider) throws IOException {
+            if(resourceCount == resourceInts.length / 5) {
+                resourceLongs = Arrays.copyOf(resourceLongs, resourceLongs.length * 2);
+                resourceInts = Arrays.copyOf(resourceInts, resourceInts.length * 2);
+            }
+            final int l = resourceCount * 2;
+            final int i = resourceCount * 5;
+            resourceInts[i] = key.remaining();
+            resourceInts[i + 1] = keyHash;
+            resourceLongs[l] = writeBlob(key);
+            resourceInts[i + 2] = requirerCount;
+            resourceLongs[l + 1] = writeInts(requirers, requirerCount);
+            resourceInts[i + 3] = provider;
+            resourceInts[i + 4] = flags;
+            ++resourceCount;
+        }
+
+        /**
+         * Writes the entries, tables, {@code globals}, and trailer, and flushes the output stream.
+         */
+        void finish(ByteBuffer globals) throws IOException {
+            align(taskEntrySize);
+            final long taskEntriesOffset = position;
+            for(int task = 0; task < taskCount; ++task) {
+                final int l = task * 4;
+                final int i = task * 6;
+                writeLong(taskLongs[l]);
+                writeInt(taskInts[i]);
+                writeInt(taskInts[i + 1]);
+                writeLong(taskLongs[l + 1]);
+                writeInt(taskInts[i + 2]);
+                writeInt(taskInts[i + 3]);
+                writeLong(taskLongs[l + 2]);
+                writeLong(taskLongs[l + 3]);
+                writeInt(taskInts[i + 4]);
+                writeInt(taskInts[i + 5]);
+                pad(taskEntrySize - 56);
+            }
+
+            align(resourceEntrySize);
+            final long resourceEntriesOffset = position;
+            for(int resource = 0; resource < resourceCount; ++resource) {
+                final int l = resource * 2;
+                final int i = resource * 5;
+                writeLong(resourceLongs[l]);
+                writeInt(resourceInts[i]);
+                writeInt(resourceInts[i + 1]);
+                writeLong(resourceLongs[l + 1]);
+                writeInt(resourceInts[i + 2]);
+                writeInt(resourceInts[i + 3]);
+                writeInt(resourceInts[i + 4]);
+                pad(resourceEntrySize - 36);
+            }
+
+            final int taskTableCapacity = tableCapacity(taskCount);
+            final long taskTableOffset = writeTable(taskInts, 6, taskCount, taskTableCapacity);
+            final int resourceTableCapacity = tableCapacity(resourceCount);
+            final long resourceTableOffset = writeTable(resourceInts, 5, resourceCount, resourceTableCapacity);
+
+            final int globalsLength = globals.remaining();
+            final long globalsOffset = writeBlob(globals);
+
+            align(8);
+            if((position & regionMask) + trailerSize > regionSize) {
+                pad(regionSize - (position & regionMask));
+            }
+            writeLong(magic);
+            writeInt(version);
+            writeInt(taskCount);
+            writeInt(resourceCount);
+            writeInt(taskTableCapacity);
+            writeInt(resourceTableCapacity);
+            writeInt(globalsLength);
+            writeLong(taskEntriesOffset);
+            writeLong(resourceEntriesOffset);
+            writeLong(taskTableOffset);
+            writeLong(resourceTableOffset);
+            writeLong(globalsOffset);
+            pad(trailerSize - 72);
+            outputStream.flush();
+        }
+
+
+        private long writeBlob(ByteBuffer blob) throws IOException {
+            final int length = blob.remaining();
+            if(length > regionSize) {
+                throw new IOException("Cannot write blob of " + length + " bytes to mapped store file, as it is larger than " + regionSize + " bytes");
+            }
+            if((position & regionMask) + length > regionSize) {
+                pad(regionSize - (position & regionMask));
+            }
+            final long offset = position;
+            if(blob.hasArray()) {
+                outputStream.write(blob.array(), blob.arrayOffset() + blob.position(), length);
+            } else {
+                final byte[] bytes = new byte[length];
+                blob.duplicate().get(bytes);
+                outputStream.write(bytes);
+            }
+            position += length;
+            return offset;
+        }
+
+        private long writeInts(int[] values, int count) throws IOException {
+            // Ints are aligned, and the region size is a multiple of 4, so an int never crosses a region boundary.
+            align(4);
+            final long offset = position;
+            for(int i = 0; i < count; ++i) {
+                writeInt(values[i]);
+            }
+            return offset;
+        }
+
+        private long writeTable(int[] ints, int intsPerEntry, int count, int capacity) throws IOException {
+            final int[] table = new int[capacity];
+            final int mask = capacity - 1;
+            for(int ordinal = 0; ordinal < count; ++ordinal) {
+                int slot = ints[ordinal * intsPerEntry + 1] & mask;
+                while(table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = ordinal + 1; // 0 denotes an empty slot.
+            }
+            return writeInts(table, capacity);
+        }
+
+        private static int tableCapacity(int count) {
+            // At most half full, to keep probe sequences short.
+            int capacity = 2;
+            while(capacity < count * 2) {
+                capacity <<= 1;
+            }
+            return capacity;
+        }
+
+        private void writeInt(int value) throws IOException {
+            outputStream.writeInt(value);
+            position += 4;
+        }
+
+        private void writeLong(long value) throws IOException {
+            outputStream.writeLong(value);
+            position += 8;
+        }
+
+        private void align(int alignment) throws IOException {
+            final long misalignment = position & (alignment - 1);
+            if(misalignment != 0) {
+                pad(alignment - misalignment);
+            }
+        }
+
+        private void pad(long length) throws IOException {
+            for(long i = 0; i < length; ++i) {
+                outputStream.write(0);
+            }
+            position += length;
+        }
+    }
+}
@@ -0,0 +1,932 @@
+package mb.pie.runtime.store;
+
+import mb.pie.api.Observability;
+import mb.pie.api.Output;
+import mb.pie.api.ResourceProvideDep;
+import mb.pie.api.ResourceRequireDep;
+import mb.pie.api.SerializableConsumer;
+import mb.pie.api.StoreReadTxn;
+import mb.pie.api.StoreWriteTxn;
+import mb.pie.api.Task;
+import mb.pie.api.TaskData;
+import mb.pie.api.TaskKey;
+import mb.pie.api.TaskRequireDep;
+import mb.pie.api.serde.DeserializeRuntimeException;
+import mb.pie.api.serde.Serde;
+import mb.pie.runtime.exec.BottomUpShared;
+import mb.resource.ResourceKey;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Transaction of a {@link MappedStore}, which reads tasks and resources from a {@link MappedStoreFile mapped file} on
+ * first access, and keeps changes in an in-memory overlay store.
+ *
+ * A task is materialized, copying its data and dependencies from the file into the overlay, when its data or
+ * dependencies are first read or written. From then on, the overlay is authoritative for that task. Reverse indices
+ * (callers of tasks, and requirers and providers of resources) are not materialized. Instead, they merge the reverse
+ * index of the overlay with the edges in the file from tasks that are not materialized, as the dependencies of those
+ * tasks are still as stored in the file. Therefore, querying callers only deserializes the keys of the callers.
+ *
+ * Like {@link InMemoryStore}, this transaction is not thread-safe, and reading modifies the overlay.
+ */
+class MappedStoreTxn implements StoreReadTxn, StoreWriteTxn {
+    private final Serde serde;
+    private final @Nullable ClassLoader deserializeClassLoader;
+    private final Consumer<Exception> deserializeFailHandler;
+
+    private final NaiveInMemoryStore overlay = new NaiveInMemoryStore();
+    private @Nullable MappedStoreFile file;
+    private final HashMap<TaskKey, Integer> taskOrdinals = new HashMap<>();
+    private final HashMap<ResourceKey, Integer> resourceOrdinals = new HashMap<>();
+    private @Nullable TaskKey[] taskKeys;
+    private final BitSet materializedTasks = new BitSet();
+    private final BitSet droppedCallers = new BitSet();
+    private final BitSet droppedProviders = new BitSet();
+    private boolean modified = false;
+
+
+    /**
+     * @throws DeserializeRuntimeException when the globals of {@code file} cannot be deserialized.
+     */
+    MappedStoreTxn(
+        Serde serde,
+        @Nullable MappedStoreFile file,
+        @Nullable ClassLoader deserializeClassLoader,
+        Consumer<Exception> deserializeFailHandler
+    ) {
+        this.serde = serde;
+        this.deserializeClassLoader = deserializeClassLoader;
+        this.deserializeFailHandler = deserializeFailHandler;
+        this.file = file;
+        if(file != null) {
+            this.taskKeys = new TaskKey[file.getTaskCount()];
+            final Globals globals = serde.deserializeFromByteBuffer(Globals.class, file.getGlobals(), deserializeClassLoader);
+            for(TaskKey key : globals.deferredTasks) {
+                overlay.addDeferredTask(key);
+            }
+            for(Entry<TaskKey, SerializableConsumer<Serializable>> entry : globals.callbacks.entrySet()) {
+                overlay.setCallback(entry.getKey(), entry.getValue());
+            }
+        } else {
+            this.taskKeys = new TaskKey[0];
+        }
+    }
+
+
+    boolean isModified() {
+        return modified;
+    }
+
+
+    @Override public @Nullable Serializable getInput(TaskKey key) {
+        materialize(key);
+        return overlay.getInput(key);
+    }
+
+    @Override public @Nullable Serializable getInternalObject(TaskKey key) {
+        materialize(key);
+        return overlay.getInternalObject(key);
+    }
+
+    @Override public @Nullable Output getOutput(TaskKey key) {
+        materialize(key);
+        return overlay.getOutput(key);
+    }
+
+    @Override public Observability getTaskObservability(TaskKey key) {
+        materialize(key);
+        return overlay.getTaskObservability(key);
+    }
+
+    @Override public Collection<TaskRequireDep> getTaskRequireDeps(TaskKey caller) {
+        materialize(caller);
+        return overlay.getTaskRequireDeps(caller);
+    }
+
+    @Override public Collection<TaskKey> getRequiredTasks(TaskKey caller) {
+        materialize(caller);
+        return overlay.getRequiredTasks(caller);
+    }
+
+    @Override public Set<TaskKey> getCallersOf(TaskKey callee) {
+        // The overlay registers `callee` in its callers index on read, just like the in-memory stores do, which makes
+        // `callee` eligible for `getTasksWithoutCallers`. That is a modification if the file does not register it.
+        final int ordinal = taskOrdinal(callee);
+        if(!overlay.callersOf.containsKey(callee) && (ordinal == -1 || (file.getTaskFlags(ordinal) & MappedStoreFile.inCallersOfFlag) == 0)) {
+            modified = true;
+        }
+        final Set<TaskKey> callers = overlay.getCallersOf(callee);
+        if(ordinal == -1 || droppedCallers.get(ordinal) || file.getTaskCallerCount(ordinal) == 0) {
+            return callers;
+        }
+        final HashSet<TaskKey> mergedCallers = new HashSet<>(callers);
+        final int callerCount = file.getTaskCallerCount(ordinal);
+        for(int i = 0; i < callerCount; ++i) {
+            final int callerOrdinal = file.getTaskCaller(ordinal, i);
+            if(materializedTasks.get(callerOrdinal)) continue;
+            final @Nullable TaskKey caller = taskKey(callerOrdinal);
+            if(caller != null) {
+                mergedCallers.add(caller);
+            }
+        }
+        return mergedCallers;
+    }
+
+    @Override public boolean doesRequireTransitively(TaskKey caller, TaskKey callee) {
+        return BottomUpShared.hasTransitiveTaskReq(caller, callee, this);
+    }
+
+    @Override public boolean hasDependencyOrderBefore(TaskKey caller, TaskKey callee) {
+        return BottomUpShared.hasTransitiveTaskReq(caller, callee, this);
+    }
+
+    @Override public boolean hasVerificationEpochs() {
+        return true;
+    }
+
+    @Override public long getEpoch() {
+        return overlay.getEpoch();
+    }
+
+    @Override public long getVerifiedEpoch(TaskKey key) {
+        return overlay.getVerifiedEpoch(key);
+    }
+
+    @Override public Collection<ResourceRequireDep> getResourceRequireDeps(TaskKey requirer) {
+        materialize(requirer);
+        return overlay.getResourceRequireDeps(requirer);
+    }
+
+    @Override public Set<TaskKey> getRequirersOf(ResourceKey requiree) {
+        // Like `getCallersOf`, the overlay registers `requiree` on read, which makes it count for `getNumSourceFiles`.
+        final int ordinal = resourceOrdinal(requiree);
+        if(!overlay.requireesOf.containsKey(requiree) && (ordinal == -1 || (file.getResourceFlags(ordinal) & MappedStoreFile.inRequirersOfFlag) == 0)) {
+            modified = true;
+        }
+        final Set<TaskKey> requirers = overlay.getRequirersOf(requiree);
+        if(ordinal == -1 || file.getResourceRequirerCount(ordinal) == 0) {
+            return requirers;
+        }
+        final HashSet<TaskKey> mergedRequirers = new HashSet<>(requirers);
+        final int requirerCount = file.getResourceRequirerCount(ordinal);
+        for(int i = 0; i < requirerCount; ++i) {
+            final int requirerOrdinal = file.getResourceRequirer(ordinal, i);
+            if(materializedTasks.get(requirerOrdinal)) continue;
+            final @Nullable TaskKey requirer = taskKey(requirerOrdinal);
+            if(requirer != null) {
+                mergedRequirers.add(requirer);
+            }
+        }
+        return mergedRequirers;
+    }
+
+    @Override public Collection<ResourceProvideDep> getResourceProvideDeps(TaskKey provider) {
+        materialize(provider);
+        return overlay.getResourceProvideDeps(provider);
+    }
+
+    @Override public @Nullable TaskKey getProviderOf(ResourceKey providee) {
+        final @Nullable TaskKey provider = overlay.getProviderOf(providee);
+        if(provider != null) {
+            return provider;
+        }
+        final int ordinal = resourceOrdinal(providee);
+        if(ordinal == -1) {
+            return null;
+        }
+        final int providerOrdinal = persistedProvider(ordinal);
+        return providerOrdinal != -1 ? taskKey(providerOrdinal) : null;
+    }
+
+    @Override public @Nullable TaskData getData(TaskKey key) {
+        materialize(key);
+        return overlay.getData(key);
+    }
+
+    @Override public Set<TaskKey> getDeferredTasks() {
+        return overlay.getDeferredTasks();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Deserializes the keys of tasks without callers in the file, but not their data.
+     */
+    @Override public Set<TaskKey> getTasksWithoutCallers() {
+        final HashSet<TaskKey> tasksWithoutCallers = new HashSet<>();
+        for(Entry<TaskKey, Set<TaskKey>> entry : overlay.callersOf.entrySet()) {
+            if(!entry.getValue().isEmpty()) continue;
+            final int ordinal = taskOrdinal(entry.getKey());
+            if(ordinal == -1 || !hasPersistedCallers(ordinal)) {
+                tasksWithoutCallers.add(entry.getKey());
+            }
+        }
+        if(file != null) {
+            for(int ordinal = 0; ordinal < file.getTaskCount(); ++ordinal) {
+                if(materializedTasks.get(ordinal) || (file.getTaskFlags(ordinal) & MappedStoreFile.inCallersOfFlag) == 0 || hasPersistedCallers(ordinal)) {
+                    continue;
+                }
+                final @Nullable TaskKey key = taskKey(ordinal);
+                // Tasks in the callers index of the overlay have already been checked above.
+                if(key != null && !overlay.callersOf.containsKey(key)) {
+                    tasksWithoutCallers.add(key);
+                }
+            }
+        }
+        return tasksWithoutCallers;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Serializes the keys of resources in the overlay to find them in the file, but does not deserialize the keys of
+     * resources in the file.
+     */
+    @Override public int getNumSourceFiles() {
+        int numSourceFiles = 0;
+        final BitSet overlayResources = new BitSet();
+        for(ResourceKey resource : overlay.requireesOf.keySet()) {
+            final int ordinal = resourceOrdinal(resource);
+            if(ordinal != -1) {
+                overlayResources.set(ordinal);
+            }
+            if(getProviderOf(resource) == null) {
+                ++numSourceFiles;
+            }
+        }
+        if(file != null) {
+            final BitSet overlayProvidedResources = new BitSet();
+            for(ResourceKey resource : overlay.providerOf.keySet()) {
+                final int ordinal = resourceOrdinal(resource);
+                if(ordinal != -1) {
+                    overlayProvidedResources.set(ordinal);
+                }
+            }
+            for(int ordinal = 0; ordinal < file.getResourceCount(); ++ordinal) {
+                if(overlayResources.get(ordinal) || (file.getResourceFlags(ordinal) & MappedStoreFile.inRequirersOfFlag) == 0) {
+                    continue;
+                }
+                if(!overlayProvidedResources.get(ordinal) && persistedProvider(ordinal) == -1) {
+                    ++numSourceFiles;
+                }
+            }
+        }
+        return numSourceFiles;
+    }
+
+    @Override public @Nullable SerializableConsumer<Serializable> getCallback(TaskKey key) {
+        return overlay.getCallback(key);
+    }
+
+
+    @Override public @Nullable TaskData resetTask(Task<?> task) {
+        materialize(task.key());
+        modified = true;
+        final @Nullable Collection<ResourceProvideDep> provides = overlay.resourceProvideDeps.get(task.key());
+        final @Nullable TaskData previousData = overlay.resetTask(task);
+        dropPersistedProviders(provides);
+        return previousData;
+    }
+
+    @Override public void addTaskRequire(TaskKey caller, TaskKey callee) {
+        materialize(caller);
+        modified = true;
+        overlay.addTaskRequire(caller, callee);
+    }
+
+    @Override public void addTaskRequireDep(TaskKey caller, TaskRequireDep dep) {
+        materialize(caller);
+        modified = true;
+        overlay.addTaskRequireDep(caller, dep);
+    }
+
+    @Override public void addResourceRequireDep(TaskKey requiree, ResourceRequireDep dep) {
+        materialize(requiree);
+        modified = true;
+        overlay.addResourceRequireDep(requiree, dep);
+    }
+
+    @Override public void addResourceProvideDep(TaskKey provider, ResourceProvideDep dep) {
+        materialize(provider);
+        modified = true;
+        overlay.addResourceProvideDep(provider, dep);
+    }
+
+    @Override public void setOutput(TaskKey key, @Nullable Serializable output) {
+        materialize(key);
+        modified = true;
+        overlay.setOutput(key, output);
+    }
+
+    @Override public void setTaskObservability(TaskKey key, Observability observability) {
+        materialize(key);
+        modified = true;
+        overlay.setTaskObservability(key, observability);
+    }
+
+    @Override public void setInternalObject(TaskKey key, @Nullable Serializable obj) {
+        materialize(key);
+        modified = true;
+        overlay.setInternalObject(key, obj);
+    }
+
+    @Override public void clearInternalObject(TaskKey key) {
+        materialize(key);
+        modified = true;
+        overlay.clearInternalObject(key);
+    }
+
+    @Override public void restoreData(TaskKey key, @Nullable TaskData data) {
+        materialize(key);
+        modified = true;
+        final @Nullable Collection<ResourceProvideDep> provides = overlay.resourceProvideDeps.get(key);
+        overlay.restoreData(key, data);
+        dropPersistedProviders(provides);
+        if(data == null) {
+            // The overlay removes `key` from its callers index, so the callers of `key` in the file must be ignored too.
+            dropPersistedCallers(key);
+        }
+    }
+
+    @Override public @Nullable TaskData deleteData(TaskKey key) {
+        materialize(key);
+        final @Nullable TaskData deletedData = overlay.deleteData(key);
+        if(deletedData != null) {
+            modified = true;
+            dropPersistedCallers(key);
+            dropPersistedProviders(deletedData.deps.resourceProvideDeps);
+        }
+        return deletedData;
+    }
+
+    @Override public long advanceEpoch() {
+        // Not a modification: verification epochs are not persisted, as they are only valid while resources are
+        // tracked, which does not survive a restart.
+        return overlay.advanceEpoch();
+    }
+
+    @Override public void setVerifiedEpoch(TaskKey key, long epoch) {
+        // Not a modification, see `advanceEpoch`.
+        overlay.setVerifiedEpoch(key, epoch);
+    }
+
+    @Override public void addDeferredTask(TaskKey key) {
+        modified = true;
+        overlay.addDeferredTask(key);
+    }
+
+    @Override public void removeDeferredTask(TaskKey key) {
+        modified = true;
+        overlay.removeDeferredTask(key);
+    }
+
+    @Override public void setCallback(TaskKey key, SerializableConsumer<Serializable> callback) {
+        modified = true;
+        overlay.setCallback(key, callback);
+    }
+
+    @Override public void removeCallback(TaskKey key) {
+        modified = true;
+        overlay.removeCallback(key);
+    }
+
+    @Override public void dropCallbacks() {
+        modified = true;
+        overlay.dropCallbacks();
+    }
+
+    @Override public void drop() {
+        modified = true;
+        overlay.drop();
+        file = null;
+        taskOrdinals.clear();
+        resourceOrdinals.clear();
+        taskKeys = new TaskKey[0];
+        materializedTasks.clear();
+        droppedCallers.clear();
+        droppedProviders.clear();
+    }
+
+
+    @Override public void close() {
+        // Nothing to do: changes are kept in the overlay, and persisted by the store.
+    }
+
+
+    /**
+     * Writes all tasks and resources to {@code writer}. Tasks and resources that are not materialized are copied from
+     * the file without deserializing them. Tasks that are materialized, but have no data and are not referenced
+     * anymore, for example because they were deleted, are not written.
+     */
+    void write(MappedStoreFile.Writer writer) throws IOException {
+        final int persistedTaskCount = file != null ? file.getTaskCount() : 0;
+
+        // Find all tasks of the overlay, which are either in the file or new.
+        final LinkedHashSet<TaskKey> overlayTasks = new LinkedHashSet<>();
+        overlayTasks.addAll(overlay.taskInputs.keySet());
+        overlayTasks.addAll(overlay.taskInternalObjects.keySet());
+        overlayTasks.addAll(overlay.taskOutputs.keySet());
+        overlayTasks.addAll(overlay.taskObservability.keySet());
+        for(Entry<TaskKey, Collection<TaskKey>> entry : overlay.taskRequires.entrySet()) {
+            overlayTasks.add(entry.getKey());
+            overlayTasks.addAll(entry.getValue());
+        }
+        overlayTasks.addAll(overlay.taskRequireDeps.keySet());
+        overlayTasks.addAll(overlay.callersOf.keySet());
+        overlayTasks.addAll(overlay.resourceRequireDeps.keySet());
+        overlayTasks.addAll(overlay.resourceProvideDeps.keySet());
+        final HashMap<Integer, TaskKey> overlayTasksByOrdinal = new HashMap<>();
+        final ArrayList<TaskKey> newTasks = new ArrayList<>();
+        for(TaskKey key : overlayTasks) {
+            final int ordinal = taskOrdinal(key);
+            if(ordinal != -1) {
+                overlayTasksByOrdinal.put(ordinal, key);
+            } else {
+                newTasks.add(key);
+            }
+        }
+
+        // Tasks in the file are kept when they are not materialized, when they are in the overlay, or when a task that
+        // is not materialized requires them. Tasks are renumbered to leave no gaps for tasks that are not kept.
+        final BitSet keptTasks = new BitSet(persistedTaskCount);
+        for(int ordinal = 0; ordinal < persistedTaskCount; ++ordinal) {
+            if(materializedTasks.get(ordinal)) continue;
+            keptTasks.set(ordinal);
+            final int requireCount = file.getTaskRequireCount(ordinal);
+            for(int i = 0; i < requireCount; ++i) {
+                keptTasks.set(file.getTaskRequire(ordinal, i));
+            }
+        }
+        for(int ordinal : overlayTasksByOrdinal.keySet()) {
+            keptTasks.set(ordinal);
+        }
+        final int[] newOrdinals = new int[persistedTaskCount];
+        int nextOrdinal = 0;
+        for(int ordinal = 0; ordinal < persistedTaskCount; ++ordinal) {
+            newOrdinals[ordinal] = keptTasks.get(ordinal) ? nextOrdinal++ : -1;
+        }
+        final HashMap<TaskKey, Integer> newTaskOrdinals = new HashMap<>();
+        for(TaskKey key : newTasks) {
+            newTaskOrdinals.put(key, nextOrdinal++);
+        }
+
+        // Count the tasks that require each task, to find tasks whose callers are not all tasks that require them.
+        final int[] requirerCounts = new int[nextOrdinal];
+        for(int ordinal = 0; ordinal < persistedTaskCount; ++ordinal) {
+            if(!keptTasks.get(ordinal)) continue;
+            if(materializedTasks.get(ordinal)) {
+                final @Nullable TaskKey key = overlayTasksByOrdinal.get(ordinal);
+                if(key != null) {
+                    countRequirers(overlay.taskRequires.get(key), requirerCounts, newOrdinals, newTaskOrdinals);
+                }
+            } else {
+                final int requireCount = file.getTaskRequireCount(ordinal);
+                for(int i = 0; i < requireCount; ++i) {
+                    ++requirerCounts[newOrdinals[file.getTaskRequire(ordinal, i)]];
+                }
+            }
+        }
+        for(TaskKey key : newTasks) {
+            countRequirers(overlay.taskRequires.get(key), requirerCounts, newOrdinals, newTaskOrdinals);
+        }
+
+        final IntList requires = new IntList();
+        final IntList callers = new IntList();
+        for(int ordinal = 0; ordinal < persistedTaskCount; ++ordinal) {
+            if(!keptTasks.get(ordinal)) continue;
+            final @Nullable TaskKey key = overlayTasksByOrdinal.get(ordinal);
+            requires.clear();
+            callers.clear();
+            final @Nullable ByteBuffer data;
+            int flags;
+            if(materializedTasks.get(ordinal)) {
+                // Materialized tasks are in the overlay when kept, or only required by tasks that are not materialized.
+                data = key != null ? serializeTaskRecord(key) : null;
+                flags = 0;
+                if(key != null) {
+                    addOverlayTaskOrdinals(overlay.taskRequires.get(key), requires, newOrdinals, newTaskOrdinals);
+                }
+            } else {
+                data = file.getTaskData(ordinal);
+                flags = file.getTaskFlags(ordinal);
+                final int requireCount = file.getTaskRequireCount(ordinal);
+                for(int i = 0; i < requireCount; ++i) {
+                    requires.add(newOrdinals[file.getTaskRequire(ordinal, i)]);
+                }
+            }
+            if(key != null && overlay.callersOf.containsKey(key)) {
+                flags |= MappedStoreFile.inCallersOfFlag;
+            }
+            if(!droppedCallers.get(ordinal)) {
+                final int callerCount = file.getTaskCallerCount(ordinal);
+                for(int i = 0; i < callerCount; ++i) {
+                    final int callerOrdinal = file.getTaskCaller(ordinal, i);
+                    if(!materializedTasks.get(callerOrdinal)) {
+                        callers.add(newOrdinals[callerOrdinal]);
+                    }
+                }
+            }
+            if(key != null) {
+                addOverlayTaskOrdinals(overlay.callersOf.get(key), callers, newOrdinals, newTaskOrdinals);
+            }
+            flags &= ~MappedStoreFile.partialCallersFlag;
+            if(callers.size != requirerCounts[newOrdinals[ordinal]]) {
+                flags |= MappedStoreFile.partialCallersFlag;
+            }
+            writer.addTask(file.getTaskKey(ordinal), file.getTaskKeyHash(ordinal), data, flags, requires.values, requires.size, callers.values, callers.size);
+        }
+        for(TaskKey key : newTasks) {
+            requires.clear();
+            callers.clear();
+            addOverlayTaskOrdinals(overlay.taskRequires.get(key), requires, newOrdinals, newTaskOrdinals);
+            addOverlayTaskOrdinals(overlay.callersOf.get(key), callers, newOrdinals, newTaskOrdinals);
+            int flags = overlay.callersOf.containsKey(key) ? MappedStoreFile.inCallersOfFlag : 0;
+            if(callers.size != requirerCounts[newTaskOrdinals.get(key)]) {
+                flags |= MappedStoreFile.partialCallersFlag;
+            }
+            final byte[] serializedKey = serde.serializeToBytes(key);
+            writer.addTask(ByteBuffer.wrap(serializedKey), MappedStoreFile.hash(serializedKey), serializeTaskRecord(key), flags, requires.values, requires.size, callers.values, callers.size);
+        }
+
+        // Find all resources of the overlay, which are either in the file or new.
+        final LinkedHashSet<ResourceKey> overlayResources = new LinkedHashSet<>();
+        overlayResources.addAll(overlay.requireesOf.keySet());
+        overlayResources.addAll(overlay.providerOf.keySet());
+        final HashMap<Integer, ResourceKey> overlayResourcesByOrdinal = new HashMap<>();
+        final ArrayList<ResourceKey> newResources = new ArrayList<>();
+        for(ResourceKey key : overlayResources) {
+            final int ordinal = resourceOrdinal(key);
+            if(ordinal != -1) {
+                overlayResourcesByOrdinal.put(ordinal, key);
+            } else {
+                newResources.add(key);
+            }
+        }
+
+        // Resources are not referenced by ordinal, so resources that are in no index anymore are simply not written.
+        final IntList requirers = callers;
+        final int persistedResourceCount = file != null ? file.getResourceCount() : 0;
+        for(int ordinal = 0; ordinal < persistedResourceCount; ++ordinal) {
+            final @Nullable ResourceKey key = overlayResourcesByOrdinal.get(ordinal);
+            requirers.clear();
+            int flags = file.getResourceFlags(ordinal);
+            final int requirerCount = file.getResourceRequirerCount(ordinal);
+            for(int i = 0; i < requirerCount; ++i) {
+                final int requirerOrdinal = file.getResourceRequirer(ordinal, i);
+                if(!materializedTasks.get(requirerOrdinal)) {
+                    requirers.add(newOrdinals[requirerOrdinal]);
+                }
+            }
+            int provider = -1;
+            if(key != null) {
+                if(overlay.requireesOf.containsKey(key)) {
+                    flags |= MappedStoreFile.inRequirersOfFlag;
+                }
+                addOverlayTaskOrdinals(overlay.requireesOf.get(key), requirers, newOrdinals, newTaskOrdinals);
+                final @Nullable TaskKey overlayProvider = overlay.providerOf.get(key);
+                if(overlayProvider != null) {
+                    provider = newTaskOrdinal(overlayProvider, newOrdinals, newTaskOrdinals);
+                }
+            }
+            if(provider == -1) {
+                final int providerOrdinal = persistedProvider(ordinal);
+                if(providerOrdinal != -1) {
+                    provider = newOrdinals[providerOrdinal];
+                }
+            }
+            if((flags & MappedStoreFile.inRequirersOfFlag) == 0 && provider == -1) continue;
+            writer.addResource(file.getResourceKey(ordinal), file.getResourceKeyHash(ordinal), flags, requirers.values, requirers.size, provider);
+        }
+        for(ResourceKey key : newResources) {
+            requirers.clear();
+            addOverlayTaskOrdinals(overlay.requireesOf.get(key), requirers, newOrdinals, newTaskOrdinals);
+            final @Nullable TaskKey overlayProvider = overlay.providerOf.get(key);
+            final int provider = overlayProvider != null ? newTaskOrdinal(overlayProvider, newOrdinals, newTaskOrdinals) : -1;
+            final int flags = overlay.requireesOf.containsKey(key) ? MappedStoreFile.inRequirersOfFlag : 0;
+            final byte[] serializedKey = serde.serializeToBytes(key);
+            writer.addResource(ByteBuffer.wrap(serializedKey), MappedStoreFile.hash(serializedKey), flags, requirers.values, requirers.size, provider);
+        }
+
+        final Globals globals = new Globals(new ArrayList<>(overlay.deferredTasks), new HashMap<>(overlay.callbacks));
+        writer.finish(serde.serializeToByteBuffer(globals));
+        modified = false;
+    }
+
+
+    /**
+     * Copies the data and dependencies of task {@code key} from the file into the overlay, if it is in the file and
+     * has not been materialized yet.
+     */
+    private void materialize(TaskKey key) {
+        final int ordinal = taskOrdinal(key);
+        if(ordinal == -1 || materializedTasks.get(ordinal)) {
+            return;
+        }
+        materializedTasks.set(ordinal);
+        final @Nullable ByteBuffer data = file.getTaskData(ordinal);
+        if(data != null) {
+            try {
+                serde.deserializeFromByteBuffer(TaskRecord.class, data, deserializeClassLoader).materialize(key, overlay);
+            } catch(DeserializeRuntimeException e) {
+                // Continue without data, which causes the task to be executed again.
+                deserializeFailHandler.accept(e);
+            }
+        }
+        final int requireCount = file.getTaskRequireCount(ordinal);
+        for(int i = 0; i < requireCount; ++i) {
+            final int calleeOrdinal = file.getTaskRequire(ordinal, i);
+            final @Nullable TaskKey callee = taskKey(calleeOrdinal);
+            if(callee == null) continue;
+            InMemoryStoreBase.getOrPutEmptyLinkedHashSet(overlay.taskRequires, key).add(callee);
+            if(isPersistedCaller(ordinal, calleeOrdinal)) {
+                InMemoryStoreBase.getOrPutEmptyHashSet(overlay.callersOf, callee).add(key);
+            }
+        }
+        if((file.getTaskFlags(ordinal) & MappedStoreFile.inCallersOfFlag) != 0) {
+            InMemoryStoreBase.getOrPutEmptyHashSet(overlay.callersOf, key);
+        }
+        final @Nullable Collection<ResourceProvideDep> provides = overlay.resourceProvideDeps.get(key);
+        if(provides != null) {
+            for(ResourceProvideDep dep : provides) {
+                // Only register `key` as provider if it still is in the file, as another task may have provided the
+                // resource later on, or the provider of the resource may have been removed.
+                final int resourceOrdinal = resourceOrdinal(dep.key);
+                if(resourceOrdinal != -1 && !overlay.providerOf.containsKey(dep.key) && !droppedProviders.get(resourceOrdinal) && file.getResourceProvider(resourceOrdinal) == ordinal) {
+                    overlay.providerOf.put(dep.key, key);
+                }
+            }
+        }
+    }
+
+    private void dropPersistedCallers(TaskKey key) {
+        final int ordinal = taskOrdinal(key);
+        if(ordinal != -1) {
+            droppedCallers.set(ordinal);
+        }
+    }
+
+    /**
+     * Ignores the providers in the file of resources in {@code provides} that the overlay has no provider for anymore,
+     * as the overlay has removed them.
+     */
+    private void dropPersistedProviders(@Nullable Collection<ResourceProvideDep> provides) {
+        if(provides == null) return;
+        for(ResourceProvideDep dep : provides) {
+            if(overlay.providerOf.containsKey(dep.key)) continue;
+            final int ordinal = resourceOrdinal(dep.key);
+            if(ordinal != -1) {
+                droppedProviders.set(ordinal);
+            }
+        }
+    }
+
+    private boolean isPersistedCaller(int callerOrdinal, int calleeOrdinal) {
+        if(droppedCallers.get(calleeOrdinal)) {
+            return false;
+        }
+        if((file.getTaskFlags(calleeOrdinal) & MappedStoreFile.partialCallersFlag) == 0) {
+            return true; // All tasks that require the callee are its callers.
+        }
+        final int callerCount = file.getTaskCallerCount(calleeOrdinal);
+        for(int i = 0; i < callerCount; ++i) {
+            if(file.getTaskCaller(calleeOrdinal, i) == callerOrdinal) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasPersistedCallers(int ordinal) {
+        if(droppedCallers.get(ordinal)) {
+            return false;
+        }
+        final int callerCount = file.getTaskCallerCount(ordinal);
+        for(int i = 0; i < callerCount; ++i) {
+            if(!materializedTasks.get(file.getTaskCaller(ordinal, i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return ordinal of the provider of resource {@code ordinal} in the file, or {@code -1} if it has no provider, or
+     * if the provider is materialized or has been removed, as the overlay is then authoritative for the resource.
+     */
+    private int persistedProvider(int ordinal) {
+        final int providerOrdinal = file.getResourceProvider(ordinal);
+        if(providerOrdinal == -1 || materializedTasks.get(providerOrdinal) || droppedProviders.get(ordinal)) {
+            return -1;
+        }
+        return providerOrdinal;
+    }
+
+
+    /**
+     * @return ordinal of task {@code key} in the file, or {@code -1} if it is not in the file.
+     */
+    private int taskOrdinal(TaskKey key) {
+        if(file == null) {
+            return -1;
+        }
+        final @Nullable Integer cachedOrdinal = taskOrdinals.get(key);
+        if(cachedOrdinal != null) {
+            return cachedOrdinal;
+        }
+        final byte[] serializedKey = serde.serializeToBytes(key);
+        final int ordinal = file.findTask(serializedKey, MappedStoreFile.hash(serializedKey));
+        taskOrdinals.put(key, ordinal);
+        if(ordinal != -1) {
+            taskKeys[ordinal] = key;
+        }
+        return ordinal;
+    }
+
+    /**
+     * @return key of task {@code ordinal} in the file, or {@code null} if it cannot be deserialized.
+     */
+    private @Nullable TaskKey taskKey(int ordinal) {
+        @Nullable TaskKey key = taskKeys[ordinal];
+        if(key == null) {
+            try {
+                key = serde.deserializeFromByteBuffer(TaskKey.class, file.getTaskKey(ordinal), deserializeClassLoader);
+            } catch(DeserializeRuntimeException e) {
+                deserializeFailHandler.accept(e);
+                return null;
+            }
+            taskKeys[ordinal] = key;
+            taskOrdinals.put(key, ordinal);
+        }
+        return key;
+    }
+
+    /**
+     * @return ordinal of resource {@code key} in the file, or {@code -1} if it is not in the file.
+     */
+    private int resourceOrdinal(ResourceKey key) {
+        if(file == null) {
+            return -1;
+        }
+        final @Nullable Integer cachedOrdinal = resourceOrdinals.get(key);
+        if(cachedOrdinal != null) {
+            return cachedOrdinal;
+        }
+        final byte[] serializedKey = serde.serializeToBytes(key);
+        final int ordinal = file.findResource(serializedKey, MappedStoreFile.hash(serializedKey));
+        resourceOrdinals.put(key, ordinal);
+        return ordinal;
+    }
+
+    private int newTaskOrdinal(TaskKey key, int[] newOrdinals, HashMap<TaskKey, Integer> newTaskOrdinals) {
+        final @Nullable Integer newTaskOrdinal = newTaskOrdinals.get(key);
+        if(newTaskOrdinal != null) {
+            return newTaskOrdinal;
+        }
+        return newOrdinals[taskOrdinal(key)];
+    }
+
+    private void countRequirers(@Nullable Collection<TaskKey> callees, int[] requirerCounts, int[] newOrdinals, HashMap<TaskKey, Integer> newTaskOrdinals) {
+        if(callees == null) return;
+        for(TaskKey callee : callees) {
+            ++requirerCounts[newTaskOrdinal(callee, newOrdinals, newTaskOrdinals)];
+        }
+    }
+
+    private void addOverlayTaskOrdinals(@Nullable Collection<TaskKey> keys, IntList ordinals, int[] newOrdinals, HashMap<TaskKey, Integer> newTaskOrdinals) {
+        if(keys == null) return;
+        for(TaskKey key : keys) {
+            ordinals.add(newTaskOrdinal(key, newOrdinals, newTaskOrdinals));
+        }
+    }
+
+    private @Nullable ByteBuffer serializeTaskRecord(TaskKey key) {
+        final @Nullable TaskRecord record = TaskRecord.of(key, overlay);
+        return record != null ? serde.serializeToByteBuffer(record) : null;
+    }
+
+
+    /**
+     * Data and forward dependencies of a task, which are deserialized when the task is materialized.
+     */
+    private static class TaskRecord implements Serializable {
+        private final @Nullable Serializable input;
+        private final @Nullable Serializable internalObject;
+        private final @Nullable Output output;
+        private final @Nullable Observability taskObservability;
+        private final ArrayList<TaskRequireDep> taskRequireDeps;
+        private final ArrayList<ResourceRequireDep> resourceRequireDeps;
+        private final ArrayList<ResourceProvideDep> resourceProvideDeps;
+
+        private TaskRecord(
+            @Nullable Serializable input,
+            @Nullable Serializable internalObject,
+            @Nullable Output output,
+            @Nullable Observability taskObservability,
+            ArrayList<TaskRequireDep> taskRequireDeps,
+            ArrayList<ResourceRequireDep> resourceRequireDeps,
+            ArrayList<ResourceProvideDep> resourceProvideDeps
+        ) {
+            this.input = input;
+            this.internalObject = internalObject;
+            this.output = output;
+            this.taskObservability = taskObservability;
+            this.taskRequireDeps = taskRequireDeps;
+            this.resourceRequireDeps = resourceRequireDeps;
+            this.resourceProvideDeps = resourceProvideDeps;
+        }
+
+        /**
+         * @return record of task {@code key} in {@code store}, or {@code null} if {@code store} has no data or forward
+         * dependencies for it.
+         */
+        private static @Nullable TaskRecord of(TaskKey key, InMemoryStoreBase store) {
+            final @Nullable Serializable input = store.taskInputs.get(key);
+            final @Nullable Serializable internalObject = store.taskInternalObjects.get(key);
+            final @Nullable Output output = store.taskOutputs.get(key);
+            final @Nullable Observability taskObservability = store.taskObservability.get(key);
+            final @Nullable Collection<TaskRequireDep> taskRequireDeps = store.taskRequireDeps.get(key);
+            final @Nullable Collection<ResourceRequireDep> resourceRequireDeps = store.resourceRequireDeps.get(key);
+            final @Nullable Collection<ResourceProvideDep> resourceProvideDeps = store.resourceProvideDeps.get(key);
+            if(input == null && internalObject == null && output == null && taskObservability == null && taskRequireDeps == null && resourceRequireDeps == null && resourceProvideDeps == null) {
+                return null;
+            }
+            return new TaskRecord(
+                input,
+                internalObject,
+                output,
+                taskObservability,
+                taskRequireDeps != null ? new ArrayList<>(taskRequireDeps) : new ArrayList<>(),
+                resourceRequireDeps != null ? new ArrayList<>(resourceRequireDeps) : new ArrayList<>(),
+                resourceProvideDeps != null ? new ArrayList<>(resourceProvideDeps) : new ArrayList<>()
+            );
+        }
+
+        private void materialize(TaskKey key, InMemoryStoreBase store) {
+            if(input != null) {
+                store.taskInputs.put(key, input);
+            }
+            if(internalObject != null) {
+                store.taskInternalObjects.put(key, internalObject);
+            }
+            if(output != null) {
+                store.taskOutputs.put(key, output);
+            }
+            if(taskObservability != null) {
+                store.taskObservability.put(key, taskObservability);
+            }
+            for(TaskRequireDep dep : taskRequireDeps) {
+                store.addTaskRequireDep(key, dep);
+            }
+            for(ResourceRequireDep dep : resourceRequireDeps) {
+                store.addResourceRequireDep(key, dep);
+            }
+            // Only the forward dependencies: which resources are provided by `key` is determined by the transaction.
+            for(ResourceProvideDep dep : resourceProvideDeps) {
+                InMemoryStoreBase.getOrPutEmptyLinkedHashSet(store.resourceProvideDeps, key).add(dep);
+            }
+        }
+    }
+
+    /**
+     * Data that is not specific to a task, which is deserialized when the file is opened.
+     */
+    private static class Globals implements Serializable {
+        private final ArrayList<TaskKey> deferredTasks;
+        private final HashMap<TaskKey, SerializableConsumer<Serializable>> callbacks;
+
+        private Globals(ArrayList<TaskKey> deferredTasks, HashMap<TaskKey, SerializableConsumer<Serializable>> callbacks) {
+            this.deferredTasks = deferredTasks;
+            this.callbacks = callbacks;
+        }
+    }
+
+    private static class IntList {
+        private int[] values = new int[16];
+        private int size = 0;
+
+        private void add(int value) {
+            if(size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private void clear() {
+            size = 0;
+        }
+    }
+}
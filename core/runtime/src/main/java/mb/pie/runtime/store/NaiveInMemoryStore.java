@@ -4,6 +4,16 @@ package mb.pie.runtime.store;
  * Naive implementation of the in-memory store. Does not override naive methods from {@link InMemoryStoreBase}.
  */
 public class NaiveInMemoryStore extends InMemoryStoreBase {
+    /**
+     * Creates a copy of this store that can be modified independently, for example to serialize the copy while this
+     * store is being modified. See {@link #copyTo(InMemoryStoreBase)}.
+     */
+    public NaiveInMemoryStore copy() {
+        final NaiveInMemoryStore store = new NaiveInMemoryStore();
+        copyTo(store);
+        return store;
+    }
+
     @Override public String toString() {
         return "NaiveInMemoryStore()";
     }
@@ -12,30 +12,67 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Path;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
+/**
+ * Store decorator that persists an in-memory store by serializing it with a {@link Serde}.
+ *
+ * By default, the entire store is serialized when it is closed, and on {@link #sync() sync} if serializing on sync is
+ * enabled. With background serialization, sync instead takes a copy of the store with a snapshot function, which
+ * is serialized on a background thread, such that the next session can start immediately. A sync during a running
+ * background serialization replaces the copy that is waiting to be serialized, so repeated syncs are coalesced. In
+ * journaled mode, the changes made by each write transaction are appended to a {@link StoreJournal journal}
+ * instead, which is compacted into a snapshot of the store in the background, and the store is recovered by replaying
+ * the journal onto the snapshot. Closing or syncing a journaled store does not serialize the entire store.
+ */
 public class SerializingStore<S extends Store & Serializable> implements Store {
     private final Serde serde;
-    private final ThrowingSupplier<BufferedOutputStream, IOException> outputStreamSupplier;
+    private final @Nullable ThrowingSupplier<BufferedOutputStream, IOException> outputStreamSupplier;
     private final S store;
     private final Consumer<Exception> serializeFailHandler;
     private final boolean serializeOnSync;
+    private final @Nullable StoreJournal<S> journal;
+    private final @Nullable UnaryOperator<S> backgroundSnapshotFunction;
+    private final @Nullable ExecutorService backgroundExecutor;
+
+    private final Object backgroundLock = new Object();
+    private @Nullable S pendingSnapshot = null; // Guarded by backgroundLock.
+    private boolean serializingInBackground = false; // Guarded by backgroundLock.
+    private volatile boolean modifiedSinceSnapshot = false;
 
 
     private SerializingStore(
         Serde serde,
-        ThrowingSupplier<BufferedOutputStream, IOException> outputStreamSupplier,
+        @Nullable ThrowingSupplier<BufferedOutputStream, IOException> outputStreamSupplier,
         S store,
         Consumer<Exception> serializeFailHandler,
-        boolean serializeOnSync
+        boolean serializeOnSync,
+        @Nullable StoreJournal<S> journal,
+        @Nullable UnaryOperator<S> backgroundSnapshotFunction
     ) {
         this.serde = serde;
         this.outputStreamSupplier = outputStreamSupplier;
         this.store = store;
         this.serializeFailHandler = serializeFailHandler;
         this.serializeOnSync = serializeOnSync;
+        this.journal = journal;
+        this.backgroundSnapshotFunction = backgroundSnapshotFunction;
+        if(backgroundSnapshotFunction != null) {
+            this.backgroundExecutor = Executors.newSingleThreadExecutor((runnable) -> {
+                final Thread thread = new Thread(runnable, "PIE store background serialization");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.backgroundExecutor = null;
+        }
     }
 
 
@@ -49,13 +86,79 @@ public class SerializingStore<S extends Store & Serializable> implements Store {
         Consumer<Exception> serializeFailHandler,
         Consumer<Exception> deserializeFailHandler,
         boolean serializeOnSync
+    ) {
+        this(serde, inputStreamSupplier, deserializeClassLoader, outputStreamSupplier, storeSupplier, storeType, serializeFailHandler, deserializeFailHandler, serializeOnSync, null);
+    }
+
+    /**
+     * Creates a serializing store.
+     *
+     * @param backgroundSnapshotFunction Function that copies the store, enabling background serialization when not
+     *                                   {@code null}. The copy must not be affected by modifications to the store.
+     */
+    public SerializingStore(
+        Serde serde,
+        ThrowingSupplier<Optional<BufferedInputStream>, IOException> inputStreamSupplier,
+        @Nullable ClassLoader deserializeClassLoader,
+        ThrowingSupplier<BufferedOutputStream, IOException> outputStreamSupplier,
+        Supplier<S> storeSupplier,
+        Class<S> storeType,
+        Consumer<Exception> serializeFailHandler,
+        Consumer<Exception> deserializeFailHandler,
+        boolean serializeOnSync,
+        @Nullable UnaryOperator<S> backgroundSnapshotFunction
     ) {
         this(
             serde,
             outputStreamSupplier,
             deserialize(serde, inputStreamSupplier, deserializeClassLoader, storeSupplier, storeType, deserializeFailHandler),
             serializeFailHandler,
-            serializeOnSync
+            serializeOnSync,
+            null,
+            backgroundSnapshotFunction
+        );
+    }
+
+    /**
+     * Creates a journaled serializing store, which persists the store in {@code journalDirectory}.
+     *
+     * @param journalCompactionThreshold Size in bytes of the journal since the last snapshot, above which the journal is
+     *                                   compacted into a new snapshot in the background.
+     */
+    public SerializingStore(
+        Serde serde,
+        Path journalDirectory,
+        long journalCompactionThreshold,
+        @Nullable ClassLoader deserializeClassLoader,
+        Supplier<S> storeSupplier,
+        Class<S> storeType,
+        Consumer<Exception> serializeFailHandler,
+        Consumer<Exception> deserializeFailHandler
+    ) {
+        this(
+            serde,
+            new StoreJournal<>(journalDirectory, serde, deserializeClassLoader, storeSupplier, storeType, journalCompactionThreshold, serializeFailHandler),
+            storeSupplier,
+            serializeFailHandler,
+            deserializeFailHandler
+        );
+    }
+
+    private SerializingStore(
+        Serde serde,
+        StoreJournal<S> journal,
+        Supplier<S> storeSupplier,
+        Consumer<Exception> serializeFailHandler,
+        Consumer<Exception> deserializeFailHandler
+    ) {
+        this(
+            serde,
+            null,
+            recover(journal, storeSupplier, deserializeFailHandler),
+            serializeFailHandler,
+            false,
+            journal,
+            null
         );
     }
 
@@ -65,28 +168,136 @@ public class SerializingStore<S extends Store & Serializable> implements Store {
     }
 
     @Override public StoreWriteTxn writeTxn() {
+        if(journal != null) {
+            return new JournalingStoreWriteTxn(store.writeTxn(), journal, serializeFailHandler);
+        }
+        if(backgroundSnapshotFunction != null) {
+            modifiedSinceSnapshot = true;
+        }
         return store.writeTxn();
     }
 
     @Override public void sync() {
         store.sync();
-        if(serializeOnSync) {
-            serialize();
+        if(journal != null) {
+            try {
+                journal.sync();
+            } catch(IOException e) {
+                serializeFailHandler.accept(e);
+            }
+        } else if(backgroundSnapshotFunction != null) {
+            modifiedSinceSnapshot = false;
+            serializeInBackground(backgroundSnapshotFunction.apply(store));
+        } else if(serializeOnSync) {
+            serialize(store);
         }
     }
 
     @Override public void close() {
         store.close();
-        serialize();
+        if(journal != null) {
+            try {
+                journal.close();
+            } catch(IOException e) {
+                serializeFailHandler.accept(e);
+            }
+        } else if(backgroundExecutor != null) {
+            // Wait for the running background serialization, and only serialize the store again if it was modified since
+            // the last snapshot was taken, or if serializing a snapshot failed.
+            final boolean snapshotPending;
+            synchronized(backgroundLock) {
+                while(serializingInBackground) {
+                    try {
+                        backgroundLock.wait();
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                snapshotPending = pendingSnapshot != null;
+                pendingSnapshot = null;
+            }
+            backgroundExecutor.shutdown();
+            if(snapshotPending || modifiedSinceSnapshot) {
+                serialize(store);
+            }
+        } else {
+            serialize(store);
+        }
     }
 
 
-    private void serialize() {
+    /**
+     * @return {@code true} if {@code store} was serialized, {@code false} if serialization failed.
+     */
+    private boolean serialize(S store) {
+        if(outputStreamSupplier == null) return false;
         try(final BufferedOutputStream bufferedOutputStream = outputStreamSupplier.get()) {
             serde.serialize(store, bufferedOutputStream);
             bufferedOutputStream.flush();
+            if(bufferedOutputStream instanceof AtomicFileOutputStream) {
+                // Only replace the file when serialization succeeded.
+                ((AtomicFileOutputStream)bufferedOutputStream).commit();
+            }
+            return true;
         } catch(IOException e) {
             serializeFailHandler.accept(e);
+            return false;
+        }
+    }
+
+    private void serializeInBackground(S snapshot) {
+        synchronized(backgroundLock) {
+            pendingSnapshot = snapshot;
+            if(serializingInBackground) {
+                return; // Running background serialization serializes the pending snapshot when done.
+            }
+            serializingInBackground = true;
+        }
+        Objects.requireNonNull(backgroundExecutor).execute(this::serializePendingSnapshots);
+    }
+
+    private void serializePendingSnapshots() {
+        try {
+            while(true) {
+                final @Nullable S snapshot;
+                synchronized(backgroundLock) {
+                    snapshot = pendingSnapshot;
+                    pendingSnapshot = null;
+                }
+                if(snapshot == null) {
+                    return;
+                }
+                boolean serialized = false;
+                try {
+                    serialized = serialize(snapshot);
+                } catch(RuntimeException e) {
+                    serializeFailHandler.accept(e);
+                } finally {
+                    if(!serialized) {
+                        // Serialize the store again when closing, as the persisted store is outdated.
+                        modifiedSinceSnapshot = true;
+                    }
+                }
+            }
+        } finally {
+            synchronized(backgroundLock) {
+                serializingInBackground = false;
+                backgroundLock.notifyAll();
+            }
+        }
+    }
+
+    private static <S extends Store & Serializable> S recover(
+        StoreJournal<S> journal,
+        Supplier<S> storeSupplier,
+        Consumer<Exception> deserializeFailHandler
+    ) {
+        try {
+            return journal.recover(deserializeFailHandler);
+        } catch(IOException e) {
+            deserializeFailHandler.accept(e);
+            return storeSupplier.get();
         }
     }
 
@@ -5,6 +5,7 @@ import mb.log.api.LoggerFactory;
 import mb.pie.api.Store;
 import mb.pie.api.serde.Serde;
 import mb.resource.WritableResource;
+import mb.resource.fs.FSResource;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
@@ -12,9 +13,11 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Path;
 import java.util.Optional;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 public class SerializingStoreBuilder<S extends Store & Serializable> {
     private final Serde serde;
@@ -34,6 +37,11 @@ public class SerializingStoreBuilder<S extends Store & Serializable> {
 
     private boolean serializeOnSync = false;
 
+    private @Nullable UnaryOperator<S> backgroundSnapshotFunction;
+
+    private @Nullable Path journalDirectory;
+    private long journalCompactionThreshold = 64 * 1024 * 1024;
+
 
     public SerializingStoreBuilder(Serde serde, Supplier<S> storeSupplier, Class<S> storeType) {
         this.serde = serde;
@@ -62,12 +70,22 @@ public class SerializingStoreBuilder<S extends Store & Serializable> {
         return this;
     }
 
+    /**
+     * Stores the serialized store in {@code resource}. When {@code resource} is a {@link FSResource filesystem
+     * resource}, the store is serialized to a temporary file which atomically replaces the resource when serialization
+     * succeeds, such that a failed or interrupted serialization does not corrupt the stored store.
+     */
     public SerializingStoreBuilder<S> withResourceStorage(WritableResource resource) {
         this.inputStreamSupplier = () -> {
             if(!resource.exists()) return Optional.empty();
             else return Optional.of(resource.openReadBuffered());
         };
-        this.outputStreamSupplier = resource::openWriteBuffered;
+        if(resource instanceof FSResource) {
+            final Path file = ((FSResource)resource).getJavaPath();
+            this.outputStreamSupplier = () -> AtomicFileOutputStream.open(file);
+        } else {
+            this.outputStreamSupplier = resource::openWriteBuffered;
+        }
         return this;
     }
 
@@ -100,7 +118,55 @@ public class SerializingStoreBuilder<S extends Store & Serializable> {
     }
 
 
+    /**
+     * Serializes the store on a background thread on every sync, instead of on the thread that calls sync.
+     * {@code snapshotFunction} is called on sync to copy the store, such as {@link InMemoryStore#copy()}, and the copy
+     * is serialized in the background. Syncs during a running background serialization are coalesced: only the copy of
+     * the last sync is serialized next. Closing the store waits for the running background serialization, and only
+     * serializes the store if it was modified since the last sync. The serialize fail handler is called on the
+     * background thread when background serialization fails.
+     */
+    public SerializingStoreBuilder<S> withBackgroundSerialization(UnaryOperator<S> snapshotFunction) {
+        this.backgroundSnapshotFunction = snapshotFunction;
+        return this;
+    }
+
+
+    /**
+     * Persists the store in journaled mode in {@code directory}: the changes made by each write transaction are
+     * appended to a journal, which is compacted into a snapshot in the background, instead of serializing the entire
+     * store on close and sync. Sync forces the journal to be written to the storage device. Input and output streams do
+     * not have to be set in journaled mode, and serialize on sync is ignored.
+     */
+    public SerializingStoreBuilder<S> withJournal(Path directory) {
+        this.journalDirectory = directory;
+        return this;
+    }
+
+    /**
+     * Sets the size in bytes of the journal since the last snapshot, above which the journal is compacted into a new
+     * snapshot in the background. Defaults to 64 MiB.
+     */
+    public SerializingStoreBuilder<S> withJournalCompactionThreshold(long journalCompactionThreshold) {
+        this.journalCompactionThreshold = journalCompactionThreshold;
+        return this;
+    }
+
+
     public SerializingStore<S> build() {
+        if(journalDirectory != null) {
+            return new SerializingStore<>(
+                serde,
+                journalDirectory,
+                journalCompactionThreshold,
+                deserializeClassLoader,
+                storeSupplier,
+                storeType,
+                serializeFailHandler,
+                deserializeFailHandler
+            );
+        }
+
         if(outputStreamSupplier == null)
             throw new IllegalStateException("Cannot build SerializingStore; outputStreamSupplier has not been set");
         if(inputStreamSupplier == null)
@@ -115,7 +181,8 @@ public class SerializingStoreBuilder<S extends Store & Serializable> {
             storeType,
             serializeFailHandler,
             deserializeFailHandler,
-            serializeOnSync
+            serializeOnSync,
+            backgroundSnapshotFunction
         );
     }
 }
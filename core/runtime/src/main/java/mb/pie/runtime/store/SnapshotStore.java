@@ -0,0 +1,558 @@
+package mb.pie.runtime.store;
+
+import mb.pie.api.Observability;
+import mb.pie.api.Output;
+import mb.pie.api.ResourceProvideDep;
+import mb.pie.api.ResourceRequireDep;
+import mb.pie.api.SerializableConsumer;
+import mb.pie.api.Store;
+import mb.pie.api.StoreReadTxn;
+import mb.pie.api.StoreWriteTxn;
+import mb.pie.api.Task;
+import mb.pie.api.TaskData;
+import mb.pie.api.TaskDeps;
+import mb.pie.api.TaskKey;
+import mb.pie.api.TaskRequireDep;
+import mb.pie.runtime.exec.BottomUpShared;
+import mb.resource.ResourceKey;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Store decorator that adds {@link #snapshotReadTxn() snapshot read transactions} to any {@link Store}, allowing
+ * read-only queries to read the last committed state while a build is running.
+ *
+ * Write transactions keep an undo log, which records the data of a task as it was before the transaction, the first
+ * time the transaction modifies that task. Data is recorded even when no snapshot is open, such that a snapshot taken
+ * while a write transaction is running reads the last committed state, and never observes data written by that
+ * transaction. Write transactions are committed when the last open write transaction is closed, after which the next
+ * write transaction starts a new undo log, chained to the previous one. A snapshot read transaction reads data of a
+ * task from the first undo log (starting from the log that was current when the snapshot was taken) that recorded the
+ * task, or from the decorated store if no log recorded it. Because undo logs are only referenced by the logs before
+ * them and by open snapshots, they are garbage collected once no snapshot needs them anymore.
+ *
+ * Calls to the decorated store are serialized with a lock that is only held for the duration of a single call, such
+ * that snapshot reads never wait for a write transaction to be closed. Collections returned by read transactions
+ * are copies.
+ *
+ * Snapshots must be closed, to close the read transaction of the decorated store. Limitations: callbacks are not
+ * versioned (snapshots read the current callbacks), and {@link StoreWriteTxn#drop() dropping} the store invalidates
+ * snapshots that were taken before the drop was committed.
+ */
+public class SnapshotStore implements Store {
+    private final Store store;
+    private final Object lock = new Object();
+    private UndoLog log = new UndoLog(); // Guarded by lock.
+    private int openWriteTxns = 0; // Guarded by lock.
+
+
+    public SnapshotStore(Store store) {
+        this.store = store;
+    }
+
+
+    @Override public StoreReadTxn readTxn() {
+        synchronized(lock) {
+            return new ReadTxn(store.readTxn(), null);
+        }
+    }
+
+    @Override public StoreWriteTxn writeTxn() {
+        synchronized(lock) {
+            final StoreWriteTxn txn = store.writeTxn();
+            ++openWriteTxns;
+            return new WriteTxn(txn);
+        }
+    }
+
+    @Override public StoreReadTxn snapshotReadTxn() {
+        synchronized(lock) {
+            final StoreReadTxn txn = store.readTxn();
+            return new ReadTxn(txn, log);
+        }
+    }
+
+    @Override public boolean supportsSnapshotReadTxn() {
+        return true;
+    }
+
+    @Override public void sync() {
+        synchronized(lock) {
+            store.sync();
+        }
+    }
+
+    @Override public void close() {
+        synchronized(lock) {
+            store.close();
+        }
+    }
+
+
+    @Override public String toString() {
+        return "SnapshotStore(" + store + ")";
+    }
+
+
+    private static class UndoLog {
+        final HashMap<TaskKey, TaskRecord> records = new HashMap<>();
+        boolean dropped = false;
+        @Nullable UndoLog next = null;
+
+        boolean isEmpty() {
+            return records.isEmpty() && !dropped;
+        }
+    }
+
+    private static class TaskRecord {
+        final @Nullable Serializable input;
+        final @Nullable Serializable internalObject;
+        final @Nullable Output output;
+        final Observability taskObservability;
+        final ArrayList<TaskRequireDep> taskRequireDeps;
+        final LinkedHashSet<TaskKey> requiredTasks;
+        final ArrayList<ResourceRequireDep> resourceRequireDeps;
+        final ArrayList<ResourceProvideDep> resourceProvideDeps;
+        final boolean deferred;
+
+        TaskRecord(StoreReadTxn txn, TaskKey key) {
+            this.input = txn.getInput(key);
+            this.internalObject = txn.getInternalObject(key);
+            this.output = txn.getOutput(key);
+            this.taskObservability = txn.getTaskObservability(key);
+            this.taskRequireDeps = new ArrayList<>(txn.getTaskRequireDeps(key));
+            this.requiredTasks = new LinkedHashSet<>(txn.getRequiredTasks(key));
+            this.resourceRequireDeps = new ArrayList<>(txn.getResourceRequireDeps(key));
+            this.resourceProvideDeps = new ArrayList<>(txn.getResourceProvideDeps(key));
+            this.deferred = txn.getDeferredTasks().contains(key);
+        }
+
+        @Nullable TaskData getData() {
+            if(input == null || output == null) {
+                return null;
+            }
+            final TaskDeps deps = new TaskDeps(new ArrayList<>(taskRequireDeps), new ArrayList<>(resourceRequireDeps), new ArrayList<>(resourceProvideDeps));
+            return new TaskData(input, internalObject, output, taskObservability, deps);
+        }
+
+        boolean requiresResource(ResourceKey requiree) {
+            for(ResourceRequireDep dep : resourceRequireDeps) {
+                if(dep.key.equals(requiree)) return true;
+            }
+            return false;
+        }
+
+        boolean providesResource(ResourceKey providee) {
+            for(ResourceProvideDep dep : resourceProvideDeps) {
+                if(dep.key.equals(providee)) return true;
+            }
+            return false;
+        }
+    }
+
+
+    private class WriteTxn extends SynchronizedStoreWriteTxn {
+        private final StoreWriteTxn txn;
+        private boolean closed = false;
+
+        WriteTxn(StoreWriteTxn txn) {
+            super(txn, SnapshotStore.this.lock);
+            this.txn = txn;
+        }
+
+        /**
+         * Records the current data of task with {@code key} into the current undo log, if this is the first time that
+         * task is modified in the current log. Must be called while holding the lock, before modifying the task.
+         */
+        private void record(TaskKey key) {
+            if(!log.records.containsKey(key)) {
+                log.records.put(key, new TaskRecord(txn, key));
+            }
+        }
+
+
+        @Override public @Nullable TaskData resetTask(Task<?> task) {
+            synchronized(lock) {
+                record(task.key());
+                return super.resetTask(task);
+            }
+        }
+
+        @Override public void addTaskRequire(TaskKey caller, TaskKey callee) {
+            synchronized(lock) {
+                record(caller);
+                super.addTaskRequire(caller, callee);
+            }
+        }
+
+        @Override public void addTaskRequireDep(TaskKey caller, TaskRequireDep dep) {
+            synchronized(lock) {
+                record(caller);
+                super.addTaskRequireDep(caller, dep);
+            }
+        }
+
+        @Override public void addResourceRequireDep(TaskKey requiree, ResourceRequireDep dep) {
+            synchronized(lock) {
+                record(requiree);
+                super.addResourceRequireDep(requiree, dep);
+            }
+        }
+
+        @Override public void addResourceProvideDep(TaskKey provider, ResourceProvideDep dep) {
+            synchronized(lock) {
+                // Also record the current provider, as it stops being the provider of the resource.
+                final @Nullable TaskKey currentProvider = txn.getProviderOf(dep.key);
+                if(currentProvider != null) {
+                    record(currentProvider);
+                }
+                record(provider);
+                super.addResourceProvideDep(provider, dep);
+            }
+        }
+
+        @Override public void setOutput(TaskKey key, @Nullable Serializable output) {
+            synchronized(lock) {
+                record(key);
+                super.setOutput(key, output);
+            }
+        }
+
+        @Override public void setTaskObservability(TaskKey key, Observability observability) {
+            synchronized(lock) {
+                record(key);
+                super.setTaskObservability(key, observability);
+            }
+        }
+
+        @Override public void setInternalObject(TaskKey key, @Nullable Serializable obj) {
+            synchronized(lock) {
+                record(key);
+                super.setInternalObject(key, obj);
+            }
+        }
+
+        @Override public void clearInternalObject(TaskKey key) {
+            synchronized(lock) {
+                record(key);
+                super.clearInternalObject(key);
+            }
+        }
+
+        @Override public void restoreData(TaskKey key, @Nullable TaskData data) {
+            synchronized(lock) {
+                record(key);
+                super.restoreData(key, data);
+            }
+        }
+
+        @Override public @Nullable TaskData deleteData(TaskKey key) {
+            synchronized(lock) {
+                record(key);
+                return super.deleteData(key);
+            }
+        }
+
+        @Override public void addDeferredTask(TaskKey key) {
+            synchronized(lock) {
+                record(key);
+                super.addDeferredTask(key);
+            }
+        }
+
+        @Override public void removeDeferredTask(TaskKey key) {
+            synchronized(lock) {
+                record(key);
+                super.removeDeferredTask(key);
+            }
+        }
+
+        @Override public void drop() {
+            synchronized(lock) {
+                log.dropped = true;
+                super.drop();
+            }
+        }
+
+
+        @Override public void close() {
+            synchronized(lock) {
+                if(closed) return;
+                closed = true;
+                txn.close();
+                --openWriteTxns;
+                if(openWriteTxns == 0 && !log.isEmpty()) {
+                    // Commit: snapshots taken from now on read from the store, or from undo logs of later transactions.
+                    final UndoLog next = new UndoLog();
+                    log.next = next;
+                    log = next;
+                }
+            }
+        }
+
+
+        @Override public String toString() {
+            return "SnapshotStore.WriteTxn(" + txn + ")";
+        }
+    }
+
+
+    /**
+     * Read transaction that reads from the decorated store while holding the lock. Reads from a snapshot when
+     * {@code first} is not {@code null}, or reads the current state otherwise.
+     */
+    private class ReadTxn implements StoreReadTxn {
+        private final StoreReadTxn txn;
+        private final @Nullable UndoLog first;
+        private boolean closed = false;
+
+        ReadTxn(StoreReadTxn txn, @Nullable UndoLog first) {
+            this.txn = txn;
+            this.first = first;
+        }
+
+
+        /**
+         * Finds the record of task with {@code key} as it was when this snapshot was taken, or returns {@code null} when
+         * the task has not been modified since, in which case it must be read from the store. Must be called while
+         * holding the lock.
+         */
+        private @Nullable TaskRecord find(TaskKey key) {
+            for(@Nullable UndoLog log = first; log != null; log = log.next) {
+                final @Nullable TaskRecord record = log.records.get(key);
+                if(record != null) return record;
+                if(log.dropped) throw droppedException();
+            }
+            return null;
+        }
+
+        /**
+         * Gets records of all tasks that have been modified since this snapshot was taken. Must be called while holding
+         * the lock.
+         */
+        private Map<TaskKey, TaskRecord> findAll() {
+            final HashMap<TaskKey, TaskRecord> records = new HashMap<>();
+            for(@Nullable UndoLog log = first; log != null; log = log.next) {
+                if(log.dropped) throw droppedException();
+                for(Map.Entry<TaskKey, TaskRecord> entry : log.records.entrySet()) {
+                    records.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+            }
+            return records;
+        }
+
+        private IllegalStateException droppedException() {
+            return new IllegalStateException("Cannot read from snapshot, the store was dropped after the snapshot was taken");
+        }
+
+        private <T> T read(TaskKey key, Function<TaskRecord, T> fromRecord, Supplier<T> fromStore) {
+            synchronized(lock) {
+                final @Nullable TaskRecord record = find(key);
+                if(record != null) {
+                    return fromRecord.apply(record);
+                }
+                return fromStore.get();
+            }
+        }
+
+
+        @Override public @Nullable Serializable getInput(TaskKey key) {
+            return read(key, r -> r.input, () -> txn.getInput(key));
+        }
+
+        @Override public @Nullable Serializable getInternalObject(TaskKey key) {
+            return read(key, r -> r.internalObject, () -> txn.getInternalObject(key));
+        }
+
+        @Override public @Nullable Output getOutput(TaskKey key) {
+            return read(key, r -> r.output, () -> txn.getOutput(key));
+        }
+
+        @Override public Observability getTaskObservability(TaskKey key) {
+            return read(key, r -> r.taskObservability, () -> txn.getTaskObservability(key));
+        }
+
+        @Override public Collection<TaskRequireDep> getTaskRequireDeps(TaskKey caller) {
+            return read(caller, r -> new ArrayList<>(r.taskRequireDeps), () -> new ArrayList<>(txn.getTaskRequireDeps(caller)));
+        }
+
+        @Override public Collection<TaskKey> getRequiredTasks(TaskKey caller) {
+            return read(caller, r -> new LinkedHashSet<>(r.requiredTasks), () -> new LinkedHashSet<>(txn.getRequiredTasks(caller)));
+        }
+
+        @Override public Set<TaskKey> getCallersOf(TaskKey callee) {
+            synchronized(lock) {
+                return getCallersOf(callee, findAll());
+            }
+        }
+
+        private Set<TaskKey> getCallersOf(TaskKey callee, Map<TaskKey, TaskRecord> records) {
+            final Set<TaskKey> callers = new HashSet<>(txn.getCallersOf(callee));
+            records.forEach((key, record) -> {
+                if(record.requiredTasks.contains(callee)) {
+                    callers.add(key);
+                } else {
+                    callers.remove(key);
+                }
+            });
+            return callers;
+        }
+
+        @Override public boolean doesRequireTransitively(TaskKey caller, TaskKey callee) {
+            return BottomUpShared.hasTransitiveTaskReq(caller, callee, this);
+        }
+
+        @Override public boolean hasDependencyOrderBefore(TaskKey caller, TaskKey callee) {
+            return BottomUpShared.hasTransitiveTaskReq(caller, callee, this);
+        }
+
+        @Override public Collection<ResourceRequireDep> getResourceRequireDeps(TaskKey requirer) {
+            return read(requirer, r -> new ArrayList<>(r.resourceRequireDeps), () -> new ArrayList<>(txn.getResourceRequireDeps(requirer)));
+        }
+
+        @Override public Set<TaskKey> getRequirersOf(ResourceKey requiree) {
+            synchronized(lock) {
+                return getRequirersOf(requiree, findAll());
+            }
+        }
+
+        private Set<TaskKey> getRequirersOf(ResourceKey requiree, Map<TaskKey, TaskRecord> records) {
+            final Set<TaskKey> requirers = new HashSet<>(txn.getRequirersOf(requiree));
+            records.forEach((key, record) -> {
+                if(record.requiresResource(requiree)) {
+                    requirers.add(key);
+                } else {
+                    requirers.remove(key);
+                }
+            });
+            return requirers;
+        }
+
+        @Override public Collection<ResourceProvideDep> getResourceProvideDeps(TaskKey provider) {
+            return read(provider, r -> new ArrayList<>(r.resourceProvideDeps), () -> new ArrayList<>(txn.getResourceProvideDeps(provider)));
+        }
+
+        @Override public @Nullable TaskKey getProviderOf(ResourceKey providee) {
+            synchronized(lock) {
+                return getProviderOf(providee, findAll());
+            }
+        }
+
+        private @Nullable TaskKey getProviderOf(ResourceKey providee, Map<TaskKey, TaskRecord> records) {
+            for(Map.Entry<TaskKey, TaskRecord> entry : records.entrySet()) {
+                if(entry.getValue().providesResource(providee)) return entry.getKey();
+            }
+            final @Nullable TaskKey provider = txn.getProviderOf(providee);
+            // A modified provider did not provide the resource when the snapshot was taken.
+            return provider != null && !records.containsKey(provider) ? provider : null;
+        }
+
+        @Override public @Nullable TaskData getData(TaskKey key) {
+            return read(key, TaskRecord::getData, () -> SynchronizedStoreWriteTxn.copy(txn.getData(key)));
+        }
+
+        @Override public Set<TaskKey> getDeferredTasks() {
+            synchronized(lock) {
+                final Set<TaskKey> deferred = new HashSet<>(txn.getDeferredTasks());
+                findAll().forEach((key, record) -> {
+                    if(record.deferred) {
+                        deferred.add(key);
+                    } else {
+                        deferred.remove(key);
+                    }
+                });
+                return deferred;
+            }
+        }
+
+        @Override public Set<TaskKey> getTasksWithoutCallers() {
+            synchronized(lock) {
+                final Set<TaskKey> tasksWithoutCallers = new HashSet<>(txn.getTasksWithoutCallers());
+                final Map<TaskKey, TaskRecord> records = findAll();
+                if(records.isEmpty()) return tasksWithoutCallers;
+                // Only modified tasks, and tasks that modified tasks require now, may have had different callers when
+                // this snapshot was taken. Modified tasks that did not exist at that time are removed.
+                final Set<TaskKey> affected = new HashSet<>();
+                for(Map.Entry<TaskKey, TaskRecord> entry : records.entrySet()) {
+                    final TaskKey key = entry.getKey();
+                    tasksWithoutCallers.remove(key);
+                    if(entry.getValue().input != null) {
+                        affected.add(key);
+                    }
+                    for(TaskKey callee : txn.getRequiredTasks(key)) {
+                        if(!records.containsKey(callee) && txn.getInput(callee) != null) {
+                            affected.add(callee);
+                        }
+                    }
+                }
+                for(TaskKey key : affected) {
+                    if(getCallersOf(key, records).isEmpty()) {
+                        tasksWithoutCallers.add(key);
+                    } else {
+                        tasksWithoutCallers.remove(key);
+                    }
+                }
+                return tasksWithoutCallers;
+            }
+        }
+
+        @Override public int getNumSourceFiles() {
+            synchronized(lock) {
+                int numSourceFiles = txn.getNumSourceFiles();
+                final Map<TaskKey, TaskRecord> records = findAll();
+                if(records.isEmpty()) return numSourceFiles;
+                // Only resources that modified tasks require or provide, now or when this snapshot was taken, may have
+                // been a source file at a different time. Correct the current number for each of those resources.
+                final Set<ResourceKey> affected = new HashSet<>();
+                for(Map.Entry<TaskKey, TaskRecord> entry : records.entrySet()) {
+                    final TaskRecord record = entry.getValue();
+                    for(ResourceRequireDep dep : record.resourceRequireDeps) affected.add(dep.key);
+                    for(ResourceProvideDep dep : record.resourceProvideDeps) affected.add(dep.key);
+                    for(ResourceRequireDep dep : txn.getResourceRequireDeps(entry.getKey())) affected.add(dep.key);
+                    for(ResourceProvideDep dep : txn.getResourceProvideDeps(entry.getKey())) affected.add(dep.key);
+                }
+                for(ResourceKey resource : affected) {
+                    final boolean isSourceFile = !txn.getRequirersOf(resource).isEmpty() && txn.getProviderOf(resource) == null;
+                    final boolean wasSourceFile = !getRequirersOf(resource, records).isEmpty() && getProviderOf(resource, records) == null;
+                    if(isSourceFile && !wasSourceFile) {
+                        --numSourceFiles;
+                    } else if(!isSourceFile && wasSourceFile) {
+                        ++numSourceFiles;
+                    }
+                }
+                return numSourceFiles;
+            }
+        }
+
+        @Override public @Nullable SerializableConsumer<Serializable> getCallback(TaskKey key) {
+            synchronized(lock) {
+                return txn.getCallback(key);
+            }
+        }
+
+
+        @Override public void close() {
+            // Undo logs are garbage collected when no longer referenced by snapshots, only the transaction is closed.
+            synchronized(lock) {
+                if(closed) return;
+                closed = true;
+                txn.close();
+            }
+        }
+
+
+        @Override public String toString() {
+            return "SnapshotStore.ReadTxn(" + txn + ")";
+        }
+    }
+}
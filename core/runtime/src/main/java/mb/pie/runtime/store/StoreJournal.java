@@ -0,0 +1,339 @@
+package mb.pie.runtime.store;
+
+import mb.pie.api.Store;
+import mb.pie.api.StoreWriteTxn;
+import mb.pie.api.serde.DeserializeRuntimeException;
+import mb.pie.api.serde.Serde;
+import mb.pie.api.serde.SerializeRuntimeException;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the changes made to a store, persisted in a directory, which consists of a snapshot of the
+ * store and journal segments.
+ *
+ * Each closed write transaction appends one record with its {@link JournalEntry entries} to the current segment. A
+ * record consists of the length of its payload, a CRC32 checksum of its payload, and the payload: the list of entries
+ * serialized with the {@link Serde}. Segments are numbered with increasing generations. The snapshot starts with the
+ * generation of the first segment that is not included in the snapshot, followed by the serialized store.
+ *
+ * When the segments since the snapshot grow larger than the compaction threshold, the journal starts a new segment,
+ * and compacts the previous segments into a new snapshot in the background. Compaction deserializes the previous
+ * snapshot, replays the previous segments onto it, and writes the result to a temporary file that atomically replaces
+ * the snapshot, after which the previous segments are deleted. Since compaction does not read the store that is in
+ * use, writes to the store are not blocked while compacting.
+ *
+ * {@link #recover Recovering} deserializes the snapshot and replays all segments that are not included in the snapshot.
+ * A record that is incomplete or has a checksum mismatch, for example because the process was killed while appending,
+ * ends the journal: the segment is truncated before the record, and later segments are deleted.
+ */
+class StoreJournal<S extends Store & Serializable> implements AutoCloseable {
+    private static final String snapshotFileName = "snapshot";
+    private static final String snapshotTemporaryFileName = snapshotFileName + ".tmp"; // See AtomicFileOutputStream.
+    private static final String segmentFilePrefix = "journal-";
+    private static final int recordHeaderSize = 8;
+
+    private final Path directory;
+    private final Serde serde;
+    private final @Nullable ClassLoader classLoader;
+    private final Supplier<S> storeSupplier;
+    private final Class<S> storeType;
+    private final long compactionThreshold;
+    private final Consumer<Exception> compactionFailHandler;
+    private final ExecutorService compactionExecutor;
+
+    private @Nullable FileChannel segment;
+    private long generation;
+    private long sizeSinceSnapshot;
+    private boolean compacting = false;
+
+
+    StoreJournal(
+        Path directory,
+        Serde serde,
+        @Nullable ClassLoader classLoader,
+        Supplier<S> storeSupplier,
+        Class<S> storeType,
+        long compactionThreshold,
+        Consumer<Exception> compactionFailHandler
+    ) {
+        this.directory = directory;
+        this.serde = serde;
+        this.classLoader = classLoader;
+        this.storeSupplier = storeSupplier;
+        this.storeType = storeType;
+        this.compactionThreshold = compactionThreshold;
+        this.compactionFailHandler = compactionFailHandler;
+        this.compactionExecutor = Executors.newSingleThreadExecutor((runnable) -> {
+            final Thread thread = new Thread(runnable, "PIE store journal compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    /**
+     * Recovers the store from the snapshot and segments in the directory, and starts a new segment for appending. When
+     * the snapshot or a segment cannot be read, {@code deserializeFailHandler} is called, and all persisted data is
+     * deleted, starting with a new store.
+     */
+    synchronized S recover(Consumer<Exception> deserializeFailHandler) throws IOException {
+        Files.createDirectories(directory);
+        Files.deleteIfExists(directory.resolve(snapshotTemporaryFileName));
+        final TreeMap<Long, Path> segments = listSegments();
+        S store;
+        long nextGeneration;
+        try {
+            final @Nullable Snapshot<S> snapshot = readSnapshot();
+            store = snapshot != null ? snapshot.store : storeSupplier.get();
+            final long snapshotGeneration = snapshot != null ? snapshot.generation : 0;
+            nextGeneration = snapshotGeneration;
+            sizeSinceSnapshot = 0;
+            boolean ended = false;
+            for(Path path : segments.headMap(snapshotGeneration).values()) {
+                // Segments left behind by a compaction that was interrupted after replacing the snapshot.
+                Files.deleteIfExists(path);
+            }
+            for(Map.Entry<Long, Path> entry : segments.tailMap(snapshotGeneration).entrySet()) {
+                if(ended) {
+                    Files.deleteIfExists(entry.getValue());
+                    continue;
+                }
+                ended = !replay(entry.getValue(), store, true);
+                final long size = Files.size(entry.getValue());
+                if(size == 0) {
+                    // Segments without records, for example from sessions without changes, are not needed anymore.
+                    Files.delete(entry.getValue());
+                }
+                sizeSinceSnapshot += size;
+                nextGeneration = entry.getKey() + 1;
+            }
+        } catch(DeserializeRuntimeException | IOException e) {
+            deserializeFailHandler.accept(e);
+            for(Path path : listSegments().values()) {
+                Files.deleteIfExists(path);
+            }
+            Files.deleteIfExists(directory.resolve(snapshotFileName));
+            store = storeSupplier.get();
+            nextGeneration = 0;
+            sizeSinceSnapshot = 0;
+        }
+        openSegment(nextGeneration);
+        return store;
+    }
+
+    /**
+     * Appends a record with {@code entries} to the current segment, and starts compacting in the background when the
+     * segments since the snapshot have grown larger than the compaction threshold.
+     */
+    synchronized void append(List<JournalEntry> entries) throws IOException {
+        final FileChannel segment = getSegment();
+        final byte[] payload;
+        try {
+            payload = serde.serializeToBytes(new ArrayList<>(entries));
+        } catch(SerializeRuntimeException e) {
+            throw new IOException("Serializing journal entries failed", e);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        final ByteBuffer buffer = ByteBuffer.allocate(recordHeaderSize + payload.length);
+        buffer.putInt(payload.length);
+        buffer.putInt((int)crc.getValue());
+        buffer.put(payload);
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            segment.write(buffer);
+        }
+        sizeSinceSnapshot += buffer.limit();
+        if(sizeSinceSnapshot > compactionThreshold && !compacting) {
+            startCompaction();
+        }
+    }
+
+    /**
+     * Forces appended records to be written to the storage device.
+     */
+    synchronized void sync() throws IOException {
+        getSegment().force(false);
+    }
+
+    /**
+     * Closes the current segment, and waits for a running compaction to complete, such that the directory can be
+     * recovered from after closing.
+     */
+    @Override public void close() throws IOException {
+        synchronized(this) {
+            if(segment != null) {
+                segment.force(false);
+                segment.close();
+                segment = null;
+            }
+        }
+        compactionExecutor.shutdown();
+        try {
+            compactionExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private void startCompaction() throws IOException {
+        // Start a new segment, such that compaction only reads segments that are not appended to anymore.
+        final FileChannel previousSegment = getSegment();
+        previousSegment.force(false);
+        previousSegment.close();
+        final long compactedGeneration = generation + 1;
+        openSegment(compactedGeneration);
+        sizeSinceSnapshot = 0;
+        compacting = true;
+        compactionExecutor.execute(() -> {
+            try {
+                compact(compactedGeneration);
+            } catch(DeserializeRuntimeException | SerializeRuntimeException | IOException e) {
+                // Segments are only deleted after the snapshot has been replaced, so no changes are lost.
+                compactionFailHandler.accept(e);
+            } finally {
+                synchronized(this) {
+                    compacting = false;
+                }
+            }
+        });
+    }
+
+    private void compact(long compactedGeneration) throws IOException {
+        final @Nullable Snapshot<S> snapshot = readSnapshot();
+        final S store = snapshot != null ? snapshot.store : storeSupplier.get();
+        final long snapshotGeneration = snapshot != null ? snapshot.generation : 0;
+        final TreeMap<Long, Path> segments = listSegments();
+        for(Path path : segments.subMap(snapshotGeneration, compactedGeneration).values()) {
+            replay(path, store, false);
+        }
+        try(final AtomicFileOutputStream outputStream = AtomicFileOutputStream.open(directory.resolve(snapshotFileName))) {
+            final DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+            dataOutputStream.writeLong(compactedGeneration);
+            serde.serialize(store, dataOutputStream);
+            outputStream.commit();
+        }
+        for(Path path : segments.headMap(compactedGeneration).values()) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Replays the records of the segment at {@code path} onto {@code store}.
+     *
+     * @param truncate Whether to truncate the segment before an incomplete or corrupt record.
+     * @return {@code true} if all records were replayed, {@code false} if an incomplete or corrupt record ended the
+     * journal.
+     */
+    private boolean replay(Path path, S store, boolean truncate) throws IOException {
+        long validSize = 0;
+        try(final DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+            final StoreWriteTxn txn = store.writeTxn()) {
+            while(true) {
+                final int length;
+                try {
+                    length = inputStream.readInt();
+                } catch(EOFException e) {
+                    return true; // End of segment.
+                }
+                final byte[] payload;
+                final int checksum;
+                try {
+                    checksum = inputStream.readInt();
+                    if(length < 0) break;
+                    payload = new byte[length];
+                    inputStream.readFully(payload);
+                } catch(EOFException e) {
+                    break;
+                }
+                final CRC32 crc = new CRC32();
+                crc.update(payload);
+                if((int)crc.getValue() != checksum) break;
+                @SuppressWarnings("unchecked") final ArrayList<JournalEntry> entries = serde.deserializeFromBytes(ArrayList.class, payload, classLoader);
+                for(JournalEntry entry : entries) {
+                    entry.apply(txn);
+                }
+                validSize += recordHeaderSize + length;
+            }
+        }
+        if(truncate) {
+            try(final FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(validSize);
+            }
+        }
+        return false;
+    }
+
+    private @Nullable Snapshot<S> readSnapshot() throws IOException {
+        final Path path = directory.resolve(snapshotFileName);
+        try(final DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            final long generation = inputStream.readLong();
+            final S store = serde.deserialize(storeType, inputStream, classLoader);
+            return new Snapshot<>(generation, store);
+        } catch(NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private TreeMap<Long, Path> listSegments() throws IOException {
+        final TreeMap<Long, Path> segments = new TreeMap<>();
+        try(final DirectoryStream<Path> stream = Files.newDirectoryStream(directory, segmentFilePrefix + "*")) {
+            for(Path path : stream) {
+                final String generation = path.getFileName().toString().substring(segmentFilePrefix.length());
+                try {
+                    segments.put(Long.parseLong(generation), path);
+                } catch(NumberFormatException e) {
+                    // Not a segment.
+                }
+            }
+        }
+        return segments;
+    }
+
+    private void openSegment(long generation) throws IOException {
+        this.segment = FileChannel.open(directory.resolve(segmentFilePrefix + generation), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.generation = generation;
+    }
+
+    private FileChannel getSegment() throws IOException {
+        if(segment == null) {
+            throw new IOException("Cannot write to journal in '" + directory + "'; it has been closed or was not recovered");
+        }
+        return segment;
+    }
+
+    private static class Snapshot<S> {
+        final long generation;
+        final S store;
+
+        Snapshot(long generation, S store) {
+            this.generation = generation;
+            this.store = store;
+        }
+    }
+}
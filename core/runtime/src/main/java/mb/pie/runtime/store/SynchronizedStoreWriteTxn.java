@@ -0,0 +1,333 @@
+package mb.pie.runtime.store;
+
+import mb.pie.api.Observability;
+import mb.pie.api.Output;
+import mb.pie.api.ResourceProvideDep;
+import mb.pie.api.ResourceRequireDep;
+import mb.pie.api.SerializableConsumer;
+import mb.pie.api.StoreWriteTxn;
+import mb.pie.api.Task;
+import mb.pie.api.TaskData;
+import mb.pie.api.TaskDeps;
+import mb.pie.api.TaskKey;
+import mb.pie.api.TaskRequireDep;
+import mb.resource.ResourceKey;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Write transaction decorator that serializes all calls to the decorated {@link StoreWriteTxn}, making it safe to share
+ * a single transaction between threads that execute tasks concurrently.
+ *
+ * Collections returned by the decorated transaction may be live views of the store, which would be modified while
+ * being iterated by another thread. Therefore, this decorator returns copies of all collections, including the
+ * dependency collections of {@link TaskData} objects.
+ *
+ * Calls are serialized by synchronizing on a lock object, which is this decorator unless another lock object is given,
+ * allowing subclasses and other code to synchronize on the same lock.
+ *
+ * Closing this transaction does not close the decorated transaction, as the decorated transaction is owned by the
+ * creator of this decorator.
+ */
+public class SynchronizedStoreWriteTxn implements StoreWriteTxn {
+    private final StoreWriteTxn txn;
+    protected final Object lock;
+
+
+    public SynchronizedStoreWriteTxn(StoreWriteTxn txn, Object lock) {
+        this.txn = txn;
+        this.lock = lock;
+    }
+
+    public SynchronizedStoreWriteTxn(StoreWriteTxn txn) {
+        this.txn = txn;
+        this.lock = this;
+    }
+
+    /**
+     * Returns {@code txn} if it is already thread-safe (i.e., it is a {@link ConcurrentInMemoryStore}), or decorates it
+     * with a {@link SynchronizedStoreWriteTxn} otherwise.
+     */
+    public static StoreWriteTxn synchronizeIfNeeded(StoreWriteTxn txn) {
+        if(txn instanceof ConcurrentInMemoryStore || txn instanceof SynchronizedStoreWriteTxn) {
+            return txn;
+        }
+        return new SynchronizedStoreWriteTxn(txn);
+    }
+
+
+    @Override public @Nullable Serializable getInput(TaskKey key) {
+        synchronized(lock) {
+            return txn.getInput(key);
+        }
+    }
+
+    @Override public @Nullable Serializable getInternalObject(TaskKey key) {
+        synchronized(lock) {
+            return txn.getInternalObject(key);
+        }
+    }
+
+    @Override public @Nullable Output getOutput(TaskKey key) {
+        synchronized(lock) {
+            return txn.getOutput(key);
+        }
+    }
+
+    @Override public Observability getTaskObservability(TaskKey key) {
+        synchronized(lock) {
+            return txn.getTaskObservability(key);
+        }
+    }
+
+    @Override public Collection<TaskRequireDep> getTaskRequireDeps(TaskKey caller) {
+        synchronized(lock) {
+            return new LinkedHashSet<>(txn.getTaskRequireDeps(caller));
+        }
+    }
+
+    @Override public Collection<TaskKey> getRequiredTasks(TaskKey caller) {
+        synchronized(lock) {
+            return new LinkedHashSet<>(txn.getRequiredTasks(caller));
+        }
+    }
+
+    @Override public Set<TaskKey> getCallersOf(TaskKey callee) {
+        synchronized(lock) {
+            return new HashSet<>(txn.getCallersOf(callee));
+        }
+    }
+
+    @Override public boolean doesRequireTransitively(TaskKey caller, TaskKey callee) {
+        synchronized(lock) {
+            return txn.doesRequireTransitively(caller, callee);
+        }
+    }
+
+    @Override public boolean hasDependencyOrderBefore(TaskKey caller, TaskKey callee) {
+        synchronized(lock) {
+            return txn.hasDependencyOrderBefore(caller, callee);
+        }
+    }
+
+    @Override public boolean hasTopologicalOrder() {
+        return txn.hasTopologicalOrder();
+    }
+
+    @Override public int getTopologicalIndex(TaskKey key) {
+        synchronized(lock) {
+            return txn.getTopologicalIndex(key);
+        }
+    }
+
+    @Override public boolean hasVerificationEpochs() {
+        return txn.hasVerificationEpochs();
+    }
+
+    @Override public long getEpoch() {
+        synchronized(lock) {
+            return txn.getEpoch();
+        }
+    }
+
+    @Override public long getVerifiedEpoch(TaskKey key) {
+        synchronized(lock) {
+            return txn.getVerifiedEpoch(key);
+        }
+    }
+
+    @Override public long advanceEpoch() {
+        synchronized(lock) {
+            return txn.advanceEpoch();
+        }
+    }
+
+    @Override public void setVerifiedEpoch(TaskKey key, long epoch) {
+        synchronized(lock) {
+            txn.setVerifiedEpoch(key, epoch);
+        }
+    }
+
+    @Override public Collection<ResourceRequireDep> getResourceRequireDeps(TaskKey requirer) {
+        synchronized(lock) {
+            return new LinkedHashSet<>(txn.getResourceRequireDeps(requirer));
+        }
+    }
+
+    @Override public Set<TaskKey> getRequirersOf(ResourceKey requiree) {
+        synchronized(lock) {
+            return new HashSet<>(txn.getRequirersOf(requiree));
+        }
+    }
+
+    @Override public Collection<ResourceProvideDep> getResourceProvideDeps(TaskKey provider) {
+        synchronized(lock) {
+            return new LinkedHashSet<>(txn.getResourceProvideDeps(provider));
+        }
+    }
+
+    @Override public @Nullable TaskKey getProviderOf(ResourceKey providee) {
+        synchronized(lock) {
+            return txn.getProviderOf(providee);
+        }
+    }
+
+    @Override public @Nullable TaskData getData(TaskKey key) {
+        synchronized(lock) {
+            return copy(txn.getData(key));
+        }
+    }
+
+    @Override public Set<TaskKey> getDeferredTasks() {
+        synchronized(lock) {
+            return new HashSet<>(txn.getDeferredTasks());
+        }
+    }
+
+    @Override public Set<TaskKey> getTasksWithoutCallers() {
+        synchronized(lock) {
+            return new HashSet<>(txn.getTasksWithoutCallers());
+        }
+    }
+
+    @Override public int getNumSourceFiles() {
+        synchronized(lock) {
+            return txn.getNumSourceFiles();
+        }
+    }
+
+    @Override public @Nullable SerializableConsumer<Serializable> getCallback(TaskKey key) {
+        synchronized(lock) {
+            return txn.getCallback(key);
+        }
+    }
+
+
+    @Override public @Nullable TaskData resetTask(Task<?> task) {
+        synchronized(lock) {
+            return copy(txn.resetTask(task));
+        }
+    }
+
+    @Override public void addTaskRequire(TaskKey caller, TaskKey callee) {
+        synchronized(lock) {
+            txn.addTaskRequire(caller, callee);
+        }
+    }
+
+    @Override public void addTaskRequireDep(TaskKey caller, TaskRequireDep dep) {
+        synchronized(lock) {
+            txn.addTaskRequireDep(caller, dep);
+        }
+    }
+
+    @Override public void addResourceRequireDep(TaskKey requiree, ResourceRequireDep dep) {
+        synchronized(lock) {
+            txn.addResourceRequireDep(requiree, dep);
+        }
+    }
+
+    @Override public void addResourceProvideDep(TaskKey provider, ResourceProvideDep dep) {
+        synchronized(lock) {
+            txn.addResourceProvideDep(provider, dep);
+        }
+    }
+
+    @Override public void setOutput(TaskKey key, @Nullable Serializable output) {
+        synchronized(lock) {
+            txn.setOutput(key, output);
+        }
+    }
+
+    @Override public void setTaskObservability(TaskKey key, Observability observability) {
+        synchronized(lock) {
+            txn.setTaskObservability(key, observability);
+        }
+    }
+
+    @Override public void setInternalObject(TaskKey key, @Nullable Serializable obj) {
+        synchronized(lock) {
+            txn.setInternalObject(key, obj);
+        }
+    }
+
+    @Override public void clearInternalObject(TaskKey key) {
+        synchronized(lock) {
+            txn.clearInternalObject(key);
+        }
+    }
+
+    @Override public void restoreData(TaskKey key, @Nullable TaskData data) {
+        synchronized(lock) {
+            txn.restoreData(key, data);
+        }
+    }
+
+    @Override public @Nullable TaskData deleteData(TaskKey key) {
+        synchronized(lock) {
+            return copy(txn.deleteData(key));
+        }
+    }
+
+    @Override public void addDeferredTask(TaskKey key) {
+        synchronized(lock) {
+            txn.addDeferredTask(key);
+        }
+    }
+
+    @Override public void removeDeferredTask(TaskKey key) {
+        synchronized(lock) {
+            txn.removeDeferredTask(key);
+        }
+    }
+
+    @Override public void setCallback(TaskKey key, SerializableConsumer<Serializable> callback) {
+        synchronized(lock) {
+            txn.setCallback(key, callback);
+        }
+    }
+
+    @Override public void removeCallback(TaskKey key) {
+        synchronized(lock) {
+            txn.removeCallback(key);
+        }
+    }
+
+    @Override public void dropCallbacks() {
+        synchronized(lock) {
+            txn.dropCallbacks();
+        }
+    }
+
+    @Override public void drop() {
+        synchronized(lock) {
+            txn.drop();
+        }
+    }
+
+
+    @Override public void close() {
+        // Do not close the decorated transaction, it is owned by the creator of this decorator.
+    }
+
+
+    static @Nullable TaskData copy(@Nullable TaskData data) {
+        if(data == null) return null;
+        final TaskDeps deps = new TaskDeps(
+            new LinkedHashSet<>(data.deps.taskRequireDeps),
+            new LinkedHashSet<>(data.deps.resourceRequireDeps),
+            new LinkedHashSet<>(data.deps.resourceProvideDeps)
+        );
+        return data.withDeps(deps);
+    }
+
+
+    @Override public String toString() {
+        return "SynchronizedStoreWriteTxn(" + txn + ")";
+    }
+}
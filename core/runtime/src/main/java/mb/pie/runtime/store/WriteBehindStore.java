@@ -0,0 +1,672 @@
+package mb.pie.runtime.store;
+
+import mb.pie.api.Observability;
+import mb.pie.api.Output;
+import mb.pie.api.ResourceProvideDep;
+import mb.pie.api.ResourceRequireDep;
+import mb.pie.api.SerializableConsumer;
+import mb.pie.api.Store;
+import mb.pie.api.StoreReadTxn;
+import mb.pie.api.StoreWriteTxn;
+import mb.pie.api.Task;
+import mb.pie.api.TaskData;
+import mb.pie.api.TaskDeps;
+import mb.pie.api.TaskKey;
+import mb.pie.api.TaskRequireDep;
+import mb.pie.runtime.exec.BottomUpShared;
+import mb.resource.ResourceKey;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Store decorator that buffers the writes of a write transaction in an in-memory overlay, and writes the net changes
+ * to the decorated {@link Store} when the transaction is closed. Reads of a write transaction are answered from the
+ * overlay first, and from the decorated store otherwise.
+ *
+ * Executing a task issues many fine-grained writes (resetting the task, adding each dependency, setting the output and
+ * observability), and a task that fails is restored to its previous data again. Against a persistent store such as an
+ * LMDB store, each of these writes is a separate serialized update. This decorator instead writes the final data of
+ * each modified task once, with {@link StoreWriteTxn#restoreData}, and does not write tasks whose final data is equal
+ * to their data in the decorated store at all, for example tasks that failed and were restored.
+ *
+ * Changes are flushed in one batch: data of deleted tasks is removed first, then data of the remaining modified tasks is
+ * written with (transitively) required tasks before the tasks that require them, also when they are required through
+ * unmodified tasks, such that the decorated store never observes a cycle between the old dependencies of one task and
+ * the new dependencies of another. Verification epochs and
+ * deferred tasks are written last.
+ *
+ * Each write transaction has its own overlay on top of a write transaction of the decorated store, which is opened
+ * when the write transaction is opened and committed when it is closed. Writes are not visible to other transactions
+ * until then. Read transactions are transactions of the decorated store. Write transactions of this store are not
+ * thread-safe; the runtime {@link SynchronizedStoreWriteTxn synchronizes} write transactions that are shared between
+ * threads.
+ *
+ * Limitations: a write transaction with buffered writes does not have a {@link StoreReadTxn#hasTopologicalOrder()
+ * topological order}, and answers dependency order queries with a graph search. Callbacks, {@link
+ * StoreWriteTxn#advanceEpoch() advancing the epoch}, and {@link StoreWriteTxn#drop() dropping} the store are passed
+ * to the decorated transaction immediately.
+ */
+public class WriteBehindStore implements Store {
+    private final Store store;
+
+
+    public WriteBehindStore(Store store) {
+        this.store = store;
+    }
+
+
+    @Override public StoreReadTxn readTxn() {
+        return store.readTxn();
+    }
+
+    @Override public StoreWriteTxn writeTxn() {
+        return new WriteTxn(store.writeTxn());
+    }
+
+    @Override public StoreReadTxn snapshotReadTxn() {
+        return store.snapshotReadTxn();
+    }
+
+    @Override public boolean supportsSnapshotReadTxn() {
+        return store.supportsSnapshotReadTxn();
+    }
+
+    @Override public void sync() {
+        store.sync();
+    }
+
+    @Override public void close() {
+        store.close();
+    }
+
+
+    @Override public String toString() {
+        return "WriteBehindStore(" + store + ")";
+    }
+
+
+    /**
+     * Data of a task in the overlay. The output of data read from the decorated store is only decoded when it is
+     * requested.
+     */
+    private static class TaskRecord {
+        @Nullable Serializable input;
+        @Nullable Serializable internalObject;
+        private @Nullable Output output;
+        private @Nullable TaskData outputSource; // When not null, the output is the (not yet decoded) output of this data.
+        Observability taskObservability;
+        final LinkedHashSet<TaskRequireDep> taskRequireDeps;
+        final LinkedHashSet<TaskKey> requiredTasks;
+        final LinkedHashSet<ResourceRequireDep> resourceRequireDeps;
+        final LinkedHashSet<ResourceProvideDep> resourceProvideDeps;
+        boolean callersDropped = false;
+
+        TaskRecord(StoreReadTxn txn, TaskKey key) {
+            final @Nullable TaskData data = txn.getData(key);
+            if(data != null) {
+                this.input = data.input;
+                this.internalObject = data.internalObject;
+                this.outputSource = data;
+                this.taskObservability = data.taskObservability;
+                this.taskRequireDeps = new LinkedHashSet<>(data.deps.taskRequireDeps);
+                this.resourceRequireDeps = new LinkedHashSet<>(data.deps.resourceRequireDeps);
+                this.resourceProvideDeps = new LinkedHashSet<>(data.deps.resourceProvideDeps);
+                this.requiredTasks = new LinkedHashSet<>(txn.getRequiredTasks(key));
+            } else {
+                // No data: either the task does not exist, or it has been reset but has no output.
+                this.input = txn.getInput(key);
+                this.internalObject = txn.getInternalObject(key);
+                this.output = txn.getOutput(key);
+                this.taskObservability = txn.getTaskObservability(key);
+                final boolean exists = input != null;
+                this.taskRequireDeps = exists ? new LinkedHashSet<>(txn.getTaskRequireDeps(key)) : new LinkedHashSet<>();
+                this.resourceRequireDeps = exists ? new LinkedHashSet<>(txn.getResourceRequireDeps(key)) : new LinkedHashSet<>();
+                this.resourceProvideDeps = exists ? new LinkedHashSet<>(txn.getResourceProvideDeps(key)) : new LinkedHashSet<>();
+                this.requiredTasks = exists ? new LinkedHashSet<>(txn.getRequiredTasks(key)) : new LinkedHashSet<>();
+            }
+        }
+
+        TaskRecord(TaskRecord other) {
+            this.input = other.input;
+            this.internalObject = other.internalObject;
+            this.output = other.output;
+            this.outputSource = other.outputSource;
+            this.taskObservability = other.taskObservability;
+            this.taskRequireDeps = new LinkedHashSet<>(other.taskRequireDeps);
+            this.requiredTasks = new LinkedHashSet<>(other.requiredTasks);
+            this.resourceRequireDeps = new LinkedHashSet<>(other.resourceRequireDeps);
+            this.resourceProvideDeps = new LinkedHashSet<>(other.resourceProvideDeps);
+            this.callersDropped = other.callersDropped;
+        }
+
+
+        boolean exists() {
+            return input != null;
+        }
+
+        @Nullable Output getOutput() {
+            final @Nullable TaskData outputSource = this.outputSource;
+            if(outputSource != null) {
+                this.output = outputSource.getWrappedOutput();
+                this.outputSource = null;
+            }
+            return output;
+        }
+
+        void setOutput(@Nullable Output output) {
+            this.output = output;
+            this.outputSource = null;
+        }
+
+        void setOutputFrom(TaskData data) {
+            this.output = null;
+            this.outputSource = data.hasOutput() ? data : null;
+        }
+
+        boolean hasOutput() {
+            return outputSource != null || output != null;
+        }
+
+        /**
+         * Creates task data from this record, which must {@link #exists() exist}. The data has no output if this record
+         * has no output, and does not decode the output if it has not been decoded yet.
+         */
+        TaskData toData() {
+            final Serializable input = Objects.requireNonNull(this.input);
+            final TaskDeps deps = new TaskDeps(new ArrayList<>(taskRequireDeps), new ArrayList<>(resourceRequireDeps), new ArrayList<>(resourceProvideDeps));
+            final @Nullable TaskData outputSource = this.outputSource;
+            if(outputSource != null) {
+                return new TaskData(input, internalObject, outputSource::getWrappedOutput, outputSource.mayHaveTransientOutput(), taskObservability, deps);
+            }
+            return new TaskData(input, internalObject, output, taskObservability, deps);
+        }
+
+        /**
+         * Gets the data of this record in the same way as stores do: {@code null} if the task does not exist or has no
+         * output.
+         */
+        @Nullable TaskData getData() {
+            if(!exists() || !hasOutput()) {
+                return null;
+            }
+            return toData();
+        }
+
+        boolean requiresResource(ResourceKey requiree) {
+            for(ResourceRequireDep dep : resourceRequireDeps) {
+                if(dep.key.equals(requiree)) return true;
+            }
+            return false;
+        }
+
+        /**
+         * Checks whether this record has the same data as {@code other}, decoding outputs only when they do not come
+         * from the same data.
+         */
+        boolean sameData(TaskRecord other) {
+            if(!Objects.equals(input, other.input)) return false;
+            if(!Objects.equals(internalObject, other.internalObject)) return false;
+            if(taskObservability != other.taskObservability) return false;
+            if(!new ArrayList<>(taskRequireDeps).equals(new ArrayList<>(other.taskRequireDeps))) return false;
+            if(!new ArrayList<>(requiredTasks).equals(new ArrayList<>(other.requiredTasks))) return false;
+            if(!new ArrayList<>(resourceRequireDeps).equals(new ArrayList<>(other.resourceRequireDeps))) return false;
+            if(!new ArrayList<>(resourceProvideDeps).equals(new ArrayList<>(other.resourceProvideDeps))) return false;
+            if(outputSource != null && outputSource == other.outputSource) return true;
+            return Objects.equals(getOutput(), other.getOutput());
+        }
+    }
+
+
+    private static class WriteTxn implements StoreWriteTxn {
+        private final StoreWriteTxn txn;
+        // Modified tasks, and their data in the decorated store before they were first modified.
+        private final LinkedHashMap<TaskKey, TaskRecord> records = new LinkedHashMap<>();
+        private final HashMap<TaskKey, TaskRecord> originals = new HashMap<>();
+        // Reverse dependencies of modified tasks. Reverse dependencies of other tasks are read from the decorated store.
+        private final HashMap<TaskKey, Set<TaskKey>> callersOf = new HashMap<>();
+        private final HashMap<ResourceKey, Set<TaskKey>> requireesOf = new HashMap<>();
+        private final HashMap<ResourceKey, TaskKey> providerOf = new HashMap<>();
+        // Verified epochs (-1 when removed) and deferred tasks, which are kept separately to not read task data.
+        private final HashMap<TaskKey, Long> verifiedEpochs = new HashMap<>();
+        private final LinkedHashMap<TaskKey, Boolean> deferredTasks = new LinkedHashMap<>();
+        private boolean closed = false;
+
+        WriteTxn(StoreWriteTxn txn) {
+            this.txn = txn;
+        }
+
+
+        /**
+         * Gets the record of task with {@code key} for modification, reading it from the decorated store if this is the
+         * first time that task is modified.
+         */
+        private TaskRecord record(TaskKey key) {
+            final @Nullable TaskRecord record = records.get(key);
+            if(record != null) return record;
+            final TaskRecord newRecord = new TaskRecord(txn, key);
+            originals.put(key, new TaskRecord(newRecord));
+            records.put(key, newRecord);
+            for(TaskKey callee : newRecord.requiredTasks) {
+                getOrPutEmptySet(callersOf, callee).add(key);
+            }
+            for(ResourceRequireDep dep : newRecord.resourceRequireDeps) {
+                getOrPutEmptySet(requireesOf, dep.key).add(key);
+            }
+            for(ResourceProvideDep dep : newRecord.resourceProvideDeps) {
+                providerOf.put(dep.key, key);
+            }
+            return newRecord;
+        }
+
+        private void removeDeps(TaskKey key, TaskRecord record) {
+            for(TaskKey callee : record.requiredTasks) {
+                final @Nullable Set<TaskKey> callers = callersOf.get(callee);
+                if(callers != null) callers.remove(key);
+            }
+            record.requiredTasks.clear();
+            record.taskRequireDeps.clear();
+            for(ResourceRequireDep dep : record.resourceRequireDeps) {
+                final @Nullable Set<TaskKey> requirees = requireesOf.get(dep.key);
+                if(requirees != null) requirees.remove(key);
+            }
+            record.resourceRequireDeps.clear();
+            for(ResourceProvideDep dep : record.resourceProvideDeps) {
+                providerOf.remove(dep.key, key);
+            }
+            record.resourceProvideDeps.clear();
+        }
+
+        private static <K> Set<TaskKey> getOrPutEmptySet(HashMap<K, Set<TaskKey>> map, K key) {
+            return map.computeIfAbsent(key, k -> new HashSet<>());
+        }
+
+
+        @Override public @Nullable Serializable getInput(TaskKey key) {
+            final @Nullable TaskRecord record = records.get(key);
+            return record != null ? record.input : txn.getInput(key);
+        }
+
+        @Override public @Nullable Serializable getInternalObject(TaskKey key) {
+            final @Nullable TaskRecord record = records.get(key);
+            return record != null ? record.internalObject : txn.getInternalObject(key);
+        }
+
+        @Override public @Nullable Output getOutput(TaskKey key) {
+            final @Nullable TaskRecord record = records.get(key);
+            return record != null ? record.getOutput() : txn.getOutput(key);
+        }
+
+        @Override public Observability getTaskObservability(TaskKey key) {
+            final @Nullable TaskRecord record = records.get(key);
+            return record != null ? record.taskObservability : txn.getTaskObservability(key);
+        }
+
+        @Override public Collection<TaskRequireDep> getTaskRequireDeps(TaskKey caller) {
+            final @Nullable TaskRecord record = records.get(caller);
+            return record != null ? new ArrayList<>(record.taskRequireDeps) : txn.getTaskRequireDeps(caller);
+        }
+
+        @Override public Collection<TaskKey> getRequiredTasks(TaskKey caller) {
+            final @Nullable TaskRecord record = records.get(caller);
+            return record != null ? new LinkedHashSet<>(record.requiredTasks) : txn.getRequiredTasks(caller);
+        }
+
+        @Override public Set<TaskKey> getCallersOf(TaskKey callee) {
+            final HashSet<TaskKey> callers = new HashSet<>();
+            final @Nullable TaskRecord record = records.get(callee);
+            if(record == null || !record.callersDropped) {
+                for(TaskKey caller : txn.getCallersOf(callee)) {
+                    if(!records.containsKey(caller)) callers.add(caller);
+                }
+            }
+            final @Nullable Set<TaskKey> modifiedCallers = callersOf.get(callee);
+            if(modifiedCallers != null) callers.addAll(modifiedCallers);
+            return callers;
+        }
+
+        @Override public boolean doesRequireTransitively(TaskKey caller, TaskKey callee) {
+            if(records.isEmpty()) return txn.doesRequireTransitively(caller, callee);
+            return BottomUpShared.hasTransitiveTaskReq(caller, callee, this);
+        }
+
+        @Override public boolean hasDependencyOrderBefore(TaskKey caller, TaskKey callee) {
+            if(records.isEmpty()) return txn.hasDependencyOrderBefore(caller, callee);
+            return BottomUpShared.hasTransitiveTaskReq(caller, callee, this);
+        }
+
+        @Override public boolean hasVerificationEpochs() {
+            return txn.hasVerificationEpochs();
+        }
+
+        @Override public long getEpoch() {
+            return txn.getEpoch();
+        }
+
+        @Override public long getVerifiedEpoch(TaskKey key) {
+            final @Nullable Long epoch = verifiedEpochs.get(key);
+            return epoch != null ? epoch : txn.getVerifiedEpoch(key);
+        }
+
+        @Override public Collection<ResourceRequireDep> getResourceRequireDeps(TaskKey requirer) {
+            final @Nullable TaskRecord record = records.get(requirer);
+            return record != null ? new ArrayList<>(record.resourceRequireDeps) : txn.getResourceRequireDeps(requirer);
+        }
+
+        @Override public Set<TaskKey> getRequirersOf(ResourceKey requiree) {
+            final HashSet<TaskKey> requirers = new HashSet<>();
+            for(TaskKey requirer : txn.getRequirersOf(requiree)) {
+                if(!records.containsKey(requirer)) requirers.add(requirer);
+            }
+            final @Nullable Set<TaskKey> modifiedRequirers = requireesOf.get(requiree);
+            if(modifiedRequirers != null) requirers.addAll(modifiedRequirers);
+            return requirers;
+        }
+
+        @Override public Collection<ResourceProvideDep> getResourceProvideDeps(TaskKey provider) {
+            final @Nullable TaskRecord record = records.get(provider);
+            return record != null ? new ArrayList<>(record.resourceProvideDeps) : txn.getResourceProvideDeps(provider);
+        }
+
+        @Override public @Nullable TaskKey getProviderOf(ResourceKey providee) {
+            final @Nullable TaskKey modifiedProvider = providerOf.get(providee);
+            if(modifiedProvider != null) return modifiedProvider;
+            final @Nullable TaskKey provider = txn.getProviderOf(providee);
+            // A modified provider that is not in `providerOf` does not provide the resource anymore.
+            return provider != null && !records.containsKey(provider) ? provider : null;
+        }
+
+        @Override public @Nullable TaskData getData(TaskKey key) {
+            final @Nullable TaskRecord record = records.get(key);
+            return record != null ? record.getData() : txn.getData(key);
+        }
+
+        @Override public Set<TaskKey> getDeferredTasks() {
+            final HashSet<TaskKey> deferred = new HashSet<>(txn.getDeferredTasks());
+            deferredTasks.forEach((key, isDeferred) -> {
+                if(isDeferred) {
+                    deferred.add(key);
+                } else {
+                    deferred.remove(key);
+                }
+            });
+            return deferred;
+        }
+
+        @Override public Set<TaskKey> getTasksWithoutCallers() {
+            final HashSet<TaskKey> tasks = new HashSet<>();
+            for(TaskKey key : txn.getTasksWithoutCallers()) {
+                // Unmodified tasks only gain callers from modified tasks.
+                if(!records.containsKey(key) && !callersOf.containsKey(key)) tasks.add(key);
+            }
+            // Modified tasks, and tasks that were required by modified tasks, may have lost or gained callers.
+            final HashSet<TaskKey> candidates = new HashSet<>(records.keySet());
+            candidates.addAll(callersOf.keySet());
+            for(TaskKey candidate : candidates) {
+                if(getInput(candidate) != null && getCallersOf(candidate).isEmpty()) tasks.add(candidate);
+            }
+            return tasks;
+        }
+
+        @Override public int getNumSourceFiles() {
+            if(records.isEmpty()) return txn.getNumSourceFiles();
+            // Adjust the number of source files of the decorated store for resources of modified tasks.
+            final HashSet<ResourceKey> resources = new HashSet<>(requireesOf.keySet());
+            resources.addAll(providerOf.keySet());
+            for(TaskRecord original : originals.values()) {
+                for(ResourceProvideDep dep : original.resourceProvideDeps) {
+                    resources.add(dep.key);
+                }
+            }
+            int numSourceFiles = txn.getNumSourceFiles();
+            for(ResourceKey resource : resources) {
+                if(isSourceFile(txn, resource)) --numSourceFiles;
+                if(isSourceFile(this, resource)) ++numSourceFiles;
+            }
+            return numSourceFiles;
+        }
+
+        private static boolean isSourceFile(StoreReadTxn txn, ResourceKey resource) {
+            return !txn.getRequirersOf(resource).isEmpty() && txn.getProviderOf(resource) == null;
+        }
+
+        @Override public @Nullable SerializableConsumer<Serializable> getCallback(TaskKey key) {
+            return txn.getCallback(key);
+        }
+
+
+        @Override public @Nullable TaskData resetTask(Task<?> task) {
+            final TaskKey key = task.key();
+            final TaskRecord record = record(key);
+            final @Nullable TaskData previousData = record.exists() ? record.toData() : null;
+            record.input = task.input;
+            record.setOutput(null);
+            record.taskObservability = Observability.Unobserved;
+            removeDeps(key, record);
+            verifiedEpochs.put(key, -1L);
+            return previousData;
+        }
+
+        @Override public void addTaskRequire(TaskKey caller, TaskKey callee) {
+            record(caller).requiredTasks.add(callee);
+            getOrPutEmptySet(callersOf, callee).add(caller);
+        }
+
+        @Override public void addTaskRequireDep(TaskKey caller, TaskRequireDep dep) {
+            record(caller).taskRequireDeps.add(dep);
+        }
+
+        @Override public void addResourceRequireDep(TaskKey requiree, ResourceRequireDep dep) {
+            record(requiree).resourceRequireDeps.add(dep);
+            getOrPutEmptySet(requireesOf, dep.key).add(requiree);
+        }
+
+        @Override public void addResourceProvideDep(TaskKey provider, ResourceProvideDep dep) {
+            record(provider).resourceProvideDeps.add(dep);
+            providerOf.put(dep.key, provider);
+        }
+
+        @Override public void setOutput(TaskKey key, @Nullable Serializable output) {
+            record(key).setOutput(new Output(output));
+        }
+
+        @Override public void setTaskObservability(TaskKey key, Observability observability) {
+            record(key).taskObservability = observability;
+        }
+
+        @Override public void setInternalObject(TaskKey key, @Nullable Serializable obj) {
+            record(key).internalObject = obj;
+        }
+
+        @Override public void clearInternalObject(TaskKey key) {
+            record(key).internalObject = null;
+        }
+
+        @Override public void restoreData(TaskKey key, @Nullable TaskData data) {
+            final TaskRecord record = record(key);
+            removeDeps(key, record);
+            verifiedEpochs.put(key, -1L);
+            if(data != null) {
+                record.input = data.input;
+                record.internalObject = data.internalObject;
+                record.setOutputFrom(data);
+                record.taskObservability = data.taskObservability;
+                for(TaskRequireDep dep : data.deps.taskRequireDeps) {
+                    addTaskRequire(key, dep.callee);
+                    addTaskRequireDep(key, dep);
+                }
+                for(ResourceRequireDep dep : data.deps.resourceRequireDeps) {
+                    addResourceRequireDep(key, dep);
+                }
+                for(ResourceProvideDep dep : data.deps.resourceProvideDeps) {
+                    addResourceProvideDep(key, dep);
+                }
+            } else {
+                record.input = null;
+                record.internalObject = null;
+                record.setOutput(null);
+                record.taskObservability = Observability.Unobserved;
+                record.callersDropped = true;
+            }
+        }
+
+        @Override public @Nullable TaskData deleteData(TaskKey key) {
+            final TaskRecord record = record(key);
+            if(!record.exists()) {
+                return null;
+            }
+            final TaskData data = record.toData();
+            if(!data.hasOutput()) {
+                throw new IllegalStateException("BUG: deleting task data for '" + key + "', but no output was deleted");
+            }
+            restoreData(key, null);
+            deferredTasks.put(key, false);
+            return data;
+        }
+
+        @Override public long advanceEpoch() {
+            return txn.advanceEpoch();
+        }
+
+        @Override public void setVerifiedEpoch(TaskKey key, long epoch) {
+            verifiedEpochs.put(key, epoch);
+        }
+
+        @Override public void addDeferredTask(TaskKey key) {
+            deferredTasks.put(key, true);
+        }
+
+        @Override public void removeDeferredTask(TaskKey key) {
+            deferredTasks.put(key, false);
+        }
+
+        @Override public void setCallback(TaskKey key, SerializableConsumer<Serializable> callback) {
+            txn.setCallback(key, callback);
+        }
+
+        @Override public void removeCallback(TaskKey key) {
+            txn.removeCallback(key);
+        }
+
+        @Override public void dropCallbacks() {
+            txn.dropCallbacks();
+        }
+
+        @Override public void drop() {
+            records.clear();
+            originals.clear();
+            callersOf.clear();
+            requireesOf.clear();
+            providerOf.clear();
+            verifiedEpochs.clear();
+            deferredTasks.clear();
+            txn.drop();
+        }
+
+
+        /**
+         * Writes the net changes of this transaction to the decorated transaction.
+         */
+        private void flush() {
+            // Remove data of deleted tasks first, which only removes dependencies and can therefore not create cycles.
+            records.forEach((key, record) -> {
+                final TaskRecord original = originals.get(key);
+                if(original.exists() && (!record.exists() || record.callersDropped)) {
+                    txn.restoreData(key, null);
+                }
+            });
+            final boolean hasVerificationEpochs = txn.hasVerificationEpochs();
+            for(TaskKey key : requiredTasksFirst()) {
+                final TaskRecord record = records.get(key);
+                if(!record.exists()) continue;
+                final TaskRecord original = originals.get(key);
+                final @Nullable Long epoch = verifiedEpochs.get(key);
+                final boolean removesVerifiedEpoch = hasVerificationEpochs && epoch != null && epoch == -1L && txn.getVerifiedEpoch(key) != -1L;
+                if(!record.callersDropped && !removesVerifiedEpoch && record.sameData(original)) continue;
+                txn.restoreData(key, record.toData());
+                // Tasks can be required without a task require dependency, for example when the requiring task fails.
+                if(record.requiredTasks.size() != record.taskRequireDeps.size()) {
+                    final HashSet<TaskKey> restoredCallees = new HashSet<>();
+                    for(TaskRequireDep dep : record.taskRequireDeps) {
+                        restoredCallees.add(dep.callee);
+                    }
+                    for(TaskKey callee : record.requiredTasks) {
+                        if(!restoredCallees.contains(callee)) txn.addTaskRequire(key, callee);
+                    }
+                }
+            }
+            if(hasVerificationEpochs) {
+                verifiedEpochs.forEach((key, epoch) -> {
+                    if(epoch != -1L) txn.setVerifiedEpoch(key, epoch);
+                });
+            }
+            deferredTasks.forEach((key, isDeferred) -> {
+                if(isDeferred) {
+                    txn.addDeferredTask(key);
+                } else {
+                    txn.removeDeferredTask(key);
+                }
+            });
+        }
+
+        /**
+         * Orders modified tasks such that tasks they (transitively) require are ordered before them, using a
+         * depth-first search over the new dependencies of modified tasks and the stored dependencies of unmodified
+         * tasks. Unmodified tasks must be traversed as well: a modified task may require a modified task through an
+         * unmodified one, while the old dependencies of the latter task still reach the former.
+         */
+        private ArrayList<TaskKey> requiredTasksFirst() {
+            final ArrayList<TaskKey> order = new ArrayList<>(records.size());
+            final HashSet<TaskKey> visited = new HashSet<>();
+            final ArrayDeque<TaskKey> keys = new ArrayDeque<>();
+            final ArrayDeque<Iterator<TaskKey>> iterators = new ArrayDeque<>();
+            for(Map.Entry<TaskKey, TaskRecord> entry : records.entrySet()) {
+                if(!visited.add(entry.getKey())) continue;
+                keys.push(entry.getKey());
+                iterators.push(entry.getValue().requiredTasks.iterator());
+                while(!keys.isEmpty()) {
+                    final Iterator<TaskKey> iterator = iterators.peek();
+                    if(iterator.hasNext()) {
+                        final TaskKey callee = iterator.next();
+                        if(visited.add(callee)) {
+                            keys.push(callee);
+                            iterators.push(getRequiredTasks(callee).iterator());
+                        }
+                    } else {
+                        iterators.pop();
+                        final TaskKey key = keys.pop();
+                        if(records.containsKey(key)) order.add(key);
+                    }
+                }
+            }
+            return order;
+        }
+
+
+        @Override public void close() {
+            if(closed) return;
+            closed = true;
+            try {
+                flush();
+            } finally {
+                txn.close();
+            }
+        }
+
+
+        @Override public String toString() {
+            return "WriteBehindStore.WriteTxn(" + txn + ")";
+        }
+    }
+}
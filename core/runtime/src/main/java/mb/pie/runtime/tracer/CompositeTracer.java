@@ -279,9 +279,9 @@ public class CompositeTracer implements Tracer {
     }
 
     @Override
-    public void checkVisitedEnd(TaskKey key, @Nullable Serializable output) {
+    public void checkVisitedEnd(TaskKey key, @Nullable TaskData data) {
         for(Tracer tracer : tracers) {
-            tracer.checkVisitedEnd(key, output);
+            tracer.checkVisitedEnd(key, data);
         }
     }
 
@@ -293,9 +293,9 @@ public class CompositeTracer implements Tracer {
     }
 
     @Override
-    public void checkStoredEnd(TaskKey key, @Nullable Serializable output) {
+    public void checkStoredEnd(TaskKey key, @Nullable TaskData data) {
         for(Tracer tracer : tracers) {
-            tracer.checkStoredEnd(key, output);
+            tracer.checkStoredEnd(key, data);
         }
     }
 
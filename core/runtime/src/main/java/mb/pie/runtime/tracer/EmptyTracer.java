@@ -130,13 +130,13 @@ class EmptyTracer implements Tracer {
     public void checkVisitedStart(TaskKey key) {}
 
     @Override
-    public void checkVisitedEnd(TaskKey key, @Nullable Serializable output) {}
+    public void checkVisitedEnd(TaskKey key, @Nullable TaskData data) {}
 
     @Override
     public void checkStoredStart(TaskKey key) {}
 
     @Override
-    public void checkStoredEnd(TaskKey key, @Nullable Serializable output) {}
+    public void checkStoredEnd(TaskKey key, @Nullable TaskData data) {}
 
     @Override
     public void invokeCallbackStart(@Nullable Consumer<Serializable> observer, TaskKey key, @Nullable Serializable output) {}
@@ -395,16 +395,16 @@ public class LoggingTracer implements Tracer {
         if(metricsTracer != null) metricsTracer.checkVisitedStart(key);
     }
 
-    @Override public void checkVisitedEnd(TaskKey key, @Nullable Serializable output) {
-        if(metricsTracer != null) metricsTracer.checkVisitedEnd(key, output);
+    @Override public void checkVisitedEnd(TaskKey key, @Nullable TaskData data) {
+        if(metricsTracer != null) metricsTracer.checkVisitedEnd(key, data);
     }
 
     @Override public void checkStoredStart(TaskKey key) {
         if(metricsTracer != null) metricsTracer.checkStoredStart(key);
     }
 
-    @Override public void checkStoredEnd(TaskKey key, @Nullable Serializable output) {
-        if(metricsTracer != null) metricsTracer.checkStoredEnd(key, output);
+    @Override public void checkStoredEnd(TaskKey key, @Nullable TaskData data) {
+        if(metricsTracer != null) metricsTracer.checkStoredEnd(key, data);
     }
 
     @Override
@@ -0,0 +1,29 @@
+package mb.pie.runtime.tracer;
+
+import mb.pie.api.stamp.ResourceStamper;
+import mb.resource.Resource;
+import mb.resource.ResourceKey;
+
+import java.util.function.Consumer;
+
+/**
+ * Tracer that notifies a listener with the keys of resources that are required or provided by executing tasks. Combine
+ * with other tracers using a {@link CompositeTracer}.
+ */
+public class ResourceListenerTracer extends EmptyTracer {
+    private final Consumer<ResourceKey> listener;
+
+
+    public ResourceListenerTracer(Consumer<ResourceKey> listener) {
+        this.listener = listener;
+    }
+
+
+    @Override public void providedResource(Resource resource, ResourceStamper<?> stamper) {
+        listener.accept(resource.getKey());
+    }
+
+    @Override public void requiredResource(Resource resource, ResourceStamper<?> stamper) {
+        listener.accept(resource.getKey());
+    }
+}
@@ -0,0 +1,322 @@
+package mb.pie.runtime.tracer;
+
+import mb.pie.api.InconsistentResourceProvide;
+import mb.pie.api.InconsistentResourceRequire;
+import mb.pie.api.InconsistentTaskRequire;
+import mb.pie.api.Observability;
+import mb.pie.api.ResourceProvideDep;
+import mb.pie.api.ResourceRequireDep;
+import mb.pie.api.Task;
+import mb.pie.api.TaskData;
+import mb.pie.api.TaskKey;
+import mb.pie.api.TaskRequireDep;
+import mb.pie.api.Tracer;
+import mb.pie.api.exec.ExecReason;
+import mb.pie.api.stamp.OutputStamper;
+import mb.pie.api.stamp.ResourceStamper;
+import mb.resource.Resource;
+import mb.resource.ResourceKey;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.Serializable;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Tracer decorator that serializes all calls to the decorated {@link Tracer}, making it safe to use a tracer that is not
+ * thread-safe from multiple threads, for example when executing tasks concurrently.
+ */
+public class SynchronizedTracer implements Tracer {
+    private final Tracer tracer;
+    private final Object lock = new Object();
+
+
+    public SynchronizedTracer(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+
+    @Override
+    public void providedResource(Resource resource, ResourceStamper<?> stamper) {
+        synchronized(lock) {
+            tracer.providedResource(resource, stamper);
+        }
+    }
+
+    @Override
+    public void requiredResource(Resource resource, ResourceStamper<?> stamper) {
+        synchronized(lock) {
+            tracer.requiredResource(resource, stamper);
+        }
+    }
+
+    @Override
+    public void requiredTask(Task<?> task, OutputStamper stamper) {
+        synchronized(lock) {
+            tracer.requiredTask(task, stamper);
+        }
+    }
+
+
+    @Override
+    public void executeStart(TaskKey key, Task<?> task, ExecReason reason) {
+        synchronized(lock) {
+            tracer.executeStart(key, task, reason);
+        }
+    }
+
+    @Override
+    public void executeEndSuccess(TaskKey key, Task<?> task, ExecReason reason, TaskData data) {
+        synchronized(lock) {
+            tracer.executeEndSuccess(key, task, reason, data);
+        }
+    }
+
+    @Override
+    public void executeEndFailed(TaskKey key, Task<?> task, ExecReason reason, Exception e) {
+        synchronized(lock) {
+            tracer.executeEndFailed(key, task, reason, e);
+        }
+    }
+
+    @Override
+    public void executeEndInterrupted(TaskKey key, Task<?> task, ExecReason reason, InterruptedException e) {
+        synchronized(lock) {
+            tracer.executeEndInterrupted(key, task, reason, e);
+        }
+    }
+
+
+    @Override public void requireStart(TaskKey key, Task<?> task) {
+        synchronized(lock) {
+            tracer.requireStart(key, task);
+        }
+    }
+
+    @Override public void requireEnd(TaskKey key, Task<?> task) {
+        synchronized(lock) {
+            tracer.requireEnd(key, task);
+        }
+    }
+
+
+    @Override
+    public void upToDate(TaskKey key, Task<?> task) {
+        synchronized(lock) {
+            tracer.upToDate(key, task);
+        }
+    }
+
+
+    @Override
+    public void requireTopDownInitialStart(TaskKey key, Task<?> task) {
+        synchronized(lock) {
+            tracer.requireTopDownInitialStart(key, task);
+        }
+    }
+
+    @Override
+    public void requireTopDownInitialEnd(TaskKey key, Task<?> task, @Nullable Serializable output) {
+        synchronized(lock) {
+            tracer.requireTopDownInitialEnd(key, task, output);
+        }
+    }
+
+    @Override
+    public void checkTopDownStart(TaskKey key, Task<?> task) {
+        synchronized(lock) {
+            tracer.checkTopDownStart(key, task);
+        }
+    }
+
+    @Override
+    public void checkTopDownEnd(TaskKey key, Task<?> task) {
+        synchronized(lock) {
+            tracer.checkTopDownEnd(key, task);
+        }
+    }
+
+    @Override
+    public void checkResourceProvideStart(TaskKey provider, Task<?> task, ResourceProvideDep dep) {
+        synchronized(lock) {
+            tracer.checkResourceProvideStart(provider, task, dep);
+        }
+    }
+
+    @Override
+    public void checkResourceProvideEnd(TaskKey provider, Task<?> task, ResourceProvideDep dep, @Nullable InconsistentResourceProvide reason) {
+        synchronized(lock) {
+            tracer.checkResourceProvideEnd(provider, task, dep, reason);
+        }
+    }
+
+    @Override
+    public void checkResourceRequireStart(TaskKey requirer, Task<?> task, ResourceRequireDep dep) {
+        synchronized(lock) {
+            tracer.checkResourceRequireStart(requirer, task, dep);
+        }
+    }
+
+    @Override
+    public void checkResourceRequireEnd(TaskKey requirer, Task<?> task, ResourceRequireDep dep, @Nullable InconsistentResourceRequire reason) {
+        synchronized(lock) {
+            tracer.checkResourceRequireEnd(requirer, task, dep, reason);
+        }
+    }
+
+    @Override
+    public void checkTaskRequireStart(TaskKey key, Task<?> task, TaskRequireDep dep) {
+        synchronized(lock) {
+            tracer.checkTaskRequireStart(key, task, dep);
+        }
+    }
+
+    @Override
+    public void checkTaskRequireEnd(TaskKey key, Task<?> task, TaskRequireDep dep, @Nullable InconsistentTaskRequire reason) {
+        synchronized(lock) {
+            tracer.checkTaskRequireEnd(key, task, dep, reason);
+        }
+    }
+
+
+    @Override
+    public void requireBottomUpInitialStart(Set<? extends ResourceKey> changedResources) {
+        synchronized(lock) {
+            tracer.requireBottomUpInitialStart(changedResources);
+        }
+    }
+
+    @Override
+    public void requireBottomUpInitialEnd() {
+        synchronized(lock) {
+            tracer.requireBottomUpInitialEnd();
+        }
+    }
+
+    @Override
+    public void scheduleAffectedByResourceStart(ResourceKey resource) {
+        synchronized(lock) {
+            tracer.scheduleAffectedByResourceStart(resource);
+        }
+    }
+
+    @Override
+    public void scheduleAffectedByResourceEnd(ResourceKey resource) {
+        synchronized(lock) {
+            tracer.scheduleAffectedByResourceEnd(resource);
+        }
+    }
+
+    @Override
+    public void checkAffectedByProvidedResource(TaskKey provider, @Nullable ResourceProvideDep dep, @Nullable InconsistentResourceProvide reason) {
+        synchronized(lock) {
+            tracer.checkAffectedByProvidedResource(provider, dep, reason);
+        }
+    }
+
+    @Override
+    public void checkAffectedByRequiredResource(TaskKey requirer, @Nullable ResourceRequireDep dep, @Nullable InconsistentResourceRequire reason) {
+        synchronized(lock) {
+            tracer.checkAffectedByRequiredResource(requirer, dep, reason);
+        }
+    }
+
+    @Override
+    public void scheduleAffectedByTaskOutputStart(TaskKey requiree, @Nullable Serializable output) {
+        synchronized(lock) {
+            tracer.scheduleAffectedByTaskOutputStart(requiree, output);
+        }
+    }
+
+    @Override
+    public void scheduleAffectedByTaskOutputEnd(TaskKey requiree, @Nullable Serializable output) {
+        synchronized(lock) {
+            tracer.scheduleAffectedByTaskOutputEnd(requiree, output);
+        }
+    }
+
+    @Override
+    public void checkAffectedByRequiredTask(TaskKey requirer, @Nullable TaskRequireDep dep, @Nullable InconsistentTaskRequire reason) {
+        synchronized(lock) {
+            tracer.checkAffectedByRequiredTask(requirer, dep, reason);
+        }
+    }
+
+    @Override
+    public void scheduleTask(TaskKey key) {
+        synchronized(lock) {
+            tracer.scheduleTask(key);
+        }
+    }
+
+    @Override public void deferTask(TaskKey key) {
+        synchronized(lock) {
+            tracer.deferTask(key);
+        }
+    }
+
+    @Override
+    public void requireScheduledNowStart(TaskKey key) {
+        synchronized(lock) {
+            tracer.requireScheduledNowStart(key);
+        }
+    }
+
+    @Override
+    public void requireScheduledNowEnd(TaskKey key, @Nullable TaskData data) {
+        synchronized(lock) {
+            tracer.requireScheduledNowEnd(key, data);
+        }
+    }
+
+
+    @Override
+    public void checkVisitedStart(TaskKey key) {
+        synchronized(lock) {
+            tracer.checkVisitedStart(key);
+        }
+    }
+
+    @Override
+    public void checkVisitedEnd(TaskKey key, @Nullable TaskData data) {
+        synchronized(lock) {
+            tracer.checkVisitedEnd(key, data);
+        }
+    }
+
+    @Override
+    public void checkStoredStart(TaskKey key) {
+        synchronized(lock) {
+            tracer.checkStoredStart(key);
+        }
+    }
+
+    @Override
+    public void checkStoredEnd(TaskKey key, @Nullable TaskData data) {
+        synchronized(lock) {
+            tracer.checkStoredEnd(key, data);
+        }
+    }
+
+    @Override
+    public void invokeCallbackStart(Consumer<@Nullable Serializable> observer, TaskKey key, @Nullable Serializable output) {
+        synchronized(lock) {
+            tracer.invokeCallbackStart(observer, key, output);
+        }
+    }
+
+    @Override
+    public void invokeCallbackEnd(Consumer<@Nullable Serializable> observer, TaskKey key, @Nullable Serializable output) {
+        synchronized(lock) {
+            tracer.invokeCallbackEnd(observer, key, output);
+        }
+    }
+
+
+    @Override
+    public void setTaskObservability(TaskKey key, Observability previousObservability, Observability newObservability) {
+        synchronized(lock) {
+            tracer.setTaskObservability(key, previousObservability, newObservability);
+        }
+    }
+}
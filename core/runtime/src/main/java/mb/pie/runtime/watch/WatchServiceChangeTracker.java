@@ -0,0 +1,532 @@
+package mb.pie.runtime.watch;
+
+import mb.pie.api.MixedSession;
+import mb.pie.api.ResourceProvideDep;
+import mb.pie.api.ResourceRequireDep;
+import mb.pie.api.StoreReadTxn;
+import mb.pie.api.TaskKey;
+import mb.pie.api.TaskRequireDep;
+import mb.pie.api.Tracer;
+import mb.pie.runtime.tracer.CompositeTracer;
+import mb.pie.runtime.tracer.ResourceListenerTracer;
+import mb.resource.Resource;
+import mb.resource.ResourceKey;
+import mb.resource.ResourceService;
+import mb.resource.fs.FSResource;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Tracks changes to the resources that tasks require and provide with {@link WatchService watch services}, producing
+ * the set of changed resources for {@link MixedSession#updateAffectedBy(Set)}, such that bottom-up builds only check
+ * resources that actually changed.
+ *
+ * Resources are watched by registering their parent directory. Resources that are directories are also watched
+ * recursively, such that any change inside them marks them as changed. Resources are watched by calling
+ * {@link #watch(ResourceKey)}, by watching all resources of a store with {@link #watchResourcesOf(StoreReadTxn)} (e.g.,
+ * when starting from a persisted store), and by adding a {@link #createTracer() tracer} to PIE (with a
+ * {@link CompositeTracer}) that watches resources when tasks require or provide them.
+ *
+ * Events are collected and coalesced until {@link #takeChanges()} is called. Watch services deliver events
+ * asynchronously, so before collecting events, a take creates a cookie file in a private directory that is watched by
+ * the same watch service, and waits until the event of that file is delivered. Watch services that deliver the events
+ * of all directories in order, such as the inotify-based watch service on Linux, have then delivered all events of
+ * changes made before the take. This barrier is limited: when the cookie event is not delivered within the sync
+ * timeout, the take continues with the events delivered so far, and watch services that do not deliver events in
+ * order, such as the polling watch service on macOS and the watch service on Windows, may deliver events of changes
+ * made shortly before a take after the cookie event. In these cases, such changes are only reported by a later take.
+ * Therefore, only combine this tracker with {@link mb.pie.api.PieBuilder#withTrustChangedResources(boolean) trusting
+ * changed resources} on platforms with an in-order watch service, such as Linux.
+ *
+ * A resource is reported as changed by the first take after it is watched, as it may have changed between being
+ * stamped and being watched, for example when it is watched by the tracer after a task required it. When events were
+ * lost because a watch service overflowed, watched resources in the affected directory are rescanned by comparing their
+ * attributes against those at the previous take. Resources that cannot be watched, such as resources that are not
+ * filesystem resources, or resources whose directory could not be registered, are reported as changed on every take,
+ * such that no change is missed.
+ *
+ * Resources provided by builds are also reported as changed when the build writes them. Checking these is cheap, since
+ * their stamps are consistent with the state they were provided in.
+ */
+public class WatchServiceChangeTracker implements AutoCloseable {
+    private static final long defaultSyncTimeoutMillis = 5000;
+
+    private final ResourceService resourceService;
+    private final long syncTimeoutMillis;
+
+    private final HashMap<FileSystem, WatchService> watchServices = new HashMap<>();
+    private final HashMap<WatchKey, Path> directoriesByWatchKey = new HashMap<>();
+    private final HashMap<Path, WatchedDirectory> directories = new HashMap<>();
+    private final HashMap<ResourceKey, Path> watched = new HashMap<>();
+    private final HashMap<ResourceKey, Attributes> attributes = new HashMap<>();
+    private final HashMap<ResourceKey, Path> pending = new HashMap<>();
+    private final HashSet<ResourceKey> unwatchable = new HashSet<>();
+    private final LinkedHashSet<ResourceKey> changed = new LinkedHashSet<>();
+    private final HashMap<WatchService, CookieDirectory> cookieDirectories = new HashMap<>();
+    private long nextCookie = 0;
+    private boolean closed = false;
+
+
+    /**
+     * @param syncTimeoutMillis Maximum time in milliseconds that {@link #takeChanges()} waits for a watch service to
+     *                          deliver the events of changes made before the take.
+     */
+    public WatchServiceChangeTracker(ResourceService resourceService, long syncTimeoutMillis) {
+        this.resourceService = resourceService;
+        this.syncTimeoutMillis = syncTimeoutMillis;
+    }
+
+    public WatchServiceChangeTracker(ResourceService resourceService) {
+        this(resourceService, defaultSyncTimeoutMillis);
+    }
+
+
+    /**
+     * Watches the resource with given {@code key}, and reports it as changed at the next take. Does nothing if the
+     * resource is already watched.
+     */
+    public synchronized void watch(ResourceKey key) {
+        if(closed || watched.containsKey(key) || pending.containsKey(key) || unwatchable.contains(key)) return;
+        final Resource resource = resourceService.getResource(key);
+        if(!(resource instanceof FSResource)) {
+            unwatchable.add(key);
+            return;
+        }
+        register(key, ((FSResource)resource).getJavaPath());
+        // The resource may have changed since it was stamped, which happened before it was watched.
+        changed.add(key);
+    }
+
+    /**
+     * Watches all resources that are required or provided by tasks in the store of given {@code txn}.
+     */
+    public void watchResourcesOf(StoreReadTxn txn) {
+        final HashSet<TaskKey> visited = new HashSet<>();
+        final ArrayDeque<TaskKey> queue = new ArrayDeque<>(txn.getTasksWithoutCallers());
+        queue.addAll(txn.getDeferredTasks());
+        while(!queue.isEmpty()) {
+            final TaskKey key = queue.poll();
+            if(!visited.add(key)) continue;
+            for(ResourceRequireDep dep : txn.getResourceRequireDeps(key)) {
+                watch(dep.key);
+            }
+            for(ResourceProvideDep dep : txn.getResourceProvideDeps(key)) {
+                watch(dep.key);
+            }
+            for(TaskRequireDep dep : txn.getTaskRequireDeps(key)) {
+                queue.add(dep.callee);
+            }
+        }
+    }
+
+    /**
+     * Creates a tracer that watches resources when tasks require or provide them.
+     */
+    public Tracer createTracer() {
+        return new ResourceListenerTracer(this::watch);
+    }
+
+    /**
+     * Gets the resources that changed since the previous call, and resets the set of changed resources. Waits until
+     * the watch services have delivered the events of changes made before this call, for at most the sync timeout per
+     * watch service.
+     */
+    public synchronized Set<ResourceKey> takeChanges() {
+        if(closed) throw new IllegalStateException("Cannot take changes, change tracker has been closed");
+        for(WatchService watchService : watchServices.values()) {
+            final @Nullable CookieDirectory cookieDirectory = cookieDirectories.get(watchService);
+            if(cookieDirectory != null) {
+                sync(watchService, cookieDirectory);
+            }
+            @Nullable WatchKey watchKey;
+            while((watchKey = watchService.poll()) != null) {
+                processKey(watchKey, cookieDirectory);
+            }
+        }
+        registerPending();
+
+        final LinkedHashSet<ResourceKey> changes = new LinkedHashSet<>(changed);
+        changes.addAll(unwatchable);
+        changed.clear();
+        // Update attributes of changed resources, against which resources are compared when rescanning.
+        for(ResourceKey key : changes) {
+            final @Nullable Path path = watched.get(key);
+            if(path != null) {
+                attributes.put(key, Attributes.of(path));
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Creates a cookie file in {@code cookieDirectory}, and processes events of {@code watchService} until the event of
+     * the cookie file is delivered, the cookie event may have been lost due to an overflow, or the sync timeout passes.
+     */
+    private void sync(WatchService watchService, CookieDirectory cookieDirectory) {
+        final String cookieName = "cookie" + nextCookie++;
+        final Path cookie = cookieDirectory.path.resolve(cookieName);
+        try {
+            Files.createFile(cookie);
+        } catch(IOException e) {
+            return;
+        }
+        try {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(syncTimeoutMillis);
+            while(true) {
+                final long remaining = deadline - System.nanoTime();
+                if(remaining <= 0) return;
+                final @Nullable WatchKey watchKey;
+                try {
+                    watchKey = watchService.poll(remaining, TimeUnit.NANOSECONDS);
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if(watchKey == null) return;
+                if(watchKey == cookieDirectory.watchKey) {
+                    boolean delivered = false;
+                    boolean overflowed = false;
+                    for(WatchEvent<?> event : watchKey.pollEvents()) {
+                        if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            overflowed = true;
+                        } else if(event.context() instanceof Path && ((Path)event.context()).toString().equals(cookieName)) {
+                            delivered = true;
+                        }
+                    }
+                    watchKey.reset();
+                    // Stop when the cookie event is delivered, or when it may have been lost due to an overflow.
+                    if(delivered || overflowed) return;
+                } else {
+                    processKey(watchKey, cookieDirectory);
+                }
+            }
+        } finally {
+            try {
+                Files.deleteIfExists(cookie);
+            } catch(IOException e) {
+                // Ignore: cookie files are deleted along with the cookie directory on close.
+            }
+        }
+    }
+
+    private void processKey(WatchKey watchKey, @Nullable CookieDirectory cookieDirectory) {
+        if(cookieDirectory != null && watchKey == cookieDirectory.watchKey) {
+            // Events of earlier cookies.
+            watchKey.pollEvents();
+            watchKey.reset();
+            return;
+        }
+        final @Nullable Path directory = directoriesByWatchKey.get(watchKey);
+        if(directory == null) {
+            watchKey.cancel();
+            return;
+        }
+        processEvents(watchKey, directory);
+        if(!watchKey.reset()) {
+            directoryRemoved(watchKey, directory);
+        }
+    }
+
+    /**
+     * Stops watching all resources, and closes all watch services.
+     */
+    @Override public synchronized void close() throws IOException {
+        if(closed) return;
+        closed = true;
+        IOException exception = null;
+        for(WatchService watchService : watchServices.values()) {
+            try {
+                watchService.close();
+            } catch(IOException e) {
+                if(exception == null) exception = e;
+                else exception.addSuppressed(e);
+            }
+        }
+        watchServices.clear();
+        directoriesByWatchKey.clear();
+        directories.clear();
+        for(CookieDirectory cookieDirectory : cookieDirectories.values()) {
+            try {
+                cookieDirectory.delete();
+            } catch(IOException e) {
+                if(exception == null) exception = e;
+                else exception.addSuppressed(e);
+            }
+        }
+        cookieDirectories.clear();
+        if(exception != null) throw exception;
+    }
+
+
+    private void register(ResourceKey key, Path path) {
+        final @Nullable Path parent = path.getParent();
+        final @Nullable Path fileName = path.getFileName();
+        if(parent == null || fileName == null) {
+            unwatchable.add(key);
+            return;
+        }
+        final @Nullable WatchedDirectory directory;
+        try {
+            directory = registerDirectory(parent);
+        } catch(IOException e) {
+            unwatchable.add(key);
+            return;
+        }
+        if(directory == null) {
+            // Parent directory does not exist (yet). Register when it exists.
+            pending.put(key, path);
+            return;
+        }
+        directory.entries.put(fileName.toString(), key);
+        watched.put(key, path);
+        attributes.put(key, Attributes.of(path));
+        if(Files.isDirectory(path)) {
+            registerTree(key, path);
+        }
+    }
+
+    private void registerPending() {
+        if(pending.isEmpty()) return;
+        for(Map.Entry<ResourceKey, Path> entry : new ArrayList<>(pending.entrySet())) {
+            final @Nullable Path parent = entry.getValue().getParent();
+            if(parent != null && Files.isDirectory(parent)) {
+                pending.remove(entry.getKey());
+                register(entry.getKey(), entry.getValue());
+                // Resource may have been created along with its directory.
+                changed.add(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Registers {@code path} with a watch service, or returns {@code null} if it is not an existing directory.
+     */
+    private @Nullable WatchedDirectory registerDirectory(Path path) throws IOException {
+        final @Nullable WatchedDirectory existing = directories.get(path);
+        if(existing != null) return existing;
+        final WatchService watchService = getWatchService(path.getFileSystem());
+        final WatchKey watchKey;
+        try {
+            watchKey = path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch(NoSuchFileException | NotDirectoryException e) {
+            return null;
+        }
+        final WatchedDirectory directory = new WatchedDirectory();
+        directories.put(path, directory);
+        directoriesByWatchKey.put(watchKey, path);
+        return directory;
+    }
+
+    /**
+     * Registers {@code root} and its subdirectories, marking {@code owner} as changed on any change inside them.
+     */
+    private void registerTree(ResourceKey owner, Path root) {
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException {
+                    final @Nullable WatchedDirectory watchedDirectory = registerDirectory(directory);
+                    if(watchedDirectory != null) {
+                        watchedDirectory.subtreeOwners.add(owner);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch(IOException e) {
+            // Could not register (part of) the tree: changes inside it may be missed.
+            unwatchable.add(owner);
+        }
+    }
+
+    private WatchService getWatchService(FileSystem fileSystem) throws IOException {
+        @Nullable WatchService watchService = watchServices.get(fileSystem);
+        if(watchService == null) {
+            watchService = fileSystem.newWatchService();
+            watchServices.put(fileSystem, watchService);
+            final @Nullable CookieDirectory cookieDirectory = CookieDirectory.create(fileSystem, watchService);
+            if(cookieDirectory != null) {
+                cookieDirectories.put(watchService, cookieDirectory);
+            }
+        }
+        return watchService;
+    }
+
+
+    private void processEvents(WatchKey watchKey, Path path) {
+        final @Nullable WatchedDirectory directory = directories.get(path);
+        if(directory == null) return;
+        for(WatchEvent<?> event : watchKey.pollEvents()) {
+            if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                rescan(directory, path);
+                continue;
+            }
+            final Path child = path.resolve((Path)event.context());
+            final @Nullable ResourceKey key = directory.entries.get(child.getFileName().toString());
+            final boolean createdDirectory = event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child);
+            if(key != null) {
+                changed.add(key);
+                if(createdDirectory) {
+                    registerTree(key, child);
+                }
+            }
+            changed.addAll(directory.subtreeOwners);
+            if(createdDirectory) {
+                for(ResourceKey owner : new ArrayList<>(directory.subtreeOwners)) {
+                    registerTree(owner, child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rescans {@code directory} after events were lost, by comparing attributes of its entries against those at the
+     * previous take.
+     */
+    private void rescan(WatchedDirectory directory, Path path) {
+        for(Map.Entry<String, ResourceKey> entry : directory.entries.entrySet()) {
+            final ResourceKey key = entry.getValue();
+            if(!Attributes.of(path.resolve(entry.getKey())).equals(attributes.get(key))) {
+                changed.add(key);
+            }
+        }
+        // Resources that contain this directory are conservatively marked as changed, and newly created
+        // subdirectories are registered.
+        changed.addAll(directory.subtreeOwners);
+        for(ResourceKey owner : new ArrayList<>(directory.subtreeOwners)) {
+            registerTree(owner, path);
+        }
+    }
+
+    private void directoryRemoved(WatchKey watchKey, Path path) {
+        directoriesByWatchKey.remove(watchKey);
+        final @Nullable WatchedDirectory directory = directories.remove(path);
+        if(directory == null) return;
+        changed.addAll(directory.subtreeOwners);
+        for(Map.Entry<String, ResourceKey> entry : directory.entries.entrySet()) {
+            final ResourceKey key = entry.getValue();
+            changed.add(key);
+            // Register again when the directory is created again.
+            watched.remove(key);
+            attributes.remove(key);
+            pending.put(key, path.resolve(entry.getKey()));
+        }
+    }
+
+
+    private static class WatchedDirectory {
+        /**
+         * Watched resources that are entries of this directory, by their name.
+         */
+        final HashMap<String, ResourceKey> entries = new HashMap<>();
+        /**
+         * Watched directory resources that contain this directory, including this directory itself.
+         */
+        final HashSet<ResourceKey> subtreeOwners = new HashSet<>();
+    }
+
+    /**
+     * Private directory in which cookie files are created to find out when a watch service has delivered all earlier
+     * events.
+     */
+    private static class CookieDirectory {
+        final Path path;
+        final WatchKey watchKey;
+
+        private CookieDirectory(Path path, WatchKey watchKey) {
+            this.path = path;
+            this.watchKey = watchKey;
+        }
+
+        /**
+         * Creates a cookie directory for {@code watchService}, or returns {@code null} if {@code fileSystem} is not the
+         * default file system, as temporary directories can only be created in the default file system.
+         */
+        static @Nullable CookieDirectory create(FileSystem fileSystem, WatchService watchService) throws IOException {
+            if(fileSystem != FileSystems.getDefault()) return null;
+            final Path path = Files.createTempDirectory("pie-watch-cookies");
+            try {
+                return new CookieDirectory(path, path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE));
+            } catch(IOException e) {
+                Files.deleteIfExists(path);
+                throw e;
+            }
+        }
+
+        void delete() throws IOException {
+            watchKey.cancel();
+            try(final Stream<Path> cookies = Files.list(path)) {
+                for(Path cookie : (Iterable<Path>)cookies::iterator) {
+                    Files.deleteIfExists(cookie);
+                }
+            }
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private static class Attributes {
+        private static final Attributes nonExistent = new Attributes(false, false, -1, null, null);
+
+        final boolean exists;
+        final boolean isDirectory;
+        final long size;
+        final @Nullable FileTime lastModifiedTime;
+        final @Nullable Object fileKey;
+
+        Attributes(boolean exists, boolean isDirectory, long size, @Nullable FileTime lastModifiedTime, @Nullable Object fileKey) {
+            this.exists = exists;
+            this.isDirectory = isDirectory;
+            this.size = size;
+            this.lastModifiedTime = lastModifiedTime;
+            this.fileKey = fileKey;
+        }
+
+        static Attributes of(Path path) {
+            try {
+                final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                return new Attributes(true, attributes.isDirectory(), attributes.size(), attributes.lastModifiedTime(), attributes.fileKey());
+            } catch(IOException e) {
+                return nonExistent;
+            }
+        }
+
+        @Override public boolean equals(@Nullable Object o) {
+            if(this == o) return true;
+            if(o == null || getClass() != o.getClass()) return false;
+            final Attributes that = (Attributes)o;
+            return exists == that.exists && isDirectory == that.isDirectory && size == that.size && Objects.equals(lastModifiedTime, that.lastModifiedTime) && Objects.equals(fileKey, that.fileKey);
+        }
+
+        @Override public int hashCode() {
+            return Objects.hash(exists, isDirectory, size, lastModifiedTime, fileKey);
+        }
+    }
+}
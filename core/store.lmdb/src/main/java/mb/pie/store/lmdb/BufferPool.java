@@ -0,0 +1,73 @@
+package mb.pie.store.lmdb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable buffers for the keys and values of LMDB operations, which are confined to one transaction at a time, and
+ * therefore to the thread of that transaction (or to accesses serialized by a lock). LMDB copies keys and values into
+ * its own memory during an operation, so a buffer can be reused as soon as the operation returns. A buffer is only
+ * valid until it is requested again, so it must be requested for each operation, and must not be held across calls
+ * that could request it again.
+ *
+ * Pools are returned to the store when a transaction is closed, and reused by later transactions, such that key and
+ * value buffers are not allocated for each operation.
+ */
+class BufferPool {
+    private static final int hashSize = 20; // SHA-1
+    private static final int initialRecordSize = 1024;
+
+    private final ByteBuffer key = ByteBuffer.allocateDirect(Integer.BYTES);
+    private final ByteBuffer value = ByteBuffer.allocateDirect(Integer.BYTES);
+    private final ByteBuffer hashKey = ByteBuffer.allocateDirect(hashSize);
+    private final ByteBuffer empty = ByteBuffer.allocateDirect(0);
+    private ByteBuffer record = ByteBuffer.allocate(initialRecordSize);
+
+
+    /**
+     * @return direct buffer with identifier {@code id} to use as key.
+     */
+    ByteBuffer key(int id) {
+        key.clear();
+        key.putInt(0, id);
+        return key;
+    }
+
+    /**
+     * @return direct buffer with identifier {@code id} to use as value.
+     */
+    ByteBuffer value(int id) {
+        value.clear();
+        value.putInt(0, id);
+        return value;
+    }
+
+    /**
+     * @return direct buffer with {@code hash}, which must be a SHA-1 hash, to use as key.
+     */
+    ByteBuffer hashKey(byte[] hash) {
+        hashKey.clear();
+        hashKey.put(hash).flip();
+        return hashKey;
+    }
+
+    /**
+     * @return empty direct buffer to use as value.
+     */
+    ByteBuffer empty() {
+        return empty;
+    }
+
+    /**
+     * Copies the record in {@code buffer}, which refers to the memory of the database, into a reusable heap buffer,
+     * such that it can be used across updates until the next copy.
+     */
+    ByteBuffer copyRecord(ByteBuffer buffer) {
+        final int size = buffer.remaining();
+        if(record.capacity() < size) {
+            record = ByteBuffer.allocate(Math.max(size, record.capacity() * 2));
+        }
+        record.clear();
+        record.put(buffer.duplicate()).flip();
+        return record;
+    }
+}
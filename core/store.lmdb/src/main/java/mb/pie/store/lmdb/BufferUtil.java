@@ -8,17 +8,4 @@ class BufferUtil {
         buffer.put(bytes).flip();
         return buffer;
     }
-
-    static ByteBuffer copyBuffer(ByteBuffer byteBuffer) {
-        final ByteBuffer readOnlyBuffer = byteBuffer.asReadOnlyBuffer();
-        final ByteBuffer newBuffer = ByteBuffer.allocateDirect(readOnlyBuffer.capacity());
-        readOnlyBuffer.rewind();
-        newBuffer.put(readOnlyBuffer);
-        newBuffer.flip();
-        return newBuffer;
-    }
-
-    static ByteBuffer emptyBuffer() {
-        return ByteBuffer.allocateDirect(0);
-    }
 }
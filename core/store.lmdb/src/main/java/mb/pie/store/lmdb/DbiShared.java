@@ -9,102 +9,88 @@ import org.lmdbjava.PutFlags;
 import org.lmdbjava.SeekOp;
 import org.lmdbjava.Txn;
 
-import java.io.Serializable;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
 
+/**
+ * Operations on databases keyed by identifiers, which use the buffers of a {@link BufferPool} for keys and values.
+ * Values are deserialized directly from the memory of the database.
+ */
 class DbiShared {
     private final Env<ByteBuffer> env;
     private final Txn<ByteBuffer> txn;
     private final boolean isWriteTxn;
+    private final BufferPool buffers;
     private final SerializeUtil serializeUtil;
 
 
-    DbiShared(Env<ByteBuffer> env, Txn<ByteBuffer> txn, boolean isWriteTxn, SerializeUtil serializeUtil) {
+    DbiShared(Env<ByteBuffer> env, Txn<ByteBuffer> txn, boolean isWriteTxn, BufferPool buffers, SerializeUtil serializeUtil) {
         this.env = env;
         this.txn = txn;
         this.isWriteTxn = isWriteTxn;
+        this.buffers = buffers;
         this.serializeUtil = serializeUtil;
     }
 
 
-    boolean getBool(ByteBuffer keyHashedBuf, Dbi<ByteBuffer> db) {
-        return db.get(txn, keyHashedBuf) != null;
+    boolean getBool(int keyId, Dbi<ByteBuffer> db) {
+        return db.get(txn, buffers.key(keyId)) != null;
     }
 
-    <T> @Nullable De<T> getOne(Class<T> type, ByteBuffer keyHashedBuf, Dbi<ByteBuffer> db) {
-        final @Nullable ByteBuffer valueBuf = db.get(txn, BufferUtil.copyBuffer(keyHashedBuf) /* OPTO: prevent copy? */);
+    <T> @Nullable De<@Nullable T> getOneObject(int keyId, Dbi<ByteBuffer> db) {
+        final @Nullable ByteBuffer valueBuf = db.get(txn, buffers.key(keyId));
         if(valueBuf == null) {
             return null;
         }
-        return deserializeOrDelete(type, keyHashedBuf, valueBuf, db);
+        return deserializeObjectOrDelete(keyId, valueBuf, db);
     }
 
-    <T> @Nullable De<@Nullable T> getOneObject(ByteBuffer keyHashedBuf, Dbi<ByteBuffer> db) {
-        final @Nullable ByteBuffer valueBuf = db.get(txn, BufferUtil.copyBuffer(keyHashedBuf) /* OPTO: prevent copy? */);
+    /**
+     * @return identifier stored under {@code keyId}, or {@code -1} if there is none.
+     */
+    int getId(int keyId, Dbi<ByteBuffer> db) {
+        final @Nullable ByteBuffer valueBuf = db.get(txn, buffers.key(keyId));
         if(valueBuf == null) {
-            return null;
+            return -1;
         }
-        return deserializeObjectOrDelete(keyHashedBuf, valueBuf, db);
+        return valueBuf.getInt(0);
     }
 
-    <T> Set<T> getMultiple(Class<T> type, ByteBuffer keyHashedBuf, Dbi<ByteBuffer> dbDup, Dbi<ByteBuffer> dbVal) {
-        final ArrayList<ByteBuffer> hashedValueBufs = new ArrayList<>();
+    /**
+     * @return identifiers stored under {@code keyId} in database with duplicates {@code dbDup}, in ascending order.
+     */
+    int[] getIds(int keyId, Dbi<ByteBuffer> dbDup) {
+        int[] ids = new int[4];
+        int size = 0;
         try(final Cursor<ByteBuffer> cursor = dbDup.openCursor(txn)) {
-            if(!cursor.get(BufferUtil.copyBuffer(keyHashedBuf) /* OPTO: prevent copy? */, GetOp.MDB_SET)) {
-                return new HashSet<>();
+            if(!cursor.get(buffers.key(keyId), GetOp.MDB_SET)) {
+                return new int[0];
             }
             do {
-                final ByteBuffer hashedValueBuf = cursor.val();
-                hashedValueBufs.add(BufferUtil.copyBuffer(hashedValueBuf));
-            } while(cursor.seek(SeekOp.MDB_NEXT_DUP));
-        }
-        final HashSet<T> results = new HashSet<>(hashedValueBufs.size());
-        for(ByteBuffer hashedValueBuf : hashedValueBufs) {
-            final @Nullable ByteBuffer valueBuf = dbVal.get(txn, hashedValueBuf);
-            if(valueBuf == null) {
-                continue;
-            }
-            final De<T> deserializedValueBuf = deserializeOrDelete(type, hashedValueBuf, valueBuf, dbVal);
-            if(!deserializedValueBuf.failed) {
-                results.add(deserializedValueBuf.deserialized);
-            } else {
-                // Also delete key-value pair from dbDup when value could not be deserialized.
-                if(isWriteTxn) {
-                    dbDup.delete(txn, BufferUtil.copyBuffer(keyHashedBuf) /* OPTO: prevent copy? */, hashedValueBuf);
-                } else {
-                    try(final Txn<ByteBuffer> txn = env.txnWrite()) {
-                        dbDup.delete(txn, BufferUtil.copyBuffer(keyHashedBuf) /* OPTO: prevent copy? */, hashedValueBuf);
-                    }
+                if(size == ids.length) {
+                    ids = Arrays.copyOf(ids, size * 2);
                 }
-            }
+                ids[size++] = cursor.val().getInt(0);
+            } while(cursor.seek(SeekOp.MDB_NEXT_DUP));
         }
-        return results;
+        return Arrays.copyOf(ids, size);
     }
 
 
-    private <T> De<T> deserializeOrDelete(Class<T> type, ByteBuffer keyHashedBuf, ByteBuffer valueBuf, Dbi<ByteBuffer> db) {
-        final De<T> deserialized = serializeUtil.deserialize(type, valueBuf);
-        handleDeserializeFailure(deserialized, keyHashedBuf, db);
-        return deserialized;
-    }
-
-    private <T> De<@Nullable T> deserializeObjectOrDelete(ByteBuffer keyHashedBuf, ByteBuffer valueBuf, Dbi<ByteBuffer> db) {
+    private <T> De<@Nullable T> deserializeObjectOrDelete(int keyId, ByteBuffer valueBuf, Dbi<ByteBuffer> db) {
         final De<T> deserialized = serializeUtil.deserializeObject(valueBuf);
-        handleDeserializeFailure(deserialized, keyHashedBuf, db);
+        handleDeserializeFailure(deserialized, keyId, db);
         return deserialized;
     }
 
-    private <T> void handleDeserializeFailure(De<T> deserialized, ByteBuffer keyHashedBuf, Dbi<ByteBuffer> db) {
+    private <T> void handleDeserializeFailure(De<T> deserialized, int keyId, Dbi<ByteBuffer> db) {
         if(deserialized.failed) {
             if(isWriteTxn) {
-                db.delete(txn, keyHashedBuf);
+                db.delete(txn, buffers.key(keyId));
             } else {
                 try(final Txn<ByteBuffer> txn = env.txnWrite()) {
                     // TODO: just deleting data that cannot be deserialized is unsound; it could silently delete dependencies which are then never recreated!
-                    db.delete(txn, keyHashedBuf);
+                    db.delete(txn, buffers.key(keyId));
                     txn.commit();
                 }
             }
@@ -112,30 +98,32 @@ class DbiShared {
     }
 
 
-    boolean setBool(ByteBuffer keyHashedBuf, boolean value, Dbi<ByteBuffer> db) {
+    boolean setBool(int keyId, boolean value, Dbi<ByteBuffer> db) {
         if(value) {
-            return db.put(txn, BufferUtil.copyBuffer(keyHashedBuf) /* OPTO: prevent copy? */, BufferUtil.emptyBuffer());
+            return db.put(txn, buffers.key(keyId), buffers.empty());
         } else {
-            return db.delete(txn, keyHashedBuf);
+            return db.delete(txn, buffers.key(keyId));
         }
     }
 
-    boolean setOne(ByteBuffer keyHashedBuf, ByteBuffer valueBuf, Dbi<ByteBuffer> db) {
-        return db.put(txn, keyHashedBuf, valueBuf);
+    void setBytes(int keyId, byte[] value, Dbi<ByteBuffer> db) {
+        // Reserve space in the database and copy the value into it, instead of copying it into a direct buffer first.
+        db.reserve(txn, buffers.key(keyId), value.length).put(value);
+    }
+
+    boolean setId(int keyId, int id, Dbi<ByteBuffer> db) {
+        return db.put(txn, buffers.key(keyId), buffers.value(id));
     }
 
-    boolean deleteOne(ByteBuffer keyHashedBuf, Dbi<ByteBuffer> db) {
-        return db.delete(txn, keyHashedBuf);
+    boolean deleteOne(int keyId, Dbi<ByteBuffer> db) {
+        return db.delete(txn, buffers.key(keyId));
     }
 
-    boolean setDup(ByteBuffer keyHashedBuf, ByteBuffer valueBuf, ByteBuffer valueHashedBuf, Dbi<ByteBuffer> dbDup, Dbi<ByteBuffer> dbVal) {
-        final boolean put1 = dbDup.put(txn, keyHashedBuf, BufferUtil.copyBuffer(valueHashedBuf) /* OPTO: prevent copy? */, PutFlags.MDB_NODUPDATA);
-        final boolean put2 = dbVal.put(txn, valueHashedBuf, valueBuf);
-        return put1 && put2;
+    boolean addId(int keyId, int id, Dbi<ByteBuffer> dbDup) {
+        return dbDup.put(txn, buffers.key(keyId), buffers.value(id), PutFlags.MDB_NODUPDATA);
     }
 
-    boolean deleteDup(ByteBuffer keyHashedBuf, ByteBuffer hashedValue, Dbi<ByteBuffer> dbDup, Dbi<ByteBuffer> dbVal) {
-        return dbDup.delete(txn, keyHashedBuf, hashedValue);
-        // TODO: cannot delete (hashedValue, value) from value database, since multiple entries from dbDup may refer to it.
+    boolean deleteId(int keyId, int id, Dbi<ByteBuffer> dbDup) {
+        return dbDup.delete(txn, buffers.key(keyId), buffers.value(id));
     }
 }
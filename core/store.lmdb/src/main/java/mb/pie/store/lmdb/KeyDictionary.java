@@ -0,0 +1,95 @@
+package mb.pie.store.lmdb;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.lmdbjava.Dbi;
+import org.lmdbjava.Txn;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent dictionary that assigns compact integer identifiers to keys, such that databases can be keyed by 4-byte
+ * identifiers instead of hashes of serialized keys. The {@code ids} database maps hashes of serialized keys to
+ * identifiers, and stores the next free identifier under a 1-byte key that cannot collide with hashes. The {@code keys}
+ * database maps identifiers back to serialized keys.
+ *
+ * Identifiers are never reused, not even when the data of a key is deleted, such that an identifier that was once
+ * committed refers to the same key forever. Therefore, committed identifiers and keys are cached in memory across
+ * transactions, and a key only needs to be serialized and hashed the first time it is looked up. Identifiers created
+ * in a write transaction are only added to the cache when the transaction {@link KeyDictionaryTxn#commit() commits}.
+ */
+class KeyDictionary<K> {
+    private static final ByteBuffer nextIdKey = BufferUtil.toBuffer(new byte[]{0});
+
+    private final Dbi<ByteBuffer> idsDb;
+    private final Dbi<ByteBuffer> keysDb;
+    private final SerializeUtil serializeUtil;
+    private final ConcurrentHashMap<K, Integer> idCache = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, K> keyCache = new ConcurrentHashMap<>();
+
+
+    KeyDictionary(Dbi<ByteBuffer> idsDb, Dbi<ByteBuffer> keysDb, SerializeUtil serializeUtil) {
+        this.idsDb = idsDb;
+        this.keysDb = keysDb;
+        this.serializeUtil = serializeUtil;
+    }
+
+
+    KeyDictionaryTxn<K> txn(Txn<ByteBuffer> txn, BufferPool buffers) {
+        return new KeyDictionaryTxn<>(this, txn, buffers);
+    }
+
+
+    @Nullable Integer getCachedId(K key) {
+        return idCache.get(key);
+    }
+
+    @Nullable K getCachedKey(int id) {
+        return keyCache.get(id);
+    }
+
+    void cache(K key, int id) {
+        idCache.put(key, id);
+        keyCache.put(id, key);
+    }
+
+    void cacheAll(Map<K, Integer> ids) {
+        for(Map.Entry<K, Integer> entry : ids.entrySet()) {
+            cache(entry.getKey(), entry.getValue());
+        }
+    }
+
+
+    /**
+     * @return identifier of {@code key} in the database, or {@code -1} if it has no identifier.
+     */
+    int readId(Txn<ByteBuffer> txn, BufferPool buffers, K key) {
+        final @Nullable ByteBuffer idBuf = idsDb.get(txn, buffers.hashKey(serializeUtil.serializeObjectHashedToBytes(key)));
+        if(idBuf == null) return -1;
+        return idBuf.getInt(0);
+    }
+
+    /**
+     * @return key of {@code id} in the database, or {@code null} if there is no such identifier or its key could not
+     * be deserialized.
+     */
+    @Nullable K readKey(Txn<ByteBuffer> txn, BufferPool buffers, int id) {
+        final @Nullable ByteBuffer keyBuf = keysDb.get(txn, buffers.key(id));
+        if(keyBuf == null) return null;
+        return De.orElseNull(serializeUtil.<K>deserializeObject(keyBuf));
+    }
+
+    /**
+     * Assigns a new identifier to {@code key} in the database, which must not have an identifier yet.
+     */
+    int writeId(Txn<ByteBuffer> txn, BufferPool buffers, K key) {
+        final @Nullable ByteBuffer nextIdBuf = idsDb.get(txn, nextIdKey.duplicate());
+        final int id = nextIdBuf == null ? 0 : nextIdBuf.getInt(0);
+        idsDb.put(txn, nextIdKey.duplicate(), buffers.value(id + 1));
+        final byte[] keyBytes = serializeUtil.serializeObjectToBytes(key);
+        idsDb.put(txn, buffers.hashKey(serializeUtil.hash(keyBytes)), buffers.value(id));
+        keysDb.reserve(txn, buffers.key(id), keyBytes.length).put(keyBytes);
+        return id;
+    }
+}
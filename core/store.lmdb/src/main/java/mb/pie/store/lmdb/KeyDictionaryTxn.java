@@ -0,0 +1,80 @@
+package mb.pie.store.lmdb;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.lmdbjava.Txn;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * Transaction on a {@link KeyDictionary}, which looks up identifiers and keys in the cache of the dictionary first, and
+ * keeps identifiers created in this transaction separate until the transaction {@link #commit() commits}.
+ */
+class KeyDictionaryTxn<K> {
+    private final KeyDictionary<K> dictionary;
+    private final Txn<ByteBuffer> txn;
+    private final BufferPool buffers;
+    private final HashMap<K, Integer> createdIds = new HashMap<>();
+    private final HashMap<Integer, K> createdKeys = new HashMap<>();
+
+
+    KeyDictionaryTxn(KeyDictionary<K> dictionary, Txn<ByteBuffer> txn, BufferPool buffers) {
+        this.dictionary = dictionary;
+        this.txn = txn;
+        this.buffers = buffers;
+    }
+
+
+    /**
+     * @return identifier of {@code key}, or {@code -1} if it has no identifier, meaning that no data is stored for it.
+     */
+    int getId(K key) {
+        final @Nullable Integer cachedId = dictionary.getCachedId(key);
+        if(cachedId != null) return cachedId;
+        final @Nullable Integer createdId = createdIds.get(key);
+        if(createdId != null) return createdId;
+        final int id = dictionary.readId(txn, buffers, key);
+        if(id != -1) {
+            // Identifiers that are read from the database are committed, and can therefore be cached.
+            dictionary.cache(key, id);
+        }
+        return id;
+    }
+
+    /**
+     * @return identifier of {@code key}, assigning a new identifier if it has none. Only valid in write transactions.
+     */
+    int getOrCreateId(K key) {
+        final int id = getId(key);
+        if(id != -1) return id;
+        final int createdId = dictionary.writeId(txn, buffers, key);
+        createdIds.put(key, createdId);
+        createdKeys.put(createdId, key);
+        return createdId;
+    }
+
+    /**
+     * @return key of {@code id}, or {@code null} if there is no such identifier or its key could not be deserialized.
+     */
+    @Nullable K getKey(int id) {
+        final @Nullable K cachedKey = dictionary.getCachedKey(id);
+        if(cachedKey != null) return cachedKey;
+        final @Nullable K createdKey = createdKeys.get(id);
+        if(createdKey != null) return createdKey;
+        final @Nullable K key = dictionary.readKey(txn, buffers, id);
+        if(key != null) {
+            dictionary.cache(key, id);
+        }
+        return key;
+    }
+
+    /**
+     * Adds identifiers created in this transaction to the cache of the dictionary. Must be called after the underlying
+     * LMDB transaction has been committed.
+     */
+    void commit() {
+        dictionary.cacheAll(createdIds);
+        createdIds.clear();
+        createdKeys.clear();
+    }
+}
@@ -1,11 +1,15 @@
 package mb.pie.store.lmdb;
 
+import mb.log.api.Logger;
 import mb.log.api.LoggerFactory;
 import mb.pie.api.PieBuilder;
 import mb.pie.api.Store;
 import mb.pie.api.StoreReadTxn;
 import mb.pie.api.StoreWriteTxn;
+import mb.pie.api.TaskKey;
 import mb.pie.api.serde.Serde;
+import mb.resource.ResourceKey;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.lmdbjava.Dbi;
 import org.lmdbjava.DbiFlags;
 import org.lmdbjava.Env;
@@ -14,10 +18,20 @@ import org.lmdbjava.Txn;
 
 import java.io.File;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class LMDBStore implements Store {
     public static final long defaultMaxDbSize = 1024L * 1024L * 1024L * 4L; // 4 GiB
     public static final int defaultMaxReaders = 64; // 64 reader threads
+    private static final int maxDbs = 16;
+    /**
+     * Version of the layout of the databases, which must be incremented when the layout changes.
+     */
+    private static final int layoutVersion = 3;
+    private static final String layoutDbName = "layout";
+    private static final byte[] layoutVersionKey = new byte[]{0};
 
     /**
      * Sets the store of this builder to the [LMDBStore], stored at given [envDir], with parameters [maxDbSize]
@@ -38,38 +52,36 @@ public class LMDBStore implements Store {
 
 
     private final Env<ByteBuffer> env;
-    private final Dbi<ByteBuffer> input;
-    private final Dbi<ByteBuffer> output;
-    private final Dbi<ByteBuffer> taskObservability;
-    private final Dbi<ByteBuffer> taskRequires;
+    private final Dbi<ByteBuffer> taskData;
     private final Dbi<ByteBuffer> callersOf;
-    private final Dbi<ByteBuffer> callersOfValues;
-    private final Dbi<ByteBuffer> resourceRequires;
     private final Dbi<ByteBuffer> requireesOf;
-    private final Dbi<ByteBuffer> requireesOfValues;
-    private final Dbi<ByteBuffer> resourceProvides;
     private final Dbi<ByteBuffer> providerOf;
+    private final Dbi<ByteBuffer> topologicalIndex;
+    private final Dbi<ByteBuffer> deferredTasks;
+    private final Dbi<ByteBuffer> callbacks;
+    private final KeyDictionary<TaskKey> taskKeys;
+    private final KeyDictionary<ResourceKey> resourceKeys;
     private final SerializeUtil serializeUtil;
+    private final ConcurrentLinkedQueue<BufferPool> bufferPools = new ConcurrentLinkedQueue<>();
 
     public LMDBStore(Serde serde, File envDir, long maxDbSize, int maxReaders, LoggerFactory loggerFactory) {
         envDir.mkdirs();
         this.env = Env.create()
             .setMapSize(maxDbSize)
             .setMaxReaders(maxReaders)
-            .setMaxDbs(11)
+            .setMaxDbs(maxDbs)
             .open(envDir, EnvFlags.MDB_MAPASYNC, EnvFlags.MDB_WRITEMAP);
-        this.input = env.openDbi("input", DbiFlags.MDB_CREATE);
-        this.output = env.openDbi("output", DbiFlags.MDB_CREATE);
-        this.taskObservability = env.openDbi("taskObservability", DbiFlags.MDB_CREATE);
-        this.taskRequires = env.openDbi("taskRequires", DbiFlags.MDB_CREATE);
-        this.callersOf = env.openDbi("callersOf", DbiFlags.MDB_CREATE, DbiFlags.MDB_DUPSORT);
-        this.callersOfValues = env.openDbi("callersOfValues", DbiFlags.MDB_CREATE);
-        this.resourceRequires = env.openDbi("resourceRequires", DbiFlags.MDB_CREATE);
-        this.requireesOf = env.openDbi("requireesOf", DbiFlags.MDB_CREATE, DbiFlags.MDB_DUPSORT);
-        this.requireesOfValues = env.openDbi("requireesOfValues", DbiFlags.MDB_CREATE);
-        this.resourceProvides = env.openDbi("resourceProvides", DbiFlags.MDB_CREATE);
+        dropIfLayoutChanged(loggerFactory.create(LMDBStore.class), envDir);
+        this.taskData = env.openDbi("taskData", DbiFlags.MDB_CREATE);
+        this.callersOf = env.openDbi("callersOf", DbiFlags.MDB_CREATE, DbiFlags.MDB_DUPSORT, DbiFlags.MDB_DUPFIXED);
+        this.requireesOf = env.openDbi("requireesOf", DbiFlags.MDB_CREATE, DbiFlags.MDB_DUPSORT, DbiFlags.MDB_DUPFIXED);
         this.providerOf = env.openDbi("providerOf", DbiFlags.MDB_CREATE);
+        this.topologicalIndex = env.openDbi("topologicalIndex", DbiFlags.MDB_CREATE);
+        this.deferredTasks = env.openDbi("deferredTasks", DbiFlags.MDB_CREATE);
+        this.callbacks = env.openDbi("callbacks", DbiFlags.MDB_CREATE);
         this.serializeUtil = new SerializeUtil(serde, loggerFactory);
+        this.taskKeys = new KeyDictionary<>(env.openDbi("taskKeyIds", DbiFlags.MDB_CREATE), env.openDbi("taskKeys", DbiFlags.MDB_CREATE), serializeUtil);
+        this.resourceKeys = new KeyDictionary<>(env.openDbi("resourceKeyIds", DbiFlags.MDB_CREATE), env.openDbi("resourceKeys", DbiFlags.MDB_CREATE), serializeUtil);
     }
 
     public LMDBStore(Serde serde, File envDir, LoggerFactory loggerFactory) {
@@ -81,42 +93,108 @@ public class LMDBStore implements Store {
         env.close();
     }
 
+    /**
+     * Gets the number of bytes of the database that are in use, which is smaller than the size of the database file, as
+     * the file is allocated up to the maximum database size.
+     */
+    public long getUsedBytes() {
+        return (env.info().lastPageNumber + 1) * env.stat().pageSize;
+    }
+
+    /**
+     * Drops all databases when the environment was created with a different layout, for example with a previous
+     * version of this store, as their data cannot be read with the current layout. Logs a warning when existing data
+     * is dropped, as all tasks will be executed again.
+     */
+    private void dropIfLayoutChanged(Logger logger, File envDir) {
+        final Dbi<ByteBuffer> layout = env.openDbi(layoutDbName, DbiFlags.MDB_CREATE);
+        final ByteBuffer versionKey = BufferUtil.toBuffer(layoutVersionKey);
+        final int previousLayoutVersion;
+        try(final Txn<ByteBuffer> txn = env.txnRead()) {
+            final @Nullable ByteBuffer versionBuf = layout.get(txn, versionKey);
+            if(versionBuf != null && versionBuf.getInt(0) == layoutVersion) {
+                return;
+            }
+            previousLayoutVersion = versionBuf != null ? versionBuf.getInt(0) : -1;
+        }
+        final boolean hasData = env.getDbiNames().stream().anyMatch(name -> !Arrays.equals(name, layoutDbName.getBytes(StandardCharsets.UTF_8)));
+        if(hasData) {
+            logger.warn("Dropping all data of LMDB store at '" + envDir + "', as it was created with " + (previousLayoutVersion == -1 ? "an unversioned layout" : "layout version " + previousLayoutVersion) + " which cannot be read with the current layout version " + layoutVersion + "; all tasks will be executed again");
+        }
+        // Drop databases one by one, as opening all databases of a previous layout could exceed the maximum number of
+        // databases. Opening a database uses its own transaction, so it cannot be done inside a write transaction.
+        for(byte[] name : env.getDbiNames()) {
+            if(Arrays.equals(name, layoutDbName.getBytes(StandardCharsets.UTF_8))) continue;
+            final Dbi<ByteBuffer> dbi = env.openDbi(name);
+            try(final Txn<ByteBuffer> txn = env.txnWrite()) {
+                dbi.drop(txn, true);
+                txn.commit();
+            }
+        }
+        try(final Txn<ByteBuffer> txn = env.txnWrite()) {
+            final ByteBuffer version = ByteBuffer.allocateDirect(Integer.BYTES);
+            version.putInt(layoutVersion).flip();
+            layout.put(txn, versionKey, version);
+            txn.commit();
+        }
+    }
+
     @Override public StoreReadTxn readTxn() {
         final Txn<ByteBuffer> txn = env.txnRead();
         return new LMDBStoreTxn(env, txn, false,
-            input,
-            output,
-            taskObservability,
-            taskRequires,
+            taskData,
             callersOf,
-            callersOfValues,
-            resourceRequires,
             requireesOf,
-            requireesOfValues,
-            resourceProvides,
             providerOf,
+            topologicalIndex,
+            deferredTasks,
+            callbacks,
+            taskKeys,
+            resourceKeys,
+            acquireBufferPool(),
+            bufferPools,
             serializeUtil
         );
     }
 
+    /**
+     * LMDB read transactions already read from a snapshot of the last committed state, and are not blocked by the
+     * write transaction. Therefore, snapshot read transactions are just read transactions.
+     */
+    @Override public StoreReadTxn snapshotReadTxn() {
+        return readTxn();
+    }
+
+    @Override public boolean supportsSnapshotReadTxn() {
+        return true;
+    }
+
     @Override public StoreWriteTxn writeTxn() {
         final Txn<ByteBuffer> txn = env.txnWrite();
         return new LMDBStoreTxn(env, txn, true,
-            input,
-            output,
-            taskObservability,
-            taskRequires,
+            taskData,
             callersOf,
-            callersOfValues,
-            resourceRequires,
             requireesOf,
-            requireesOfValues,
-            resourceProvides,
             providerOf,
+            topologicalIndex,
+            deferredTasks,
+            callbacks,
+            taskKeys,
+            resourceKeys,
+            acquireBufferPool(),
+            bufferPools,
             serializeUtil
         );
     }
 
+    /**
+     * Gets a buffer pool that is not in use by another transaction, or creates a new one if all are in use.
+     */
+    private BufferPool acquireBufferPool() {
+        final @Nullable BufferPool bufferPool = bufferPools.poll();
+        return bufferPool != null ? bufferPool : new BufferPool();
+    }
+
     @Override public void sync() {
         env.sync(true);
     }
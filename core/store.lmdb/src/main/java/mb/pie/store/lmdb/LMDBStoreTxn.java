@@ -1,6 +1,7 @@
 package mb.pie.store.lmdb;
 
 import mb.pie.api.Observability;
+import mb.pie.api.OutTransient;
 import mb.pie.api.Output;
 import mb.pie.api.ResourceProvideDep;
 import mb.pie.api.ResourceRequireDep;
@@ -12,7 +13,6 @@ import mb.pie.api.TaskData;
 import mb.pie.api.TaskDeps;
 import mb.pie.api.TaskKey;
 import mb.pie.api.TaskRequireDep;
-import mb.pie.runtime.exec.BottomUpShared;
 import mb.resource.ResourceKey;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.lmdbjava.CursorIterable;
@@ -23,157 +23,229 @@ import org.lmdbjava.Txn;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Queue;
 import java.util.Set;
 
 public class LMDBStoreTxn implements StoreReadTxn, StoreWriteTxn {
     private final Txn<ByteBuffer> txn;
-    private final Dbi<ByteBuffer> inputDb;
-    private final Dbi<ByteBuffer> outputDb;
-    private final Dbi<ByteBuffer> taskObservabilityDb;
-    private final Dbi<ByteBuffer> taskRequiresDb;
+    private final Dbi<ByteBuffer> taskDataDb;
     private final Dbi<ByteBuffer> callersOfDb;
-    private final Dbi<ByteBuffer> callersOfValuesDb;
-    private final Dbi<ByteBuffer> resourceRequiresDb;
     private final Dbi<ByteBuffer> requireesOfDb;
-    private final Dbi<ByteBuffer> requireesOfValuesDb;
-    private final Dbi<ByteBuffer> resourceProvidesDb;
     private final Dbi<ByteBuffer> providerOfDb;
+    private final Dbi<ByteBuffer> deferredTasksDb;
+    private final Dbi<ByteBuffer> callbacksDb;
+    private final KeyDictionaryTxn<TaskKey> taskKeys;
+    private final KeyDictionaryTxn<ResourceKey> resourceKeys;
+    private final BufferPool buffers;
+    private final Queue<BufferPool> bufferPools;
     private final DbiShared shared;
+    private final TopologicalOrderIndex topologicalOrder;
     private final SerializeUtil serializeUtil;
 
     LMDBStoreTxn(
         Env<ByteBuffer> env,
         Txn<ByteBuffer> txn,
         boolean isWriteTxn,
-        Dbi<ByteBuffer> inputDb,
-        Dbi<ByteBuffer> outputDb,
-        Dbi<ByteBuffer> taskObservabilityDb,
-        Dbi<ByteBuffer> taskRequiresDb,
+        Dbi<ByteBuffer> taskDataDb,
         Dbi<ByteBuffer> callersOfDb,
-        Dbi<ByteBuffer> callersOfValuesDb,
-        Dbi<ByteBuffer> resourceRequiresDb,
         Dbi<ByteBuffer> requireesOfDb,
-        Dbi<ByteBuffer> requireesOfValuesDb,
-        Dbi<ByteBuffer> resourceProvidesDb,
         Dbi<ByteBuffer> providerOfDb,
+        Dbi<ByteBuffer> topologicalIndexDb,
+        Dbi<ByteBuffer> deferredTasksDb,
+        Dbi<ByteBuffer> callbacksDb,
+        KeyDictionary<TaskKey> taskKeyDictionary,
+        KeyDictionary<ResourceKey> resourceKeyDictionary,
+        BufferPool buffers,
+        Queue<BufferPool> bufferPools,
         SerializeUtil serializeUtil
     ) {
         this.txn = txn;
-        this.inputDb = inputDb;
-        this.outputDb = outputDb;
-        this.taskObservabilityDb = taskObservabilityDb;
-        this.taskRequiresDb = taskRequiresDb;
+        this.taskDataDb = taskDataDb;
         this.callersOfDb = callersOfDb;
-        this.callersOfValuesDb = callersOfValuesDb;
-        this.resourceRequiresDb = resourceRequiresDb;
         this.requireesOfDb = requireesOfDb;
-        this.requireesOfValuesDb = requireesOfValuesDb;
-        this.resourceProvidesDb = resourceProvidesDb;
         this.providerOfDb = providerOfDb;
-        this.shared = new DbiShared(env, txn, isWriteTxn, serializeUtil);
+        this.deferredTasksDb = deferredTasksDb;
+        this.callbacksDb = callbacksDb;
+        this.taskKeys = taskKeyDictionary.txn(txn, buffers);
+        this.resourceKeys = resourceKeyDictionary.txn(txn, buffers);
+        this.buffers = buffers;
+        this.bufferPools = bufferPools;
+        this.shared = new DbiShared(env, txn, isWriteTxn, buffers, serializeUtil);
+        this.topologicalOrder = new TopologicalOrderIndex(txn, topologicalIndexDb, taskKeys, buffers, this);
         this.serializeUtil = serializeUtil;
     }
 
     @Override public void close() {
         txn.commit();
+        // Only cache identifiers created in this transaction after they have been committed.
+        taskKeys.commit();
+        resourceKeys.commit();
         txn.close();
+        // Return buffers to the pool after the transaction is closed, as they must not be used by multiple transactions
+        // at the same time.
+        bufferPools.offer(buffers);
     }
 
 
     @Override public @Nullable Serializable getInput(TaskKey key) {
-        return De.orElseNull(shared.getOneObject(serializeUtil.serializeHashed(key), inputDb));
+        return De.orElseNull(getObjectSection(getRecord(taskKeys.getId(key)), TaskRecord.inputSection));
     }
 
     @Override public @Nullable Serializable getInternalObject(TaskKey key) {
-        // TODO: implement
-        throw new UnsupportedOperationException("getInternalObject has not been implemented for LMDB yet, sorry");
+        return De.orElseNull(getObjectSection(getRecord(taskKeys.getId(key)), TaskRecord.internalObjectSection));
     }
 
     @Override public @Nullable Output getOutput(TaskKey key) {
-        return De.mapOrElseNull(shared.getOneObject(serializeUtil.serializeHashed(key), outputDb), Output::new);
+        return De.mapOrElseNull(getObjectSection(getRecord(taskKeys.getId(key)), TaskRecord.outputSection), Output::new);
     }
 
     @Override public Observability getTaskObservability(TaskKey key) {
-        return De.orElse(shared.getOne(Observability.class, serializeUtil.serializeHashed(key), taskObservabilityDb), Observability.Unobserved);
+        return getTaskObservability(getRecord(taskKeys.getId(key)));
     }
 
 
     @Override public ArrayList<TaskRequireDep> getTaskRequireDeps(TaskKey caller) {
-        return De.orElse(shared.getOne(ArrayList.class, serializeUtil.serializeHashed(caller), taskRequiresDb), new ArrayList<>());
+        return getListSection(getRecord(taskKeys.getId(caller)), TaskRecord.taskRequiresSection);
     }
 
-    @Override public Collection<TaskKey> getRequiredTasks(TaskKey caller) {
-        // TODO: implement
-        throw new UnsupportedOperationException("getRequiredTasks has not been implemented for LMDB yet, sorry");
+    @Override public ArrayList<TaskKey> getRequiredTasks(TaskKey caller) {
+        final @Nullable TaskRecord record = getRecord(taskKeys.getId(caller));
+        if(record == null) {
+            return new ArrayList<>();
+        }
+        return toTaskKeys(record.getInts(TaskRecord.requiredTasksSection), new ArrayList<>());
     }
 
     @Override public Set<TaskKey> getCallersOf(TaskKey callee) {
-        return shared.getMultiple(TaskKey.class, serializeUtil.serializeHashed(callee), callersOfDb, callersOfValuesDb);
+        final int calleeId = taskKeys.getId(callee);
+        if(calleeId == -1) {
+            return new HashSet<>();
+        }
+        return toTaskKeys(shared.getIds(calleeId, callersOfDb), new HashSet<>());
     }
 
     @Override public boolean doesRequireTransitively(TaskKey caller, TaskKey callee) {
-        return BottomUpShared.hasTransitiveTaskReq(caller, callee, this); // TODO: replace with more performant alternative.
+        return topologicalOrder.requiresTransitively(caller, callee);
     }
 
     @Override public boolean hasDependencyOrderBefore(TaskKey caller, TaskKey callee) {
-        return doesRequireTransitively(caller, callee); // TODO: replace with more performant alternative.
+        return topologicalOrder.hasOrderBefore(caller, callee);
+    }
+
+    @Override public boolean hasTopologicalOrder() {
+        return true;
+    }
+
+    /**
+     * Gets the topological index of task with key {@code key}, or {@code -1} if the task has no index because it has
+     * never required or been required by another task.
+     */
+    @Override public int getTopologicalIndex(TaskKey key) {
+        return topologicalOrder.getIndex(key);
     }
 
 
     @Override public ArrayList<ResourceRequireDep> getResourceRequireDeps(TaskKey requirer) {
-        return De.orElse(shared.getOne(ArrayList.class, serializeUtil.serializeHashed(requirer), resourceRequiresDb), new ArrayList<>());
+        return getListSection(getRecord(taskKeys.getId(requirer)), TaskRecord.resourceRequiresSection);
     }
 
     @Override public Set<TaskKey> getRequirersOf(ResourceKey requiree) {
-        return shared.getMultiple(TaskKey.class, serializeUtil.serializeHashed(requiree), requireesOfDb, requireesOfValuesDb);
+        final int requireeId = resourceKeys.getId(requiree);
+        if(requireeId == -1) {
+            return new HashSet<>();
+        }
+        return toTaskKeys(shared.getIds(requireeId, requireesOfDb), new HashSet<>());
     }
 
 
     @Override public ArrayList<ResourceProvideDep> getResourceProvideDeps(TaskKey provider) {
-        return De.orElse(shared.getOne(ArrayList.class, serializeUtil.serializeHashed(provider), resourceProvidesDb), new ArrayList<>());
+        return getListSection(getRecord(taskKeys.getId(provider)), TaskRecord.resourceProvidesSection);
     }
 
     @Override public @Nullable TaskKey getProviderOf(ResourceKey providee) {
-        return De.orElse(shared.getOne(TaskKey.class, serializeUtil.serializeHashed(providee), providerOfDb), null);
+        final int provideeId = resourceKeys.getId(providee);
+        if(provideeId == -1) {
+            return null;
+        }
+        final int providerId = shared.getId(provideeId, providerOfDb);
+        if(providerId == -1) {
+            return null;
+        }
+        return taskKeys.getKey(providerId);
     }
 
 
+    /**
+     * {@inheritDoc}
+     *
+     * Reads all data of the task from a single record. The output is not deserialized until it is requested from the
+     * returned task data, such that checking the consistency of a task does not deserialize its output, unless the
+     * output is an {@link OutTransient}.
+     */
     @Override public @Nullable TaskData getData(TaskKey key) {
-        // OPTO: reuse buffers? is that safe?
-        final byte[] keyHashedBytes = serializeUtil.serializeHashedToBytes(key);
-        final @Nullable De<Serializable> inputDeserialized = shared.getOneObject(BufferUtil.toBuffer(keyHashedBytes), inputDb);
-        if(inputDeserialized == null || inputDeserialized.failed) {
+        final @Nullable TaskRecord record = getRecord(taskKeys.getId(key));
+        if(record == null) {
             return null;
         }
-        final @Nullable De<@Nullable Serializable> outputDeserialized = shared.getOneObject(BufferUtil.toBuffer(keyHashedBytes), outputDb);
-        if(outputDeserialized == null || outputDeserialized.failed) {
+        final @Nullable ByteBuffer outputBuf = record.get(TaskRecord.outputSection);
+        if(outputBuf == null) {
             return null;
         }
-        final @Nullable De<Observability> taskObservabilityDeserialized = shared.getOne(Observability.class, BufferUtil.toBuffer(keyHashedBytes), taskObservabilityDb);
-
-        final Serializable input = inputDeserialized.deserialized;
-        final @Nullable Serializable output = outputDeserialized.deserialized;
-        final Observability taskObservability = De.orElse(taskObservabilityDeserialized, Observability.Unobserved);
-        final ArrayList<TaskRequireDep> taskRequires = De.orElse(shared.getOne(ArrayList.class, BufferUtil.toBuffer(keyHashedBytes), taskRequiresDb), new ArrayList<>());
-        final ArrayList<ResourceRequireDep> resourceRequires = De.orElse(shared.getOne(ArrayList.class, BufferUtil.toBuffer(keyHashedBytes), resourceRequiresDb), new ArrayList<>());
-        final ArrayList<ResourceProvideDep> resourceProvides = De.orElse(shared.getOne(ArrayList.class, BufferUtil.toBuffer(keyHashedBytes), resourceProvidesDb), new ArrayList<>());
-        return new TaskData(input, getInternalObject(key), new Output(output), taskObservability, new TaskDeps(taskRequires, resourceRequires, resourceProvides));
-    }
-
-
+        final @Nullable Serializable input = De.orElseNull(getObjectSection(record, TaskRecord.inputSection));
+        if(input == null) {
+            return null;
+        }
+        final @Nullable Serializable internalObject = De.orElseNull(getObjectSection(record, TaskRecord.internalObjectSection));
+        final Observability taskObservability = getTaskObservability(record);
+        final ArrayList<TaskRequireDep> taskRequires = getListSection(record, TaskRecord.taskRequiresSection);
+        final ArrayList<ResourceRequireDep> resourceRequires = getListSection(record, TaskRecord.resourceRequiresSection);
+        final ArrayList<ResourceProvideDep> resourceProvides = getListSection(record, TaskRecord.resourceProvidesSection);
+        // Copy the serialized output, as the record is only valid until the next update or the end of the transaction.
+        final byte[] outputBytes = new byte[outputBuf.remaining()];
+        outputBuf.get(outputBytes);
+        return new TaskData(
+            input,
+            internalObject,
+            () -> new Output((Serializable)serializeUtil.deserializeObjectOrThrow(ByteBuffer.wrap(outputBytes))),
+            record.has(TaskRecord.transientOutputSection),
+            taskObservability,
+            new TaskDeps(taskRequires, resourceRequires, resourceProvides)
+        );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     *
+     * Unlike the in-memory stores, which only return tasks that have been registered in their callers index, this
+     * returns all tasks with an input that have no callers.
+     */
     @Override public Set<TaskKey> getTasksWithoutCallers() {
-        // TODO: implement
-        throw new UnsupportedOperationException("tasksWithoutCallers has not been implemented for LMDB yet, sorry");
+        final HashSet<TaskKey> tasksWithoutCallers = new HashSet<>();
+        try(final CursorIterable<ByteBuffer> cursor = taskDataDb.iterate(txn)) {
+            for(final CursorIterable.KeyVal<ByteBuffer> keyval : cursor) {
+                if(!TaskRecord.read(keyval.val()).has(TaskRecord.inputSection)) continue;
+                final int id = keyval.key().getInt(0);
+                if(shared.getBool(id, callersOfDb)) continue;
+                final @Nullable TaskKey key = taskKeys.getKey(id);
+                if(key != null) {
+                    tasksWithoutCallers.add(key);
+                }
+            }
+        }
+        return tasksWithoutCallers;
     }
 
     @Override public int getNumSourceFiles() {
-        // Cannot use requireesOfValuesDb, as these are never cleaned up at the moment. Instead use values of resourceRequiresDb.
+        // Use the resource require sections of task records, as resources stay in the resource key dictionary when no
+        // task requires them any more.
         final HashSet<ResourceKey> requiredResources = new HashSet<>();
-        try(final CursorIterable<ByteBuffer> cursor = resourceRequiresDb.iterate(txn)) {
+        try(final CursorIterable<ByteBuffer> cursor = taskDataDb.iterate(txn)) {
             for(final CursorIterable.KeyVal<ByteBuffer> keyval : cursor) {
-                final ArrayList<ResourceRequireDep> resourceRequires = De.orElse(serializeUtil.deserialize(ArrayList.class, keyval.val()), new ArrayList<>());
+                final ArrayList<ResourceRequireDep> resourceRequires = getListSection(TaskRecord.read(keyval.val()), TaskRecord.resourceRequiresSection);
                 for(ResourceRequireDep resourceRequire : resourceRequires) {
                     requiredResources.add(resourceRequire.key);
                 }
@@ -182,7 +254,8 @@ public class LMDBStoreTxn implements StoreReadTxn, StoreWriteTxn {
 
         int numSourceFiles = 0;
         for(ResourceKey file : requiredResources) {
-            if(!shared.getBool(serializeUtil.serializeHashed(file), providerOfDb)) {
+            final int fileId = resourceKeys.getId(file);
+            if(fileId == -1 || !shared.getBool(fileId, providerOfDb)) {
                 ++numSourceFiles;
             }
         }
@@ -190,182 +263,378 @@ public class LMDBStoreTxn implements StoreReadTxn, StoreWriteTxn {
     }
 
 
-
-//    @Override public void setInput(TaskKey key, Serializable input) {
-//        shared.setOne(serializeUtil.serializeHashed(key), serializeUtil.serializeObject(input), inputDb);
-//    }
-
     @Override public void setOutput(TaskKey key, @Nullable Serializable output) {
-        shared.setOne(serializeUtil.serializeHashed(key), serializeUtil.serializeObject(output), outputDb);
+        final int id = taskKeys.getOrCreateId(key);
+        final TaskRecord record = getRecordForUpdate(id);
+        setOutput(record, output);
+        putRecord(id, record);
     }
 
     @Override public void setTaskObservability(TaskKey key, Observability observability) {
-        shared.setOne(serializeUtil.serializeHashed(key), serializeUtil.serialize(observability), taskObservabilityDb);
+        final int id = taskKeys.getOrCreateId(key);
+        final TaskRecord record = getRecordForUpdate(id);
+        record.set(TaskRecord.observabilitySection, serializeUtil.serialize(observability));
+        putRecord(id, record);
     }
 
     @Override public void setInternalObject(TaskKey key, @Nullable Serializable obj) {
-        // TODO: implement
-        throw new UnsupportedOperationException("setInternalObject has not been implemented for LMDB yet, sorry");
+        final int id = taskKeys.getOrCreateId(key);
+        final TaskRecord record = getRecordForUpdate(id);
+        record.set(TaskRecord.internalObjectSection, serializeUtil.serializeObject(obj));
+        putRecord(id, record);
     }
 
     @Override public void clearInternalObject(TaskKey key) {
-        // TODO: implement
-        throw new UnsupportedOperationException("clearInternalObject has not been implemented for LMDB yet, sorry");
-    }
-
-    @Override public void restoreData(TaskKey key, TaskData data) {
-        // TODO: implement
-        throw new UnsupportedOperationException("restoreData has not been implemented for LMDB yet, sorry");
-    }
-
-//    @Override public void setTaskRequires(TaskKey key, Collection<TaskRequireDep> taskRequires) {
-//        // OPTO: reuse buffers? is that safe?
-//        final SerializedAndHashed serializedAndHashed = serializeUtil.serializeAndHash(key);
-//        final byte[] keyBytes = serializedAndHashed.serialized;
-//        final byte[] keyHashedBytes = serializedAndHashed.hashed;
-//
-//        // Remove old inverse task requirements.
-//        final ArrayList<TaskRequireDep> oldTaskRequires = De.orElse(shared.getOne(ArrayList.class, BufferUtil.toBuffer(keyHashedBytes), taskRequiresDb), new ArrayList<>());
-//        for(TaskRequireDep taskRequire : oldTaskRequires) {
-//            shared.deleteDup(serializeUtil.serializeHashed(taskRequire.callee), BufferUtil.toBuffer(keyHashedBytes), callersOfDb, callersOfValuesDb);
-//        }
-//
-//        // Add new task requirements.
-//        shared.setOne(BufferUtil.toBuffer(keyHashedBytes), serializeUtil.serialize(taskRequires), taskRequiresDb);
-//        for(TaskRequireDep taskRequire : taskRequires) {
-//            shared.setDup(serializeUtil.serializeHashed(taskRequire.callee), BufferUtil.toBuffer(keyBytes), BufferUtil.toBuffer(keyHashedBytes), callersOfDb, callersOfValuesDb);
-//        }
-//    }
-
-//    @Override public void setResourceRequires(TaskKey key, Collection<ResourceRequireDep> resourceRequires) {
-//        // OPTO: reuse buffers? is that safe?
-//        final SerializedAndHashed serializedAndHashed = serializeUtil.serializeAndHash(key);
-//        final byte[] keyBytes = serializedAndHashed.serialized;
-//        final byte[] keyHashedBytes = serializedAndHashed.hashed;
-//
-//        // Remove old inverse file requirements.
-//        final ArrayList<ResourceRequireDep> oldResourceRequires = De.orElse(shared.getOne(ArrayList.class, BufferUtil.toBuffer(keyHashedBytes), resourceRequiresDb), new ArrayList<>());
-//        for(ResourceRequireDep resourceRequire : oldResourceRequires) {
-//            shared.deleteDup(serializeUtil.serializeHashed(resourceRequire.key), BufferUtil.toBuffer(keyHashedBytes), requireesOfDb, requireesOfValuesDb);
-//        }
-//
-//        // Add new file requirements.
-//        shared.setOne(BufferUtil.toBuffer(keyHashedBytes), serializeUtil.serialize(resourceRequires), resourceRequiresDb);
-//        for(ResourceRequireDep resourceRequire : resourceRequires) {
-//            shared.setDup(serializeUtil.serializeHashed(resourceRequire.key), BufferUtil.toBuffer(keyBytes), BufferUtil.toBuffer(keyHashedBytes), requireesOfDb, requireesOfValuesDb);
-//        }
-//    }
-
-//    @Override public void setResourceProvides(TaskKey key, Collection<ResourceProvideDep> resourceProvides) {
-//        // OPTO: reuse buffers? is that safe?
-//        final SerializedAndHashed serializedAndHashed = serializeUtil.serializeAndHash(key);
-//        final byte[] keyBytes = serializedAndHashed.serialized;
-//        final byte[] keyHashedBytes = serializedAndHashed.hashed;
-//
-//        // Remove old inverse file generates.
-//        final ArrayList<ResourceProvideDep> oldResourceProvides = De.orElse(shared.getOne(ArrayList.class, BufferUtil.toBuffer(keyHashedBytes), resourceProvidesDb), new ArrayList<>());
-//        for(ResourceProvideDep resourceProvide : oldResourceProvides) {
-//            shared.deleteOne(serializeUtil.serializeHashed(resourceProvide.key), providerOfDb);
-//        }
-//
-//        // Add new file generates.
-//        shared.setOne(BufferUtil.toBuffer(keyHashedBytes), serializeUtil.serialize(resourceProvides), resourceProvidesDb);
-//        for(ResourceProvideDep resourceProvide : resourceProvides) {
-//            shared.setOne(serializeUtil.serializeHashed(resourceProvide.key), BufferUtil.toBuffer(keyBytes), providerOfDb);
-//        }
-//    }
+        final int id = taskKeys.getId(key);
+        if(id == -1) return;
+        final TaskRecord record = getRecordForUpdate(id);
+        record.clear(TaskRecord.internalObjectSection);
+        putRecord(id, record);
+    }
+
+    @Override public void restoreData(TaskKey key, @Nullable TaskData data) {
+        final int id = data != null ? taskKeys.getOrCreateId(key) : taskKeys.getId(key);
+        if(id == -1) return; // Task has no identifier, so there is no data to remove.
+
+        final TaskRecord record = getRecordForUpdate(id);
+        if(data != null) {
+            record.set(TaskRecord.inputSection, serializeUtil.serializeObject(data.input));
+            record.set(TaskRecord.internalObjectSection, serializeUtil.serializeObject(data.internalObject));
+            if(data.hasOutput()) {
+                setOutput(record, data.getOutput());
+            } else {
+                clearOutput(record);
+            }
+            record.set(TaskRecord.observabilitySection, serializeUtil.serialize(data.taskObservability));
+        } else {
+            record.clear(TaskRecord.inputSection);
+            record.clear(TaskRecord.internalObjectSection);
+            clearOutput(record);
+            record.clear(TaskRecord.observabilitySection);
+        }
+        removeTaskRequiresAndDepsOf(record, id);
+        removeResourceRequireDepsOf(record, id);
+        removeResourceProvideDepsOf(record, id);
+        putRecord(id, record);
+
+        // Add dependencies after writing the record, as adding a task require updates the topological order, which
+        // reads required tasks from the store.
+        if(data != null) {
+            for(TaskRequireDep dep : data.deps.taskRequireDeps) {
+                addTaskRequire(key, dep.callee);
+                addTaskRequireDep(key, dep);
+            }
+            for(ResourceRequireDep dep : data.deps.resourceRequireDeps) {
+                addResourceRequireDep(key, dep);
+            }
+            for(ResourceProvideDep dep : data.deps.resourceProvideDeps) {
+                addResourceProvideDep(key, dep);
+            }
+        } else {
+            removeFromCallersOf(id);
+        }
+    }
 
 
     @Override public @Nullable TaskData resetTask(Task<?> task) {
-        // TODO: implement
-        throw new UnsupportedOperationException("clearTaskOutputAndDeps has not been implemented for LMDB yet, sorry");
+        final TaskKey key = task.key();
+        final int id = taskKeys.getOrCreateId(key);
+
+        final TaskRecord record = getRecordForUpdate(id);
+        final @Nullable Serializable previousInput = De.orElseNull(getObjectSection(record, TaskRecord.inputSection));
+        final @Nullable Serializable previousInternalObject = De.orElseNull(getObjectSection(record, TaskRecord.internalObjectSection));
+        final @Nullable Output previousOutput = De.mapOrElseNull(getObjectSection(record, TaskRecord.outputSection), Output::new);
+        final Observability previousTaskObservability = getTaskObservability(record);
+        record.set(TaskRecord.inputSection, serializeUtil.serializeObject(task.input));
+        clearOutput(record);
+        record.clear(TaskRecord.observabilitySection);
+        // Keep `key` in the callers index, as we want to keep dependencies from other tasks to `key` intact.
+        final ArrayList<TaskRequireDep> previousTaskRequireDeps = removeTaskRequiresAndDepsOf(record, id);
+        final ArrayList<ResourceRequireDep> previousResourceRequireDeps = removeResourceRequireDepsOf(record, id);
+        final ArrayList<ResourceProvideDep> previousResourceProvideDeps = removeResourceProvideDepsOf(record, id);
+        putRecord(id, record);
+        if(previousInput != null) {
+            return new TaskData(
+                previousInput,
+                previousInternalObject,
+                previousOutput,
+                previousTaskObservability,
+                new TaskDeps(previousTaskRequireDeps, previousResourceRequireDeps, previousResourceProvideDeps)
+            );
+        }
+        return null;
     }
 
     @Override public void addTaskRequire(TaskKey caller, TaskKey callee) {
-        // TODO: implement
-        throw new UnsupportedOperationException("addTaskRequire has not been implemented for LMDB yet, sorry");
+        // Update topological order before adding the task require, as the order update requires the old graph.
+        topologicalOrder.addRequire(caller, callee);
+
+        final int callerId = taskKeys.getOrCreateId(caller);
+        final int calleeId = taskKeys.getOrCreateId(callee);
+        final TaskRecord record = getRecordForUpdate(callerId);
+        final int[] requiredTasks = record.getInts(TaskRecord.requiredTasksSection);
+        if(!contains(requiredTasks, calleeId)) {
+            final int[] newRequiredTasks = Arrays.copyOf(requiredTasks, requiredTasks.length + 1);
+            newRequiredTasks[requiredTasks.length] = calleeId;
+            record.setInts(TaskRecord.requiredTasksSection, newRequiredTasks);
+            putRecord(callerId, record);
+        }
+        shared.addId(calleeId, callerId, callersOfDb);
     }
 
     @Override public void addTaskRequireDep(TaskKey caller, TaskRequireDep dep) {
-        // TODO: implement
-        throw new UnsupportedOperationException("addTaskRequire has not been implemented for LMDB yet, sorry");
+        final int callerId = taskKeys.getOrCreateId(caller);
+        final TaskRecord record = getRecordForUpdate(callerId);
+        final ArrayList<TaskRequireDep> deps = getListSection(record, TaskRecord.taskRequiresSection);
+        if(!deps.contains(dep)) {
+            deps.add(dep);
+            record.set(TaskRecord.taskRequiresSection, serializeUtil.serialize(deps));
+            putRecord(callerId, record);
+        }
     }
 
     @Override public void addResourceRequireDep(TaskKey requiree, ResourceRequireDep dep) {
-        // TODO: implement
-        throw new UnsupportedOperationException("addResourceRequire has not been implemented for LMDB yet, sorry");
+        final int requireeId = taskKeys.getOrCreateId(requiree);
+        final TaskRecord record = getRecordForUpdate(requireeId);
+        final ArrayList<ResourceRequireDep> deps = getListSection(record, TaskRecord.resourceRequiresSection);
+        if(!deps.contains(dep)) {
+            deps.add(dep);
+            record.set(TaskRecord.resourceRequiresSection, serializeUtil.serialize(deps));
+            putRecord(requireeId, record);
+        }
+        shared.addId(resourceKeys.getOrCreateId(dep.key), requireeId, requireesOfDb);
     }
 
-    @Override public void addResourceProvideDep(TaskKey provider, ResourceProvideDep resourceProvide) {
-        // TODO: implement
-        throw new UnsupportedOperationException("addResourceProvide has not been implemented for LMDB yet, sorry");
+    @Override public void addResourceProvideDep(TaskKey provider, ResourceProvideDep dep) {
+        final int providerId = taskKeys.getOrCreateId(provider);
+        final TaskRecord record = getRecordForUpdate(providerId);
+        final ArrayList<ResourceProvideDep> deps = getListSection(record, TaskRecord.resourceProvidesSection);
+        if(!deps.contains(dep)) {
+            deps.add(dep);
+            record.set(TaskRecord.resourceProvidesSection, serializeUtil.serialize(deps));
+            putRecord(providerId, record);
+        }
+        shared.setId(resourceKeys.getOrCreateId(dep.key), providerId, providerOfDb);
     }
 
 
-//    @Override public void setData(TaskKey key, TaskData data) {
-//        // OPTO: serialize and hash task only once?
-//        setInput(key, data.input);
-//        setOutput(key, data.output);
-//        setTaskObservability(key, data.taskObservability);
-//        setTaskRequires(key, data.taskRequires);
-//        setResourceRequires(key, data.resourceRequires);
-//        setResourceProvides(key, data.resourceProvides);
-//    }
-
-    @Override public TaskData deleteData(TaskKey key) {
-        // TODO: implement
-        throw new UnsupportedOperationException("deleteData has not been implemented for LMDB yet, sorry");
+    @Override public @Nullable TaskData deleteData(TaskKey key) {
+        final int id = taskKeys.getId(key);
+        if(id == -1) {
+            return null;
+        }
+        final TaskRecord record = getRecordForUpdate(id);
+        final @Nullable Serializable input = De.orElseNull(getObjectSection(record, TaskRecord.inputSection));
+        if(input == null) {
+            return null;
+        }
+        final @Nullable Serializable internalObject = De.orElseNull(getObjectSection(record, TaskRecord.internalObjectSection));
+        final @Nullable Output output = De.mapOrElseNull(getObjectSection(record, TaskRecord.outputSection), Output::new);
+        if(output == null) {
+            throw new IllegalStateException("BUG: deleting task data for '" + key + "', but no output was deleted");
+        }
+        final Observability observability = getTaskObservability(record);
+        final ArrayList<TaskRequireDep> removedTaskRequires = removeTaskRequiresAndDepsOf(record, id);
+        removeFromCallersOf(id);
+        final ArrayList<ResourceRequireDep> removedResourceRequires = removeResourceRequireDepsOf(record, id);
+        final ArrayList<ResourceProvideDep> removedResourceProvides = removeResourceProvideDepsOf(record, id);
+        shared.deleteOne(id, taskDataDb);
+        shared.deleteOne(id, deferredTasksDb);
+        return new TaskData(input, internalObject, output, observability, new TaskDeps(removedTaskRequires, removedResourceRequires, removedResourceProvides));
     }
 
 
     @Override public Set<TaskKey> getDeferredTasks() {
-        // TODO: implement
-        throw new UnsupportedOperationException("deferredTasks has not been implemented for LMDB yet, sorry");
+        final HashSet<TaskKey> deferredTasks = new HashSet<>();
+        try(final CursorIterable<ByteBuffer> cursor = deferredTasksDb.iterate(txn)) {
+            for(final CursorIterable.KeyVal<ByteBuffer> keyval : cursor) {
+                final @Nullable TaskKey key = taskKeys.getKey(keyval.key().getInt(0));
+                if(key != null) {
+                    deferredTasks.add(key);
+                }
+            }
+        }
+        return deferredTasks;
     }
 
     @Override public void addDeferredTask(TaskKey key) {
-        // TODO: implement
-        throw new UnsupportedOperationException("addDeferredTask has not been implemented for LMDB yet, sorry");
+        shared.setBool(taskKeys.getOrCreateId(key), true, deferredTasksDb);
     }
 
     @Override public void removeDeferredTask(TaskKey key) {
-        // TODO: implement
-        throw new UnsupportedOperationException("removeDeferredTask has not been implemented for LMDB yet, sorry");
+        final int id = taskKeys.getId(key);
+        if(id == -1) return;
+        shared.deleteOne(id, deferredTasksDb);
     }
 
 
     @Override public @Nullable SerializableConsumer<Serializable> getCallback(TaskKey key) {
-        // TODO: implement
-        throw new UnsupportedOperationException("getCallback has not been implemented for LMDB yet, sorry");
+        final int id = taskKeys.getId(key);
+        if(id == -1) return null;
+        return De.orElseNull(shared.getOneObject(id, callbacksDb));
     }
 
     @Override public void setCallback(TaskKey key, SerializableConsumer<Serializable> callback) {
-        // TODO: implement
-        throw new UnsupportedOperationException("setCallback has not been implemented for LMDB yet, sorry");
+        shared.setBytes(taskKeys.getOrCreateId(key), serializeUtil.serializeObjectToBytes(callback), callbacksDb);
     }
 
     @Override public void removeCallback(TaskKey key) {
-        // TODO: implement
-        throw new UnsupportedOperationException("removeCallback has not been implemented for LMDB yet, sorry");
+        final int id = taskKeys.getId(key);
+        if(id == -1) return;
+        shared.deleteOne(id, callbacksDb);
     }
 
     @Override public void dropCallbacks() {
-        // TODO: implement
-        throw new UnsupportedOperationException("dropCallbacks has not been implemented for LMDB yet, sorry");
+        callbacksDb.drop(txn);
     }
 
 
+    /**
+     * {@inheritDoc}
+     *
+     * Keeps the key dictionaries, as their identifiers are cached and must never be reused.
+     */
     @Override public void drop() {
-        inputDb.drop(txn);
-        outputDb.drop(txn);
-        taskObservabilityDb.drop(txn);
-        taskRequiresDb.drop(txn);
+        taskDataDb.drop(txn);
         callersOfDb.drop(txn);
-        callersOfValuesDb.drop(txn);
-        resourceRequiresDb.drop(txn);
         requireesOfDb.drop(txn);
-        requireesOfValuesDb.drop(txn);
-        resourceProvidesDb.drop(txn);
         providerOfDb.drop(txn);
+        topologicalOrder.drop();
+        deferredTasksDb.drop(txn);
+        callbacksDb.drop(txn);
+    }
+
+
+    /**
+     * Gets the record of task {@code id}, or {@code null} if it has no record or {@code id} is {@code -1}. The record
+     * refers to the memory of the database, and may therefore only be used until the next update.
+     */
+    private @Nullable TaskRecord getRecord(int id) {
+        if(id == -1) {
+            return null;
+        }
+        final @Nullable ByteBuffer recordBuf = taskDataDb.get(txn, buffers.key(id));
+        if(recordBuf == null) {
+            return null;
+        }
+        return TaskRecord.read(recordBuf);
+    }
+
+    /**
+     * Gets a copy of the record of task {@code id}, or an empty record if it has no record, which can be used across
+     * updates and written back with {@link #putRecord}. The copy is made in a reusable buffer of the buffer pool, and
+     * is therefore only valid until the next call to this method.
+     */
+    private TaskRecord getRecordForUpdate(int id) {
+        if(id == -1) {
+            return new TaskRecord();
+        }
+        final @Nullable ByteBuffer recordBuf = taskDataDb.get(txn, buffers.key(id));
+        if(recordBuf == null) {
+            return new TaskRecord();
+        }
+        return TaskRecord.read(buffers.copyRecord(recordBuf));
+    }
+
+    private void putRecord(int id, TaskRecord record) {
+        if(record.isEmpty()) {
+            shared.deleteOne(id, taskDataDb);
+        } else {
+            final ByteBuffer recordBuf = taskDataDb.reserve(txn, buffers.key(id), record.size());
+            record.write(recordBuf);
+        }
+    }
+
+    private <T> @Nullable De<T> getSection(@Nullable TaskRecord record, int section, Class<T> type) {
+        if(record == null) return null;
+        final @Nullable ByteBuffer sectionBuf = record.get(section);
+        if(sectionBuf == null) return null;
+        return serializeUtil.deserialize(type, sectionBuf);
+    }
+
+    private <T> @Nullable De<@Nullable T> getObjectSection(@Nullable TaskRecord record, int section) {
+        if(record == null) return null;
+        final @Nullable ByteBuffer sectionBuf = record.get(section);
+        if(sectionBuf == null) return null;
+        return serializeUtil.deserializeObject(sectionBuf);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> ArrayList<T> getListSection(@Nullable TaskRecord record, int section) {
+        return De.orElse(getSection(record, section, ArrayList.class), new ArrayList<>());
+    }
+
+    private Observability getTaskObservability(@Nullable TaskRecord record) {
+        return De.orElse(getSection(record, TaskRecord.observabilitySection, Observability.class), Observability.Unobserved);
+    }
+
+    private void setOutput(TaskRecord record, @Nullable Serializable output) {
+        record.set(TaskRecord.outputSection, serializeUtil.serializeObject(output));
+        record.set(TaskRecord.transientOutputSection, output instanceof OutTransient<?> ? ByteBuffer.allocate(0) : null);
+    }
+
+    private void clearOutput(TaskRecord record) {
+        record.clear(TaskRecord.outputSection);
+        record.clear(TaskRecord.transientOutputSection);
+    }
+
+    private <C extends Collection<TaskKey>> C toTaskKeys(int[] ids, C keys) {
+        for(int id : ids) {
+            final @Nullable TaskKey key = taskKeys.getKey(id);
+            if(key != null) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private static boolean contains(int[] ids, int id) {
+        for(int i : ids) {
+            if(i == id) return true;
+        }
+        return false;
+    }
+
+    private ArrayList<TaskRequireDep> removeTaskRequiresAndDepsOf(TaskRecord record, int id) {
+        // Use the removed tasks from the required tasks section instead of the removed deps from the task requires
+        // section to remove entries from `callersOfDb`, as tasks that are cancelled/interrupted have no task require
+        // dependencies.
+        for(int removedCalleeId : record.getInts(TaskRecord.requiredTasksSection)) {
+            shared.deleteId(removedCalleeId, id, callersOfDb);
+        }
+        record.clear(TaskRecord.requiredTasksSection);
+        final ArrayList<TaskRequireDep> removedDeps = getListSection(record, TaskRecord.taskRequiresSection);
+        record.clear(TaskRecord.taskRequiresSection);
+        return removedDeps;
+    }
+
+    private void removeFromCallersOf(int id) {
+        // Deleting a key from a database with duplicates deletes all its values. The topological index of the task is
+        // kept, as tasks that required this task still do.
+        shared.deleteOne(id, callersOfDb);
+    }
+
+    private ArrayList<ResourceRequireDep> removeResourceRequireDepsOf(TaskRecord record, int id) {
+        final ArrayList<ResourceRequireDep> removedDeps = getListSection(record, TaskRecord.resourceRequiresSection);
+        for(ResourceRequireDep removedDep : removedDeps) {
+            final int resourceId = resourceKeys.getId(removedDep.key);
+            if(resourceId != -1) {
+                shared.deleteId(resourceId, id, requireesOfDb);
+            }
+        }
+        record.clear(TaskRecord.resourceRequiresSection);
+        return removedDeps;
+    }
+
+    private ArrayList<ResourceProvideDep> removeResourceProvideDepsOf(TaskRecord record, int id) {
+        final ArrayList<ResourceProvideDep> removedDeps = getListSection(record, TaskRecord.resourceProvidesSection);
+        for(ResourceProvideDep removedDep : removedDeps) {
+            final int resourceId = resourceKeys.getId(removedDep.key);
+            if(resourceId != -1) {
+                shared.deleteOne(resourceId, providerOfDb);
+            }
+        }
+        record.clear(TaskRecord.resourceProvidesSection);
+        return removedDeps;
     }
 }
@@ -30,8 +30,12 @@ class SerializeUtil {
         return hash(serialized);
     }
 
+    /**
+     * Serializes {@code obj} into a heap buffer, which can only be written into a database by copying it, for example
+     * as a section of a {@link TaskRecord}. This prevents allocating a direct buffer for every serialized value.
+     */
     <T> ByteBuffer serialize(T obj) {
-        return serde.serializeToByteBuffer(obj);
+        return ByteBuffer.wrap(serializeToBytes(obj));
     }
 
     <T> ByteBuffer serializeHashed(T obj) {
@@ -40,12 +44,6 @@ class SerializeUtil {
         return BufferUtil.toBuffer(hashed);
     }
 
-    <T> SerializedAndHashed serializeAndHash(T obj) {
-        final byte[] serialized = serializeToBytes(obj);
-        final byte[] hashed = hash(serialized);
-        return new SerializedAndHashed(serialized, hashed);
-    }
-
     <T> De<T> deserialize(Class<T> type, ByteBuffer byteBuffer) {
         try {
             final T deserialized = serde.deserializeFromByteBuffer(type, byteBuffer);
@@ -96,8 +94,11 @@ class SerializeUtil {
         return hash(serialized);
     }
 
+    /**
+     * Serializes {@code obj} and its type into a heap buffer, see {@link #serialize}.
+     */
     ByteBuffer serializeObject(@Nullable Object obj) {
-        return serde.serializeTypeAndObjectToByteBuffer(obj);
+        return ByteBuffer.wrap(serializeObjectToBytes(obj));
     }
 
     ByteBuffer serializeObjectHashed(@Nullable Object obj) {
@@ -118,6 +119,14 @@ class SerializeUtil {
     }
 
 
+    /**
+     * Deserializes an object of unknown type, throwing {@link DeserializeRuntimeException} when deserialization fails.
+     */
+    @Nullable Object deserializeObjectOrThrow(ByteBuffer byteBuffer) {
+        return serde.deserializeObjectOfUnknownTypeFromByteBuffer(byteBuffer, getClass().getClassLoader());
+    }
+
+
     byte[] hash(byte[] bytes) {
         try {
             final MessageDigest digest = MessageDigest.getInstance("SHA-1");
@@ -0,0 +1,130 @@
+package mb.pie.store.lmdb;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * All data of a task, stored as a single value with separately addressable sections, such that reading a section does
+ * not require deserializing the other sections. A record starts with the lengths of its sections, where {@code -1}
+ * denotes an absent section, followed by the bytes of the present sections in order.
+ *
+ * Sections of a record that is read from a database refer to the memory of the database, which is only valid until
+ * the next update or the end of the transaction. Records that are updated must therefore be read from a copy, see
+ * {@link BufferPool#copyRecord}, before updating other values.
+ */
+class TaskRecord {
+    static final int inputSection = 0;
+    static final int internalObjectSection = 1;
+    static final int outputSection = 2;
+    /**
+     * Empty section that is present when the output is an {@link mb.pie.api.OutTransient}, such that the consistency
+     * of the output can be checked without deserializing it.
+     */
+    static final int transientOutputSection = 3;
+    static final int observabilitySection = 4;
+    static final int taskRequiresSection = 5;
+    /**
+     * Identifiers of required tasks, as 4-byte integers.
+     */
+    static final int requiredTasksSection = 6;
+    static final int resourceRequiresSection = 7;
+    static final int resourceProvidesSection = 8;
+    private static final int numSections = 9;
+    private static final int headerSize = numSections * Integer.BYTES;
+
+    private final @Nullable ByteBuffer[] sections;
+
+
+    private TaskRecord(@Nullable ByteBuffer[] sections) {
+        this.sections = sections;
+    }
+
+    TaskRecord() {
+        this(new ByteBuffer[numSections]);
+    }
+
+    static TaskRecord read(ByteBuffer buffer) {
+        final ByteBuffer header = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        final @Nullable ByteBuffer[] sections = new ByteBuffer[numSections];
+        int offset = buffer.position() + headerSize;
+        for(int i = 0; i < numSections; ++i) {
+            final int length = header.getInt();
+            if(length < 0) continue;
+            final ByteBuffer section = buffer.duplicate();
+            section.position(offset);
+            section.limit(offset + length);
+            sections[i] = section.slice();
+            offset += length;
+        }
+        return new TaskRecord(sections);
+    }
+
+
+    /**
+     * Gets a buffer with the bytes of {@code section}, or {@code null} if the section is absent.
+     */
+    @Nullable ByteBuffer get(int section) {
+        final @Nullable ByteBuffer buffer = sections[section];
+        return buffer != null ? buffer.duplicate() : null;
+    }
+
+    /**
+     * Gets the integers in {@code section}, or an empty array if the section is absent.
+     */
+    int[] getInts(int section) {
+        final @Nullable ByteBuffer buffer = sections[section];
+        if(buffer == null) return new int[0];
+        final int[] values = new int[buffer.remaining() / Integer.BYTES];
+        buffer.duplicate().asIntBuffer().get(values);
+        return values;
+    }
+
+    boolean has(int section) {
+        return sections[section] != null;
+    }
+
+    void set(int section, @Nullable ByteBuffer buffer) {
+        sections[section] = buffer;
+    }
+
+    void setInts(int section, int[] values) {
+        final ByteBuffer buffer = ByteBuffer.allocate(values.length * Integer.BYTES);
+        buffer.asIntBuffer().put(values);
+        sections[section] = buffer;
+    }
+
+    void clear(int section) {
+        sections[section] = null;
+    }
+
+    boolean isEmpty() {
+        for(@Nullable ByteBuffer section : sections) {
+            if(section != null) return false;
+        }
+        return true;
+    }
+
+
+    int size() {
+        int size = headerSize;
+        for(@Nullable ByteBuffer section : sections) {
+            if(section != null) size += section.remaining();
+        }
+        return size;
+    }
+
+    /**
+     * Writes this record into {@code buffer}, which must have {@link #size()} bytes remaining.
+     */
+    void write(ByteBuffer buffer) {
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        for(@Nullable ByteBuffer section : sections) {
+            buffer.putInt(section != null ? section.remaining() : -1);
+        }
+        for(@Nullable ByteBuffer section : sections) {
+            if(section != null) buffer.put(section.duplicate());
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package mb.pie.store.lmdb;
+
+import mb.pie.api.StoreReadTxn;
+import mb.pie.api.TaskKey;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.lmdbjava.CursorIterable;
+import org.lmdbjava.Dbi;
+import org.lmdbjava.Txn;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Persistent topological order of the task require graph, stored in an LMDB database and maintained incrementally with
+ * the dynamic topological sort algorithm of Pearce and Kelly, the same algorithm used by
+ * {@link mb.pie.graph.DirectedAcyclicGraph} for {@code InMemoryStore}. Callers have a lower topological index than the
+ * tasks they (transitively) require. Adding a task require that violates the order only reorders the tasks in the
+ * affected region between the indices of caller and callee.
+ *
+ * The database maps task identifiers of the {@link KeyDictionary} to topological indices (both 4-byte integers), and
+ * stores the next free index under a 1-byte key that cannot collide with task identifiers. Tasks are assigned an index when they are first required or
+ * require another task. Removing task requires does not invalidate a topological order, so only removing tasks needs
+ * to remove their index.
+ *
+ * New tasks are assigned the next free index, which only increases, as reordering reuses the indices of the reordered
+ * tasks. When fewer than two free indices are left before {@link Integer#MAX_VALUE}, all indices are renumbered to
+ * {@code 0} up to the number of tasks with an index, keeping their order and removing the gaps left by removed tasks.
+ * Therefore, at most {@code Integer.MAX_VALUE - 2} tasks can have an index at the same time.
+ */
+class TopologicalOrderIndex {
+    private static final ByteBuffer nextIndexKey = BufferUtil.toBuffer(new byte[]{0});
+
+    private final Txn<ByteBuffer> txn;
+    private final Dbi<ByteBuffer> indexDb;
+    private final KeyDictionaryTxn<TaskKey> taskKeys;
+    private final BufferPool buffers;
+    private final StoreReadTxn graph;
+
+
+    /**
+     * @param graph Store transaction to get required tasks and callers of tasks from.
+     */
+    TopologicalOrderIndex(Txn<ByteBuffer> txn, Dbi<ByteBuffer> indexDb, KeyDictionaryTxn<TaskKey> taskKeys, BufferPool buffers, StoreReadTxn graph) {
+        this.txn = txn;
+        this.indexDb = indexDb;
+        this.taskKeys = taskKeys;
+        this.buffers = buffers;
+        this.graph = graph;
+    }
+
+
+    /**
+     * @return topological index of task with {@code key}, or {@code -1} if the task has no index yet, meaning that it
+     * has no task require dependencies.
+     */
+    int getIndex(TaskKey key) {
+        final int id = taskKeys.getId(key);
+        if(id == -1) return -1;
+        return getIndex(buffers.key(id));
+    }
+
+    /**
+     * @return {@code true} if task {@code caller} has a lower topological index than {@code callee}.
+     */
+    boolean hasOrderBefore(TaskKey caller, TaskKey callee) {
+        final int callerIndex = getIndex(caller);
+        if(callerIndex == -1) return false;
+        final int calleeIndex = getIndex(callee);
+        return calleeIndex != -1 && callerIndex < calleeIndex;
+    }
+
+    /**
+     * @return {@code true} if task {@code caller} requires {@code callee} directly or transitively. Only visits tasks
+     * with an index between those of {@code caller} and {@code callee}, as other tasks cannot be on a path between them.
+     */
+    boolean requiresTransitively(TaskKey caller, TaskKey callee) {
+        final int callerIndex = getIndex(caller);
+        if(callerIndex == -1) return false;
+        final int calleeIndex = getIndex(callee);
+        if(calleeIndex == -1 || callerIndex >= calleeIndex) return false;
+        final HashSet<TaskKey> visited = new HashSet<>();
+        final ArrayDeque<TaskKey> stack = new ArrayDeque<>();
+        stack.push(caller);
+        visited.add(caller);
+        while(!stack.isEmpty()) {
+            final TaskKey key = stack.pop();
+            for(TaskKey required : graph.getRequiredTasks(key)) {
+                if(required.equals(callee)) return true;
+                if(!visited.add(required)) continue;
+                final int requiredIndex = getIndex(required);
+                if(requiredIndex != -1 && requiredIndex < calleeIndex) {
+                    stack.push(required);
+                }
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Updates the topological order for a new task require from {@code caller} to {@code callee}, assigning indices to
+     * these tasks if they have none. Must be called before the task require is added to the graph.
+     *
+     * @throws IllegalArgumentException when the task require would introduce a cycle.
+     */
+    void addRequire(TaskKey caller, TaskKey callee) {
+        // Renumber before assigning indices to caller and callee, as renumbering in between would change the index of
+        // the caller.
+        if(getNextIndex() > Integer.MAX_VALUE - 2) {
+            renumber();
+        }
+        final int callerIndex = getOrCreateIndex(caller);
+        final int calleeIndex = getOrCreateIndex(callee);
+        if(callerIndex < calleeIndex) return; // Order is already correct.
+        if(callerIndex == calleeIndex) {
+            throw new IllegalArgumentException("Cannot add task require from '" + caller + "' to itself, it would introduce a cycle");
+        }
+
+        // Find tasks in the affected region that are required by callee (including callee) and that require caller
+        // (including caller).
+        final HashMap<TaskKey, Integer> forward = new HashMap<>();
+        collectForward(callee, callerIndex, caller, forward);
+        final HashMap<TaskKey, Integer> backward = new HashMap<>();
+        collectBackward(caller, calleeIndex, backward);
+
+        // Reassign the indices of both sets: all backward tasks (in their current order) are placed before all forward
+        // tasks (in their current order).
+        final ArrayList<Map.Entry<TaskKey, Integer>> backwardSorted = sortByIndex(backward);
+        final ArrayList<Map.Entry<TaskKey, Integer>> forwardSorted = sortByIndex(forward);
+        final int[] indices = new int[backward.size() + forward.size()];
+        int i = 0;
+        for(Map.Entry<TaskKey, Integer> entry : backwardSorted) indices[i++] = entry.getValue();
+        for(Map.Entry<TaskKey, Integer> entry : forwardSorted) indices[i++] = entry.getValue();
+        Arrays.sort(indices);
+        i = 0;
+        for(Map.Entry<TaskKey, Integer> entry : backwardSorted) setIndex(entry.getKey(), indices[i++]);
+        for(Map.Entry<TaskKey, Integer> entry : forwardSorted) setIndex(entry.getKey(), indices[i++]);
+    }
+
+    /**
+     * Removes the index of task with {@code key}.
+     */
+    void remove(TaskKey key) {
+        final int id = taskKeys.getId(key);
+        if(id == -1) return;
+        indexDb.delete(txn, buffers.key(id));
+    }
+
+    /**
+     * Removes all indices.
+     */
+    void drop() {
+        indexDb.drop(txn);
+    }
+
+
+    private void collectForward(TaskKey start, int upperBound, TaskKey caller, HashMap<TaskKey, Integer> visited) {
+        final ArrayDeque<TaskKey> stack = new ArrayDeque<>();
+        visited.put(start, getIndex(start));
+        stack.push(start);
+        while(!stack.isEmpty()) {
+            final TaskKey key = stack.pop();
+            for(TaskKey required : graph.getRequiredTasks(key)) {
+                if(required.equals(caller)) {
+                    throw new IllegalArgumentException("Cannot add task require from '" + caller + "' to '" + start + "', it would introduce a cycle");
+                }
+                if(visited.containsKey(required)) continue;
+                final int index = getIndex(required);
+                if(index != -1 && index < upperBound) {
+                    visited.put(required, index);
+                    stack.push(required);
+                }
+            }
+        }
+    }
+
+    private void collectBackward(TaskKey start, int lowerBound, HashMap<TaskKey, Integer> visited) {
+        final ArrayDeque<TaskKey> stack = new ArrayDeque<>();
+        visited.put(start, getIndex(start));
+        stack.push(start);
+        while(!stack.isEmpty()) {
+            final TaskKey key = stack.pop();
+            for(TaskKey callerOfKey : graph.getCallersOf(key)) {
+                if(visited.containsKey(callerOfKey)) continue;
+                final int index = getIndex(callerOfKey);
+                if(index != -1 && index > lowerBound) {
+                    visited.put(callerOfKey, index);
+                    stack.push(callerOfKey);
+                }
+            }
+        }
+    }
+
+    private static ArrayList<Map.Entry<TaskKey, Integer>> sortByIndex(HashMap<TaskKey, Integer> indices) {
+        final ArrayList<Map.Entry<TaskKey, Integer>> sorted = new ArrayList<>(indices.entrySet());
+        sorted.sort(Comparator.comparingInt(Map.Entry::getValue));
+        return sorted;
+    }
+
+
+    private int getIndex(ByteBuffer keyBuf) {
+        final @Nullable ByteBuffer indexBuf = indexDb.get(txn, keyBuf);
+        if(indexBuf == null) return -1;
+        return indexBuf.getInt(0);
+    }
+
+    private int getOrCreateIndex(TaskKey key) {
+        final int id = taskKeys.getOrCreateId(key);
+        final int index = getIndex(buffers.key(id));
+        if(index != -1) return index;
+        // New tasks are placed at the end of the order, as they have no task requires yet.
+        final int assignedIndex = getNextIndex();
+        indexDb.put(txn, nextIndexKey.duplicate(), buffers.value(assignedIndex + 1));
+        indexDb.put(txn, buffers.key(id), buffers.value(assignedIndex));
+        return assignedIndex;
+    }
+
+    private int getNextIndex() {
+        final int nextIndex = getIndex(nextIndexKey.duplicate());
+        return nextIndex == -1 ? 0 : nextIndex;
+    }
+
+    /**
+     * Renumbers all indices to {@code 0} up to the number of tasks with an index, keeping their order.
+     *
+     * @throws IllegalStateException when fewer than two free indices are left after renumbering.
+     */
+    private void renumber() {
+        // Entries with the index in the upper and the task identifier in the lower 32 bits, such that sorting orders
+        // them by index. Indices are never negative, so signed comparison is correct.
+        long[] entries = new long[1024];
+        int count = 0;
+        try(final CursorIterable<ByteBuffer> cursor = indexDb.iterate(txn)) {
+            for(final CursorIterable.KeyVal<ByteBuffer> keyval : cursor) {
+                if(keyval.key().remaining() != Integer.BYTES) continue; // Skip the next free index.
+                if(count == entries.length) entries = Arrays.copyOf(entries, count * 2);
+                entries[count++] = ((long)keyval.val().getInt(0) << 32) | (keyval.key().getInt(0) & 0xFFFFFFFFL);
+            }
+        }
+        if(count > Integer.MAX_VALUE - 2) {
+            throw new IllegalStateException("Cannot assign topological indices, " + count + " tasks already have an index");
+        }
+        Arrays.sort(entries, 0, count);
+        for(int i = 0; i < count; ++i) {
+            indexDb.put(txn, buffers.key((int)entries[i]), buffers.value(i));
+        }
+        indexDb.put(txn, nextIndexKey.duplicate(), buffers.value(count));
+    }
+
+    private void setIndex(TaskKey key, int index) {
+        final int id = taskKeys.getOrCreateId(key);
+        indexDb.put(txn, buffers.key(id), buffers.value(index));
+    }
+}
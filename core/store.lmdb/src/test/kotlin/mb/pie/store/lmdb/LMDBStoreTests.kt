@@ -1,20 +1,41 @@
 package mb.pie.store.lmdb
 
 import com.nhaarman.mockitokotlin2.*
+import mb.log.noop.NoopLoggerFactory
+import mb.pie.api.OutTransient
+import mb.pie.api.OutTransientImpl
 import mb.pie.api.PieBuilder
+import mb.pie.api.ResourceProvideDep
+import mb.pie.api.ResourceRequireDep
+import mb.pie.api.StoreReadTxn
+import mb.pie.api.Task
+import mb.pie.api.TaskKey
+import mb.pie.api.serde.JavaSerde
+import mb.pie.api.stamp.resource.ResourceStampers
+import mb.pie.api.stamp.resource.ValueResourceStamp
 import mb.pie.api.test.anyC
 import mb.pie.api.test.toLowerCase
+import mb.pie.api.test.toLowerCaseDef
 import mb.pie.runtime.exec.NoData
 import mb.pie.runtime.test.DefaultRuntimeTestBuilder
-import org.junit.jupiter.api.Disabled
+import mb.resource.Resource
+import mb.resource.fs.FSPath
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.TestFactory
+import org.lmdbjava.Env
 import java.io.File
+import java.nio.ByteBuffer
 
 class LMDBStoreTests {
   private val builder = LMDBStoreTestBuilder()
 
 
-  @TestFactory @Disabled("LMDB does not work at the moment")
+  @TestFactory
   fun testReuse() = builder.test {
     addTaskDef(toLowerCase)
     val task = toLowerCase.createTask("HELLO WORLD!")
@@ -29,11 +50,155 @@ class LMDBStoreTests {
       verify(session.topDownRunner, never()).exec(eq(key), eq(task), eq(NoData()), any(), any(), anyC())
     }
   }
+
+  @Test
+  fun testTopologicalOrderIndex() {
+    val envDir = File("build/test/lmdbstore-topological-order")
+    envDir.deleteRecursively()
+    val keys = (0 until 8).map { Task(toLowerCaseDef, "task$it").key() }
+    LMDBStore(JavaSerde(), envDir, NoopLoggerFactory.instance).use { store ->
+      // Add task requires in reverse order, such that every task require violates the order of new tasks and causes a
+      // reorder: 0 -> 1, 1 -> 2, ..., 6 -> 7 in the end.
+      store.writeTxn().use { txn ->
+        (keys.size - 1 downTo 1).forEach { txn.addTaskRequire(keys[it - 1], keys[it]) }
+      }
+      store.readTxn().use { txn ->
+        assertOrdered(keys, txn)
+        assertEquals(listOf(keys[1]), txn.getRequiredTasks(keys[0]))
+        assertEquals(setOf(keys[0]), txn.getCallersOf(keys[1]))
+        assertTrue(txn.doesRequireTransitively(keys[0], keys[7]))
+        assertFalse(txn.doesRequireTransitively(keys[7], keys[0]))
+      }
+      // Adding a task require that would introduce a cycle fails.
+      store.writeTxn().use { txn ->
+        assertThrows(IllegalArgumentException::class.java) { txn.addTaskRequire(keys[7], keys[0]) }
+      }
+    }
+
+    // Index survives reopening the store.
+    LMDBStore(JavaSerde(), envDir, NoopLoggerFactory.instance).use { store ->
+      store.readTxn().use { txn ->
+        assertOrdered(keys, txn)
+        assertTrue(txn.hasTopologicalOrder())
+      }
+    }
+  }
+
+  @Test
+  fun testTopologicalOrderIndexRenumbering() {
+    val envDir = File("build/test/lmdbstore-topological-order-renumbering").also { it.deleteRecursively() }
+    val keys = (0 until 8).map { Task(toLowerCaseDef, "task$it").key() }
+    LMDBStore(JavaSerde(), envDir, NoopLoggerFactory.instance).use { store ->
+      store.writeTxn().use { txn ->
+        (1 until 4).forEach { txn.addTaskRequire(keys[it - 1], keys[it]) }
+      }
+    }
+
+    // Move the next free index close to the maximum index, as if many tasks had been added and removed.
+    Env.create().setMaxDbs(16).open(envDir).use { env ->
+      val indexDb = env.openDbi("topologicalIndex")
+      env.txnWrite().use { txn ->
+        val nextIndexKey = ByteBuffer.allocateDirect(1).put(0.toByte()).flip() as ByteBuffer
+        val nextIndex = ByteBuffer.allocateDirect(Integer.BYTES).putInt(Int.MAX_VALUE - 3).flip() as ByteBuffer
+        indexDb.put(txn, nextIndexKey, nextIndex)
+        txn.commit()
+      }
+    }
+
+    // Adding new tasks renumbers indices instead of overflowing, keeping their order.
+    LMDBStore(JavaSerde(), envDir, NoopLoggerFactory.instance).use { store ->
+      store.writeTxn().use { txn ->
+        (4 until keys.size).forEach { txn.addTaskRequire(keys[it - 1], keys[it]) }
+      }
+      store.readTxn().use { txn ->
+        assertOrdered(keys, txn)
+        keys.forEach { assertTrue(txn.getTopologicalIndex(it) in 0 until keys.size) }
+      }
+    }
+  }
+
+  @Test
+  fun testLazyOutputDecoding() {
+    val envDir = File("build/test/lmdbstore-lazy-output").also { it.deleteRecursively() }
+    val task = Task(toLowerCaseDef, "A")
+    val transientTask = Task(toLowerCaseDef, "B")
+    LMDBStore(JavaSerde(), envDir, NoopLoggerFactory.instance).use { store ->
+      store.writeTxn().use { txn ->
+        txn.resetTask(task)
+        txn.setOutput(task.key(), "a")
+        txn.resetTask(transientTask)
+        txn.setOutput(transientTask.key(), OutTransientImpl("b", true))
+      }
+    }
+    LMDBStore(JavaSerde(), envDir, NoopLoggerFactory.instance).use { store ->
+      val data = store.readTxn().use { txn -> txn.getData(task.key())!! }
+      // Output is decoded when requested, after the transaction has ended.
+      assertTrue(data.hasOutput())
+      assertFalse(data.mayHaveTransientOutput())
+      assertEquals("a", data.output)
+      // Transient output is marked without decoding it, and is inconsistent after decoding.
+      val transientData = store.readTxn().use { txn -> txn.getData(transientTask.key())!! }
+      assertTrue(transientData.mayHaveTransientOutput())
+      assertFalse((transientData.output as OutTransient<*>).isConsistent)
+    }
+  }
+
+  @Test
+  fun testKeyDictionary() {
+    val envDir = File("build/test/lmdbstore-key-dictionary").also { it.deleteRecursively() }
+    val caller = Task(toLowerCaseDef, "A")
+    val callee = Task(toLowerCaseDef, "B")
+    val file = FSPath("/a")
+    LMDBStore(JavaSerde(), envDir, NoopLoggerFactory.instance).use { store ->
+      store.writeTxn().use { txn ->
+        txn.resetTask(caller)
+        txn.setOutput(caller.key(), "a")
+        txn.addTaskRequire(caller.key(), callee.key())
+        txn.addResourceRequireDep(caller.key(), ResourceRequireDep(file, ValueResourceStamp<Resource>(true, ResourceStampers.exists())))
+        txn.addResourceProvideDep(callee.key(), ResourceProvideDep(file, ValueResourceStamp<Resource>(true, ResourceStampers.exists())))
+      }
+      // Identifiers created in a transaction are cached when it commits, and resolve to the same keys.
+      store.readTxn().use { txn ->
+        assertEquals(listOf(callee.key()), txn.getRequiredTasks(caller.key()))
+        assertEquals(setOf(caller.key()), txn.getCallersOf(callee.key()))
+      }
+    }
+
+    // Keys are resolved from the persisted dictionary after reopening the store, without a cache.
+    LMDBStore(JavaSerde(), envDir, NoopLoggerFactory.instance).use { store ->
+      store.readTxn().use { txn ->
+        assertEquals("a", txn.getOutput(caller.key())?.output)
+        assertEquals(listOf(callee.key()), txn.getRequiredTasks(caller.key()))
+        assertEquals(setOf(caller.key()), txn.getCallersOf(callee.key()))
+        assertEquals(setOf(caller.key()), txn.getRequirersOf(file))
+        assertEquals(callee.key(), txn.getProviderOf(file))
+        assertEquals(setOf(caller.key()), txn.getTasksWithoutCallers())
+        // Keys that were never stored have no identifier, and therefore no data.
+        assertNull(txn.getData(Task(toLowerCaseDef, "C").key()))
+        assertEquals(setOf<TaskKey>(), txn.getRequirersOf(FSPath("/b")))
+      }
+      store.writeTxn().use { txn ->
+        txn.deleteData(caller.key())
+      }
+      store.readTxn().use { txn ->
+        assertEquals(setOf<TaskKey>(), txn.getCallersOf(callee.key()))
+        assertEquals(setOf<TaskKey>(), txn.getRequirersOf(file))
+      }
+    }
+  }
+
+  private fun assertOrdered(keys: List<TaskKey>, txn: StoreReadTxn) {
+    keys.zipWithNext { caller, callee ->
+      assertTrue(txn.hasDependencyOrderBefore(caller, callee))
+      assertFalse(txn.hasDependencyOrderBefore(callee, caller))
+      assertTrue(txn.getTopologicalIndex(caller) < txn.getTopologicalIndex(callee))
+    }
+  }
 }
 
 class LMDBStoreTestBuilder(shouldSpy: Boolean = true) : DefaultRuntimeTestBuilder(shouldSpy) {
   init {
     storeFactories.clear()
-    storeFactories.add(PieBuilder.StoreFactory { serde, _, loggerFactory -> LMDBStore(serde, File("build/test/lmdbstore"), loggerFactory) })
+    storeFactories.add(PieBuilder.StoreFactory { serde, _, loggerFactory -> LMDBStore(serde, File("build/test/lmdbstore").also { it.deleteRecursively() }, loggerFactory) })
   }
 }
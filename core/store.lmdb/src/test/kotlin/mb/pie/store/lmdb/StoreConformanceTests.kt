@@ -0,0 +1,213 @@
+package mb.pie.store.lmdb
+
+import mb.log.noop.NoopLoggerFactory
+import mb.pie.api.Observability
+import mb.pie.api.Output
+import mb.pie.api.ResourceProvideDep
+import mb.pie.api.ResourceRequireDep
+import mb.pie.api.SerializableConsumer
+import mb.pie.api.Store
+import mb.pie.api.Task
+import mb.pie.api.TaskData
+import mb.pie.api.TaskDeps
+import mb.pie.api.TaskRequireDep
+import mb.pie.api.serde.JavaSerde
+import mb.pie.api.stamp.output.OutputStampers
+import mb.pie.api.stamp.output.ValueOutputStamp
+import mb.pie.api.stamp.resource.ResourceStampers
+import mb.pie.api.stamp.resource.ValueResourceStamp
+import mb.pie.api.test.toLowerCaseDef
+import mb.pie.runtime.store.InMemoryStore
+import mb.resource.Resource
+import mb.resource.fs.FSPath
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.DynamicTest
+import org.junit.jupiter.api.TestFactory
+import java.io.File
+import java.io.Serializable
+import java.util.stream.Stream
+
+/**
+ * Runs the same scenarios against the in-memory store and the LMDB store, and checks that they observe the same
+ * results.
+ */
+class StoreConformanceTests {
+  private var envCounter = 0
+
+  private val storeFactories: List<Pair<String, () -> Store>> = listOf(
+    "InMemoryStore" to { InMemoryStore() },
+    "LMDBStore" to {
+      val envDir = File("build/test/lmdbstore-conformance/${envCounter++}").also { it.deleteRecursively() }
+      LMDBStore(JavaSerde(), envDir, NoopLoggerFactory.instance)
+    }
+  )
+
+  private fun test(testFunc: (Store) -> Unit): Stream<DynamicTest> {
+    return storeFactories.stream().map { (name, factory) ->
+      DynamicTest.dynamicTest(name) { factory().use(testFunc) }
+    }
+  }
+
+
+  private val fileA = FSPath("/a")
+  private val fileB = FSPath("/b")
+  private val taskA = Task(toLowerCaseDef, "A")
+  private val taskB = Task(toLowerCaseDef, "B")
+  private val taskC = Task(toLowerCaseDef, "C")
+  private val keyA = taskA.key()
+  private val keyB = taskB.key()
+  private val keyC = taskC.key()
+
+  private fun taskRequireDep(callee: Task<*>, output: Serializable?) =
+    TaskRequireDep(callee.key(), ValueOutputStamp(output, OutputStampers.equals()))
+
+  private fun resourceRequireDep(file: FSPath) =
+    ResourceRequireDep(file, ValueResourceStamp<Resource>(true, ResourceStampers.exists()))
+
+  private fun resourceProvideDep(file: FSPath) =
+    ResourceProvideDep(file, ValueResourceStamp<Resource>(true, ResourceStampers.exists()))
+
+
+  @TestFactory
+  fun testTaskData() = test { store ->
+    store.writeTxn().use { txn ->
+      txn.resetTask(taskA)
+      txn.setOutput(keyA, "a")
+      txn.setInternalObject(keyA, 1)
+      txn.setTaskObservability(keyA, Observability.ExplicitObserved)
+      txn.addTaskRequireDep(keyA, taskRequireDep(taskB, "b"))
+      txn.addResourceRequireDep(keyA, resourceRequireDep(fileA))
+      txn.addResourceProvideDep(keyA, resourceProvideDep(fileB))
+      txn.resetTask(taskB)
+      txn.setOutput(keyB, "b")
+    }
+    store.readTxn().use { txn ->
+      val data = txn.getData(keyA)!!
+      assertEquals("A", data.input)
+      assertEquals(1, data.internalObject)
+      assertEquals("a", data.output)
+      assertEquals(Observability.ExplicitObserved, data.taskObservability)
+      assertEquals(listOf(taskRequireDep(taskB, "b")), data.deps.taskRequireDeps.toList())
+      assertEquals(listOf(resourceRequireDep(fileA)), data.deps.resourceRequireDeps.toList())
+      assertEquals(listOf(resourceProvideDep(fileB)), data.deps.resourceProvideDeps.toList())
+      assertEquals(listOf(keyB), txn.getRequiredTasks(keyA).toList())
+      assertEquals(setOf(keyA), txn.getCallersOf(keyB))
+      assertEquals(setOf(keyA), txn.getRequirersOf(fileA))
+      assertEquals(keyA, txn.getProviderOf(fileB))
+      assertEquals(Observability.Unobserved, txn.getTaskObservability(keyB))
+    }
+
+    // Resetting a task removes its output and dependencies, but keeps its internal object.
+    store.writeTxn().use { txn ->
+      val previous = txn.resetTask(taskA)!!
+      assertEquals("a", previous.output)
+      assertEquals(listOf(taskRequireDep(taskB, "b")), previous.deps.taskRequireDeps.toList())
+      txn.resetTask(taskB)
+    }
+    store.readTxn().use { txn ->
+      assertNull(txn.getOutput(keyA))
+      assertEquals(1, txn.getInternalObject(keyA))
+      assertEquals(emptyList<TaskRequireDep>(), txn.getTaskRequireDeps(keyA).toList())
+      assertEquals(emptySet<Any>(), txn.getCallersOf(keyB))
+      assertEquals(emptySet<Any>(), txn.getRequirersOf(fileA))
+      assertNull(txn.getProviderOf(fileB))
+    }
+  }
+
+  @TestFactory
+  fun testDeleteAndRestoreData() = test { store ->
+    var data: TaskData? = null
+    store.writeTxn().use { txn ->
+      txn.resetTask(taskA)
+      txn.setOutput(keyA, "a")
+      txn.addTaskRequireDep(keyA, taskRequireDep(taskB, "b"))
+      txn.addResourceRequireDep(keyA, resourceRequireDep(fileA))
+      txn.addResourceProvideDep(keyA, resourceProvideDep(fileB))
+      txn.addDeferredTask(keyA)
+      data = txn.deleteData(keyA)
+    }
+    store.readTxn().use { txn ->
+      assertNull(txn.getData(keyA))
+      assertEquals(emptySet<Any>(), txn.getCallersOf(keyB))
+      assertEquals(emptySet<Any>(), txn.getRequirersOf(fileA))
+      assertNull(txn.getProviderOf(fileB))
+      assertEquals(emptySet<Any>(), txn.deferredTasks)
+    }
+
+    store.writeTxn().use { txn ->
+      txn.restoreData(keyA, data)
+    }
+    store.readTxn().use { txn ->
+      val restored = txn.getData(keyA)!!
+      assertEquals("a", restored.output)
+      assertEquals(listOf(taskRequireDep(taskB, "b")), restored.deps.taskRequireDeps.toList())
+      assertEquals(setOf(keyA), txn.getCallersOf(keyB))
+      assertEquals(setOf(keyA), txn.getRequirersOf(fileA))
+      assertEquals(keyA, txn.getProviderOf(fileB))
+    }
+
+    store.writeTxn().use { txn ->
+      txn.restoreData(keyA, TaskData("A", null, Output("c"), Observability.Unobserved, TaskDeps(listOf(taskRequireDep(taskC, "c")), listOf(), listOf())))
+    }
+    store.readTxn().use { txn ->
+      assertEquals("c", txn.getOutput(keyA)?.output)
+      assertEquals(emptySet<Any>(), txn.getCallersOf(keyB))
+      assertEquals(setOf(keyA), txn.getCallersOf(keyC))
+      assertEquals(emptySet<Any>(), txn.getRequirersOf(fileA))
+      assertNull(txn.getProviderOf(fileB))
+    }
+  }
+
+  @TestFactory
+  fun testTasksWithoutCallers() = test { store ->
+    store.writeTxn().use { txn ->
+      txn.resetTask(taskA)
+      txn.setOutput(keyA, "a")
+      txn.addTaskRequireDep(keyA, taskRequireDep(taskB, "b"))
+      txn.resetTask(taskB)
+      txn.setOutput(keyB, "b")
+      // In-memory stores only know about tasks without callers when their callers have been queried.
+      txn.getCallersOf(keyA)
+    }
+    store.readTxn().use { txn ->
+      assertEquals(setOf(keyA), txn.tasksWithoutCallers)
+    }
+  }
+
+  @TestFactory
+  fun testDeferredTasksAndCallbacks() = test { store ->
+    store.writeTxn().use { txn ->
+      txn.addDeferredTask(keyA)
+      txn.addDeferredTask(keyB)
+      txn.removeDeferredTask(keyB)
+      txn.setCallback(keyA, TestCallback(1))
+      txn.setCallback(keyB, TestCallback(2))
+      txn.removeCallback(keyB)
+    }
+    store.readTxn().use { txn ->
+      assertEquals(setOf(keyA), txn.deferredTasks)
+      assertEquals(TestCallback(1), txn.getCallback(keyA))
+      assertNull(txn.getCallback(keyB))
+    }
+
+    store.writeTxn().use { txn ->
+      txn.dropCallbacks()
+    }
+    store.readTxn().use { txn ->
+      assertNull(txn.getCallback(keyA))
+      assertEquals(setOf(keyA), txn.deferredTasks)
+    }
+
+    store.writeTxn().use { txn ->
+      txn.drop()
+    }
+    store.readTxn().use { txn ->
+      assertEquals(emptySet<Any>(), txn.deferredTasks)
+    }
+  }
+}
+
+data class TestCallback(val id: Int) : SerializableConsumer<Serializable> {
+  override fun accept(t: Serializable) {}
+}